@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.Collection;
+
+/**
+ * Non blocking companion of {@link ServiceCatalog}. Each method returns a
+ * {@link ServiceFuture} instead of blocking the caller for a round trip to the
+ * catalog backend or the service endpoint. Catalogs holding their state in
+ * memory complete lookups immediately on the calling thread, remote backends
+ * complete the futures when their responses arrive. Blocking catalogs can be
+ * adapted using {@link AsyncServiceCatalogAdapter}.
+ *
+ * @author Anatole Tresch
+ */
+public interface AsyncServiceCatalog {
+
+	/**
+	 * Asynchronous variant of {@link ServiceCatalog#getService(Class)}.
+	 *
+	 * @param interfaceType
+	 *            the required type, not {@code null}.
+	 * @return the future service proxy.
+	 */
+	public <T> ServiceFuture<T> getServiceAsync(Class<T> interfaceType);
+
+	/**
+	 * Asynchronous variant of
+	 * {@link ServiceCatalog#resolveService(Service, Class)}. Resolution
+	 * failures complete the future with a {@link ServiceResolutionException}.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @param type
+	 *            the target type, not {@code null}.
+	 * @return the future service proxy.
+	 */
+	public <T> ServiceFuture<T> resolveServiceAsync(Service service,
+			Class<T> type);
+
+	/**
+	 * Asynchronous variant of {@link ServiceCatalog#getServices(Class)}.
+	 *
+	 * @param interfaceType
+	 *            the required type, not {@code null}.
+	 * @return the future services found.
+	 */
+	public ServiceFuture<Collection<Service>> getServicesAsync(
+			Class interfaceType);
+
+	/**
+	 * Asynchronous variant of
+	 * {@link ServiceCatalog#findServices(ServiceQuery)}.
+	 *
+	 * @param query
+	 *            the query, not {@code null}.
+	 * @return the future services found.
+	 */
+	public ServiceFuture<Collection<Service>> findServicesAsync(
+			ServiceQuery query);
+
+	/**
+	 * Asynchronous variant of
+	 * {@link ServiceCatalog#registerServices(Collection)}.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 * @return the future completed, once the services are registered.
+	 */
+	public ServiceFuture<Void> registerServicesAsync(
+			Collection<Service> services);
+
+	/**
+	 * Asynchronous variant of
+	 * {@link ServiceCatalog#unregisterServices(Collection)}.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 * @return the future completed, once the services are unregistered.
+	 */
+	public ServiceFuture<Void> unregisterServicesAsync(
+			Collection<Service> services);
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link AsyncServiceCatalog} for blocking {@link ServiceCatalog}
+ * implementations, running each call on the given {@link Executor}. If the
+ * catalog implements {@link AsyncServiceCatalog} itself, use it directly
+ * instead, see {@link #of(ServiceCatalog, Executor)}.
+ *
+ * @author Anatole Tresch
+ */
+public final class AsyncServiceCatalogAdapter implements AsyncServiceCatalog {
+
+	private final ServiceCatalog catalog;
+	private final Executor executor;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param catalog
+	 *            the blocking catalog, not {@code null}.
+	 * @param executor
+	 *            the executor running the blocking calls, not {@code null}.
+	 */
+	public AsyncServiceCatalogAdapter(ServiceCatalog catalog, Executor executor) {
+		this.catalog = Objects.requireNonNull(catalog);
+		this.executor = Objects.requireNonNull(executor);
+	}
+
+	/**
+	 * Access the asynchronous view of a catalog, which is the catalog itself,
+	 * if it implements {@link AsyncServiceCatalog}, or an adapter otherwise.
+	 *
+	 * @param catalog
+	 *            the catalog, not {@code null}.
+	 * @param executor
+	 *            the executor used by an adapter, not {@code null}.
+	 * @return the asynchronous catalog.
+	 */
+	public static AsyncServiceCatalog of(ServiceCatalog catalog,
+			Executor executor) {
+		if (catalog instanceof AsyncServiceCatalog) {
+			return (AsyncServiceCatalog) catalog;
+		}
+		return new AsyncServiceCatalogAdapter(catalog, executor);
+	}
+
+	@Override
+	public <T> ServiceFuture<T> getServiceAsync(final Class<T> interfaceType) {
+		return submit(new Call<T>() {
+			@Override
+			public T call() {
+				return catalog.getService(interfaceType);
+			}
+		});
+	}
+
+	@Override
+	public <T> ServiceFuture<T> resolveServiceAsync(final Service service,
+			final Class<T> type) {
+		return submit(new Call<T>() {
+			@Override
+			public T call() {
+				return catalog.resolveService(service, type);
+			}
+		});
+	}
+
+	@Override
+	public ServiceFuture<Collection<Service>> getServicesAsync(
+			final Class interfaceType) {
+		return submit(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call() {
+				return catalog.getServices(interfaceType);
+			}
+		});
+	}
+
+	@Override
+	public ServiceFuture<Collection<Service>> findServicesAsync(
+			final ServiceQuery query) {
+		return submit(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call() {
+				return catalog.findServices(query);
+			}
+		});
+	}
+
+	@Override
+	public ServiceFuture<Void> registerServicesAsync(
+			final Collection<Service> services) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() {
+				catalog.registerServices(services);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public ServiceFuture<Void> unregisterServicesAsync(
+			final Collection<Service> services) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() {
+				catalog.unregisterServices(services);
+				return null;
+			}
+		});
+	}
+
+	private <T> ServiceFuture<T> submit(final Call<T> call) {
+		final ServiceFuture<T> future = new ServiceFuture<>();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.complete(call.call());
+					} catch (RuntimeException e) {
+						future.fail(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.fail(e);
+		}
+		return future;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "AsyncServiceCatalogAdapter [catalog=" + catalog + "]";
+	}
+
+	/**
+	 * A blocking catalog call.
+	 */
+	private static interface Call<T> {
+		T call();
+	}
+
+}
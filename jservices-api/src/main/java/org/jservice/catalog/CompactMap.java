@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map of strings, backed by a single array of alternating keys and
+ * values, sorted by key. Used by {@link Service} instead of a
+ * {@link java.util.HashMap}, since the contexts held are small, and equal
+ * contexts are shared between services.
+ *
+ * @author Anatole Tresch
+ */
+final class CompactMap extends AbstractMap<String, String> implements
+		Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Interner<CompactMap> POOL = new Interner<>();
+
+	static final CompactMap EMPTY = new CompactMap(new String[0]);
+
+	/** Orders the keys, {@code null} first. */
+	private static final Comparator<Map.Entry<String, String>> KEY_ORDER = new Comparator<Map.Entry<String, String>>() {
+		@Override
+		public int compare(Map.Entry<String, String> e1,
+				Map.Entry<String, String> e2) {
+			return compareKeys(e1.getKey(), e2.getKey());
+		}
+	};
+
+	/** The keys and values, alternating, sorted by key. */
+	private final String[] entries;
+	/** The precomputed hash code. */
+	private final int hash;
+
+	private CompactMap(String[] entries) {
+		this.entries = entries;
+		int h = 0;
+		for (int i = 0; i < entries.length; i += 2) {
+			h += hash(entries[i]) ^ hash(entries[i + 1]);
+		}
+		this.hash = h;
+	}
+
+	private static int hash(String s) {
+		return s == null ? 0 : s.hashCode();
+	}
+
+	private static int compareKeys(String k1, String k2) {
+		if (k1 == null) {
+			return k2 == null ? 0 : -1;
+		}
+		return k2 == null ? 1 : k1.compareTo(k2);
+	}
+
+	/**
+	 * Creates the canonical map containing the given entries.
+	 *
+	 * @param map
+	 *            the entries, not {@code null}.
+	 * @param strings
+	 *            the pool for canonicalizing the keys.
+	 * @return the shared instance.
+	 */
+	@SuppressWarnings("unchecked")
+	static CompactMap of(Map<String, String> map, Interner<String> strings) {
+		if (map.isEmpty()) {
+			return EMPTY;
+		}
+		Map.Entry<String, String>[] sorted = map.entrySet().toArray(
+				new Map.Entry[map.size()]);
+		Arrays.sort(sorted, KEY_ORDER);
+		String[] entries = new String[sorted.length * 2];
+		for (int i = 0; i < sorted.length; i++) {
+			entries[2 * i] = strings.intern(sorted[i].getKey());
+			entries[2 * i + 1] = sorted[i].getValue();
+		}
+		return POOL.intern(new CompactMap(entries));
+	}
+
+	private int indexOf(Object key) {
+		if (key != null && !(key instanceof String)) {
+			return -1;
+		}
+		int low = 0;
+		int high = entries.length / 2 - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareKeys(entries[2 * mid], (String) key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return 2 * mid;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public String get(Object key) {
+		int index = indexOf(key);
+		return index < 0 ? null : entries[index + 1];
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return entries.length / 2;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public int size() {
+				return entries.length / 2;
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new Iterator<Map.Entry<String, String>>() {
+					private int index;
+
+					@Override
+					public boolean hasNext() {
+						return index < entries.length;
+					}
+
+					@Override
+					public Map.Entry<String, String> next() {
+						if (index >= entries.length) {
+							throw new NoSuchElementException();
+						}
+						Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<>(
+								entries[index], entries[index + 1]);
+						index += 2;
+						return entry;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (o instanceof CompactMap) {
+			CompactMap other = (CompactMap) o;
+			return hash == other.hash
+					&& Arrays.equals(entries, other.entries);
+		}
+		return o instanceof Map && super.equals(o);
+	}
+
+	private Object readResolve() {
+		return POOL.intern(this);
+	}
+
+}
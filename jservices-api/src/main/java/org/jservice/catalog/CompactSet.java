@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable set of strings, backed by a sorted array. Used by {@link Service}
+ * instead of a {@link java.util.HashSet}, since the sets held are small, and
+ * equal sets are shared between services.
+ *
+ * @author Anatole Tresch
+ */
+final class CompactSet extends AbstractSet<String> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Interner<CompactSet> POOL = new Interner<>();
+
+	static final CompactSet EMPTY = new CompactSet(new String[0]);
+
+	/** The elements, sorted. */
+	private final String[] elements;
+	/** The precomputed hash code. */
+	private final int hash;
+
+	private CompactSet(String[] elements) {
+		this.elements = elements;
+		int h = 0;
+		for (String s : elements) {
+			h += s.hashCode();
+		}
+		this.hash = h;
+	}
+
+	/**
+	 * Creates the canonical set containing the given strings.
+	 *
+	 * @param values
+	 *            the strings, not {@code null}, containing no {@code null}
+	 *            values.
+	 * @param strings
+	 *            the pool for canonicalizing the strings.
+	 * @return the shared instance.
+	 */
+	static CompactSet of(Collection<String> values, Interner<String> strings) {
+		if (values.isEmpty()) {
+			return EMPTY;
+		}
+		String[] elements = new String[values.size()];
+		int size = 0;
+		for (String value : values) {
+			elements[size++] = strings.intern(Objects.requireNonNull(value));
+		}
+		Arrays.sort(elements);
+		int distinct = 0;
+		for (int i = 0; i < size; i++) {
+			if (distinct == 0 || !elements[i].equals(elements[distinct - 1])) {
+				elements[distinct++] = elements[i];
+			}
+		}
+		if (distinct < size) {
+			elements = Arrays.copyOf(elements, distinct);
+		}
+		return POOL.intern(new CompactSet(elements));
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof String
+				&& Arrays.binarySearch(elements, o) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < elements.length;
+			}
+
+			@Override
+			public String next() {
+				if (index >= elements.length) {
+					throw new NoSuchElementException();
+				}
+				return elements[index++];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (o instanceof CompactSet) {
+			CompactSet other = (CompactSet) o;
+			return hash == other.hash
+					&& Arrays.equals(elements, other.elements);
+		}
+		return o instanceof Set && super.equals(o);
+	}
+
+	private Object readResolve() {
+		return POOL.intern(this);
+	}
+
+}
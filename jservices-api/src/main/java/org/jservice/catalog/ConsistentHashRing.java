@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Immutable consistent-hash ring, mapping keys to nodes. Each node is placed
+ * on the ring at a number of pseudo-random positions, its virtual nodes, and
+ * owns the keys hashing to the positions up to each of them. Adding or
+ * removing a node therefore only moves the keys of the ring segments it
+ * gains or loses, about {@code 1/n} of all keys, and the virtual nodes spread
+ * these segments evenly over the other nodes.
+ * <p>
+ * The ring is stored as two sorted arrays, so it takes
+ * {@code nodes * virtualNodes} entries and a lookup is a binary search.
+ *
+ * @author Anatole Tresch
+ */
+public final class ConsistentHashRing {
+
+	/** The default number of virtual nodes per node. */
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	/** The ring without any nodes. */
+	public static final ConsistentHashRing EMPTY = new ConsistentHashRing(
+			Collections.<String> emptySet(), DEFAULT_VIRTUAL_NODES);
+
+	private final Set<String> nodes;
+	private final int virtualNodes;
+	/** The positions of the virtual nodes, sorted. */
+	private final long[] positions;
+	/** The node of each position. */
+	private final String[] owners;
+
+	/**
+	 * Creates a ring.
+	 *
+	 * @param nodes
+	 *            the node ids, not {@code null}.
+	 * @param virtualNodes
+	 *            the number of virtual nodes per node, at least {@code 1}.
+	 */
+	public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+		if (virtualNodes < 1) {
+			throw new IllegalArgumentException(
+					"virtualNodes must be positive: " + virtualNodes);
+		}
+		this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+		this.virtualNodes = virtualNodes;
+		int size = this.nodes.size() * virtualNodes;
+		long[] hashes = new long[size];
+		String[] hashOwners = new String[size];
+		int i = 0;
+		for (String node : this.nodes) {
+			for (int v = 0; v < virtualNodes; v++) {
+				hashes[i] = hash(node + '#' + v);
+				hashOwners[i] = node;
+				i++;
+			}
+		}
+		// sort positions and owners together, ties broken by node id
+		Integer[] order = new Integer[size];
+		for (int j = 0; j < size; j++) {
+			order[j] = j;
+		}
+		final long[] h = hashes;
+		final String[] o = hashOwners;
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int c = Long.compare(h[a], h[b]);
+				return c != 0 ? c : o[a].compareTo(o[b]);
+			}
+		});
+		this.positions = new long[size];
+		this.owners = new String[size];
+		for (int j = 0; j < size; j++) {
+			positions[j] = hashes[order[j]];
+			owners[j] = hashOwners[order[j]];
+		}
+	}
+
+	/**
+	 * Access the node owning the given key.
+	 *
+	 * @param key
+	 *            the key, not {@code null}.
+	 * @return the node id, or {@code null}, if the ring is empty.
+	 */
+	public String getNode(String key) {
+		if (positions.length == 0) {
+			return null;
+		}
+		int index = Arrays.binarySearch(positions, hash(key));
+		if (index < 0) {
+			index = -index - 1;
+			if (index == positions.length) {
+				index = 0;
+			}
+		}
+		return owners[index];
+	}
+
+	/**
+	 * Creates a new ring with the given node added.
+	 *
+	 * @param node
+	 *            the node id, not {@code null}.
+	 * @return the new ring, or this instance, if the node is contained.
+	 */
+	public ConsistentHashRing withNode(String node) {
+		if (nodes.contains(Objects.requireNonNull(node))) {
+			return this;
+		}
+		Set<String> newNodes = new TreeSet<>(nodes);
+		newNodes.add(node);
+		return new ConsistentHashRing(newNodes, virtualNodes);
+	}
+
+	/**
+	 * Creates a new ring with the given node removed.
+	 *
+	 * @param node
+	 *            the node id, not {@code null}.
+	 * @return the new ring, or this instance, if the node is not contained.
+	 */
+	public ConsistentHashRing withoutNode(String node) {
+		if (!nodes.contains(Objects.requireNonNull(node))) {
+			return this;
+		}
+		Set<String> newNodes = new TreeSet<>(nodes);
+		newNodes.remove(node);
+		return new ConsistentHashRing(newNodes, virtualNodes);
+	}
+
+	/**
+	 * Access the nodes of the ring.
+	 *
+	 * @return the node ids, sorted.
+	 */
+	public Set<String> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Access the number of virtual nodes per node.
+	 *
+	 * @return the number of virtual nodes.
+	 */
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	/**
+	 * Access the number of positions on the ring, i.e. the size of the
+	 * routing table.
+	 *
+	 * @return the number of positions.
+	 */
+	public int size() {
+		return positions.length;
+	}
+
+	/**
+	 * Computes the 64 bit position of a key: FNV-1a over its characters,
+	 * followed by the MurmurHash3 finalizer, so similar keys, e.g. virtual
+	 * node ids, are spread over the whole ring.
+	 */
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return nodes.hashCode() * 31 + virtualNodes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ConsistentHashRing)) {
+			return false;
+		}
+		ConsistentHashRing other = (ConsistentHashRing) obj;
+		return virtualNodes == other.virtualNodes && nodes.equals(other.nodes);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ConsistentHashRing [nodes=" + nodes + ", virtualNodes="
+				+ virtualNodes + "]";
+	}
+
+}
@@ -0,0 +1,908 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.ObjectName;
+
+import org.jservice.metrics.DefaultCatalogMetrics;
+import org.jservice.metrics.JmxMetricsExporter;
+import org.jservice.spi.CatalogMetricsSpi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Catalog combining several catalog providers, e.g. all catalogs registered
+ * in {@code META-INF/services/org.jservice.catalog.ServiceCatalog}, see
+ * {@link #load()}.
+ * <p>
+ * Each call is sent to all providers in parallel, each with its own deadline,
+ * measured from the start of the call. Providers not answering within their
+ * deadline, failing, or not being {@link ServiceCatalog#isAvailable()
+ * available} are skipped, so a single slow or unreachable provider never
+ * delays a call longer than its deadline:
+ * <ul>
+ * <li>lookups return the union of all answers, deduplicated by
+ * {@link Service#equals(Object)},</li>
+ * <li>{@link #getService(Class)} and {@link #resolveService(Service, Class)}
+ * return the first result of any provider, cancelling the other calls,</li>
+ * <li>registrations and removals are applied to all providers available
+ * within their deadlines, waiting for the writes to complete, and fail if none
+ * of them succeeded.</li>
+ * </ul>
+ * Listeners registered by {@link #watch(Class, Map, ServiceListener)} are
+ * registered with each provider, so they may be notified about the same
+ * service by several providers. Providers registering them after their
+ * deadline are added to the watch later.
+ * <p>
+ * The latency of lookups and resolutions across all providers is recorded
+ * into the catalog's metrics, see {@link #getMetrics()}.
+ *
+ * @author Anatole Tresch
+ */
+public class FederatedServiceCatalog implements ServiceCatalog, AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(FederatedServiceCatalog.class);
+
+	/** The default catalog id. */
+	public static final String DEFAULT_CATALOG_ID = "federated";
+	/** The default deadline of a provider, in ms. */
+	public static final long DEFAULT_DEADLINE_MILLIS = 1000L;
+
+	private final String catalogId;
+	private final List<Provider> providers;
+	private volatile CatalogMetricsSpi metrics;
+	/** The name the default metrics are published as, or {@code null}. */
+	private final ObjectName metricsName;
+	private final ExecutorService executor = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "FederatedServiceCatalog-worker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private FederatedServiceCatalog(Builder builder) {
+		this.catalogId = builder.catalogId;
+		this.providers = Collections.unmodifiableList(new ArrayList<>(
+				builder.providers));
+		DefaultCatalogMetrics defaultMetrics = new DefaultCatalogMetrics();
+		this.metricsName = JmxMetricsExporter.export(catalogId, defaultMetrics);
+		this.metrics = defaultMetrics;
+	}
+
+	/**
+	 * Creates a catalog federating all catalogs registered with the
+	 * {@link ServiceLoader}, using {@link #DEFAULT_DEADLINE_MILLIS}. Providers
+	 * failing to load are skipped.
+	 *
+	 * @return the catalog, never {@code null}.
+	 */
+	public static FederatedServiceCatalog load() {
+		Builder builder = new Builder();
+		Iterator<ServiceCatalog> it = ServiceLoader.load(ServiceCatalog.class)
+				.iterator();
+		while (true) {
+			try {
+				if (!it.hasNext()) {
+					break;
+				}
+			} catch (ServiceConfigurationError e) {
+				LOG.error("Failed to list service catalogs.", e);
+				break;
+			}
+			try {
+				builder.addProvider(it.next());
+			} catch (ServiceConfigurationError e) {
+				LOG.error("Failed to load service catalog, ignored.", e);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * A call sent to a provider.
+	 */
+	private static interface Call<R> {
+		R call(ServiceCatalog catalog);
+	}
+
+	/**
+	 * Sends the given call to all available providers in parallel and
+	 * collects the results answered within the providers' deadlines.
+	 */
+	private <R> List<R> callAll(final Call<R> call) {
+		long start = System.nanoTime();
+		List<Future<R>> futures = new ArrayList<>(providers.size());
+		for (final Provider provider : providers) {
+			futures.add(executor.submit(new Callable<R>() {
+				@Override
+				public R call() {
+					if (!provider.catalog.isAvailable()) {
+						return null;
+					}
+					return call.call(provider.catalog);
+				}
+			}));
+		}
+		List<R> results = new ArrayList<>(providers.size());
+		for (int i = 0; i < futures.size(); i++) {
+			Provider provider = providers.get(i);
+			Future<R> future = futures.get(i);
+			try {
+				R result = future.get(Math.max(0L, provider.deadlineNanos
+						- (System.nanoTime() - start)), TimeUnit.NANOSECONDS);
+				if (result != null) {
+					results.add(result);
+				}
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				LOG.debug("Skipping " + provider + ", deadline exceeded.");
+			} catch (ExecutionException e) {
+				LOG.debug("Skipping " + provider + ", call failed.",
+						e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Future<R> pending : futures) {
+					pending.cancel(true);
+				}
+				break;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Sends the given call to all available providers in parallel and returns
+	 * the first non-null result answered within the providers' deadlines,
+	 * cancelling the other calls.
+	 *
+	 * @throws RuntimeException
+	 *             the first failure, if no provider answered a result.
+	 */
+	private <R> R callFirst(final Call<R> call) {
+		long start = System.nanoTime();
+		ExecutorCompletionService<R> completion = new ExecutorCompletionService<>(
+				executor);
+		Map<Future<R>, Provider> pending = new IdentityHashMap<>();
+		for (final Provider provider : providers) {
+			pending.put(completion.submit(new Callable<R>() {
+				@Override
+				public R call() {
+					if (!provider.catalog.isAvailable()) {
+						return null;
+					}
+					return call.call(provider.catalog);
+				}
+			}), provider);
+		}
+		RuntimeException failure = null;
+		try {
+			while (!pending.isEmpty()) {
+				long elapsed = System.nanoTime() - start;
+				long wait = -1L;
+				for (Provider provider : pending.values()) {
+					wait = Math.max(wait, provider.deadlineNanos - elapsed);
+				}
+				Future<R> future = wait < 0L ? null : completion.poll(wait,
+						TimeUnit.NANOSECONDS);
+				if (future == null) {
+					break;
+				}
+				Provider provider = pending.remove(future);
+				if (System.nanoTime() - start > provider.deadlineNanos) {
+					LOG.debug("Ignoring " + provider + ", deadline exceeded.");
+					continue;
+				}
+				try {
+					R result = future.get();
+					if (result != null) {
+						return result;
+					}
+				} catch (ExecutionException e) {
+					LOG.debug("Skipping " + provider + ", call failed.",
+							e.getCause());
+					if (failure == null
+							&& e.getCause() instanceof RuntimeException) {
+						failure = (RuntimeException) e.getCause();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Future<R> future : pending.keySet()) {
+				future.cancel(true);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return null;
+	}
+
+	/**
+	 * Applies the given write to all providers available within their
+	 * deadlines. Unlike {@link #callAll(Call)}, the writes are not cancelled at
+	 * the deadlines but waited for, so a write is never applied partially.
+	 *
+	 * @throws RuntimeException
+	 *             the first failure, or an {@link IllegalStateException}, if no
+	 *             provider applied the write.
+	 */
+	private void applyAll(final Call<Void> call) {
+		long start = System.nanoTime();
+		List<Future<Boolean>> checks = new ArrayList<>(providers.size());
+		for (final Provider provider : providers) {
+			checks.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return provider.catalog.isAvailable();
+				}
+			}));
+		}
+		Map<Future<Void>, Provider> writes = new IdentityHashMap<>();
+		for (int i = 0; i < checks.size(); i++) {
+			final Provider provider = providers.get(i);
+			Future<Boolean> check = checks.get(i);
+			try {
+				if (!check.get(Math.max(0L, provider.deadlineNanos
+						- (System.nanoTime() - start)), TimeUnit.NANOSECONDS)) {
+					continue;
+				}
+				writes.put(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						return call.call(provider.catalog);
+					}
+				}), provider);
+			} catch (TimeoutException e) {
+				check.cancel(true);
+				LOG.debug("Skipping " + provider + ", deadline exceeded.");
+			} catch (ExecutionException e) {
+				LOG.debug("Skipping " + provider
+						+ ", availability check failed.", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Future<Boolean> pending : checks) {
+					pending.cancel(true);
+				}
+				break;
+			}
+		}
+		int applied = 0;
+		RuntimeException failure = null;
+		boolean interrupted = false;
+		for (Map.Entry<Future<Void>, Provider> write : writes.entrySet()) {
+			while (true) {
+				try {
+					write.getKey().get();
+					applied++;
+				} catch (ExecutionException e) {
+					LOG.warn("Failed to write to " + write.getValue() + '.',
+							e.getCause());
+					if (failure == null) {
+						failure = e.getCause() instanceof RuntimeException
+								? (RuntimeException) e.getCause()
+								: new IllegalStateException(e.getCause());
+					}
+				} catch (InterruptedException e) {
+					// the write is applied anyway, so wait for its outcome
+					interrupted = true;
+					continue;
+				}
+				break;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (applied > 0) {
+			return;
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		throw new IllegalStateException("No catalog available: " + providers);
+	}
+
+	/**
+	 * Calls all providers and merges the services answered.
+	 */
+	private Collection<Service> merge(Call<Collection<Service>> call) {
+		long start = System.nanoTime();
+		Set<Service> services = new LinkedHashSet<>();
+		for (Collection<Service> result : callAll(call)) {
+			services.addAll(result);
+		}
+		metrics.recordLookup(System.nanoTime() - start);
+		return services;
+	}
+
+	/**
+	 * Calls all providers and merges the protocols answered.
+	 */
+	private Set<String> mergeProtocols(Call<Set<String>> call) {
+		long start = System.nanoTime();
+		Set<String> protocols = new LinkedHashSet<>();
+		for (Set<String> result : callAll(call)) {
+			protocols.addAll(result);
+		}
+		metrics.recordLookup(System.nanoTime() - start);
+		return protocols;
+	}
+
+	@Override
+	public String getCatalogId() {
+		return catalogId;
+	}
+
+	/**
+	 * Evaluates if any provider is available within its deadline.
+	 */
+	@Override
+	public boolean isAvailable() {
+		return callFirst(new Call<Boolean>() {
+			@Override
+			public Boolean call(ServiceCatalog catalog) {
+				return Boolean.TRUE;
+			}
+		}) != null;
+	}
+
+	@Override
+	public Collection<Service> getServices() {
+		return merge(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call(ServiceCatalog catalog) {
+				return catalog.getServices();
+			}
+		});
+	}
+
+	@Override
+	public Collection<Service> getServices(final Class interfaceType) {
+		return merge(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call(ServiceCatalog catalog) {
+				return catalog.getServices(interfaceType);
+			}
+		});
+	}
+
+	@Override
+	public Collection<Service> getServices(final Class interfaceType,
+			final String... protocols) {
+		return merge(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call(ServiceCatalog catalog) {
+				return catalog.getServices(interfaceType, protocols);
+			}
+		});
+	}
+
+	@Override
+	public Collection<Service> getServices(final Class interfaceType,
+			final String pathExpression, final String... protocols) {
+		return merge(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call(ServiceCatalog catalog) {
+				return catalog.getServices(interfaceType, pathExpression,
+						protocols);
+			}
+		});
+	}
+
+	@Override
+	public Collection<Service> getServices(final Map<String, String> context) {
+		return merge(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call(ServiceCatalog catalog) {
+				return catalog.getServices(context);
+			}
+		});
+	}
+
+	@Override
+	public Collection<Service> findServices(final String nameExpression) {
+		return merge(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call(ServiceCatalog catalog) {
+				return catalog.findServices(nameExpression);
+			}
+		});
+	}
+
+	@Override
+	public Collection<Service> findServices(final Map<String, String> context) {
+		return merge(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call(ServiceCatalog catalog) {
+				return catalog.findServices(context);
+			}
+		});
+	}
+
+	@Override
+	public Collection<Service> findServices(final String type,
+			final Map<String, String> context) {
+		return merge(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call(ServiceCatalog catalog) {
+				return catalog.findServices(type, context);
+			}
+		});
+	}
+
+	@Override
+	public Collection<Service> findServices(final ServiceQuery query) {
+		return merge(new Call<Collection<Service>>() {
+			@Override
+			public Collection<Service> call(ServiceCatalog catalog) {
+				return catalog.findServices(query);
+			}
+		});
+	}
+
+	@Override
+	public Set<String> getProtocols(final String type) {
+		return mergeProtocols(new Call<Set<String>>() {
+			@Override
+			public Set<String> call(ServiceCatalog catalog) {
+				return catalog.getProtocols(type);
+			}
+		});
+	}
+
+	@Override
+	public Set<String> getProtocols(final String type, final String name) {
+		return mergeProtocols(new Call<Set<String>>() {
+			@Override
+			public Set<String> call(ServiceCatalog catalog) {
+				return catalog.getProtocols(type, name);
+			}
+		});
+	}
+
+	/**
+	 * Resolves the given interface by the first provider answering.
+	 *
+	 * @return the proxy, or {@code null}, if no provider answered in time.
+	 * @throws RuntimeException
+	 *             the failure of a provider, if none answered a result.
+	 */
+	@Override
+	public <T> T getService(final Class<T> interfaceType) {
+		long start = System.nanoTime();
+		try {
+			return callFirst(new Call<T>() {
+				@Override
+				public T call(ServiceCatalog catalog) {
+					return catalog.getService(interfaceType);
+				}
+			});
+		} finally {
+			metrics.recordLookup(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public <T> T resolveService(final Service service, final Class<T> type)
+			throws ServiceResolutionException {
+		long start = System.nanoTime();
+		T proxy;
+		try {
+			proxy = callFirst(new Call<T>() {
+				@Override
+				public T call(ServiceCatalog catalog) {
+					return catalog.resolveService(service, type);
+				}
+			});
+		} finally {
+			metrics.recordResolution(System.nanoTime() - start, false);
+		}
+		if (proxy == null) {
+			throw new ServiceResolutionException(service);
+		}
+		return proxy;
+	}
+
+	@Override
+	public void registerService(final Service service) {
+		applyAll(new Call<Void>() {
+			@Override
+			public Void call(ServiceCatalog catalog) {
+				catalog.registerService(service);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void registerService(final Service service,
+			final Object implementation) {
+		applyAll(new Call<Void>() {
+			@Override
+			public Void call(ServiceCatalog catalog) {
+				catalog.registerService(service, implementation);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void registerServices(final Collection<Service> services) {
+		applyAll(new Call<Void>() {
+			@Override
+			public Void call(ServiceCatalog catalog) {
+				catalog.registerServices(services);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void unregisterService(final Service service) {
+		applyAll(new Call<Void>() {
+			@Override
+			public Void call(ServiceCatalog catalog) {
+				catalog.unregisterService(service);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void unregisterServices(final Collection<Service> services) {
+		applyAll(new Call<Void>() {
+			@Override
+			public Void call(ServiceCatalog catalog) {
+				catalog.unregisterServices(services);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void unregisterServices(final Map<String, String> context) {
+		applyAll(new Call<Void>() {
+			@Override
+			public Void call(ServiceCatalog catalog) {
+				catalog.unregisterServices(context);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void unregisterServices(final Class type) {
+		applyAll(new Call<Void>() {
+			@Override
+			public Void call(ServiceCatalog catalog) {
+				catalog.unregisterServices(type);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void renewServices(final Collection<Service> services) {
+		applyAll(new Call<Void>() {
+			@Override
+			public Void call(ServiceCatalog catalog) {
+				catalog.renewServices(services);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void removeLocally(final Service service) {
+		applyAll(new Call<Void>() {
+			@Override
+			public Void call(ServiceCatalog catalog) {
+				catalog.removeLocally(service);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Registers the given listener with all available providers. Waits for
+	 * the registrations up to the providers' deadlines, the registrations
+	 * completing later are added to the watch returned, or closed, if it is
+	 * closed already.
+	 */
+	@Override
+	public ServiceWatch watch(final Class interfaceType,
+			final Map<String, String> context, final ServiceListener listener) {
+		Objects.requireNonNull(listener);
+		ServiceQuery.Builder builder = new ServiceQuery.Builder();
+		if (interfaceType != null) {
+			builder.setInterface(interfaceType.getName());
+		}
+		if (context != null) {
+			builder.setContext(context);
+		}
+		final FederatedWatch watch = new FederatedWatch(builder.build());
+		long start = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<>(providers.size());
+		for (final Provider provider : providers) {
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					if (provider.catalog.isAvailable()) {
+						watch.add(provider.catalog.watch(interfaceType,
+								context, listener));
+					}
+				}
+			}));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			Provider provider = providers.get(i);
+			try {
+				futures.get(i).get(Math.max(0L, provider.deadlineNanos
+						- (System.nanoTime() - start)), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				LOG.debug("Deadline of " + provider
+						+ " exceeded, watch added when registered.");
+			} catch (ExecutionException e) {
+				LOG.debug("Skipping " + provider + ", call failed.",
+						e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return watch;
+	}
+
+	/**
+	 * Access the providers federated, in the order added.
+	 *
+	 * @return the providers, never {@code null}.
+	 */
+	public List<ServiceCatalog> getProviders() {
+		List<ServiceCatalog> catalogs = new ArrayList<>(providers.size());
+		for (Provider provider : providers) {
+			catalogs.add(provider.catalog);
+		}
+		return catalogs;
+	}
+
+	/**
+	 * Access the metrics this catalog records into. By default these are
+	 * published via JMX, see {@link JmxMetricsExporter}.
+	 *
+	 * @return the metrics, never {@code null}.
+	 */
+	public CatalogMetricsSpi getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics this catalog records into, replacing the default
+	 * metrics.
+	 *
+	 * @param metrics
+	 *            the metrics, not {@code null}.
+	 */
+	public void setMetrics(CatalogMetricsSpi metrics) {
+		this.metrics = Objects.requireNonNull(metrics);
+	}
+
+	/**
+	 * Stops the threads calling the providers and removes the metrics from
+	 * JMX. The providers themselves are not closed.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		JmxMetricsExporter.unexport(metricsName);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "FederatedServiceCatalog [catalogId=" + catalogId
+				+ ", providers=" + providers + "]";
+	}
+
+	/**
+	 * The watches registered with the providers, closing the watches added
+	 * after it was closed.
+	 */
+	private static final class FederatedWatch implements ServiceWatch {
+		private final ServiceQuery query;
+		private final List<ServiceWatch> watches = new ArrayList<>();
+		private boolean closed;
+
+		FederatedWatch(ServiceQuery query) {
+			this.query = query;
+		}
+
+		void add(ServiceWatch watch) {
+			synchronized (this) {
+				if (!closed) {
+					watches.add(watch);
+					return;
+				}
+			}
+			watch.close();
+		}
+
+		@Override
+		public ServiceQuery getQuery() {
+			return query;
+		}
+
+		@Override
+		public void close() {
+			List<ServiceWatch> closing;
+			synchronized (this) {
+				closed = true;
+				closing = new ArrayList<>(watches);
+				watches.clear();
+			}
+			for (ServiceWatch watch : closing) {
+				watch.close();
+			}
+		}
+	}
+
+	/**
+	 * A provider and its deadline.
+	 */
+	private static final class Provider {
+		final ServiceCatalog catalog;
+		final long deadlineNanos;
+
+		Provider(ServiceCatalog catalog, long deadlineNanos) {
+			this.catalog = catalog;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		@Override
+		public String toString() {
+			return catalog.getCatalogId() + '('
+					+ TimeUnit.NANOSECONDS.toMillis(deadlineNanos) + "ms)";
+		}
+	}
+
+	/**
+	 * Builder to create new instances of {@link FederatedServiceCatalog}.
+	 *
+	 * @author Anatole Tresch
+	 */
+	public static final class Builder {
+		private String catalogId = DEFAULT_CATALOG_ID;
+		private long deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+		private final List<Provider> providers = new ArrayList<>();
+
+		/**
+		 * Sets the catalog id, by default {@link #DEFAULT_CATALOG_ID}.
+		 *
+		 * @param catalogId
+		 *            the catalog id, not {@code null}.
+		 * @return this builder.
+		 */
+		public final Builder setCatalogId(String catalogId) {
+			this.catalogId = Objects.requireNonNull(catalogId);
+			return this;
+		}
+
+		/**
+		 * Sets the deadline of the providers added subsequently without an
+		 * explicit deadline, by default {@link #DEFAULT_DEADLINE_MILLIS}.
+		 *
+		 * @param deadlineMillis
+		 *            the deadline, in ms.
+		 * @return this builder.
+		 */
+		public final Builder setDefaultDeadline(long deadlineMillis) {
+			if (deadlineMillis < 0L) {
+				throw new IllegalArgumentException("Negative deadline: "
+						+ deadlineMillis);
+			}
+			this.deadlineMillis = deadlineMillis;
+			return this;
+		}
+
+		/**
+		 * Adds a provider with the default deadline.
+		 *
+		 * @param catalog
+		 *            the provider, not {@code null}.
+		 * @return this builder.
+		 */
+		public final Builder addProvider(ServiceCatalog catalog) {
+			return addProvider(catalog, deadlineMillis);
+		}
+
+		/**
+		 * Adds a provider.
+		 *
+		 * @param catalog
+		 *            the provider, not {@code null}.
+		 * @param deadlineMillis
+		 *            the time the provider may take for answering a call, in
+		 *            ms.
+		 * @return this builder.
+		 */
+		public final Builder addProvider(ServiceCatalog catalog,
+				long deadlineMillis) {
+			Objects.requireNonNull(catalog);
+			if (deadlineMillis < 0L) {
+				throw new IllegalArgumentException("Negative deadline: "
+						+ deadlineMillis);
+			}
+			providers.add(new Provider(catalog, TimeUnit.MILLISECONDS
+					.toNanos(deadlineMillis)));
+			return this;
+		}
+
+		/**
+		 * Creates a new catalog.
+		 *
+		 * @return the catalog, never {@code null}.
+		 */
+		public FederatedServiceCatalog build() {
+			return new FederatedServiceCatalog(this);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "FederatedServiceCatalog.Builder [catalogId=" + catalogId
+					+ ", providers=" + providers + "]";
+		}
+	}
+
+}
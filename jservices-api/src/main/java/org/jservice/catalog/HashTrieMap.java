@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable hash array mapped trie. Changes are done by creating new
+ * instances, using {@link #plus(Object, Object)} and {@link #minus(Object)},
+ * which copy only the path to the entry changed, so a change costs
+ * {@code O(log32 n)} instead of {@code O(n)} for copying a {@link java.util.HashMap}.
+ * The mutators of {@link Map} are not supported.
+ *
+ * @param <K>
+ *            the key type, {@code null} keys are not supported.
+ * @param <V>
+ *            the value type, {@code null} values are not supported.
+ * @author Anatole Tresch
+ */
+final class HashTrieMap<K, V> extends AbstractMap<K, V> {
+
+	@SuppressWarnings("rawtypes")
+	private static final HashTrieMap EMPTY = new HashTrieMap<>(null, 0);
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	/** The root node, {@code null} if empty. */
+	private final Node root;
+	/** The number of entries. */
+	private final int size;
+	/** The entry set view, created lazily. */
+	private transient Set<Map.Entry<K, V>> entrySet;
+	/** The key set view, created lazily. */
+	private transient Set<K> keySet;
+
+	private HashTrieMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Access the empty map.
+	 *
+	 * @return the empty map.
+	 */
+	@SuppressWarnings("unchecked")
+	static <K, V> HashTrieMap<K, V> empty() {
+		return EMPTY;
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		if (root == null || key == null) {
+			return null;
+		}
+		return (V) root.find(0, hash(key), key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Creates a new map with the given entry added or replaced.
+	 *
+	 * @param key
+	 *            the key, not {@code null}.
+	 * @param value
+	 *            the value, not {@code null}.
+	 * @return the new map, or this instance, if the key is already mapped to
+	 *         the same value instance. An equal value replaces the value
+	 *         mapped.
+	 */
+	HashTrieMap<K, V> plus(K key, V value) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(value);
+		boolean[] added = new boolean[1];
+		Node newRoot = (root == null ? BitmapNode.EMPTY : root).put(0,
+				hash(key), key, value, added);
+		if (newRoot == root) {
+			return this;
+		}
+		return new HashTrieMap<>(newRoot, added[0] ? size + 1 : size);
+	}
+
+	/**
+	 * Creates a new map with the given key removed.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the new map, or this instance, if the key is not contained.
+	 */
+	HashTrieMap<K, V> minus(Object key) {
+		if (root == null || key == null) {
+			return this;
+		}
+		Node newRoot = root.remove(0, hash(key), key);
+		if (newRoot == root) {
+			return this;
+		}
+		if (newRoot == null) {
+			return empty();
+		}
+		return new HashTrieMap<>(newRoot, size - 1);
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<K, V>>() {
+				@Override
+				public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntryIterator<>(root);
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	@Override
+	public Set<K> keySet() {
+		if (keySet == null) {
+			keySet = new AbstractSet<K>() {
+				@Override
+				public Iterator<K> iterator() {
+					return keyIterator();
+				}
+
+				@Override
+				public boolean contains(Object o) {
+					return containsKey(o);
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return keySet;
+	}
+
+	/**
+	 * Iterates all keys, without allocating any entries.
+	 *
+	 * @return the key iterator.
+	 */
+	Iterator<K> keyIterator() {
+		return new KeyIterator<>(root);
+	}
+
+	/**
+	 * Trie node. Nodes store their content as key/value pairs in a single
+	 * array, a {@code null} key marks a sub node stored in the value slot.
+	 */
+	private abstract static class Node {
+
+		final Object[] array;
+
+		Node(Object[] array) {
+			this.array = array;
+		}
+
+		abstract Object find(int shift, int hash, Object key);
+
+		abstract Node put(int shift, int hash, Object key, Object value,
+				boolean[] added);
+
+		abstract Node remove(int shift, int hash, Object key);
+	}
+
+	private static final class BitmapNode extends Node {
+
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+
+		BitmapNode(int bitmap, Object[] array) {
+			super(array);
+			this.bitmap = bitmap;
+		}
+
+		private static int bit(int hash, int shift) {
+			return 1 << ((hash >>> shift) & MASK);
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		Object find(int shift, int hash, Object key) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return null;
+			}
+			int idx = 2 * index(bit);
+			Object k = array[idx];
+			if (k == null) {
+				return ((Node) array[idx + 1]).find(shift + BITS, hash, key);
+			}
+			return key.equals(k) ? array[idx + 1] : null;
+		}
+
+		@Override
+		Node put(int shift, int hash, Object key, Object value,
+				boolean[] added) {
+			int bit = bit(hash, shift);
+			int idx = 2 * index(bit);
+			if ((bitmap & bit) == 0) {
+				Object[] newArray = new Object[array.length + 2];
+				System.arraycopy(array, 0, newArray, 0, idx);
+				newArray[idx] = key;
+				newArray[idx + 1] = value;
+				System.arraycopy(array, idx, newArray, idx + 2, array.length
+						- idx);
+				added[0] = true;
+				return new BitmapNode(bitmap | bit, newArray);
+			}
+			Object k = array[idx];
+			Object v = array[idx + 1];
+			if (k == null) {
+				Node sub = ((Node) v).put(shift + BITS, hash, key, value, added);
+				if (sub == v) {
+					return this;
+				}
+				return with(idx + 1, sub);
+			}
+			if (key.equals(k)) {
+				if (v == value) {
+					return this;
+				}
+				return with(idx + 1, value);
+			}
+			added[0] = true;
+			Node sub = createNode(shift + BITS, k, v, hash, key, value);
+			Object[] newArray = array.clone();
+			newArray[idx] = null;
+			newArray[idx + 1] = sub;
+			return new BitmapNode(bitmap, newArray);
+		}
+
+		private BitmapNode with(int pos, Object value) {
+			Object[] newArray = array.clone();
+			newArray[pos] = value;
+			return new BitmapNode(bitmap, newArray);
+		}
+
+		private static Node createNode(int shift, Object k1, Object v1,
+				int h2, Object k2, Object v2) {
+			int h1 = hash(k1);
+			if (h1 == h2) {
+				return new CollisionNode(h1, new Object[] { k1, v1, k2, v2 });
+			}
+			boolean[] added = new boolean[1];
+			return EMPTY.put(shift, h1, k1, v1, added).put(shift, h2, k2, v2,
+					added);
+		}
+
+		@Override
+		Node remove(int shift, int hash, Object key) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int idx = 2 * index(bit);
+			Object k = array[idx];
+			if (k == null) {
+				Node sub = ((Node) array[idx + 1]).remove(shift + BITS, hash,
+						key);
+				if (sub == array[idx + 1]) {
+					return this;
+				}
+				if (sub != null) {
+					return with(idx + 1, sub);
+				}
+			} else if (!key.equals(k)) {
+				return this;
+			}
+			if (bitmap == bit) {
+				return null;
+			}
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, idx);
+			System.arraycopy(array, idx + 2, newArray, idx, array.length - idx
+					- 2);
+			return new BitmapNode(bitmap & ~bit, newArray);
+		}
+	}
+
+	private static final class CollisionNode extends Node {
+
+		final int hash;
+
+		CollisionNode(int hash, Object[] array) {
+			super(array);
+			this.hash = hash;
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Object find(int shift, int hash, Object key) {
+			int idx = indexOf(key);
+			return idx < 0 ? null : array[idx + 1];
+		}
+
+		@Override
+		Node put(int shift, int hash, Object key, Object value,
+				boolean[] added) {
+			if (hash != this.hash) {
+				BitmapNode parent = new BitmapNode(
+						1 << ((this.hash >>> shift) & MASK), new Object[] {
+								null, this });
+				return parent.put(shift, hash, key, value, added);
+			}
+			int idx = indexOf(key);
+			if (idx >= 0) {
+				if (array[idx + 1] == value) {
+					return this;
+				}
+				Object[] newArray = array.clone();
+				newArray[idx + 1] = value;
+				return new CollisionNode(hash, newArray);
+			}
+			Object[] newArray = Arrays.copyOf(array, array.length + 2);
+			newArray[array.length] = key;
+			newArray[array.length + 1] = value;
+			added[0] = true;
+			return new CollisionNode(hash, newArray);
+		}
+
+		@Override
+		Node remove(int shift, int hash, Object key) {
+			int idx = indexOf(key);
+			if (idx < 0) {
+				return this;
+			}
+			if (array.length == 2) {
+				return null;
+			}
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, idx);
+			System.arraycopy(array, idx + 2, newArray, idx, array.length - idx
+					- 2);
+			return new CollisionNode(this.hash, newArray);
+		}
+	}
+
+	/**
+	 * Depth first iteration over all key/value pairs, hereby {@link #advance()}
+	 * positions on the next pair.
+	 */
+	private abstract static class TrieIterator<T> implements Iterator<T> {
+
+		private final Object[][] arrays = new Object[8][];
+		private final int[] positions = new int[8];
+		private int depth = -1;
+		Object key;
+		Object value;
+		private boolean ready;
+
+		TrieIterator(Node root) {
+			if (root != null) {
+				depth = 0;
+				arrays[0] = root.array;
+			}
+		}
+
+		private boolean advance() {
+			while (depth >= 0) {
+				Object[] array = arrays[depth];
+				int pos = positions[depth];
+				if (pos >= array.length) {
+					depth--;
+					continue;
+				}
+				positions[depth] = pos + 2;
+				if (array[pos] == null) {
+					depth++;
+					arrays[depth] = ((Node) array[pos + 1]).array;
+					positions[depth] = 0;
+					continue;
+				}
+				key = array[pos];
+				value = array[pos + 1];
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (!ready) {
+				ready = advance();
+			}
+			return ready;
+		}
+
+		final void next0() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			ready = false;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static final class EntryIterator<K, V> extends
+			TrieIterator<Map.Entry<K, V>> {
+
+		EntryIterator(Node root) {
+			super(root);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Map.Entry<K, V> next() {
+			next0();
+			return new SimpleImmutableEntry<>((K) key, (V) value);
+		}
+	}
+
+	private static final class KeyIterator<K> extends TrieIterator<K> {
+
+		KeyIterator(Node root) {
+			super(root);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public K next() {
+			next0();
+			return (K) key;
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+
+/**
+ * Immutable set based on a {@link HashTrieMap}. Changes are done by creating
+ * new instances, using {@link #plus(Object)} and {@link #minus(Object)}. The
+ * mutators of {@link java.util.Set} are not supported.
+ *
+ * @param <E>
+ *            the element type, {@code null} elements are not supported.
+ * @author Anatole Tresch
+ */
+final class HashTrieSet<E> extends AbstractSet<E> implements Serializable {
+
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	@SuppressWarnings("rawtypes")
+	private static final HashTrieSet EMPTY = new HashTrieSet<>(
+			HashTrieMap.empty());
+
+	private final transient HashTrieMap<E, E> map;
+
+	private HashTrieSet(HashTrieMap<E, E> map) {
+		this.map = map;
+	}
+
+	/**
+	 * Access the empty set.
+	 *
+	 * @return the empty set.
+	 */
+	@SuppressWarnings("unchecked")
+	static <E> HashTrieSet<E> empty() {
+		return EMPTY;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return map.containsKey(o);
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return map.keyIterator();
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Creates a new set with the given element added.
+	 *
+	 * @param element
+	 *            the element, not {@code null}.
+	 * @return the new set, or this instance, if an equal element is already
+	 *         contained. The element contained is kept in this case.
+	 */
+	HashTrieSet<E> plus(E element) {
+		if (map.containsKey(element)) {
+			return this;
+		}
+		HashTrieMap<E, E> newMap = map.plus(element, element);
+		return newMap == map ? this : new HashTrieSet<>(newMap);
+	}
+
+	/**
+	 * Creates a new set with the given element removed.
+	 *
+	 * @param element
+	 *            the element.
+	 * @return the new set, or this instance, if the element is not contained.
+	 */
+	HashTrieSet<E> minus(Object element) {
+		HashTrieMap<E, E> newMap = map.minus(element);
+		if (newMap == map) {
+			return this;
+		}
+		return newMap.isEmpty() ? HashTrieSet.<E> empty() : new HashTrieSet<>(
+				newMap);
+	}
+
+	private Object writeReplace() {
+		return new SerializedForm(toArray());
+	}
+
+	/**
+	 * Serialized form of a {@link HashTrieSet}, containing its elements.
+	 */
+	private static final class SerializedForm implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object[] elements;
+
+		SerializedForm(Object[] elements) {
+			this.elements = elements;
+		}
+
+		private Object readResolve() {
+			HashTrieSet<Object> set = empty();
+			for (Object element : elements) {
+				set = set.plus(element);
+			}
+			return set;
+		}
+	}
+
+}
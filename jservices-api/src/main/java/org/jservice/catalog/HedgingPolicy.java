@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+/**
+ * Configures a {@link ServiceHedger}. A hedged call is sent to a second
+ * replica, if the first replica has not answered within the given percentile
+ * of the latencies observed for the method called. The delay is bounded by a
+ * minimum and a maximum, the maximum is also used until enough latencies have
+ * been observed.
+ *
+ * @author Anatole Tresch
+ */
+public final class HedgingPolicy {
+
+	/** Hedge after the 95th percentile, waiting between 1 and 1000 ms. */
+	public static final HedgingPolicy DEFAULT = new HedgingPolicy(0.95, 1L,
+			1000L);
+
+	/** The number of latencies observed, before the percentile is used. */
+	public static final int MIN_SAMPLES = 20;
+
+	private final double percentile;
+	private final long minDelayMillis;
+	private final long maxDelayMillis;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param percentile
+	 *            the latency percentile, after which a hedge is sent, between
+	 *            0 and 1, e.g. 0.95.
+	 * @param minDelayMillis
+	 *            the minimal delay, in ms.
+	 * @param maxDelayMillis
+	 *            the maximal delay, in ms.
+	 */
+	public HedgingPolicy(double percentile, long minDelayMillis,
+			long maxDelayMillis) {
+		if (percentile <= 0.0 || percentile > 1.0) {
+			throw new IllegalArgumentException(
+					"percentile must be within (0, 1].");
+		}
+		if (minDelayMillis < 0 || maxDelayMillis < minDelayMillis) {
+			throw new IllegalArgumentException(
+					"Required: 0 <= minDelayMillis <= maxDelayMillis.");
+		}
+		this.percentile = percentile;
+		this.minDelayMillis = minDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * Access the latency percentile, after which a hedge is sent.
+	 *
+	 * @return the percentile, e.g. 0.95.
+	 */
+	public double getPercentile() {
+		return percentile;
+	}
+
+	/**
+	 * Access the minimal delay, before a hedge is sent.
+	 *
+	 * @return the delay, in ms.
+	 */
+	public long getMinDelayMillis() {
+		return minDelayMillis;
+	}
+
+	/**
+	 * Access the maximal delay, before a hedge is sent.
+	 *
+	 * @return the delay, in ms.
+	 */
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "HedgingPolicy [percentile=" + percentile + ", minDelayMillis="
+				+ minDelayMillis + ", maxDelayMillis=" + maxDelayMillis + "]";
+	}
+
+}
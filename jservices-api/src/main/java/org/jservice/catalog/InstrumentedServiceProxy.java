@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Objects;
+
+import org.jservice.spi.CatalogMetricsSpi;
+
+/**
+ * {@link InvocationHandler} wrapping a resolved service proxy, recording the
+ * response time of each call into the {@link ServiceStatistics} of the
+ * {@link Service} called, and optionally into a {@link CatalogMetricsSpi}.
+ * 
+ * @author Anatole Tresch
+ */
+public final class InstrumentedServiceProxy implements InvocationHandler {
+
+	private final Service service;
+	private final Object target;
+	private final ServiceStatistics.Entry statistics;
+	private final CatalogMetricsSpi metrics;
+
+	private InstrumentedServiceProxy(Service service, Object target,
+			ServiceStatistics.Entry statistics, CatalogMetricsSpi metrics) {
+		this.service = service;
+		this.target = target;
+		this.statistics = statistics;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Wraps the given resolved proxy. Only interface types can be wrapped,
+	 * for other types the target is returned as is.
+	 * 
+	 * @param service
+	 *            the service resolved, not {@code null}.
+	 * @param type
+	 *            the interface type, not {@code null}.
+	 * @param target
+	 *            the resolved proxy, not {@code null}.
+	 * @param statistics
+	 *            the statistics to record into, not {@code null}.
+	 * @return the instrumented proxy.
+	 */
+	public static <T> T wrap(Service service, Class<T> type, T target,
+			ServiceStatistics statistics) {
+		return wrap(service, type, target, statistics, null);
+	}
+
+	/**
+	 * Wraps the given resolved proxy. Only interface types can be wrapped,
+	 * for other types the target is returned as is.
+	 * 
+	 * @param service
+	 *            the service resolved, not {@code null}.
+	 * @param type
+	 *            the interface type, not {@code null}.
+	 * @param target
+	 *            the resolved proxy, not {@code null}.
+	 * @param statistics
+	 *            the statistics to record into, not {@code null}.
+	 * @param metrics
+	 *            the metrics to record into, or {@code null}.
+	 * @return the instrumented proxy.
+	 */
+	public static <T> T wrap(Service service, Class<T> type, T target,
+			ServiceStatistics statistics, CatalogMetricsSpi metrics) {
+		Objects.requireNonNull(target);
+		if (!type.isInterface()) {
+			return target;
+		}
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, new InstrumentedServiceProxy(service,
+						target, statistics.get(service), metrics)));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			return method.invoke(target, args);
+		}
+		boolean failed = true;
+		statistics.callStarted();
+		long start = System.nanoTime();
+		try {
+			Object result = method.invoke(target, args);
+			failed = false;
+			return result;
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		} finally {
+			long nanos = System.nanoTime() - start;
+			statistics.callFinished(nanos, failed);
+			if (metrics != null) {
+				metrics.recordInvocation(service, nanos, failed);
+			}
+		}
+	}
+
+}
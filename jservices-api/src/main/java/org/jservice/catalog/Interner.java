@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Canonicalizing pool, returning a single shared instance for equal values.
+ * Values are held weakly, so values no longer referenced elsewhere are
+ * reclaimed. The pool is split into segments, to reduce lock contention.
+ *
+ * @author Anatole Tresch
+ */
+final class Interner<T> {
+
+	private static final int SEGMENTS = 16;
+
+	@SuppressWarnings("unchecked")
+	private final Map<T, WeakReference<T>>[] segments = new Map[SEGMENTS];
+
+	Interner() {
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new WeakHashMap<>();
+		}
+	}
+
+	/**
+	 * Access the canonical instance of the given value.
+	 *
+	 * @param value
+	 *            the value, may be {@code null}.
+	 * @return the canonical instance, equal to the value passed, or
+	 *         {@code null}.
+	 */
+	T intern(T value) {
+		if (value == null) {
+			return null;
+		}
+		int h = value.hashCode();
+		Map<T, WeakReference<T>> segment = segments[(h ^ (h >>> 16))
+				& (SEGMENTS - 1)];
+		synchronized (segment) {
+			WeakReference<T> ref = segment.get(value);
+			T existing = ref == null ? null : ref.get();
+			if (existing != null) {
+				return existing;
+			}
+			segment.put(value, new WeakReference<>(value));
+			return value;
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link LoadBalancer} selecting candidates randomly, weighted by the inverse
+ * of their EWMA response time, multiplied by the number of calls in flight.
+ * So a replica twice as fast as another receives twice the traffic. Services
+ * without any statistics yet are weighted with the average of the others, so
+ * they get probed.
+ * 
+ * @author Anatole Tresch
+ */
+public class LatencyWeightedLoadBalancer implements LoadBalancer {
+
+	private final ServiceStatistics statistics;
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param statistics
+	 *            the statistics recorded by the resolved proxies, not
+	 *            {@code null}.
+	 */
+	public LatencyWeightedLoadBalancer(ServiceStatistics statistics) {
+		this.statistics = Objects.requireNonNull(statistics);
+	}
+
+	@Override
+	public Service select(Class<?> interfaceType, List<Service> candidates) {
+		int size = candidates.size();
+		if (size == 1) {
+			return candidates.get(0);
+		}
+		double[] weights = new double[size];
+		double known = 0d;
+		int knownCount = 0;
+		for (int i = 0; i < size; i++) {
+			ServiceStatistics.Entry entry = statistics.peek(candidates.get(i));
+			double avg = entry == null ? -1d : entry.getAverageNanos();
+			if (avg >= 0d) {
+				weights[i] = 1d / (Math.max(avg, 1d) * (1 + entry
+						.getInFlight()));
+				known += weights[i];
+				knownCount++;
+			} else {
+				weights[i] = -1d;
+			}
+		}
+		double defaultWeight = knownCount == 0 ? 1d : known / knownCount;
+		double total = 0d;
+		for (int i = 0; i < size; i++) {
+			if (weights[i] < 0d) {
+				weights[i] = defaultWeight;
+			}
+			total += weights[i];
+		}
+		double r = ThreadLocalRandom.current().nextDouble() * total;
+		for (int i = 0; i < size; i++) {
+			r -= weights[i];
+			if (r < 0d) {
+				return candidates.get(i);
+			}
+		}
+		return candidates.get(size - 1);
+	}
+
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks service leases using a hierarchical timing wheel. Two kinds of
+ * timers are managed:
+ * <ul>
+ * <li><i>leases</i> of services known to a catalog, which expire, if not
+ * renewed in time, see {@link #lease(Service, long)},</li>
+ * <li><i>keep alives</i> of services registered by the current instance, which
+ * must be renewed periodically, see {@link #keepAlive(Service, long)}.</li>
+ * </ul>
+ * Adding, renewing and cancelling a timer costs {@code O(1)}. Each tick only
+ * touches the timers due, so its cost does not depend on the number of
+ * services tracked. All leases expired and all keep alives due within a tick
+ * are passed to the {@link Listener} as a single batch.
+ *
+ * @author Anatole Tresch
+ */
+public final class LeaseManager implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(LeaseManager.class);
+
+	/** The default tick duration, in ms. */
+	public static final long DEFAULT_TICK_MILLIS = 100L;
+
+	/** Number of bits per wheel level. */
+	private static final int SLOT_BITS = 6;
+	/** Number of slots per wheel level. */
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	/** Number of wheel levels, covering 2^24 ticks. */
+	private static final int LEVELS = 4;
+
+	/** The listener notified. */
+	private final Listener listener;
+	/** The tick duration, in ns. */
+	private final long tickNanos;
+	/** The time of tick 0, in ns. */
+	private final long startNanos;
+	/** The wheels, by level and slot, each slot is a sentinel node. */
+	private final Timeout[][] wheels = new Timeout[LEVELS][SLOTS];
+	/** The expiry timers, by service. */
+	private final Map<Service, Timeout> leases = new HashMap<>();
+	/** The keep alive timers, by service. */
+	private final Map<Service, Timeout> keepAlives = new HashMap<>();
+	/** The current tick. */
+	private long currentTick;
+	/** The executor driving the ticks, if started. */
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Creates a new instance, using {@link #DEFAULT_TICK_MILLIS}.
+	 *
+	 * @param listener
+	 *            the listener, not {@code null}.
+	 */
+	public LeaseManager(Listener listener) {
+		this(DEFAULT_TICK_MILLIS, listener);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param tickMillis
+	 *            the tick duration in ms, this is the timer resolution.
+	 * @param listener
+	 *            the listener, not {@code null}.
+	 */
+	public LeaseManager(long tickMillis, Listener listener) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("tickMillis must be positive.");
+		}
+		this.listener = Objects.requireNonNull(listener);
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.startNanos = System.nanoTime();
+		for (Timeout[] wheel : wheels) {
+			for (int i = 0; i < SLOTS; i++) {
+				wheel[i] = new Timeout(null, false, 0L);
+			}
+		}
+	}
+
+	/**
+	 * Starts ticking, using a single daemon thread.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LeaseManager");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					advanceTo(System.nanoTime());
+				} catch (RuntimeException e) {
+					LOG.error("Failed to process leases.", e);
+				}
+			}
+		}, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stops ticking.
+	 */
+	@Override
+	public synchronized void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Creates or renews the lease of the given service. If the lease is not
+	 * renewed within the given duration, the service is passed to
+	 * {@link Listener#leasesExpired(Collection)}.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @param durationMillis
+	 *            the lease duration, in ms.
+	 */
+	public void lease(Service service, long durationMillis) {
+		schedule(leases, service, false, durationMillis);
+	}
+
+	/**
+	 * Registers the given local service for periodic renewal. Every interval
+	 * the service is passed to {@link Listener#renewalsDue(Collection)}.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @param intervalMillis
+	 *            the renewal interval, in ms.
+	 */
+	public void keepAlive(Service service, long intervalMillis) {
+		schedule(keepAlives, service, true, intervalMillis);
+	}
+
+	/**
+	 * Cancels the lease and the keep alive of the given service.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 */
+	public synchronized void cancel(Service service) {
+		Timeout timeout = leases.remove(service);
+		if (timeout != null) {
+			timeout.unlink();
+		}
+		timeout = keepAlives.remove(service);
+		if (timeout != null) {
+			timeout.unlink();
+		}
+	}
+
+	/**
+	 * Cancels the lease of the given service, keeping its keep alive.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 */
+	public synchronized void cancelLease(Service service) {
+		Timeout timeout = leases.remove(service);
+		if (timeout != null) {
+			timeout.unlink();
+		}
+	}
+
+	/**
+	 * Access the number of leases tracked.
+	 *
+	 * @return the number of leases.
+	 */
+	public synchronized int getLeaseCount() {
+		return leases.size();
+	}
+
+	/**
+	 * Access the number of keep alives tracked.
+	 *
+	 * @return the number of keep alives.
+	 */
+	public synchronized int getKeepAliveCount() {
+		return keepAlives.size();
+	}
+
+	private void schedule(Map<Service, Timeout> timers, Service service,
+			boolean keepAlive, long durationMillis) {
+		Objects.requireNonNull(service);
+		if (durationMillis < 0) {
+			throw new IllegalArgumentException(
+					"duration must not be negative.");
+		}
+		long interval = Math.max(1L,
+				TimeUnit.MILLISECONDS.toNanos(durationMillis) / tickNanos);
+		synchronized (this) {
+			Timeout timeout = timers.get(service);
+			if (timeout == null) {
+				timeout = new Timeout(service, keepAlive, interval);
+				timers.put(service, timeout);
+			} else {
+				timeout.unlink();
+				timeout.interval = interval;
+			}
+			timeout.deadline = tickOf(System.nanoTime()) + interval;
+			insert(timeout);
+		}
+	}
+
+	private long tickOf(long nanos) {
+		return (nanos - startNanos) / tickNanos;
+	}
+
+	/**
+	 * Advances the wheel up to the given time, processing all ticks passed.
+	 * Normally this is called by the thread created by {@link #start()}.
+	 *
+	 * @param nanos
+	 *            the current time, as returned by {@link System#nanoTime()}.
+	 */
+	public void advanceTo(long nanos) {
+		List<Service> expired = new ArrayList<>();
+		List<Service> renewals = new ArrayList<>();
+		synchronized (this) {
+			long target = tickOf(nanos);
+			while (currentTick < target) {
+				currentTick++;
+				cascade();
+				Timeout head = wheels[0][(int) (currentTick & SLOT_MASK)];
+				for (Timeout t = head.next; t != head;) {
+					Timeout next = t.next;
+					if (t.deadline <= currentTick) {
+						t.unlink();
+						if (t.keepAlive) {
+							renewals.add(t.service);
+							t.deadline = currentTick + t.interval;
+							insert(t);
+						} else {
+							leases.remove(t.service);
+							expired.add(t.service);
+						}
+					}
+					t = next;
+				}
+			}
+		}
+		if (!expired.isEmpty()) {
+			listener.leasesExpired(expired);
+		}
+		if (!renewals.isEmpty()) {
+			listener.renewalsDue(renewals);
+		}
+	}
+
+	/**
+	 * Moves the timers of the higher level slots reached by the current tick
+	 * to the lower levels.
+	 */
+	private void cascade() {
+		int level = 0;
+		while (level < LEVELS - 1
+				&& ((currentTick >>> (SLOT_BITS * (level + 1))) << (SLOT_BITS * (level + 1))) == currentTick) {
+			level++;
+		}
+		for (; level > 0; level--) {
+			Timeout head = wheels[level][(int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK)];
+			Timeout t = head.next;
+			head.next = head;
+			head.prev = head;
+			while (t != head) {
+				Timeout next = t.next;
+				t.next = null;
+				t.prev = null;
+				insert(t);
+				t = next;
+			}
+		}
+	}
+
+	private void insert(Timeout timeout) {
+		long delta = timeout.deadline - currentTick;
+		long deadline = delta <= 0 ? currentTick + 1 : timeout.deadline;
+		int level = 0;
+		while (level < LEVELS - 1
+				&& Math.max(delta, 1L) >= (1L << (SLOT_BITS * (level + 1)))) {
+			level++;
+		}
+		Timeout head = wheels[level][(int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK)];
+		timeout.prev = head.prev;
+		timeout.next = head;
+		head.prev.next = timeout;
+		head.prev = timeout;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return "LeaseManager [tick=" + currentTick + ", leases="
+				+ leases.size() + ", keepAlives=" + keepAlives.size() + "]";
+	}
+
+	/**
+	 * Timer entry, linked into a wheel slot.
+	 */
+	private static final class Timeout {
+		final Service service;
+		final boolean keepAlive;
+		long interval;
+		long deadline;
+		Timeout prev = this;
+		Timeout next = this;
+
+		Timeout(Service service, boolean keepAlive, long interval) {
+			this.service = service;
+			this.keepAlive = keepAlive;
+			this.interval = interval;
+		}
+
+		void unlink() {
+			if (prev != null && prev != this) {
+				prev.next = next;
+				next.prev = prev;
+			}
+			prev = null;
+			next = null;
+		}
+	}
+
+	/**
+	 * Listener notified by a {@link LeaseManager}. Callbacks are invoked on the
+	 * ticking thread, outside of any locks held by the {@link LeaseManager}.
+	 *
+	 * @author Anatole Tresch
+	 */
+	public static interface Listener {
+
+		/**
+		 * Called with all leases expired within a tick.
+		 *
+		 * @param services
+		 *            the services expired, never empty.
+		 */
+		void leasesExpired(Collection<Service> services);
+
+		/**
+		 * Called with all local services to be renewed within a tick.
+		 *
+		 * @param services
+		 *            the services to be renewed, never empty.
+		 */
+		void renewalsDue(Collection<Service> services);
+	}
+
+}
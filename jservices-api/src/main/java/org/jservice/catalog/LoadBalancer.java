@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.List;
+
+/**
+ * Strategy used by a {@link ServiceCatalog} for selecting one of several
+ * {@link Service} instances implementing the same interface, e.g. when
+ * evaluating {@link ServiceCatalog#getService(Class)}.
+ * 
+ * @author Anatole Tresch
+ */
+public interface LoadBalancer {
+
+	/**
+	 * Selects the service to be used.
+	 * 
+	 * @param interfaceType
+	 *            the interface type requested, not {@code null}.
+	 * @param candidates
+	 *            the services available, not {@code null} and not empty.
+	 * @return the selected service, one of the candidates.
+	 */
+	public Service select(Class<?> interfaceType, List<Service> candidates);
+
+}
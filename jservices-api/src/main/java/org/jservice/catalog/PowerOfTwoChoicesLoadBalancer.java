@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link LoadBalancer} picking two random candidates and selecting the one
+ * with less calls in flight, using the average response time as tie breaker.
+ * 
+ * @author Anatole Tresch
+ */
+public class PowerOfTwoChoicesLoadBalancer implements LoadBalancer {
+
+	private final ServiceStatistics statistics;
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param statistics
+	 *            the statistics recorded by the resolved proxies, not
+	 *            {@code null}.
+	 */
+	public PowerOfTwoChoicesLoadBalancer(ServiceStatistics statistics) {
+		this.statistics = Objects.requireNonNull(statistics);
+	}
+
+	@Override
+	public Service select(Class<?> interfaceType, List<Service> candidates) {
+		int size = candidates.size();
+		if (size == 1) {
+			return candidates.get(0);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(size);
+		int second = random.nextInt(size - 1);
+		if (second >= first) {
+			second++;
+		}
+		Service a = candidates.get(first);
+		Service b = candidates.get(second);
+		return compare(statistics.peek(a), statistics.peek(b)) <= 0 ? a : b;
+	}
+
+	private static int compare(ServiceStatistics.Entry a,
+			ServiceStatistics.Entry b) {
+		int inFlightA = a == null ? 0 : a.getInFlight();
+		int inFlightB = b == null ? 0 : b.getInFlight();
+		if (inFlightA != inFlightB) {
+			return inFlightA < inFlightB ? -1 : 1;
+		}
+		double avgA = a == null ? -1d : a.getAverageNanos();
+		double avgB = b == null ? -1d : b.getAverageNanos();
+		return Double.compare(avgA, avgB);
+	}
+
+}
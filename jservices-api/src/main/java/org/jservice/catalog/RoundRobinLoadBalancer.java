@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link LoadBalancer} cycling through the candidates, using a separate
+ * counter for each interface type.
+ * 
+ * @author Anatole Tresch
+ */
+public class RoundRobinLoadBalancer implements LoadBalancer {
+
+	private final ConcurrentHashMap<Class<?>, AtomicInteger> counters = new ConcurrentHashMap<>();
+
+	@Override
+	public Service select(Class<?> interfaceType, List<Service> candidates) {
+		AtomicInteger counter = counters.get(interfaceType);
+		if (counter == null) {
+			counter = new AtomicInteger();
+			AtomicInteger existing = counters.putIfAbsent(interfaceType,
+					counter);
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		int next = counter.getAndIncrement() & Integer.MAX_VALUE;
+		return candidates.get(next % candidates.size());
+	}
+
+}
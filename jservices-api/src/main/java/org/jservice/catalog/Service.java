@@ -20,7 +20,7 @@ package org.jservice.catalog;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -31,6 +31,12 @@ import java.util.Set;
 /**
  * This class models an abstract and serializable service descriptor, which are
  * distributed within a {@link ServiceCatalog}.
+ * <p>
+ * Instances are laid out compactly, since large catalogs hold many of them:
+ * protocols, hosts, interface names and context keys are canonicalized,
+ * interfaces and context are held in immutable array backed collections,
+ * which are shared between all services having equal ones, and the hash code
+ * is computed only once.
  * 
  * @author Anatole Tresch
  */
@@ -38,24 +44,28 @@ public final class Service implements Serializable {
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
+	/** The pool of canonical strings. */
+	private static final Interner<String> STRINGS = new Interner<>();
 	/** The service protocol, e.g. openslp, rest, soap, corba, http etc. */
-	private String protocol;
+	private final String protocol;
 	/** The port of the serice interface. */
-	private int port;
+	private final int port;
 	/** The host or cluster ip address. */
-	private String host;
+	private final String host;
 	/**
 	 * The location identifier, to be interpreted by the {@link org.jservice.spi.ServiceResolverSpi}
 	 * to locate the service on the given host.
 	 */
-	private String location;
+	private final String location;
 	/** The exposed interfaces. */
-	private Set<String> interfaces = new HashSet<>();
+	private final CompactSet interfaces;
 	/** The context, used for subselecting services. */
-	private Map<String, String> context = new HashMap<String, String>();
+	private final CompactMap context;
 	/** Creation time. */
 	private long expiry = System.currentTimeMillis() * 30000L;
+	/** The precomputed hash code. */
+	private final transient int hash;
 
 	/**
 	 * Constructor, use the {@link Builder} for creating new {@link Service}
@@ -65,12 +75,34 @@ public final class Service implements Serializable {
 	 *            The builder with all required data
 	 */
 	private Service(Builder builder) {
-		this.protocol = builder.protocol;
-		this.host = builder.host;
-		this.port = builder.port;
-		this.location = builder.location;
-		this.interfaces.addAll(builder.interfaces);
-        this.context.putAll(builder.context);
+		this(builder.protocol, builder.host, builder.port, builder.location,
+				builder.interfaces, builder.context);
+	}
+
+	/**
+	 * Constructor, canonicalizing all values passed.
+	 */
+	private Service(String protocol, String host, int port, String location,
+			Collection<String> interfaces, Map<String, String> context) {
+		this.protocol = STRINGS.intern(protocol);
+		this.host = STRINGS.intern(host);
+		this.port = port;
+		this.location = location;
+		this.interfaces = CompactSet.of(interfaces, STRINGS);
+		this.context = CompactMap.of(context, STRINGS);
+		this.hash = computeHashCode();
+	}
+
+	/**
+	 * Replaces a deserialized instance with a canonicalized one.
+	 * 
+	 * @return the canonicalized instance.
+	 */
+	private Object readResolve() {
+		Service service = new Service(protocol, host, port, location,
+				interfaces, context);
+		service.expiry = expiry;
+		return service;
 	}
 
 	/**
@@ -116,7 +148,7 @@ public final class Service implements Serializable {
 	 * @return the interfaces
 	 */
 	public final Set<String> getInterfaces() {
-		return Collections.unmodifiableSet(interfaces);
+		return interfaces;
 	}
 
 	/**
@@ -125,7 +157,7 @@ public final class Service implements Serializable {
 	 * @return the context
 	 */
 	public final Map<String, String> getContext() {
-		return Collections.unmodifiableMap(context);
+		return context;
 	}
 
 	public void setExpiry(long durationInMS) {
@@ -144,15 +176,30 @@ public final class Service implements Serializable {
 		return interfaces.contains(type);
 	}
 
+	/**
+	 * Evaluates if any of the exposed interfaces matches the given regular
+	 * expression. When evaluating many services, use a {@link ServiceQuery}
+	 * instead, which compiles the expression only once.
+	 * 
+	 * @param nameExpression
+	 *            the interface name expression.
+	 * @return true, if at least one interface matches.
+	 */
 	public boolean isImplementationMatching(String nameExpression) {
-		for (String ifn : interfaces) {
-			if (ifn.matches(nameExpression)) {
-				return true;
-			}
-		}
-		return false;
+		return ServiceQuery.Expression.compile(nameExpression).matchesAny(
+				interfaces);
 	}
 
+	/**
+	 * Evaluates if the context matches the given regular expressions. Hereby
+	 * all keys must be present and the values must match. When evaluating many
+	 * services, use a {@link ServiceQuery} instead, which compiles the
+	 * expressions only once.
+	 * 
+	 * @param contextExpressions
+	 *            the context expressions, may be {@code null}.
+	 * @return true, if all expressions match.
+	 */
 	public boolean isMatchingContext(Map<String, String> contextExpressions) {
 		if (contextExpressions == null) {
 			return true;
@@ -162,7 +209,7 @@ public final class Service implements Serializable {
 			if (value == null) {
 				return false;
 			}
-			if (!value.matches(en.getValue())) {
+			if (!ServiceQuery.Expression.compile(en.getValue()).matches(value)) {
 				return false;
 			}
 		}
@@ -176,6 +223,10 @@ public final class Service implements Serializable {
 	 */
 	@Override
 	public int hashCode() {
+		return hash;
+	}
+
+	private int computeHashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((context == null) ? 0 : context.hashCode());
@@ -204,6 +255,8 @@ public final class Service implements Serializable {
 		if (getClass() != obj.getClass())
 			return false;
 		Service other = (Service) obj;
+		if (hash != other.hash)
+			return false;
 		if (context == null) {
 			if (other.context != null)
 				return false;
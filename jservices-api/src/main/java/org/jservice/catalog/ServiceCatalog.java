@@ -70,6 +70,29 @@ public interface ServiceCatalog {
 	 */
 	public void registerService(Service service);
 
+	/**
+	 * Register a service into the catalog, together with its implementation
+	 * in this JVM. Calls to {@link #getService(Class)} and
+	 * {@link #resolveService(Service, Class)} from within this JVM return the
+	 * implementation directly, instead of a remote proxy.
+	 * 
+	 * @param service
+	 *            The new service, not {@code null}.
+	 * @param implementation
+	 *            the local implementation, not {@code null}.
+	 */
+	public void registerService(Service service, Object implementation);
+
+	/**
+	 * Registers several services into the catalog at once. The catalog is
+	 * updated once for the whole batch, remote catalogs transfer the batch as
+	 * a single message.
+	 * 
+	 * @param services
+	 *            The new services, not {@code null}.
+	 */
+	public void registerServices(Collection<Service> services);
+
 	/**
 	 * Unregisters a service from the catalog.
 	 * <p>
@@ -81,6 +104,29 @@ public interface ServiceCatalog {
 	 */
 	public void unregisterService(Service service);
 
+	/**
+	 * Unregisters several services from the catalog at once. The catalog is
+	 * updated once for the whole batch, remote catalogs transfer the batch as
+	 * a single message.
+	 * <p>
+	 * Depending on the catalog implementation there might by some latency until
+	 * the services are effectively removed from the cloud/cluster.
+	 * 
+	 * @param services
+	 *            the service descriptors, not {@code null}.
+	 */
+	public void unregisterServices(Collection<Service> services);
+
+	/**
+	 * Renews the leases of several services registered by this instance, so
+	 * they do not expire. Catalogs renew their local services periodically, so
+	 * this is only needed for renewing services explicitly.
+	 * 
+	 * @param services
+	 *            the service descriptors, not {@code null}.
+	 */
+	public void renewServices(Collection<Service> services);
+
 	/**
 	 * Unregisters all service that match the given context. Hereby all
 	 * attributes within the context must match, as a regular expression, e.g.
@@ -197,6 +243,17 @@ public interface ServiceCatalog {
 	public Collection<Service> findServices(String type,
 			Map<String, String> context);
 
+	/**
+	 * Evaluate all services that match the given query. Since the query's
+	 * expressions are compiled only once, this is the preferred way for
+	 * selecting services by expressions.
+	 * 
+	 * @param query
+	 *            the query, not {@code null}.
+	 * @return the services found.
+	 */
+	public Collection<Service> findServices(ServiceQuery query);
+
 	/**
 	 * Access the available protocols for a given type.
 	 * 
@@ -230,4 +287,21 @@ public interface ServiceCatalog {
 	public void removeLocally(Service service);
 
 	public Collection<Service> getServices(Map<String, String> context);
+
+	/**
+	 * Watches the services matching the given interface and context. Instead
+	 * of polling {@link #getServices(Class)}, the listener is notified about
+	 * the services added, removed or renewed. Changes are coalesced over a
+	 * short window and delivered as batches.
+	 * 
+	 * @param interfaceType
+	 *            the interface type, or {@code null} for all services.
+	 * @param context
+	 *            the context expressions to be matched, or {@code null}.
+	 * @param listener
+	 *            the listener, not {@code null}.
+	 * @return the watch, to be closed for stopping the notifications.
+	 */
+	public ServiceWatch watch(Class interfaceType, Map<String, String> context,
+			ServiceListener listener);
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable, versioned state of a {@link ServiceCatalog}, containing the
+ * {@link ServiceIndex} of all known services and the services registered by
+ * the current instance. Catalogs publish their state through a single
+ * {@link AtomicReference}, so readers never take any locks and always see a
+ * consistent state, whereas each writer publishes a new snapshot in one step,
+ * using {@link #update(AtomicReference, Update)}.
+ *
+ * @author Anatole Tresch
+ */
+public final class ServiceCatalogSnapshot {
+
+	/** The initial, empty snapshot. */
+	public static final ServiceCatalogSnapshot EMPTY = new ServiceCatalogSnapshot(
+			0L, ServiceIndex.EMPTY, Collections.<Service> emptySet());
+
+	/** The version, incremented with each change published. */
+	private final long version;
+	/** The index of all services known. */
+	private final ServiceIndex index;
+	/** The services registered by the current instance. */
+	private final Set<Service> localServices;
+
+	private ServiceCatalogSnapshot(long version, ServiceIndex index,
+			Set<Service> localServices) {
+		this.version = version;
+		this.index = index;
+		this.localServices = localServices;
+	}
+
+	/**
+	 * Access the version of this snapshot.
+	 *
+	 * @return the version, incremented with each change.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Access the index of all services known.
+	 *
+	 * @return the index, never {@code null}.
+	 */
+	public ServiceIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Access all services known.
+	 *
+	 * @return the services, never {@code null}.
+	 */
+	public Set<Service> getServices() {
+		return index.getServices();
+	}
+
+	/**
+	 * Access the services registered by the current instance.
+	 *
+	 * @return the local services, never {@code null}.
+	 */
+	public Set<Service> getLocalServices() {
+		return Collections.unmodifiableSet(localServices);
+	}
+
+	/**
+	 * Creates a new snapshot with the given services added and removed.
+	 *
+	 * @param added
+	 *            the services to be added, not {@code null}.
+	 * @param removed
+	 *            the services to be removed, not {@code null}.
+	 * @return the new snapshot, or this instance, if nothing changed.
+	 */
+	public ServiceCatalogSnapshot withServices(Collection<Service> added,
+			Collection<Service> removed) {
+		ServiceIndex newIndex = index.update(added, removed);
+		if (newIndex == index) {
+			return this;
+		}
+		return new ServiceCatalogSnapshot(version + 1, newIndex,
+				localServices);
+	}
+
+	/**
+	 * Creates a new snapshot with the given service added.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return the new snapshot, or this instance, if the service is already
+	 *         contained.
+	 */
+	public ServiceCatalogSnapshot withService(Service service) {
+		if (index.contains(Objects.requireNonNull(service))) {
+			return this;
+		}
+		return new ServiceCatalogSnapshot(version + 1, index.with(service),
+				localServices);
+	}
+
+	/**
+	 * Creates a new snapshot with the given service removed from the index.
+	 * The local services are not affected.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return the new snapshot, or this instance, if the service is not
+	 *         contained.
+	 */
+	public ServiceCatalogSnapshot withoutService(Service service) {
+		if (!index.contains(Objects.requireNonNull(service))) {
+			return this;
+		}
+		return new ServiceCatalogSnapshot(version + 1,
+				index.without(service), localServices);
+	}
+
+	/**
+	 * Creates a new snapshot with the given service registered locally, and
+	 * added to the index.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return the new snapshot, or this instance, if the service is already
+	 *         registered.
+	 */
+	public ServiceCatalogSnapshot withLocalService(Service service) {
+		if (localServices.contains(Objects.requireNonNull(service))
+				&& index.contains(service)) {
+			return this;
+		}
+		Set<Service> newLocals = new LinkedHashSet<>(localServices);
+		newLocals.add(service);
+		return new ServiceCatalogSnapshot(version + 1, index.with(service),
+				newLocals);
+	}
+
+	/**
+	 * Creates a new snapshot with the given services registered locally, and
+	 * added to the index.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 * @return the new snapshot, or this instance, if all services are already
+	 *         registered.
+	 */
+	public ServiceCatalogSnapshot withLocalServices(
+			Collection<Service> services) {
+		ServiceIndex newIndex = index.with(services);
+		if (newIndex == index && localServices.containsAll(services)) {
+			return this;
+		}
+		Set<Service> newLocals = new LinkedHashSet<>(localServices);
+		newLocals.addAll(services);
+		return new ServiceCatalogSnapshot(version + 1, newIndex, newLocals);
+	}
+
+	/**
+	 * Creates a new snapshot with the given services removed from the local
+	 * services and from the index.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 * @return the new snapshot, or this instance, if none of the services is
+	 *         contained.
+	 */
+	public ServiceCatalogSnapshot withoutLocalServices(
+			Collection<Service> services) {
+		ServiceIndex newIndex = index.without(services);
+		Set<Service> newLocals = localServices;
+		for (Service service : services) {
+			if (newLocals.contains(service)) {
+				if (newLocals == localServices) {
+					newLocals = new LinkedHashSet<>(localServices);
+				}
+				newLocals.remove(service);
+			}
+		}
+		if (newIndex == index && newLocals == localServices) {
+			return this;
+		}
+		return new ServiceCatalogSnapshot(version + 1, newIndex, newLocals);
+	}
+
+	/**
+	 * Creates a new snapshot, with the given service removed from the local
+	 * services. The service remains in the index.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return the new snapshot, or this instance, if the service is not
+	 *         registered locally.
+	 */
+	public ServiceCatalogSnapshot withoutLocalService(Service service) {
+		if (!localServices.contains(Objects.requireNonNull(service))) {
+			return this;
+		}
+		Set<Service> newLocals = new LinkedHashSet<>(localServices);
+		newLocals.remove(service);
+		return new ServiceCatalogSnapshot(version + 1, index, newLocals);
+	}
+
+	/**
+	 * Publishes a new snapshot, by applying the given update to the current
+	 * snapshot and publishing the result atomically. If another writer
+	 * published a snapshot in the meantime, the update is applied again to the
+	 * new current snapshot. Readers are never blocked.
+	 *
+	 * @param reference
+	 *            the reference holding the current snapshot, not {@code null}.
+	 * @param update
+	 *            the update to be applied, not {@code null}.
+	 * @return true, if a new snapshot was published, false, if the update did
+	 *         not change anything.
+	 */
+	public static boolean update(
+			AtomicReference<ServiceCatalogSnapshot> reference, Update update) {
+		while (true) {
+			ServiceCatalogSnapshot current = reference.get();
+			ServiceCatalogSnapshot next = update.apply(current);
+			if (next == current) {
+				return false;
+			}
+			if (reference.compareAndSet(current, next)) {
+				return true;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceCatalogSnapshot [version=" + version + ", index="
+				+ index + ", localServices=" + localServices.size() + "]";
+	}
+
+	/**
+	 * Update applied to a {@link ServiceCatalogSnapshot}. Implementations must
+	 * be side effect free, since an update may be applied several times.
+	 *
+	 * @author Anatole Tresch
+	 */
+	public static interface Update {
+
+		/**
+		 * Applies the update.
+		 *
+		 * @param snapshot
+		 *            the current snapshot, not {@code null}.
+		 * @return the new snapshot, or the snapshot passed, if nothing
+		 *         changed.
+		 */
+		ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot);
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * A single change of a {@link ServiceCatalog}, as recorded by a
+ * {@link ServiceChangeLog}.
+ * 
+ * @author Anatole Tresch
+ */
+public final class ServiceChange implements Serializable {
+
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The kind of change.
+	 */
+	public static enum Type {
+		/** A service was added. */
+		ADDED,
+		/** A service was removed. */
+		REMOVED,
+		/** The lease of a service was renewed. */
+		RENEWED
+	}
+
+	/** The sequence number, assigned by the {@link ServiceChangeLog}. */
+	private final long sequence;
+	/** The kind of change. */
+	private final Type type;
+	/** The service changed. */
+	private final Service service;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sequence
+	 *            the sequence number.
+	 * @param type
+	 *            the kind of change, not {@code null}.
+	 * @param service
+	 *            the service changed, not {@code null}.
+	 */
+	public ServiceChange(long sequence, Type type, Service service) {
+		this.sequence = sequence;
+		this.type = Objects.requireNonNull(type);
+		this.service = Objects.requireNonNull(service);
+	}
+
+	/**
+	 * Access the sequence number.
+	 * 
+	 * @return the sequence number, increasing monotonically within a
+	 *         {@link ServiceChangeLog}.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Access the kind of change.
+	 * 
+	 * @return the type, never {@code null}.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Access the service changed.
+	 * 
+	 * @return the service, never {@code null}.
+	 */
+	public Service getService() {
+		return service;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceChange [sequence=" + sequence + ", type=" + type
+				+ ", service=" + service + "]";
+	}
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Versioned log of the changes of a {@link ServiceCatalog}. Each change gets a
+ * monotonically increasing sequence number, the sequence number of the last
+ * change is the version of the log. The most recent changes are kept in a
+ * bounded ring buffer, so a catalog can apply only the changes since the last
+ * version it knows. If the changes requested are no longer contained, a full
+ * snapshot of the current services is returned instead.
+ * 
+ * @author Anatole Tresch
+ */
+public final class ServiceChangeLog implements ServiceChangeSource {
+
+	/** The default number of changes retained. */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/** The ring buffer of recent changes. */
+	private final ServiceChange[] changes;
+	/** The current version, the sequence of the last change. */
+	private long version;
+	/** The services currently contained. */
+	private HashTrieSet<Service> services = HashTrieSet.empty();
+
+	/**
+	 * Creates a new log, using {@link #DEFAULT_CAPACITY}.
+	 */
+	public ServiceChangeLog() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new log.
+	 * 
+	 * @param capacity
+	 *            the number of changes retained.
+	 */
+	public ServiceChangeLog(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive.");
+		}
+		this.changes = new ServiceChange[capacity];
+	}
+
+	/**
+	 * Access the current version.
+	 * 
+	 * @return the sequence number of the last change, {@code 0} if empty.
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Records a change.
+	 * 
+	 * @param type
+	 *            the kind of change, not {@code null}.
+	 * @param service
+	 *            the service changed, not {@code null}.
+	 * @return the sequence number assigned.
+	 */
+	public synchronized long append(ServiceChange.Type type, Service service) {
+		Objects.requireNonNull(type);
+		Objects.requireNonNull(service);
+		version++;
+		changes[(int) (version % changes.length)] = new ServiceChange(version,
+				type, service);
+		if (type == ServiceChange.Type.REMOVED) {
+			services = services.minus(service);
+		} else {
+			services = services.plus(service);
+		}
+		return version;
+	}
+
+	/**
+	 * Records the same kind of change for several services.
+	 * 
+	 * @param type
+	 *            the kind of change, not {@code null}.
+	 * @param services
+	 *            the services changed, not {@code null}.
+	 * @return the sequence number of the last change recorded.
+	 */
+	public synchronized long appendAll(ServiceChange.Type type,
+			Collection<Service> services) {
+		for (Service service : services) {
+			append(type, service);
+		}
+		return version;
+	}
+
+	@Override
+	public synchronized Delta getChangesSince(long since) {
+		if (since > version || since < version - changes.length) {
+			return new Delta(since, version, services, null);
+		}
+		List<ServiceChange> result = new ArrayList<>((int) (version - since));
+		for (long seq = since + 1; seq <= version; seq++) {
+			result.add(changes[(int) (seq % changes.length)]);
+		}
+		return new Delta(since, version, null, result);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return "ServiceChangeLog [version=" + version + ", capacity="
+				+ changes.length + ", services=" + services.size() + "]";
+	}
+
+	/**
+	 * The changes between two versions of a {@link ServiceChangeLog}, either
+	 * as a list of changes, or as a full snapshot of the services.
+	 * 
+	 * @author Anatole Tresch
+	 */
+	public static final class Delta implements Serializable {
+
+		/**
+		 * serialVersionUID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		private final long fromVersion;
+		private final long toVersion;
+		private final Set<Service> snapshot;
+		private final List<ServiceChange> changes;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param fromVersion
+		 *            the version the delta is based on.
+		 * @param toVersion
+		 *            the version reached, after applying the delta.
+		 * @param snapshot
+		 *            the full snapshot, or {@code null}.
+		 * @param changes
+		 *            the changes, or {@code null}, if a snapshot is given.
+		 */
+		public Delta(long fromVersion, long toVersion, Set<Service> snapshot,
+				List<ServiceChange> changes) {
+			if ((snapshot == null) == (changes == null)) {
+				throw new IllegalArgumentException(
+						"Either a snapshot or changes are required.");
+			}
+			this.fromVersion = fromVersion;
+			this.toVersion = toVersion;
+			this.snapshot = snapshot;
+			this.changes = changes;
+		}
+
+		/**
+		 * Access the version the delta is based on.
+		 * 
+		 * @return the base version.
+		 */
+		public long getFromVersion() {
+			return fromVersion;
+		}
+
+		/**
+		 * Access the version reached, after applying the delta.
+		 * 
+		 * @return the target version.
+		 */
+		public long getToVersion() {
+			return toVersion;
+		}
+
+		/**
+		 * Checks if this delta is a full snapshot.
+		 * 
+		 * @return true, if {@link #getSnapshot()} must be applied instead of
+		 *         the changes.
+		 */
+		public boolean isFullSnapshot() {
+			return snapshot != null;
+		}
+
+		/**
+		 * Access the full snapshot.
+		 * 
+		 * @return the services, or {@code null}, if this delta contains
+		 *         changes.
+		 */
+		public Set<Service> getSnapshot() {
+			return snapshot;
+		}
+
+		/**
+		 * Access the changes.
+		 * 
+		 * @return the changes in sequence order, empty if this delta is a full
+		 *         snapshot.
+		 */
+		public List<ServiceChange> getChanges() {
+			if (changes == null) {
+				return Collections.emptyList();
+			}
+			return Collections.unmodifiableList(changes);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "ServiceChangeLog.Delta [fromVersion=" + fromVersion
+					+ ", toVersion=" + toVersion + ", "
+					+ (snapshot != null ? "snapshot=" + snapshot.size()
+							: "changes=" + changes.size()) + "]";
+		}
+	}
+
+}
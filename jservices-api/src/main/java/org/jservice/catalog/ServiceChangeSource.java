@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+/**
+ * Source of {@link ServiceChange}s a catalog synchronizes with, e.g. a local
+ * {@link ServiceChangeLog} or a remote catalog backend.
+ * 
+ * @author Anatole Tresch
+ */
+public interface ServiceChangeSource {
+
+	/**
+	 * Access all changes since the given version.
+	 * 
+	 * @param version
+	 *            the last version known by the caller, {@code 0} if none.
+	 * @return the changes since the given version, or a full snapshot, if the
+	 *         changes are no longer available.
+	 */
+	public ServiceChangeLog.Delta getChangesSince(long version);
+
+}
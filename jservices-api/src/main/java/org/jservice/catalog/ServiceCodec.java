@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compact, versioned binary encoding of {@link Service} instances, used for
+ * replicating services between catalogs. A batch is encoded as follows:
+ *
+ * <pre>
+ * batch      := version:byte dictionary count:varint service*
+ * dictionary := size:varint (length:varint utf8:byte[length])*
+ * service    := protocol:ref host:ref port:varint location:ref
+ *               interfaces:varint ref* context:varint (ref ref)*
+ * ref        := varint, 0 for null, otherwise 1 + index into the dictionary
+ * </pre>
+ *
+ * All strings of a batch, such as interface names, protocols, hosts and
+ * context keys, are written only once into the dictionary, so repeated values
+ * cost a single varint byte. Decoded services of the same batch share these
+ * string instances. The expiry of a service is not encoded, since leases are
+ * maintained by each catalog locally.
+ *
+ * @author Anatole Tresch
+ */
+public final class ServiceCodec {
+
+	/** The current format version. */
+	public static final byte VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Singleton constructor.
+	 */
+	private ServiceCodec() {
+	}
+
+	/**
+	 * Encodes a single service into a new buffer.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return the buffer, ready for reading.
+	 */
+	public static ByteBuffer encode(Service service) {
+		return encodeAll(Collections.singleton(Objects.requireNonNull(service)));
+	}
+
+	/**
+	 * Encodes a batch of services into a new buffer of the exact size.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 * @return the buffer, ready for reading.
+	 */
+	public static ByteBuffer encodeAll(Collection<Service> services) {
+		Batch batch = new Batch(services);
+		ByteBuffer buffer = ByteBuffer.allocate(batch.size());
+		batch.writeTo(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Encodes a batch of services into the given buffer, starting at its
+	 * current position.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 * @param buffer
+	 *            the target buffer, not {@code null}.
+	 * @return the number of bytes written.
+	 * @throws BufferOverflowException
+	 *             if the remaining space is not sufficient, in which case the
+	 *             buffer is not changed.
+	 */
+	public static int encodeAll(Collection<Service> services, ByteBuffer buffer) {
+		Batch batch = new Batch(services);
+		int size = batch.size();
+		if (buffer.remaining() < size) {
+			throw new BufferOverflowException();
+		}
+		batch.writeTo(buffer);
+		return size;
+	}
+
+	/**
+	 * Computes the number of bytes needed for encoding the given services.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 * @return the encoded size, in bytes.
+	 */
+	public static int encodedSize(Collection<Service> services) {
+		return new Batch(services).size();
+	}
+
+	/**
+	 * Decodes a single service, encoded by {@link #encode(Service)}.
+	 *
+	 * @param buffer
+	 *            the buffer, positioned at the start of the encoded data.
+	 * @return the service decoded.
+	 * @throws IllegalArgumentException
+	 *             if the data is malformed or does not contain exactly one
+	 *             service.
+	 */
+	public static Service decode(ByteBuffer buffer) {
+		List<Service> services = decodeAll(buffer);
+		if (services.size() != 1) {
+			throw new IllegalArgumentException("Expected one service, but found "
+					+ services.size() + '.');
+		}
+		return services.get(0);
+	}
+
+	/**
+	 * Decodes a batch of services, advancing the buffer's position to the end
+	 * of the batch.
+	 *
+	 * @param buffer
+	 *            the buffer, positioned at the start of the encoded data.
+	 * @return the services decoded, in encoding order.
+	 * @throws IllegalArgumentException
+	 *             if the data is malformed or of an unsupported version.
+	 */
+	public static List<Service> decodeAll(ByteBuffer buffer) {
+		try {
+			byte version = buffer.get();
+			if (version != VERSION) {
+				throw new IllegalArgumentException(
+						"Unsupported service codec version: " + version);
+			}
+			String[] dictionary = new String[readCount(buffer)];
+			for (int i = 0; i < dictionary.length; i++) {
+				dictionary[i] = readString(buffer);
+			}
+			int count = readCount(buffer);
+			List<Service> services = new ArrayList<>(Math.min(count, 1024));
+			for (int i = 0; i < count; i++) {
+				services.add(readService(buffer, dictionary));
+			}
+			return services;
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated or corrupt service data.", e);
+		}
+	}
+
+	private static Service readService(ByteBuffer buffer, String[] dictionary) {
+		Service.Builder builder = new Service.Builder();
+		String protocol = readRef(buffer, dictionary);
+		if (protocol != null) {
+			builder.setProtocol(protocol);
+		}
+		String host = readRef(buffer, dictionary);
+		if (host != null) {
+			builder.setHost(host);
+		}
+		builder.setPort(readVarint(buffer));
+		String location = readRef(buffer, dictionary);
+		if (location != null) {
+			builder.setLocation(location);
+		}
+		int count = readCount(buffer);
+		String[] interfaces = new String[count];
+		for (int i = 0; i < count; i++) {
+			interfaces[i] = readRef(buffer, dictionary);
+		}
+		builder.setInterfaces(interfaces);
+		count = readCount(buffer);
+		if (count > 0) {
+			Map<String, String> context = new HashMap<>();
+			for (int i = 0; i < count; i++) {
+				String key = readRef(buffer, dictionary);
+				context.put(key, readRef(buffer, dictionary));
+			}
+			builder.setContext(context);
+		}
+		return builder.build();
+	}
+
+	private static String readRef(ByteBuffer buffer, String[] dictionary) {
+		int ref = readVarint(buffer);
+		return ref == 0 ? null : dictionary[ref - 1];
+	}
+
+	/**
+	 * Reads an element count. Every element takes at least one byte, so a
+	 * count exceeding the remaining data can only stem from corrupt data and
+	 * is rejected before anything is allocated for it.
+	 */
+	private static int readCount(ByteBuffer buffer) {
+		int count = readVarint(buffer);
+		if (count < 0 || count > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid count: " + count);
+		}
+		return count;
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = readVarint(buffer);
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid length: " + length);
+		}
+		String s;
+		if (buffer.hasArray()) {
+			s = new String(buffer.array(), buffer.arrayOffset()
+					+ buffer.position(), length, UTF8);
+			buffer.position(buffer.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			s = new String(bytes, UTF8);
+		}
+		return s;
+	}
+
+	/**
+	 * Reads an unsigned varint, 7 bits per byte, least significant group
+	 * first.
+	 */
+	static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint.");
+	}
+
+	/**
+	 * Writes an unsigned varint, see {@link #readVarint(ByteBuffer)}.
+	 */
+	static void writeVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Computes the size of a varint, see {@link #writeVarint(ByteBuffer, int)}.
+	 */
+	static int varintSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * A batch prepared for encoding, with its dictionary built.
+	 */
+	private static final class Batch {
+		private final Collection<Service> services;
+		private final Map<String, Integer> refs = new LinkedHashMap<>();
+		private final List<byte[]> strings = new ArrayList<>();
+		private int size;
+
+		Batch(Collection<Service> services) {
+			this.services = Objects.requireNonNull(services);
+			size = 1;
+			for (Service service : services) {
+				size += sizeOf(service.getProtocol());
+				size += sizeOf(service.getHost());
+				size += varintSize(service.getPort());
+				size += sizeOf(service.getLocation());
+				size += varintSize(service.getInterfaces().size());
+				for (String name : service.getInterfaces()) {
+					size += sizeOf(name);
+				}
+				Map<String, String> context = service.getContext();
+				size += varintSize(context.size());
+				for (Map.Entry<String, String> en : context.entrySet()) {
+					size += sizeOf(en.getKey());
+					size += sizeOf(en.getValue());
+				}
+			}
+			size += varintSize(strings.size());
+			for (byte[] bytes : strings) {
+				size += varintSize(bytes.length) + bytes.length;
+			}
+			size += varintSize(services.size());
+		}
+
+		/**
+		 * Adds the string to the dictionary, returning the size of its
+		 * reference.
+		 */
+		private int sizeOf(String s) {
+			return varintSize(ref(s));
+		}
+
+		private int ref(String s) {
+			if (s == null) {
+				return 0;
+			}
+			Integer ref = refs.get(s);
+			if (ref == null) {
+				ref = refs.size() + 1;
+				refs.put(s, ref);
+				strings.add(s.getBytes(UTF8));
+			}
+			return ref;
+		}
+
+		int size() {
+			return size;
+		}
+
+		void writeTo(ByteBuffer buffer) {
+			buffer.put(VERSION);
+			writeVarint(buffer, strings.size());
+			for (byte[] bytes : strings) {
+				writeVarint(buffer, bytes.length);
+				buffer.put(bytes);
+			}
+			writeVarint(buffer, services.size());
+			for (Service service : services) {
+				writeVarint(buffer, ref(service.getProtocol()));
+				writeVarint(buffer, ref(service.getHost()));
+				writeVarint(buffer, service.getPort());
+				writeVarint(buffer, ref(service.getLocation()));
+				writeVarint(buffer, service.getInterfaces().size());
+				for (String name : service.getInterfaces()) {
+					writeVarint(buffer, ref(name));
+				}
+				Map<String, String> context = service.getContext();
+				writeVarint(buffer, context.size());
+				for (Map.Entry<String, String> en : context.entrySet()) {
+					writeVarint(buffer, ref(en.getKey()));
+					writeVarint(buffer, ref(en.getValue()));
+				}
+			}
+		}
+	}
+
+}
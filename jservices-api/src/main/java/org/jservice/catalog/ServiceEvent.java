@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * Batch of changes delivered to a {@link ServiceListener}.
+ * 
+ * @author Anatole Tresch
+ */
+public final class ServiceEvent {
+
+	private final Collection<Service> added;
+	private final Collection<Service> removed;
+	private final Collection<Service> renewed;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param added
+	 *            the services added, not {@code null}.
+	 * @param removed
+	 *            the services removed, not {@code null}.
+	 * @param renewed
+	 *            the services renewed, not {@code null}.
+	 */
+	public ServiceEvent(Collection<Service> added, Collection<Service> removed,
+			Collection<Service> renewed) {
+		this.added = Collections.unmodifiableCollection(Objects
+				.requireNonNull(added));
+		this.removed = Collections.unmodifiableCollection(Objects
+				.requireNonNull(removed));
+		this.renewed = Collections.unmodifiableCollection(Objects
+				.requireNonNull(renewed));
+	}
+
+	/**
+	 * Access the services added.
+	 * 
+	 * @return the services added, never {@code null}.
+	 */
+	public Collection<Service> getAdded() {
+		return added;
+	}
+
+	/**
+	 * Access the services removed.
+	 * 
+	 * @return the services removed, never {@code null}.
+	 */
+	public Collection<Service> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Access the services whose lease was renewed.
+	 * 
+	 * @return the services renewed, never {@code null}.
+	 */
+	public Collection<Service> getRenewed() {
+		return renewed;
+	}
+
+	/**
+	 * Checks if this event contains any changes.
+	 * 
+	 * @return true, if no changes are contained.
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && renewed.isEmpty();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceEvent [added=" + added + ", removed=" + removed
+				+ ", renewed=" + renewed + "]";
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Result of an asynchronous catalog operation, see
+ * {@link AsyncServiceCatalog}. Besides blocking via {@link Future}, callers
+ * can register {@link Callback}s, which are invoked on the thread completing
+ * the future, or immediately, if the future is already completed.
+ *
+ * @param <T>
+ *            the result type.
+ * @author Anatole Tresch
+ */
+public final class ServiceFuture<T> implements Future<T> {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ServiceFuture.class);
+
+	private boolean done;
+	private T result;
+	private Throwable failure;
+	private List<Callback<? super T>> callbacks;
+
+	/**
+	 * Creates a new, not yet completed future.
+	 */
+	public ServiceFuture() {
+	}
+
+	/**
+	 * Creates a completed future.
+	 *
+	 * @param result
+	 *            the result, may be {@code null}.
+	 * @return the completed future.
+	 */
+	public static <T> ServiceFuture<T> completed(T result) {
+		ServiceFuture<T> future = new ServiceFuture<>();
+		future.complete(result);
+		return future;
+	}
+
+	/**
+	 * Creates a failed future.
+	 *
+	 * @param failure
+	 *            the failure, not {@code null}.
+	 * @return the failed future.
+	 */
+	public static <T> ServiceFuture<T> failed(Throwable failure) {
+		ServiceFuture<T> future = new ServiceFuture<>();
+		future.fail(failure);
+		return future;
+	}
+
+	/**
+	 * Completes this future, if not yet done.
+	 *
+	 * @param result
+	 *            the result, may be {@code null}.
+	 * @return true, if this call completed the future.
+	 */
+	public boolean complete(T result) {
+		return finish(result, null);
+	}
+
+	/**
+	 * Completes this future exceptionally, if not yet done.
+	 *
+	 * @param failure
+	 *            the failure, not {@code null}.
+	 * @return true, if this call completed the future.
+	 */
+	public boolean fail(Throwable failure) {
+		if (failure == null) {
+			throw new NullPointerException("failure");
+		}
+		return finish(null, failure);
+	}
+
+	private boolean finish(T result, Throwable failure) {
+		List<Callback<? super T>> toNotify;
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			this.result = result;
+			this.failure = failure;
+			this.done = true;
+			toNotify = callbacks;
+			callbacks = null;
+			notifyAll();
+		}
+		if (toNotify != null) {
+			for (Callback<? super T> callback : toNotify) {
+				notify(callback);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Registers a callback, called once this future is completed.
+	 *
+	 * @param callback
+	 *            the callback, not {@code null}.
+	 * @return this instance, for chaining.
+	 */
+	public ServiceFuture<T> addCallback(Callback<? super T> callback) {
+		if (callback == null) {
+			throw new NullPointerException("callback");
+		}
+		synchronized (this) {
+			if (!done) {
+				if (callbacks == null) {
+					callbacks = new ArrayList<>(2);
+				}
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		notify(callback);
+		return this;
+	}
+
+	/**
+	 * Completes the given future with the outcome of this future.
+	 *
+	 * @param target
+	 *            the future to be completed, not {@code null}.
+	 */
+	public void forward(final ServiceFuture<? super T> target) {
+		addCallback(new Callback<T>() {
+			@Override
+			public void onSuccess(T result) {
+				target.complete(result);
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				target.fail(failure);
+			}
+		});
+	}
+
+	private void notify(Callback<? super T> callback) {
+		try {
+			if (failure != null) {
+				callback.onFailure(failure);
+			} else {
+				callback.onSuccess(result);
+			}
+		} catch (RuntimeException e) {
+			LOG.error("Callback failed: " + callback, e);
+		}
+	}
+
+	/**
+	 * Cancels this future, completing it with a
+	 * {@link CancellationException}. The operation itself is not
+	 * interrupted.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return fail(new CancellationException());
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return failure instanceof CancellationException;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public synchronized T get() throws InterruptedException,
+			ExecutionException {
+		while (!done) {
+			wait();
+		}
+		return getResult();
+	}
+
+	@Override
+	public synchronized T get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return getResult();
+	}
+
+	private T getResult() throws ExecutionException {
+		if (failure instanceof CancellationException) {
+			throw (CancellationException) failure;
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		if (!done) {
+			return "ServiceFuture [pending]";
+		}
+		return failure != null ? "ServiceFuture [failure=" + failure + "]"
+				: "ServiceFuture [result=" + result + "]";
+	}
+
+	/**
+	 * Callback notified when a {@link ServiceFuture} is completed.
+	 *
+	 * @param <T>
+	 *            the result type.
+	 * @author Anatole Tresch
+	 */
+	public static interface Callback<T> {
+
+		/**
+		 * Called with the result.
+		 *
+		 * @param result
+		 *            the result, may be {@code null}.
+		 */
+		void onSuccess(T result);
+
+		/**
+		 * Called with the failure.
+		 *
+		 * @param failure
+		 *            the failure, never {@code null}.
+		 */
+		void onFailure(Throwable failure);
+	}
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jservice.metrics.LatencyHistogram;
+
+/**
+ * Creates hedged proxies over two replicas of a service. Calls of
+ * {@link Idempotent} methods are sent to the primary replica first. If it has
+ * not answered within the delay defined by the {@link HedgingPolicy}, the call
+ * is also sent to the secondary replica, and the first response wins. If the
+ * primary replica fails before, the call is sent to the secondary replica
+ * right away. Other methods are always called on the primary replica only.
+ * <p>
+ * Latencies are tracked per method, shared by all proxies created by the same
+ * instance. Calls are run on a pool of daemon threads, since the caller must be
+ * able to return as soon as either replica has answered.
+ *
+ * @author Anatole Tresch
+ */
+public final class ServiceHedger implements AutoCloseable {
+
+	private final HedgingPolicy policy;
+	private final ExecutorService executor;
+	private final ConcurrentHashMap<Method, MethodState> methods = new ConcurrentHashMap<>();
+	private final AtomicLong hedges = new AtomicLong();
+
+	/**
+	 * Creates a new instance, using {@link HedgingPolicy#DEFAULT}.
+	 */
+	public ServiceHedger() {
+		this(HedgingPolicy.DEFAULT);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param policy
+	 *            the policy, not {@code null}.
+	 */
+	public ServiceHedger(HedgingPolicy policy) {
+		this.policy = Objects.requireNonNull(policy);
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ServiceHedger");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Access the policy.
+	 *
+	 * @return the policy, never {@code null}.
+	 */
+	public HedgingPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Access the number of calls sent to secondary replicas so far.
+	 *
+	 * @return the number of hedges.
+	 */
+	public long getHedgeCount() {
+		return hedges.get();
+	}
+
+	/**
+	 * Creates a hedged proxy.
+	 *
+	 * @param type
+	 *            the interface type, not {@code null}.
+	 * @param primary
+	 *            the proxy of the primary replica, not {@code null}.
+	 * @param secondary
+	 *            the proxy of the secondary replica, not {@code null}.
+	 * @return the hedged proxy, or the primary, if the type is not an
+	 *         interface.
+	 */
+	public <T> T wrap(Class<T> type, T primary, T secondary) {
+		Objects.requireNonNull(primary);
+		Objects.requireNonNull(secondary);
+		if (!type.isInterface()) {
+			return primary;
+		}
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, new Handler(primary, secondary)));
+	}
+
+	/**
+	 * Stops the threads running the calls.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private MethodState stateOf(Method method) {
+		MethodState state = methods.get(method);
+		if (state == null) {
+			state = new MethodState(method.isAnnotationPresent(Idempotent.class)
+					|| method.getDeclaringClass().isAnnotationPresent(
+							Idempotent.class));
+			MethodState existing = methods.putIfAbsent(method, state);
+			if (existing != null) {
+				state = existing;
+			}
+		}
+		return state;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceHedger [policy=" + policy + ", hedges=" + hedges.get()
+				+ "]";
+	}
+
+	/**
+	 * Per method state.
+	 */
+	private final class MethodState {
+		final boolean idempotent;
+		final LatencyHistogram latencies = new LatencyHistogram();
+
+		MethodState(boolean idempotent) {
+			this.idempotent = idempotent;
+		}
+
+		long delayNanos() {
+			long max = TimeUnit.MILLISECONDS.toNanos(policy.getMaxDelayMillis());
+			if (latencies.getCount() < HedgingPolicy.MIN_SAMPLES) {
+				return max;
+			}
+			long min = TimeUnit.MILLISECONDS.toNanos(policy.getMinDelayMillis());
+			return Math.max(min,
+					Math.min(max, latencies.getPercentile(policy.getPercentile())));
+		}
+	}
+
+	/**
+	 * The hedging {@link InvocationHandler}.
+	 */
+	private final class Handler implements InvocationHandler {
+		private final Object primary;
+		private final Object secondary;
+
+		Handler(Object primary, Object secondary) {
+			this.primary = primary;
+			this.secondary = secondary;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				return method.invoke(primary, args);
+			}
+			MethodState state = stateOf(method);
+			if (!state.idempotent) {
+				try {
+					return method.invoke(primary, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+			long start = System.nanoTime();
+			ExecutorCompletionService<Object> calls = new ExecutorCompletionService<>(
+					executor);
+			Future<Object> first = calls.submit(call(primary, method, args));
+			Future<Object> second = null;
+			try {
+				Future<Object> done = calls.poll(state.delayNanos(),
+						TimeUnit.NANOSECONDS);
+				if (done == null) {
+					hedges.incrementAndGet();
+					second = calls.submit(call(secondary, method, args));
+					done = calls.take();
+				}
+				try {
+					Object result = done.get();
+					state.latencies.record(System.nanoTime() - start);
+					return result;
+				} catch (ExecutionException e) {
+					if (second == null) {
+						// the primary failed before hedging, fall through
+						hedges.incrementAndGet();
+						second = calls.submit(call(secondary, method, args));
+					}
+					try {
+						return calls.take().get();
+					} catch (ExecutionException e2) {
+						throw e.getCause();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while calling "
+						+ method + '.', e);
+			} finally {
+				first.cancel(true);
+				if (second != null) {
+					second.cancel(true);
+				}
+			}
+		}
+
+		private Callable<Object> call(final Object target,
+				final Method method, final Object[] args) {
+			return new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					try {
+						return method.invoke(target, args);
+					} catch (InvocationTargetException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof Exception) {
+							throw (Exception) cause;
+						}
+						throw (Error) cause;
+					}
+				}
+			};
+		}
+	}
+
+}
@@ -0,0 +1,585 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable inverted index over {@link Service} instances, that can be used by
+ * any {@link ServiceCatalog} implementation for fast lookups. The index
+ * maintains a posting list for each interface name, protocol, host, context
+ * key and context key/value pair. Lookups intersect the posting lists
+ * involved, starting with the smallest one, so the cost of a lookup depends on
+ * the size of the most selective criterion rather than on the size of the
+ * catalog.
+ * <p>
+ * Instances are immutable and therefore safe for concurrent reads. Changes are
+ * applied by creating a new index. Since the posting lists are hash tries,
+ * only the paths to the entries affected are copied, so the cost of a change
+ * does not depend on the size of the catalog.
+ *
+ * @author Anatole Tresch
+ */
+public final class ServiceIndex {
+
+	/** The empty index. */
+	public static final ServiceIndex EMPTY = new ServiceIndex(
+			HashTrieSet.<Service> empty(), Postings.EMPTY, Postings.EMPTY,
+			Postings.EMPTY, Postings.EMPTY, Postings.EMPTY);
+
+	/** Separator used for building the context key/value posting keys. */
+	private static final char CONTEXT_SEPARATOR = '\u0000';
+
+	/** Orders posting lists by size, smallest first. */
+	private static final Comparator<Set<Service>> SIZE_ORDER = new Comparator<Set<Service>>() {
+		@Override
+		public int compare(Set<Service> o1, Set<Service> o2) {
+			return Integer.compare(o1.size(), o2.size());
+		}
+	};
+
+	/** All services contained. */
+	private final HashTrieSet<Service> services;
+	/** Postings by interface name. */
+	private final Postings byInterface;
+	/** Postings by protocol. */
+	private final Postings byProtocol;
+	/** Postings by host. */
+	private final Postings byHost;
+	/** Postings by context key. */
+	private final Postings byContextKey;
+	/** Postings by context key/value pair. */
+	private final Postings byContextEntry;
+
+	private ServiceIndex(HashTrieSet<Service> services, Postings byInterface,
+			Postings byProtocol, Postings byHost, Postings byContextKey,
+			Postings byContextEntry) {
+		this.services = services;
+		this.byInterface = byInterface;
+		this.byProtocol = byProtocol;
+		this.byHost = byHost;
+		this.byContextKey = byContextKey;
+		this.byContextEntry = byContextEntry;
+	}
+
+	/**
+	 * Access the number of services contained.
+	 *
+	 * @return the number of services.
+	 */
+	public int size() {
+		return services.size();
+	}
+
+	/**
+	 * Checks if the given service is contained in this index.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return true, if the service is indexed.
+	 */
+	public boolean contains(Service service) {
+		return services.contains(service);
+	}
+
+	/**
+	 * Access all services contained.
+	 *
+	 * @return all services, never {@code null}.
+	 */
+	public Set<Service> getServices() {
+		return services;
+	}
+
+	/**
+	 * Access all interface names currently indexed.
+	 *
+	 * @return the interface names, never {@code null}.
+	 */
+	public Set<String> getInterfaces() {
+		return byInterface.map.keySet();
+	}
+
+	/**
+	 * Access all services implementing the given interface.
+	 *
+	 * @param interfaceName
+	 *            the fully qualified interface name.
+	 * @return the services found, never {@code null}.
+	 */
+	public Set<Service> getByInterface(String interfaceName) {
+		return postings(byInterface, interfaceName);
+	}
+
+	/**
+	 * Access all services provided by the given protocol.
+	 *
+	 * @param protocol
+	 *            the protocol.
+	 * @return the services found, never {@code null}.
+	 */
+	public Set<Service> getByProtocol(String protocol) {
+		return postings(byProtocol, protocol);
+	}
+
+	/**
+	 * Access all services provided on the given host.
+	 *
+	 * @param host
+	 *            the host.
+	 * @return the services found, never {@code null}.
+	 */
+	public Set<Service> getByHost(String host) {
+		return postings(byHost, host);
+	}
+
+	/**
+	 * Access all services that define the given context key.
+	 *
+	 * @param key
+	 *            the context key.
+	 * @return the services found, never {@code null}.
+	 */
+	public Set<Service> getByContextKey(String key) {
+		return postings(byContextKey, key);
+	}
+
+	/**
+	 * Access all services with exactly the given context value.
+	 *
+	 * @param key
+	 *            the context key.
+	 * @param value
+	 *            the context value.
+	 * @return the services found, never {@code null}.
+	 */
+	public Set<Service> getByContext(String key, String value) {
+		return postings(byContextEntry, contextEntry(key, value));
+	}
+
+	/**
+	 * Starts a new selection on this index.
+	 *
+	 * @return a new {@link Selection}, never {@code null}.
+	 */
+	public Selection select() {
+		return new Selection();
+	}
+
+	/**
+	 * Evaluates the given query. Exact interface, protocol and context
+	 * criteria are resolved from the posting lists, interface expressions
+	 * are evaluated on the indexed interface names only. The remaining
+	 * expressions are evaluated on the candidates selected.
+	 *
+	 * @param query
+	 *            the query, not {@code null}.
+	 * @return the services matching, never {@code null}.
+	 */
+	public List<Service> find(ServiceQuery query) {
+		Selection selection = select();
+		ServiceQuery.Expression interfaceExpression = query
+				.getInterfaceExpression();
+		boolean filterRequired = false;
+		if (interfaceExpression != null) {
+			switch (interfaceExpression.getKind()) {
+			case EXACT:
+				selection.withInterface(interfaceExpression.getLiteral());
+				break;
+			default:
+				// also for ANY: services without interfaces do not match
+				Set<Service> matching = new HashSet<>();
+				for (Map.Entry<String, HashTrieSet<Service>> en : byInterface.map
+						.entrySet()) {
+					if (interfaceExpression.matches(en.getKey())) {
+						matching.addAll(en.getValue());
+					}
+				}
+				selection.with(matching);
+			}
+		}
+		if (query.getProtocols().size() == 1) {
+			selection.withProtocol(query.getProtocols().iterator().next());
+		} else if (!query.getProtocols().isEmpty()) {
+			filterRequired = true;
+		}
+		for (Map.Entry<String, ServiceQuery.Expression> en : query
+				.getContext().entrySet()) {
+			if (en.getValue().getKind() == ServiceQuery.Expression.Kind.EXACT) {
+				selection.withContext(en.getKey(), en.getValue().getLiteral());
+			} else {
+				selection.withContextKey(en.getKey());
+				filterRequired = true;
+			}
+		}
+		List<Service> result = selection.list();
+		if (filterRequired) {
+			for (Iterator<Service> it = result.iterator(); it.hasNext();) {
+				Service service = it.next();
+				if (!query.isMatchingProtocol(service)
+						|| !query.isMatchingContext(service)) {
+					it.remove();
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a new index, with the given service added.
+	 *
+	 * @param service
+	 *            the service to be added, not {@code null}.
+	 * @return the new index, or this instance, if the service is already
+	 *         contained.
+	 */
+	public ServiceIndex with(Service service) {
+		if (services.contains(Objects.requireNonNull(service))) {
+			return this;
+		}
+		return with(Collections.singleton(service));
+	}
+
+	/**
+	 * Creates a new index, with all the given services added.
+	 *
+	 * @param added
+	 *            the services to be added, not {@code null}.
+	 * @return the new index, or this instance, if nothing changed.
+	 */
+	public ServiceIndex with(Collection<Service> added) {
+		return update(added, Collections.<Service> emptySet());
+	}
+
+	/**
+	 * Creates a new index, with the given service removed.
+	 *
+	 * @param service
+	 *            the service to be removed, not {@code null}.
+	 * @return the new index, or this instance, if the service is not
+	 *         contained.
+	 */
+	public ServiceIndex without(Service service) {
+		if (!services.contains(Objects.requireNonNull(service))) {
+			return this;
+		}
+		return without(Collections.singleton(service));
+	}
+
+	/**
+	 * Creates a new index, with all the given services removed.
+	 *
+	 * @param removed
+	 *            the services to be removed, not {@code null}.
+	 * @return the new index, or this instance, if nothing changed.
+	 */
+	public ServiceIndex without(Collection<Service> removed) {
+		return update(Collections.<Service> emptySet(), removed);
+	}
+
+	/**
+	 * Creates a new index, hereby first removing and then adding the given
+	 * services.
+	 *
+	 * @param added
+	 *            the services to be added, not {@code null}.
+	 * @param removed
+	 *            the services to be removed, not {@code null}.
+	 * @return the new index, or this instance, if nothing changed.
+	 */
+	public ServiceIndex update(Collection<Service> added,
+			Collection<Service> removed) {
+		Objects.requireNonNull(added);
+		Objects.requireNonNull(removed);
+		if (added.isEmpty() && removed.isEmpty()) {
+			return this;
+		}
+		HashTrieSet<Service> newServices = services;
+		Postings interfaces = byInterface;
+		Postings protocols = byProtocol;
+		Postings hosts = byHost;
+		Postings contextKeys = byContextKey;
+		Postings contextEntries = byContextEntry;
+		for (Service service : removed) {
+			HashTrieSet<Service> reduced = newServices.minus(service);
+			if (reduced == newServices) {
+				continue;
+			}
+			newServices = reduced;
+			for (String type : service.getInterfaces()) {
+				interfaces = interfaces.minus(type, service);
+			}
+			protocols = protocols.minus(service.getProtocol(), service);
+			hosts = hosts.minus(service.getHost(), service);
+			for (Map.Entry<String, String> en : service.getContext()
+					.entrySet()) {
+				contextKeys = contextKeys.minus(en.getKey(), service);
+				contextEntries = contextEntries.minus(
+						contextEntry(en.getKey(), en.getValue()), service);
+			}
+		}
+		for (Service service : added) {
+			HashTrieSet<Service> extended = newServices.plus(service);
+			if (extended == newServices) {
+				continue;
+			}
+			newServices = extended;
+			for (String type : service.getInterfaces()) {
+				interfaces = interfaces.plus(type, service);
+			}
+			protocols = protocols.plus(service.getProtocol(), service);
+			hosts = hosts.plus(service.getHost(), service);
+			for (Map.Entry<String, String> en : service.getContext()
+					.entrySet()) {
+				contextKeys = contextKeys.plus(en.getKey(), service);
+				contextEntries = contextEntries.plus(
+						contextEntry(en.getKey(), en.getValue()), service);
+			}
+		}
+		if (newServices == services) {
+			return this;
+		}
+		return new ServiceIndex(newServices, interfaces, protocols, hosts,
+				contextKeys, contextEntries);
+	}
+
+	private static Set<Service> postings(Postings postings, String key) {
+		Set<Service> result = postings.map.get(key);
+		if (result == null) {
+			return Collections.emptySet();
+		}
+		return result;
+	}
+
+	private static String contextEntry(String key, String value) {
+		return key + CONTEXT_SEPARATOR + value;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceIndex [services=" + services.size() + ", interfaces="
+				+ byInterface.size() + ", protocols=" + byProtocol.size()
+				+ ", hosts=" + byHost.size() + ", contextEntries="
+				+ byContextEntry.size() + "]";
+	}
+
+	/**
+	 * Immutable posting lists by key. Changes copy only the path to the
+	 * posting list changed and the path to the service within it.
+	 */
+	private static final class Postings {
+
+		static final Postings EMPTY = new Postings(
+				HashTrieMap.<String, HashTrieSet<Service>> empty());
+
+		final HashTrieMap<String, HashTrieSet<Service>> map;
+
+		private Postings(HashTrieMap<String, HashTrieSet<Service>> map) {
+			this.map = map;
+		}
+
+		Postings plus(String key, Service service) {
+			if (key == null) {
+				return this;
+			}
+			HashTrieSet<Service> set = map.get(key);
+			if (set == null) {
+				set = HashTrieSet.empty();
+			}
+			HashTrieSet<Service> newSet = set.plus(service);
+			if (newSet == set) {
+				return this;
+			}
+			return new Postings(map.plus(key, newSet));
+		}
+
+		int size() {
+			return map.size();
+		}
+
+		Postings minus(String key, Service service) {
+			if (key == null) {
+				return this;
+			}
+			HashTrieSet<Service> set = map.get(key);
+			if (set == null) {
+				return this;
+			}
+			HashTrieSet<Service> newSet = set.minus(service);
+			if (newSet == set) {
+				return this;
+			}
+			if (newSet.isEmpty()) {
+				return new Postings(map.minus(key));
+			}
+			return new Postings(map.plus(key, newSet));
+		}
+	}
+
+	/**
+	 * Selection on a {@link ServiceIndex}, evaluating the intersection of all
+	 * criteria added, using a fluent programming style.
+	 *
+	 * @author Anatole Tresch
+	 */
+	public final class Selection {
+
+		private final List<Set<Service>> criteria = new ArrayList<>();
+		private boolean empty;
+
+		private Selection() {
+		}
+
+		/**
+		 * Requires the given interface to be implemented.
+		 *
+		 * @param interfaceName
+		 *            the interface name, or {@code null} for any.
+		 * @return this instance, for chaining.
+		 */
+		public Selection withInterface(String interfaceName) {
+			return with(byInterface, interfaceName);
+		}
+
+		/**
+		 * Requires the given protocol.
+		 *
+		 * @param protocol
+		 *            the protocol, or {@code null} for any.
+		 * @return this instance, for chaining.
+		 */
+		public Selection withProtocol(String protocol) {
+			return with(byProtocol, protocol);
+		}
+
+		/**
+		 * Requires the given host.
+		 *
+		 * @param host
+		 *            the host, or {@code null} for any.
+		 * @return this instance, for chaining.
+		 */
+		public Selection withHost(String host) {
+			return with(byHost, host);
+		}
+
+		/**
+		 * Requires the given context key to be present, regardless of its
+		 * value.
+		 *
+		 * @param key
+		 *            the context key.
+		 * @return this instance, for chaining.
+		 */
+		public Selection withContextKey(String key) {
+			return with(byContextKey, key);
+		}
+
+		/**
+		 * Requires the given context key to have exactly the given value.
+		 *
+		 * @param key
+		 *            the context key.
+		 * @param value
+		 *            the required value.
+		 * @return this instance, for chaining.
+		 */
+		public Selection withContext(String key, String value) {
+			return with(byContextEntry, contextEntry(key, value));
+		}
+
+		/**
+		 * Requires all given context entries to match exactly.
+		 *
+		 * @param context
+		 *            the context entries, or {@code null}.
+		 * @return this instance, for chaining.
+		 */
+		public Selection withContext(Map<String, String> context) {
+			if (context != null) {
+				for (Map.Entry<String, String> en : context.entrySet()) {
+					withContext(en.getKey(), en.getValue());
+				}
+			}
+			return this;
+		}
+
+		private Selection with(Postings postings, String key) {
+			if (key == null || empty) {
+				return this;
+			}
+			return with(postings.map.get(key));
+		}
+
+		private Selection with(Set<Service> set) {
+			if (empty) {
+				return this;
+			}
+			if (set == null || set.isEmpty()) {
+				empty = true;
+				criteria.clear();
+			} else {
+				criteria.add(set);
+			}
+			return this;
+		}
+
+		/**
+		 * Evaluates the selection by intersecting the posting lists involved,
+		 * starting with the smallest one.
+		 *
+		 * @return the services matching all criteria, never {@code null}. If no
+		 *         criteria were added, all services are returned.
+		 */
+		public List<Service> list() {
+			if (empty) {
+				return Collections.emptyList();
+			}
+			if (criteria.isEmpty()) {
+				return new ArrayList<>(services);
+			}
+			Collections.sort(criteria, SIZE_ORDER);
+			Set<Service> smallest = criteria.get(0);
+			List<Service> result = new ArrayList<>(smallest.size());
+			candidates: for (Service service : smallest) {
+				for (int i = 1; i < criteria.size(); i++) {
+					if (!criteria.get(i).contains(service)) {
+						continue candidates;
+					}
+				}
+				result.add(service);
+			}
+			return result;
+		}
+	}
+
+}
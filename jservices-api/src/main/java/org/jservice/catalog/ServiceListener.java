@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+/**
+ * Listener for the changes of a {@link ServiceCatalog}, registered using
+ * {@link ServiceCatalog#watch(Class, java.util.Map, ServiceListener)}.
+ * 
+ * @author Anatole Tresch
+ */
+public interface ServiceListener {
+
+	/**
+	 * Called with the changes matching the watch registered, coalesced over
+	 * a short time window.
+	 * 
+	 * @param event
+	 *            the changes, never {@code null} and never empty.
+	 */
+	public void servicesChanged(ServiceEvent event);
+
+}
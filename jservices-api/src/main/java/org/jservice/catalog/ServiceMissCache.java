@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Negative cache remembering the interfaces a lookup found no services for,
+ * so repeated lookups of a missing interface do not reach the backend. Entries
+ * expire after a short time to live, the number of entries is bounded, hereby
+ * the oldest entries are evicted first. Catalogs must call
+ * {@link #invalidate(Service)} whenever a service is registered or added.
+ * <p>
+ * A lookup running concurrently with a registration may miss the service
+ * registered. Therefore a miss is only cached, if no invalidation happened
+ * since the lookup started, see {@link #getGeneration()}.
+ *
+ * @author Anatole Tresch
+ */
+public final class ServiceMissCache {
+
+	/** The default time to live of an entry, in ms. */
+	public static final long DEFAULT_TTL = 1000L;
+	/** The default maximal number of entries. */
+	public static final int DEFAULT_MAX_SIZE = 256;
+
+	/** The time to live of an entry, in ms. */
+	private final long ttl;
+	/** The maximal number of entries. */
+	private final int maxSize;
+	/** The expiry times of the misses, by interface name. */
+	private final ConcurrentHashMap<String, Long> misses = new ConcurrentHashMap<>();
+	/** Incremented by each invalidation. */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * Creates a new cache, using {@link #DEFAULT_TTL} and
+	 * {@link #DEFAULT_MAX_SIZE}.
+	 */
+	public ServiceMissCache() {
+		this(DEFAULT_TTL, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param ttl
+	 *            the time to live of an entry in ms, {@code 0} disables
+	 *            caching.
+	 * @param maxSize
+	 *            the maximal number of entries, {@code 0} disables caching.
+	 */
+	public ServiceMissCache(long ttl, int maxSize) {
+		if (ttl < 0) {
+			throw new IllegalArgumentException("ttl must not be negative.");
+		}
+		if (maxSize < 0) {
+			throw new IllegalArgumentException(
+					"maxSize must not be negative.");
+		}
+		this.ttl = ttl;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Access the current generation, to be passed to
+	 * {@link #put(String, long)} after the lookup.
+	 *
+	 * @return the generation.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Evaluates if a lookup of the given interface is known to find nothing.
+	 *
+	 * @param interfaceName
+	 *            the interface name, not {@code null}.
+	 * @return true, if a valid miss is cached.
+	 */
+	public boolean isMissing(String interfaceName) {
+		Long expiresAt = misses.get(interfaceName);
+		if (expiresAt == null) {
+			return false;
+		}
+		if (expiresAt <= System.currentTimeMillis()) {
+			misses.remove(interfaceName, expiresAt);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Caches a miss, unless the cache has been invalidated since the lookup
+	 * started.
+	 *
+	 * @param interfaceName
+	 *            the interface name, not {@code null}.
+	 * @param lookupGeneration
+	 *            the generation read by {@link #getGeneration()} before the
+	 *            lookup.
+	 * @return true, if the miss has been cached.
+	 */
+	public boolean put(String interfaceName, long lookupGeneration) {
+		if (ttl == 0 || maxSize == 0
+				|| generation.get() != lookupGeneration) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		Long expiresAt = now + ttl;
+		misses.put(interfaceName, expiresAt);
+		if (generation.get() != lookupGeneration) {
+			// invalidated concurrently
+			misses.remove(interfaceName, expiresAt);
+			return false;
+		}
+		if (misses.size() > maxSize) {
+			evict(now);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the misses of all interfaces of the given service.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 */
+	public void invalidate(Service service) {
+		generation.incrementAndGet();
+		if (misses.isEmpty()) {
+			return;
+		}
+		for (String type : service.getInterfaces()) {
+			misses.remove(type);
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		misses.clear();
+	}
+
+	/**
+	 * Access the number of misses currently cached, including expired entries
+	 * not yet evicted.
+	 *
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return misses.size();
+	}
+
+	private void evict(long now) {
+		for (Iterator<Long> it = misses.values().iterator(); it.hasNext();) {
+			if (it.next() <= now) {
+				it.remove();
+			}
+		}
+		while (misses.size() > maxSize) {
+			Map.Entry<String, Long> oldest = null;
+			for (Map.Entry<String, Long> en : misses.entrySet()) {
+				if (oldest == null || en.getValue() < oldest.getValue()) {
+					oldest = en;
+				}
+			}
+			if (oldest == null) {
+				return;
+			}
+			misses.remove(oldest.getKey(), oldest.getValue());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceMissCache [ttl=" + ttl + ", maxSize=" + maxSize
+				+ ", size=" + misses.size() + "]";
+	}
+
+}
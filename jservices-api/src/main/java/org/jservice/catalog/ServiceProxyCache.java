@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cache for resolved service proxies, keyed by {@link Service} and interface
+ * type, so repeated calls to {@link ServiceCatalog#resolveService(Service, Class)}
+ * do not resolve the endpoint again. Entries expire after a configurable time
+ * to live, the number of entries is bounded, hereby the oldest entries are
+ * evicted first. Catalogs must call {@link #invalidate(Service)} whenever a
+ * service is removed.
+ * <p>
+ * The entries are grouped by service, so an invalidation only touches the
+ * entries of its service. A resolution running concurrently with an
+ * invalidation may return a proxy of the service removed. Therefore a proxy
+ * is only cached, if the service was not invalidated since the resolution
+ * started, see {@link #getGeneration(Service)}.
+ * <p>
+ * Lookups do not take any locks, except for removing an expired entry. Changes
+ * are serialized by a lock, which also keeps the entries in the order they
+ * were cached. Since all entries have the same time to live, this is the
+ * order they expire in, so evicting an entry takes constant time.
+ *
+ * @author Anatole Tresch
+ */
+public final class ServiceProxyCache {
+
+	/** The default time to live of an entry, in ms. */
+	public static final long DEFAULT_TTL = 60000L;
+	/** The default maximal number of entries. */
+	public static final int DEFAULT_MAX_SIZE = 1024;
+
+	/** The number of generation counters, a power of two. */
+	private static final int GENERATIONS = 64;
+
+	/** The time to live of an entry, in ms. */
+	private final long ttl;
+	/** The maximal number of entries. */
+	private final int maxSize;
+	/** The entries, by service and interface type, changed holding order. */
+	private final ConcurrentHashMap<Service, ConcurrentHashMap<Class<?>, Entry>> entries = new ConcurrentHashMap<>();
+	/** The entries, oldest first, guarding all changes. */
+	private final LinkedHashSet<Entry> order = new LinkedHashSet<>();
+	/**
+	 * Incremented by each invalidation of a service hashing to the counter, so
+	 * no state is kept for services not cached.
+	 */
+	private final AtomicLongArray generations = new AtomicLongArray(
+			GENERATIONS);
+
+	/**
+	 * Creates a new cache, using {@link #DEFAULT_TTL} and
+	 * {@link #DEFAULT_MAX_SIZE}.
+	 */
+	public ServiceProxyCache() {
+		this(DEFAULT_TTL, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param ttl
+	 *            the time to live of an entry in ms, {@code 0} disables
+	 *            caching.
+	 * @param maxSize
+	 *            the maximal number of entries, {@code 0} disables caching.
+	 */
+	public ServiceProxyCache(long ttl, int maxSize) {
+		if (ttl < 0) {
+			throw new IllegalArgumentException("ttl must not be negative.");
+		}
+		if (maxSize < 0) {
+			throw new IllegalArgumentException(
+					"maxSize must not be negative.");
+		}
+		this.ttl = ttl;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Access the time to live of an entry.
+	 *
+	 * @return the time to live, in ms.
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Access the maximal number of entries.
+	 *
+	 * @return the maximal number of entries.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Access the number of entries currently cached, including expired
+	 * entries not yet evicted.
+	 *
+	 * @return the number of entries.
+	 */
+	public int size() {
+		synchronized (order) {
+			return order.size();
+		}
+	}
+
+	/**
+	 * Access the number of services having cached entries.
+	 */
+	int getServiceCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Access the current generation of the given service, to be passed to
+	 * {@link #put(Service, Class, Object, long)} after the resolution.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return the generation.
+	 */
+	public long getGeneration(Service service) {
+		return generations.get(generationIndex(service));
+	}
+
+	private static int generationIndex(Service service) {
+		int h = service.hashCode();
+		return (h ^ (h >>> 16)) & (GENERATIONS - 1);
+	}
+
+	/**
+	 * Access a cached proxy.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @param type
+	 *            the interface type, not {@code null}.
+	 * @return the cached proxy, or {@code null}, if no valid entry is cached.
+	 */
+	public <T> T get(Service service, Class<T> type) {
+		ConcurrentHashMap<Class<?>, Entry> proxies = entries.get(service);
+		if (proxies == null) {
+			return null;
+		}
+		Entry entry = proxies.get(type);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expiresAt <= System.currentTimeMillis()) {
+			remove(entry);
+			return null;
+		}
+		return type.cast(entry.proxy);
+	}
+
+	/**
+	 * Caches a resolved proxy, unless the service has been invalidated since
+	 * the resolution started. Expired entries are evicted, and if the cache is
+	 * full, the oldest entries.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @param type
+	 *            the interface type, not {@code null}.
+	 * @param proxy
+	 *            the resolved proxy, not {@code null}.
+	 * @param resolutionGeneration
+	 *            the generation read by {@link #getGeneration(Service)} before
+	 *            the resolution.
+	 * @return true, if the proxy has been cached.
+	 */
+	public <T> boolean put(Service service, Class<T> type, T proxy,
+			long resolutionGeneration) {
+		Objects.requireNonNull(type);
+		if (ttl == 0 || maxSize == 0
+				|| getGeneration(service) != resolutionGeneration) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		Entry entry = new Entry(service, type, proxy, now + ttl);
+		synchronized (order) {
+			// checked holding the lock, so a concurrent invalidation either
+			// fails this put or removes the entry afterwards
+			if (getGeneration(service) != resolutionGeneration) {
+				return false;
+			}
+			ConcurrentHashMap<Class<?>, Entry> proxies = entries.get(service);
+			if (proxies == null) {
+				proxies = new ConcurrentHashMap<>(2);
+				entries.put(service, proxies);
+			}
+			Entry replaced = proxies.put(type, entry);
+			if (replaced != null) {
+				order.remove(replaced);
+			}
+			order.add(entry);
+			evict(now);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all proxies of the given service. Proxies of resolutions
+	 * running concurrently are not cached anymore.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 */
+	public void invalidate(Service service) {
+		generations.incrementAndGet(generationIndex(service));
+		synchronized (order) {
+			ConcurrentHashMap<Class<?>, Entry> proxies = entries.remove(service);
+			if (proxies != null) {
+				for (Entry entry : proxies.values()) {
+					order.remove(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void invalidateAll() {
+		for (int i = 0; i < GENERATIONS; i++) {
+			generations.incrementAndGet(i);
+		}
+		synchronized (order) {
+			entries.clear();
+			order.clear();
+		}
+	}
+
+	/**
+	 * Removes the given entry, unless it has been removed or replaced
+	 * meanwhile.
+	 */
+	private void remove(Entry entry) {
+		synchronized (order) {
+			if (order.remove(entry)) {
+				removeFromGroup(entry);
+			}
+		}
+	}
+
+	/**
+	 * Removes the given entry from the group of its service, and the group,
+	 * if it is empty then. Must be called holding the lock.
+	 */
+	private void removeFromGroup(Entry entry) {
+		ConcurrentHashMap<Class<?>, Entry> proxies = entries.get(entry.service);
+		proxies.remove(entry.type, entry);
+		if (proxies.isEmpty()) {
+			entries.remove(entry.service);
+		}
+	}
+
+	/**
+	 * Evicts the expired entries, then the oldest ones, until the maximal size
+	 * is met. Both are found at the head of the order, so only the entries
+	 * evicted are visited. Must be called holding the lock.
+	 */
+	private void evict(long now) {
+		for (Iterator<Entry> it = order.iterator(); it.hasNext();) {
+			Entry eldest = it.next();
+			if (order.size() <= maxSize && eldest.expiresAt > now) {
+				return;
+			}
+			it.remove();
+			removeFromGroup(eldest);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceProxyCache [ttl=" + ttl + ", maxSize=" + maxSize
+				+ ", size=" + size() + "]";
+	}
+
+	/**
+	 * Cache entry.
+	 */
+	private static final class Entry {
+		private final Service service;
+		private final Class<?> type;
+		private final Object proxy;
+		private final long expiresAt;
+
+		Entry(Service service, Class<?> type, Object proxy, long expiresAt) {
+			this.service = service;
+			this.type = type;
+			this.proxy = Objects.requireNonNull(proxy);
+			this.expiresAt = expiresAt;
+		}
+	}
+
+}
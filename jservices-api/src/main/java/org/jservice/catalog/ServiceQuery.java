@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable query for selecting {@link Service} instances from a
+ * {@link ServiceCatalog}. All expressions are compiled once, when the query is
+ * built, so evaluating a query against many services does not compile any
+ * regular expression. Expressions without regular expression meta characters
+ * are evaluated using plain equality, expressions of the form
+ * {@code literal.*} using a prefix check.
+ * <p>
+ * An interface expression matches a service, if it matches at least one of
+ * its interfaces, so even {@code .*} does not match services without
+ * interfaces. Use a query without interface expression, e.g. {@link #ALL},
+ * to select all services.
+ *
+ * @author Anatole Tresch
+ */
+public final class ServiceQuery implements Serializable {
+
+	/**
+	 * serialVersionUID.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/** The query matching all services. */
+	public static final ServiceQuery ALL = new Builder().build();
+
+	/** The interface expression, or {@code null} for any interface. */
+	private final Expression interfaceExpression;
+	/** The protocols accepted, empty for any protocol. */
+	private final Set<String> protocols;
+	/** The context expressions, by context key. */
+	private final Map<String, Expression> context;
+
+	/**
+	 * Constructor, use the {@link Builder} for creating new
+	 * {@link ServiceQuery} instances.
+	 *
+	 * @param builder
+	 *            The builder with all required data
+	 */
+	private ServiceQuery(Builder builder) {
+		this.interfaceExpression = builder.interfaceExpression;
+		this.protocols = Collections.unmodifiableSet(new HashSet<>(
+				builder.protocols));
+		this.context = Collections
+				.unmodifiableMap(new LinkedHashMap<>(builder.context));
+	}
+
+	/**
+	 * Creates a query selecting services by interface and context
+	 * expressions.
+	 *
+	 * @param interfaceExpression
+	 *            the regular expression to be matched with the interface
+	 *            names, or {@code null} for all services.
+	 * @param contextExpressions
+	 *            the regular expressions to be matched with the context
+	 *            values, or {@code null}.
+	 * @return the new query, never {@code null}.
+	 */
+	public static ServiceQuery of(String interfaceExpression,
+			Map<String, String> contextExpressions) {
+		Builder builder = new Builder();
+		if (interfaceExpression != null) {
+			builder.setInterfaceExpression(interfaceExpression);
+		}
+		if (contextExpressions != null) {
+			builder.setContext(contextExpressions);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Access the interface expression.
+	 *
+	 * @return the interface expression, or {@code null} for any interface.
+	 */
+	public Expression getInterfaceExpression() {
+		return interfaceExpression;
+	}
+
+	/**
+	 * Access the protocols accepted.
+	 *
+	 * @return the protocols, empty for any protocol.
+	 */
+	public Set<String> getProtocols() {
+		return protocols;
+	}
+
+	/**
+	 * Access the context expressions.
+	 *
+	 * @return the context expressions by key, never {@code null}.
+	 */
+	public Map<String, Expression> getContext() {
+		return context;
+	}
+
+	/**
+	 * Evaluates if the given service matches this query.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return true, if the service matches all criteria of this query.
+	 */
+	public boolean matches(Service service) {
+		return isMatchingProtocol(service) && isMatchingInterface(service)
+				&& isMatchingContext(service);
+	}
+
+	/**
+	 * Evaluates if the given service matches the protocols of this query.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return true, if the protocol is accepted.
+	 */
+	public boolean isMatchingProtocol(Service service) {
+		return protocols.isEmpty()
+				|| protocols.contains(service.getProtocol());
+	}
+
+	/**
+	 * Evaluates if the given service matches the interface expression of this
+	 * query.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return true, if this query has no interface expression, or any of the
+	 *         service's interfaces match. A service without interfaces
+	 *         therefore only matches a query without interface expression.
+	 */
+	public boolean isMatchingInterface(Service service) {
+		return interfaceExpression == null
+				|| interfaceExpression.matchesAny(service.getInterfaces());
+	}
+
+	/**
+	 * Evaluates if the given service matches the context expressions of this
+	 * query. Hereby all keys must be present in the {@link Service}'s context
+	 * and the values must match.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return true, if all context expressions match.
+	 */
+	public boolean isMatchingContext(Service service) {
+		if (context.isEmpty()) {
+			return true;
+		}
+		Map<String, String> serviceContext = service.getContext();
+		for (Map.Entry<String, Expression> en : context.entrySet()) {
+			String value = serviceContext.get(en.getKey());
+			if (value == null || !en.getValue().matches(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash(interfaceExpression, protocols, context);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ServiceQuery other = (ServiceQuery) obj;
+		return Objects.equals(interfaceExpression, other.interfaceExpression)
+				&& protocols.equals(other.protocols)
+				&& context.equals(other.context);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceQuery [interface=" + interfaceExpression
+				+ ", protocols=" + protocols + ", context=" + context + "]";
+	}
+
+	/**
+	 * A compiled expression. Depending on the expression given, matching is
+	 * done using equality, a prefix check or a precompiled regular expression,
+	 * always with the same semantics as {@link String#matches(String)}.
+	 *
+	 * @author Anatole Tresch
+	 */
+	public static final class Expression implements Serializable {
+
+		/**
+		 * serialVersionUID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/** The regular expression meta characters. */
+		private static final String META_CHARS = "\\^$.|?*+()[]{}";
+
+		/**
+		 * The kind of evaluation used by an {@link Expression}.
+		 */
+		public static enum Kind {
+			/**
+			 * Matches any value without line terminators. Like all
+			 * expressions it does not match a missing value, e.g. a service
+			 * without interfaces.
+			 */
+			ANY,
+			/** Matches a literal value. */
+			EXACT,
+			/** Matches all values starting with a literal value. */
+			PREFIX,
+			/** Evaluates a regular expression. */
+			REGEX
+		}
+
+		/** The original expression. */
+		private final String expression;
+		/** The kind of evaluation. */
+		private final Kind kind;
+		/** The literal, for {@link Kind#EXACT} and {@link Kind#PREFIX}. */
+		private final String literal;
+		/** The compiled pattern, for {@link Kind#REGEX}. */
+		private final Pattern pattern;
+
+		private Expression(String expression, Kind kind, String literal) {
+			this.expression = expression;
+			this.kind = kind;
+			this.literal = literal;
+			this.pattern = kind == Kind.REGEX ? Pattern.compile(expression)
+					: null;
+		}
+
+		/**
+		 * Compiles the given regular expression.
+		 *
+		 * @param expression
+		 *            the regular expression, not {@code null}.
+		 * @return the compiled expression, never {@code null}.
+		 */
+		public static Expression compile(String expression) {
+			Objects.requireNonNull(expression);
+			if (".*".equals(expression)) {
+				return new Expression(expression, Kind.ANY, null);
+			}
+			String body = expression;
+			boolean prefix = false;
+			if (body.endsWith(".*") && !isEscaped(body, body.length() - 2)) {
+				body = body.substring(0, body.length() - 2);
+				prefix = true;
+			}
+			String literal = toLiteral(body);
+			if (literal == null) {
+				return new Expression(expression, Kind.REGEX, null);
+			}
+			return new Expression(expression, prefix ? Kind.PREFIX
+					: Kind.EXACT, literal);
+		}
+
+		/**
+		 * Creates an expression matching exactly the given value.
+		 *
+		 * @param value
+		 *            the value, not {@code null}.
+		 * @return the expression, never {@code null}.
+		 */
+		public static Expression exact(String value) {
+			return new Expression(Pattern.quote(value), Kind.EXACT,
+					Objects.requireNonNull(value));
+		}
+
+		private static boolean isEscaped(String expression, int pos) {
+			int backslashes = 0;
+			for (int i = pos - 1; i >= 0 && expression.charAt(i) == '\\'; i--) {
+				backslashes++;
+			}
+			return backslashes % 2 == 1;
+		}
+
+		/**
+		 * Evaluates the literal represented by the given expression.
+		 *
+		 * @param expression
+		 *            the expression
+		 * @return the literal, or {@code null}, if the expression is not a
+		 *         plain literal.
+		 */
+		private static String toLiteral(String expression) {
+			StringBuilder b = new StringBuilder(expression.length());
+			for (int i = 0; i < expression.length(); i++) {
+				char c = expression.charAt(i);
+				if (c == '\\') {
+					if (i + 1 >= expression.length()) {
+						return null;
+					}
+					char next = expression.charAt(++i);
+					if (Character.isLetterOrDigit(next)) {
+						return null;
+					}
+					b.append(next);
+				} else if (META_CHARS.indexOf(c) >= 0) {
+					return null;
+				} else {
+					b.append(c);
+				}
+			}
+			return b.toString();
+		}
+
+		/**
+		 * Access the original expression.
+		 *
+		 * @return the expression.
+		 */
+		public String getExpression() {
+			return expression;
+		}
+
+		/**
+		 * Access the kind of evaluation used.
+		 *
+		 * @return the kind.
+		 */
+		public Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * Access the literal for {@link Kind#EXACT} and {@link Kind#PREFIX}
+		 * expressions.
+		 *
+		 * @return the literal, or {@code null}.
+		 */
+		public String getLiteral() {
+			return literal;
+		}
+
+		/**
+		 * Evaluates the expression on the given value.
+		 *
+		 * @param value
+		 *            the value, not {@code null}.
+		 * @return true, if the value matches.
+		 */
+		public boolean matches(String value) {
+			switch (kind) {
+			case ANY:
+				return !hasLineTerminator(value, 0);
+			case EXACT:
+				return literal.equals(value);
+			case PREFIX:
+				return value.startsWith(literal)
+						&& !hasLineTerminator(value, literal.length());
+			default:
+				return pattern.matcher(value).matches();
+			}
+		}
+
+		/**
+		 * Checks for line terminators, which are not matched by {@code .*}.
+		 */
+		private static boolean hasLineTerminator(String value, int from) {
+			for (int i = from; i < value.length(); i++) {
+				switch (value.charAt(i)) {
+				case '\n':
+				case '\r':
+				case '\u0085':
+				case '\u2028':
+				case '\u2029':
+					return true;
+				default:
+					break;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Evaluates if any of the given values match.
+		 *
+		 * @param values
+		 *            the values, not {@code null}.
+		 * @return true, if at least one value matches.
+		 */
+		public boolean matchesAny(Set<String> values) {
+			if (kind == Kind.EXACT) {
+				return values.contains(literal);
+			}
+			for (String value : values) {
+				if (matches(value)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return expression.hashCode();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			return expression.equals(((Expression) obj).expression);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return kind + ":" + expression;
+		}
+	}
+
+	/**
+	 * Builder to create new instances of {@link ServiceQuery} using a fluent
+	 * programming style.
+	 *
+	 * @author Anatole Tresch
+	 */
+	public static final class Builder {
+		/** The interface expression, @see {@link ServiceQuery#interfaceExpression}. */
+		private Expression interfaceExpression;
+		/** The protocols, @see {@link ServiceQuery#protocols}. */
+		private Set<String> protocols = new HashSet<String>();
+		/** The context expressions, @see {@link ServiceQuery#context}. */
+		private Map<String, Expression> context = new LinkedHashMap<String, Expression>();
+
+		/**
+		 * Sets the exact interface type required.
+		 *
+		 * @param type
+		 *            the interface type, not {@code null}.
+		 */
+		public final Builder setInterface(Class<?> type) {
+			return setInterface(type.getName());
+		}
+
+		/**
+		 * Sets the exact interface name required.
+		 *
+		 * @param interfaceName
+		 *            the fully qualified interface name, not {@code null}.
+		 */
+		public final Builder setInterface(String interfaceName) {
+			this.interfaceExpression = Expression.exact(interfaceName);
+			return this;
+		}
+
+		/**
+		 * Sets the regular expression to be matched with the interface names.
+		 *
+		 * @param interfaceExpression
+		 *            the interface expression, not {@code null}.
+		 */
+		public final Builder setInterfaceExpression(String interfaceExpression) {
+			this.interfaceExpression = Expression.compile(interfaceExpression);
+			return this;
+		}
+
+		/**
+		 * Sets the protocols accepted.
+		 *
+		 * @param protocols
+		 *            the protocols, if empty any protocol is accepted.
+		 */
+		public final Builder setProtocols(String... protocols) {
+			this.protocols.addAll(Arrays.asList(Objects
+					.requireNonNull(protocols)));
+			return this;
+		}
+
+		/**
+		 * Adds a context expression.
+		 *
+		 * @param key
+		 *            the context key, not {@code null}.
+		 * @param expression
+		 *            the regular expression to be matched with the value, not
+		 *            {@code null}.
+		 */
+		public final Builder addContext(String key, String expression) {
+			this.context.put(Objects.requireNonNull(key),
+					Expression.compile(expression));
+			return this;
+		}
+
+		/**
+		 * Adds all given context expressions.
+		 *
+		 * @param context
+		 *            the context expressions, not {@code null}.
+		 */
+		public final Builder setContext(Map<String, String> context) {
+			for (Map.Entry<String, String> en : Objects.requireNonNull(
+					context).entrySet()) {
+				addContext(en.getKey(), en.getValue());
+			}
+			return this;
+		}
+
+		/**
+		 * Create a new {@link ServiceQuery} instances.
+		 *
+		 * @return the new {@link ServiceQuery}.
+		 */
+		public ServiceQuery build() {
+			return new ServiceQuery(this);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "ServiceQuery.Builder [interface=" + interfaceExpression
+					+ ", protocols=" + protocols + ", context=" + context
+					+ "]";
+		}
+	}
+
+}
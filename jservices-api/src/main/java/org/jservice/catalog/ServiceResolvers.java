@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.jservice.spi.ServiceResolverSpi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link ServiceResolverSpi} instances available to a catalog. A service
+ * is resolved by the first resolver accepting it, the next resolver
+ * accepting it is tried, if the resolution fails.
+ *
+ * @author Anatole Tresch
+ */
+public final class ServiceResolvers {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ServiceResolvers.class);
+
+	private final List<ServiceResolverSpi> resolvers;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param resolvers
+	 *            the resolvers, in the order they are tried, not {@code null}.
+	 */
+	public ServiceResolvers(Collection<? extends ServiceResolverSpi> resolvers) {
+		this.resolvers = Collections
+				.unmodifiableList(new ArrayList<ServiceResolverSpi>(resolvers));
+	}
+
+	/**
+	 * Creates an instance containing all resolvers registered with the
+	 * {@link ServiceLoader}. Resolvers failing to load are skipped.
+	 *
+	 * @return the resolvers, never {@code null}.
+	 */
+	public static ServiceResolvers load() {
+		List<ServiceResolverSpi> resolvers = new ArrayList<>();
+		Iterator<ServiceResolverSpi> it = ServiceLoader.load(
+				ServiceResolverSpi.class).iterator();
+		while (true) {
+			try {
+				if (!it.hasNext()) {
+					break;
+				}
+			} catch (ServiceConfigurationError e) {
+				LOG.error("Failed to list service resolvers.", e);
+				break;
+			}
+			try {
+				resolvers.add(it.next());
+			} catch (ServiceConfigurationError e) {
+				LOG.error("Failed to load service resolver, ignored.", e);
+			}
+		}
+		return new ServiceResolvers(resolvers);
+	}
+
+	/**
+	 * Access the resolvers.
+	 *
+	 * @return the resolvers, in the order they are tried.
+	 */
+	public List<ServiceResolverSpi> getResolvers() {
+		return resolvers;
+	}
+
+	/**
+	 * Resolves the given service.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @param type
+	 *            the interface type required, not {@code null}.
+	 * @return the resolved instance, never {@code null}.
+	 * @throws ServiceResolutionException
+	 *             if no resolver accepts the service, or all resolvers
+	 *             accepting it failed.
+	 */
+	public <T> T resolve(Service service, Class<T> type)
+			throws ServiceResolutionException {
+		ServiceResolutionException error = null;
+		for (ServiceResolverSpi resolver : resolvers) {
+			if (!resolver.isResolvable(service)) {
+				continue;
+			}
+			try {
+				T resolved = resolver.resolveService(service, type);
+				if (resolved != null) {
+					return resolved;
+				}
+			} catch (ServiceResolutionException e) {
+				LOG.debug("Failed to resolve " + service + " using "
+						+ resolver + ".", e);
+				error = e;
+			}
+		}
+		throw error != null ? error : new ServiceResolutionException(service);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceResolvers " + resolvers;
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per {@link Service} response time statistics, recorded by the proxies
+ * returned from a {@link ServiceCatalog}, see
+ * {@link InstrumentedServiceProxy}. The response time is tracked as an
+ * exponentially weighted moving average (EWMA), so recent calls dominate.
+ * 
+ * @author Anatole Tresch
+ */
+public final class ServiceStatistics {
+
+	/** The default weight of a new sample. */
+	public static final double DEFAULT_ALPHA = 0.2d;
+
+	/** The weight of a new sample. */
+	private final double alpha;
+	/** The statistics by service. */
+	private final ConcurrentHashMap<Service, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new instance using {@link #DEFAULT_ALPHA}.
+	 */
+	public ServiceStatistics() {
+		this(DEFAULT_ALPHA);
+	}
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param alpha
+	 *            the weight of a new sample, {@code 0 < alpha <= 1}.
+	 */
+	public ServiceStatistics(double alpha) {
+		if (alpha <= 0d || alpha > 1d) {
+			throw new IllegalArgumentException("alpha must be in (0,1]: "
+					+ alpha);
+		}
+		this.alpha = alpha;
+	}
+
+	/**
+	 * Access the statistics of the given service, creating them if not yet
+	 * present.
+	 * 
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return the statistics, never {@code null}.
+	 */
+	public Entry get(Service service) {
+		Entry entry = entries.get(Objects.requireNonNull(service));
+		if (entry == null) {
+			entry = new Entry(alpha);
+			Entry existing = entries.putIfAbsent(service, entry);
+			if (existing != null) {
+				entry = existing;
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Access the statistics of the given service, without creating them.
+	 * 
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return the statistics, or {@code null}, if nothing was recorded yet.
+	 */
+	public Entry peek(Service service) {
+		return entries.get(service);
+	}
+
+	/**
+	 * Removes the statistics of the given service.
+	 * 
+	 * @param service
+	 *            the service, not {@code null}.
+	 */
+	public void remove(Service service) {
+		entries.remove(service);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceStatistics [alpha=" + alpha + ", services="
+				+ entries.size() + "]";
+	}
+
+	/**
+	 * The statistics of a single {@link Service}.
+	 * 
+	 * @author Anatole Tresch
+	 */
+	public static final class Entry {
+		private final double alpha;
+		/** The EWMA of the response time in ns, as double bits, -1 if unset. */
+		private final AtomicLong ewma = new AtomicLong(Double
+				.doubleToLongBits(-1d));
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicLong calls = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+
+		Entry(double alpha) {
+			this.alpha = alpha;
+		}
+
+		/**
+		 * Marks the start of a call.
+		 */
+		public void callStarted() {
+			inFlight.incrementAndGet();
+		}
+
+		/**
+		 * Marks the end of a call, recording its response time.
+		 * 
+		 * @param durationNanos
+		 *            the response time, in ns.
+		 * @param failed
+		 *            true, if the call failed.
+		 */
+		public void callFinished(long durationNanos, boolean failed) {
+			inFlight.decrementAndGet();
+			calls.incrementAndGet();
+			if (failed) {
+				failures.incrementAndGet();
+			}
+			while (true) {
+				long bits = ewma.get();
+				double current = Double.longBitsToDouble(bits);
+				double next = current < 0d ? durationNanos : current + alpha
+						* (durationNanos - current);
+				if (ewma.compareAndSet(bits, Double.doubleToLongBits(next))) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Access the EWMA of the response time.
+		 * 
+		 * @return the average response time in ns, or {@code -1}, if no call
+		 *         has been recorded yet.
+		 */
+		public double getAverageNanos() {
+			return Double.longBitsToDouble(ewma.get());
+		}
+
+		/**
+		 * Access the number of calls currently running.
+		 * 
+		 * @return the calls in flight.
+		 */
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		/**
+		 * Access the number of calls finished.
+		 * 
+		 * @return the number of calls.
+		 */
+		public long getCalls() {
+			return calls.get();
+		}
+
+		/**
+		 * Access the number of calls failed.
+		 * 
+		 * @return the number of failures.
+		 */
+		public long getFailures() {
+			return failures.get();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "ServiceStatistics.Entry [averageNanos="
+					+ getAverageNanos() + ", inFlight=" + inFlight
+					+ ", calls=" + calls + ", failures=" + failures + "]";
+		}
+	}
+
+}
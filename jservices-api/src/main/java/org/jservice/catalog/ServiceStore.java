@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the services known to a catalog in a local directory, so a
+ * restarted catalog can serve lookups immediately, before its backend is
+ * reachable. The store consists of two files:
+ * <ul>
+ * <li>{@value #SNAPSHOT_FILE}, all services at the time of the last
+ * compaction, encoded by {@link ServiceCodec},</li>
+ * <li>{@value #LOG_FILE}, a memory-mapped, append-only log of the changes
+ * since that snapshot.</li>
+ * </ul>
+ * Each log record is encoded as follows, a length of {@code 0} marks the end
+ * of the log:
+ *
+ * <pre>
+ * record := length:int crc32:int type:byte batch
+ * </pre>
+ *
+ * Appending a record only copies it into the mapped log, so it survives a
+ * crash of the process, but not necessarily of the operating system. On
+ * opening, records with a wrong checksum end the replay, so a torn record
+ * loses at most the changes it contains. If the log is full, the current
+ * services are written as the new snapshot, which replaces the old one
+ * atomically, and the log is reset. Replaying an old log on a newer snapshot
+ * results in the same services, so a crash during compaction is harmless.
+ * <p>
+ * Renewals are not persisted, since the leases of restored services are
+ * managed by the catalog anew.
+ *
+ * @author Anatole Tresch
+ */
+public final class ServiceStore implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ServiceStore.class);
+
+	/** The name of the snapshot file. */
+	public static final String SNAPSHOT_FILE = "services.snapshot";
+	/** The name of the log file. */
+	public static final String LOG_FILE = "services.log";
+	/** The default size of the log, in bytes. */
+	public static final int DEFAULT_LOG_SIZE = 4 << 20;
+
+	/** Size of the record header: length and crc. */
+	private static final int HEADER_SIZE = 8;
+
+	/** The directory containing the files. */
+	private final File directory;
+	/** The log file. */
+	private final RandomAccessFile logFile;
+	/** The mapped log, positioned at the end of the last record. */
+	private final MappedByteBuffer log;
+	/** The services currently stored. */
+	private final Set<Service> services = new LinkedHashSet<>();
+	/** The number of services loaded on opening. */
+	private final int loaded;
+	private boolean closed;
+
+	/**
+	 * Opens a store, using {@link #DEFAULT_LOG_SIZE}.
+	 *
+	 * @param directory
+	 *            the directory, created if not existing.
+	 * @throws IOException
+	 *             if the store cannot be opened.
+	 */
+	public ServiceStore(File directory) throws IOException {
+		this(directory, DEFAULT_LOG_SIZE);
+	}
+
+	/**
+	 * Opens a store, loading the services stored.
+	 *
+	 * @param directory
+	 *            the directory, created if not existing.
+	 * @param logSize
+	 *            the size of the mapped log, in bytes.
+	 * @throws IOException
+	 *             if the store cannot be opened.
+	 */
+	public ServiceStore(File directory, int logSize) throws IOException {
+		if (logSize < 64) {
+			throw new IllegalArgumentException("logSize too small: " + logSize);
+		}
+		this.directory = Objects.requireNonNull(directory);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory: " + directory);
+		}
+		readSnapshot();
+		this.logFile = new RandomAccessFile(new File(directory, LOG_FILE),
+				"rw");
+		try {
+			this.log = logFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+					0, Math.max(logSize, logFile.length()));
+		} catch (IOException e) {
+			logFile.close();
+			throw e;
+		}
+		replayLog();
+		this.loaded = services.size();
+	}
+
+	private void readSnapshot() throws IOException {
+		File file = new File(directory, SNAPSHOT_FILE);
+		if (!file.isFile() || file.length() == 0) {
+			return;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			ByteBuffer buffer = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			services.addAll(ServiceCodec.decodeAll(buffer));
+		} catch (IllegalArgumentException e) {
+			LOG.error("Ignoring corrupt service snapshot: " + file, e);
+		}
+	}
+
+	private void replayLog() {
+		CRC32 crc = new CRC32();
+		while (log.remaining() >= HEADER_SIZE) {
+			int start = log.position();
+			int length = log.getInt();
+			int checksum = log.getInt();
+			if (length <= 0 || length > log.remaining()) {
+				log.position(start);
+				break;
+			}
+			ByteBuffer record = log.slice();
+			record.limit(length);
+			crc.reset();
+			crc.update(toArray(record.duplicate()));
+			if ((int) crc.getValue() != checksum) {
+				LOG.warn("Ignoring torn service log record at " + start + '.');
+				log.position(start);
+				break;
+			}
+			try {
+				ServiceChange.Type type = ServiceChange.Type.values()[record
+						.get()];
+				apply(type, ServiceCodec.decodeAll(record));
+			} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+				LOG.warn("Ignoring corrupt service log record at " + start
+						+ '.', e);
+				log.position(start);
+				break;
+			}
+			log.position(start + HEADER_SIZE + length);
+		}
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private void apply(ServiceChange.Type type, Collection<Service> changed) {
+		for (Service service : changed) {
+			if (type == ServiceChange.Type.REMOVED) {
+				services.remove(service);
+			} else {
+				services.add(service);
+			}
+		}
+	}
+
+	/**
+	 * Access the services currently stored. Directly after opening, these are
+	 * the services restored from disk.
+	 *
+	 * @return a copy of the services, never {@code null}.
+	 */
+	public synchronized Set<Service> getServices() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(services));
+	}
+
+	/**
+	 * Access the number of services restored when opening the store.
+	 *
+	 * @return the number of services loaded.
+	 */
+	public int getLoadedCount() {
+		return loaded;
+	}
+
+	/**
+	 * Appends a change to the log. Renewals are ignored.
+	 *
+	 * @param type
+	 *            the kind of change, not {@code null}.
+	 * @param changed
+	 *            the services changed, not {@code null}.
+	 */
+	public synchronized void append(ServiceChange.Type type,
+			Collection<Service> changed) {
+		Objects.requireNonNull(type);
+		if (closed || changed.isEmpty()
+				|| type == ServiceChange.Type.RENEWED) {
+			return;
+		}
+		apply(type, changed);
+		ByteBuffer batch = ServiceCodec.encodeAll(changed);
+		// keep room for the terminating length
+		if (log.remaining() < HEADER_SIZE + 1 + batch.remaining() + 4) {
+			compact();
+			return;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(type.ordinal());
+		crc.update(batch.array(), batch.arrayOffset(), batch.remaining());
+		int start = log.position();
+		log.position(start + 4);
+		log.putInt((int) crc.getValue());
+		log.put((byte) type.ordinal());
+		log.put(batch);
+		log.putInt(log.position(), 0);
+		// publish the record by writing its length last
+		log.putInt(start, batch.limit() + 1);
+	}
+
+	/**
+	 * Writes all services stored as the new snapshot and resets the log. This
+	 * is done automatically, if the log is full.
+	 */
+	public synchronized void compact() {
+		if (closed) {
+			return;
+		}
+		File tmp = new File(directory, SNAPSHOT_FILE + ".tmp");
+		try {
+			try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+				ByteBuffer buffer = ServiceCodec.encodeAll(services);
+				raf.setLength(0);
+				raf.getChannel().write(buffer);
+				raf.getChannel().force(true);
+			}
+			Files.move(tmp.toPath(), new File(directory, SNAPSHOT_FILE)
+					.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			log.putInt(0, 0);
+			log.force();
+			log.position(0);
+			LOG.debug("Compacted service store with " + services.size()
+					+ " services.");
+		} catch (IOException e) {
+			LOG.error("Failed to write service snapshot: " + directory, e);
+		}
+	}
+
+	/**
+	 * Flushes the log and closes the store.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		log.force();
+		try {
+			logFile.close();
+		} catch (IOException e) {
+			LOG.warn("Failed to close service log: " + directory, e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return "ServiceStore [directory=" + directory + ", services="
+				+ services.size() + ", logPosition=" + log.position() + "]";
+	}
+
+}
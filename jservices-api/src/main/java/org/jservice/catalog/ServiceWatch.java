@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+/**
+ * Handle of a watch registered using
+ * {@link ServiceCatalog#watch(Class, java.util.Map, ServiceListener)}.
+ * 
+ * @author Anatole Tresch
+ */
+public interface ServiceWatch extends AutoCloseable {
+
+	/**
+	 * Access the query evaluated for the watch.
+	 * 
+	 * @return the query, never {@code null}.
+	 */
+	public ServiceQuery getQuery();
+
+	/**
+	 * Cancels the watch. Changes not yet delivered are discarded.
+	 */
+	@Override
+	public void close();
+
+}
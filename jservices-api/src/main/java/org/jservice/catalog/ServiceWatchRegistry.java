@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages the watches registered on a {@link ServiceCatalog}. Catalogs feed
+ * all their changes into {@link #publish(ServiceChange.Type, Collection)}, the
+ * registry dispatches them to the watches whose query matches and delivers
+ * them as a single {@link ServiceEvent} per coalescing window. Watches are
+ * indexed by interface name, so publishing a change only evaluates the watches
+ * of the service's interfaces.
+ *
+ * @author Anatole Tresch
+ */
+public final class ServiceWatchRegistry implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ServiceWatchRegistry.class);
+
+	/** The default coalescing window, in ms. */
+	public static final long DEFAULT_WINDOW_MILLIS = 50L;
+
+	/** The coalescing window, in ms. */
+	private final long windowMillis;
+	/** The watches by interface name. */
+	private final ConcurrentHashMap<String, CopyOnWriteArrayList<Watch>> byInterface = new ConcurrentHashMap<>();
+	/** The watches without interface. */
+	private final CopyOnWriteArrayList<Watch> anyInterface = new CopyOnWriteArrayList<>();
+	/** The executor delivering the events. */
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Creates a new registry, using {@link #DEFAULT_WINDOW_MILLIS}.
+	 */
+	public ServiceWatchRegistry() {
+		this(DEFAULT_WINDOW_MILLIS);
+	}
+
+	/**
+	 * Creates a new registry.
+	 *
+	 * @param windowMillis
+	 *            the coalescing window, in ms.
+	 */
+	public ServiceWatchRegistry(long windowMillis) {
+		if (windowMillis < 0) {
+			throw new IllegalArgumentException(
+					"windowMillis must not be negative.");
+		}
+		this.windowMillis = windowMillis;
+		this.executor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "ServiceWatchRegistry");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Registers a new watch.
+	 *
+	 * @param interfaceType
+	 *            the interface type watched, or {@code null} for all
+	 *            services.
+	 * @param context
+	 *            the context expressions to be matched, or {@code null}.
+	 * @param listener
+	 *            the listener, not {@code null}.
+	 * @return the watch registered, never {@code null}.
+	 */
+	public ServiceWatch watch(Class<?> interfaceType,
+			Map<String, String> context, ServiceListener listener) {
+		ServiceQuery.Builder builder = new ServiceQuery.Builder();
+		if (interfaceType != null) {
+			builder.setInterface(interfaceType);
+		}
+		if (context != null) {
+			builder.setContext(context);
+		}
+		Watch watch = new Watch(interfaceType == null ? null
+				: interfaceType.getName(), builder.build(),
+				Objects.requireNonNull(listener));
+		watchers(watch.interfaceName, true).add(watch);
+		return watch;
+	}
+
+	private List<Watch> watchers(String interfaceName, boolean create) {
+		if (interfaceName == null) {
+			return anyInterface;
+		}
+		CopyOnWriteArrayList<Watch> watches = byInterface.get(interfaceName);
+		if (watches == null && create) {
+			watches = new CopyOnWriteArrayList<>();
+			CopyOnWriteArrayList<Watch> existing = byInterface.putIfAbsent(
+					interfaceName, watches);
+			if (existing != null) {
+				watches = existing;
+			}
+		}
+		if (watches == null) {
+			return Collections.emptyList();
+		}
+		return watches;
+	}
+
+	/**
+	 * Checks if any watches are registered, so callers can skip publishing.
+	 *
+	 * @return true, if at least one watch is registered.
+	 */
+	public boolean hasWatches() {
+		if (!anyInterface.isEmpty()) {
+			return true;
+		}
+		for (List<Watch> watches : byInterface.values()) {
+			if (!watches.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Publishes a change.
+	 *
+	 * @param type
+	 *            the kind of change, not {@code null}.
+	 * @param service
+	 *            the service changed, not {@code null}.
+	 */
+	public void publish(ServiceChange.Type type, Service service) {
+		publish(type, Collections.singleton(service));
+	}
+
+	/**
+	 * Publishes the same kind of change for several services.
+	 *
+	 * @param type
+	 *            the kind of change, not {@code null}.
+	 * @param services
+	 *            the services changed, not {@code null}.
+	 */
+	public void publish(ServiceChange.Type type, Collection<Service> services) {
+		Objects.requireNonNull(type);
+		if (executor.isShutdown()) {
+			return;
+		}
+		for (Service service : services) {
+			for (String interfaceName : service.getInterfaces()) {
+				for (Watch watch : watchers(interfaceName, false)) {
+					watch.offer(type, service);
+				}
+			}
+			for (Watch watch : anyInterface) {
+				watch.offer(type, service);
+			}
+		}
+	}
+
+	/**
+	 * Stops delivering events. Changes published afterwards are dropped.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ServiceWatchRegistry [windowMillis=" + windowMillis
+				+ ", interfaces=" + byInterface.keySet() + "]";
+	}
+
+	/**
+	 * A watch registered, buffering the pending changes.
+	 */
+	private final class Watch implements ServiceWatch, Runnable {
+		private final String interfaceName;
+		private final ServiceQuery query;
+		private final ServiceListener listener;
+		private Map<Service, ServiceChange.Type> pending = new LinkedHashMap<>();
+		private boolean scheduled;
+		private volatile boolean closed;
+
+		Watch(String interfaceName, ServiceQuery query,
+				ServiceListener listener) {
+			this.interfaceName = interfaceName;
+			this.query = query;
+			this.listener = listener;
+		}
+
+		@Override
+		public ServiceQuery getQuery() {
+			return query;
+		}
+
+		void offer(ServiceChange.Type type, Service service) {
+			if (closed || !query.matches(service)) {
+				return;
+			}
+			synchronized (this) {
+				ServiceChange.Type previous = pending.get(service);
+				if (previous == ServiceChange.Type.ADDED
+						&& type == ServiceChange.Type.REMOVED) {
+					pending.remove(service);
+				} else if (previous == ServiceChange.Type.ADDED
+						|| (previous == ServiceChange.Type.REMOVED && type != ServiceChange.Type.REMOVED)) {
+					pending.put(service, ServiceChange.Type.ADDED);
+				} else {
+					pending.put(service, type);
+				}
+				if (!scheduled && !pending.isEmpty()) {
+					scheduled = true;
+					try {
+						executor.schedule(this, windowMillis,
+								TimeUnit.MILLISECONDS);
+					} catch (RejectedExecutionException e) {
+						// registry closed concurrently, nothing is delivered
+						pending.clear();
+						scheduled = false;
+					}
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			Map<Service, ServiceChange.Type> changes;
+			synchronized (this) {
+				changes = pending;
+				pending = new LinkedHashMap<>();
+				scheduled = false;
+			}
+			if (closed || changes.isEmpty()) {
+				return;
+			}
+			List<Service> added = new ArrayList<>();
+			List<Service> removed = new ArrayList<>();
+			List<Service> renewed = new ArrayList<>();
+			for (Map.Entry<Service, ServiceChange.Type> en : changes
+					.entrySet()) {
+				switch (en.getValue()) {
+				case ADDED:
+					added.add(en.getKey());
+					break;
+				case REMOVED:
+					removed.add(en.getKey());
+					break;
+				default:
+					renewed.add(en.getKey());
+				}
+			}
+			try {
+				listener.servicesChanged(new ServiceEvent(added, removed,
+						renewed));
+			} catch (RuntimeException e) {
+				LOG.error("Listener failed: " + listener, e);
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			watchers(interfaceName, false).remove(this);
+		}
+
+		@Override
+		public String toString() {
+			return "ServiceWatch [query=" + query + ", listener=" + listener
+					+ "]";
+		}
+	}
+
+}
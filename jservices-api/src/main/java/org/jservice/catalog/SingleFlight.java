@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses concurrent identical calls into one: while a call for a key is in
+ * flight, further callers with the same key wait for its result instead of
+ * calling the backend themselves. Results are not cached, the next call after
+ * completion calls the backend again.
+ * <p>
+ * The call is executed by the first caller's thread, failures are passed to
+ * all callers waiting.
+ *
+ * @param <K>
+ *            the key type.
+ * @param <V>
+ *            the result type.
+ * @author Anatole Tresch
+ */
+public final class SingleFlight<K, V> {
+
+	/** The calls in flight, by key. */
+	private final ConcurrentHashMap<K, FutureTask<V>> calls = new ConcurrentHashMap<>();
+	/** The number of calls served by a call in flight. */
+	private final AtomicLong shared = new AtomicLong();
+
+	/**
+	 * Executes the given call, or waits for the call in flight with the same
+	 * key.
+	 *
+	 * @param key
+	 *            the key identifying the call, not {@code null}.
+	 * @param call
+	 *            the call, not {@code null}.
+	 * @return the result of the call.
+	 * @throws RuntimeException
+	 *             the failure of the call, checked exceptions are wrapped
+	 *             into an {@link IllegalStateException}.
+	 */
+	public V execute(K key, Callable<V> call) {
+		Objects.requireNonNull(key);
+		FutureTask<V> task = new FutureTask<>(Objects.requireNonNull(call));
+		FutureTask<V> inFlight = calls.putIfAbsent(key, task);
+		if (inFlight == null) {
+			try {
+				task.run();
+			} finally {
+				calls.remove(key, task);
+			}
+			inFlight = task;
+		} else {
+			shared.incrementAndGet();
+		}
+		try {
+			return inFlight.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("Call failed: " + key, cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for: " + key,
+					e);
+		}
+	}
+
+	/**
+	 * Detaches the call in flight with the given key, if any, so subsequent
+	 * callers call the backend anew, e.g. since its result is known to be
+	 * stale. Callers already waiting still receive its result.
+	 *
+	 * @param key
+	 *            the key, not {@code null}.
+	 */
+	public void forget(K key) {
+		calls.remove(key);
+	}
+
+	/**
+	 * Access the number of calls currently in flight.
+	 *
+	 * @return the number of calls.
+	 */
+	public int getInFlightCount() {
+		return calls.size();
+	}
+
+	/**
+	 * Access the number of calls that did not call the backend, but received
+	 * the result of a call in flight.
+	 *
+	 * @return the number of shared calls.
+	 */
+	public long getSharedCount() {
+		return shared.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SingleFlight [inFlight=" + calls.size() + ", shared="
+				+ shared.get() + "]";
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics recorded by a {@link DefaultCatalogMetrics}.
+ * Latencies are reported in microseconds.
+ * 
+ * @author Anatole Tresch
+ */
+public interface CatalogMetricsMXBean {
+
+	long getLookupCount();
+
+	double getLookupMeanMicros();
+
+	double getLookupP99Micros();
+
+	long getResolutionCount();
+
+	double getResolutionMeanMicros();
+
+	double getResolutionP99Micros();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	long getRegistrations();
+
+	long getUnregistrations();
+
+	long getExpirations();
+
+	long getSyncCount();
+
+	double getSyncMeanMicros();
+
+	long getLastSyncDeltaSize();
+
+	long getSyncDeltaTotal();
+
+	long getInvocationCount();
+
+	long getInvocationFailures();
+
+	double getInvocationP99Micros();
+
+	/**
+	 * Access the 99th percentile of the invocation latency, by endpoint.
+	 * 
+	 * @return the latencies in microseconds, keyed by service URI.
+	 */
+	Map<String, Double> getEndpointP99Micros();
+
+	/**
+	 * Resets all metrics.
+	 */
+	void reset();
+
+}
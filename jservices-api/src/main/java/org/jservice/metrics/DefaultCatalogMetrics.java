@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jservice.catalog.Service;
+import org.jservice.spi.CatalogMetricsSpi;
+
+/**
+ * Default {@link CatalogMetricsSpi}, keeping counters and
+ * {@link LatencyHistogram}s in memory. Recording does not take locks and does
+ * not allocate, except when an endpoint is called the first time. The number
+ * of endpoints tracked is bounded, further endpoints are only counted in the
+ * overall invocation metrics.
+ * <p>
+ * Use {@link JmxMetricsExporter} for publishing the metrics as MBean.
+ * 
+ * @author Anatole Tresch
+ */
+public class DefaultCatalogMetrics implements CatalogMetricsSpi,
+		CatalogMetricsMXBean {
+
+	/** The default maximal number of endpoints tracked. */
+	public static final int DEFAULT_MAX_ENDPOINTS = 1024;
+
+	private final int maxEndpoints;
+	private volatile Metrics metrics = new Metrics();
+
+	/**
+	 * Creates a new instance, tracking up to {@link #DEFAULT_MAX_ENDPOINTS}
+	 * endpoints.
+	 */
+	public DefaultCatalogMetrics() {
+		this(DEFAULT_MAX_ENDPOINTS);
+	}
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param maxEndpoints
+	 *            the maximal number of endpoints tracked.
+	 */
+	public DefaultCatalogMetrics(int maxEndpoints) {
+		if (maxEndpoints < 0) {
+			throw new IllegalArgumentException(
+					"maxEndpoints must not be negative.");
+		}
+		this.maxEndpoints = maxEndpoints;
+	}
+
+	@Override
+	public void recordLookup(long nanos) {
+		metrics.lookups.record(nanos);
+	}
+
+	@Override
+	public void recordResolution(long nanos, boolean cached) {
+		Metrics m = metrics;
+		m.resolutions.record(nanos);
+		if (cached) {
+			m.cacheHits.incrementAndGet();
+		} else {
+			m.cacheMisses.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void recordRegistrations(int count) {
+		metrics.registrations.addAndGet(count);
+	}
+
+	@Override
+	public void recordUnregistrations(int count) {
+		metrics.unregistrations.addAndGet(count);
+	}
+
+	@Override
+	public void recordExpirations(int count) {
+		metrics.expirations.addAndGet(count);
+	}
+
+	@Override
+	public void recordSync(long nanos, int deltaSize) {
+		Metrics m = metrics;
+		m.syncs.record(nanos);
+		m.lastSyncDeltaSize.set(deltaSize);
+		m.syncDeltaTotal.addAndGet(deltaSize);
+	}
+
+	@Override
+	public void recordInvocation(Service service, long nanos, boolean failed) {
+		Metrics m = metrics;
+		m.invocations.record(nanos);
+		if (failed) {
+			m.invocationFailures.incrementAndGet();
+		}
+		LatencyHistogram endpoint = m.endpoints.get(service);
+		if (endpoint == null) {
+			if (m.endpoints.size() >= maxEndpoints) {
+				return;
+			}
+			endpoint = new LatencyHistogram();
+			LatencyHistogram existing = m.endpoints.putIfAbsent(service,
+					endpoint);
+			if (existing != null) {
+				endpoint = existing;
+			}
+		}
+		endpoint.record(nanos);
+	}
+
+	@Override
+	public void removeEndpoint(Service service) {
+		metrics.endpoints.remove(service);
+	}
+
+	/**
+	 * Access the lookup latencies.
+	 * 
+	 * @return the histogram, in ns.
+	 */
+	public LatencyHistogram getLookups() {
+		return metrics.lookups;
+	}
+
+	/**
+	 * Access the resolution latencies.
+	 * 
+	 * @return the histogram, in ns.
+	 */
+	public LatencyHistogram getResolutions() {
+		return metrics.resolutions;
+	}
+
+	/**
+	 * Access the synchronization durations.
+	 * 
+	 * @return the histogram, in ns.
+	 */
+	public LatencyHistogram getSyncs() {
+		return metrics.syncs;
+	}
+
+	/**
+	 * Access the invocation latencies of all endpoints.
+	 * 
+	 * @return the histogram, in ns.
+	 */
+	public LatencyHistogram getInvocations() {
+		return metrics.invocations;
+	}
+
+	/**
+	 * Access the invocation latencies of an endpoint.
+	 * 
+	 * @param service
+	 *            the service.
+	 * @return the histogram in ns, or {@code null}, if the endpoint is not
+	 *         tracked.
+	 */
+	public LatencyHistogram getInvocations(Service service) {
+		return metrics.endpoints.get(service);
+	}
+
+	@Override
+	public long getLookupCount() {
+		return metrics.lookups.getCount();
+	}
+
+	@Override
+	public double getLookupMeanMicros() {
+		return micros(metrics.lookups.getMean());
+	}
+
+	@Override
+	public double getLookupP99Micros() {
+		return micros(metrics.lookups.getPercentile(0.99));
+	}
+
+	@Override
+	public long getResolutionCount() {
+		return metrics.resolutions.getCount();
+	}
+
+	@Override
+	public double getResolutionMeanMicros() {
+		return micros(metrics.resolutions.getMean());
+	}
+
+	@Override
+	public double getResolutionP99Micros() {
+		return micros(metrics.resolutions.getPercentile(0.99));
+	}
+
+	@Override
+	public long getCacheHits() {
+		return metrics.cacheHits.get();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return metrics.cacheMisses.get();
+	}
+
+	@Override
+	public long getRegistrations() {
+		return metrics.registrations.get();
+	}
+
+	@Override
+	public long getUnregistrations() {
+		return metrics.unregistrations.get();
+	}
+
+	@Override
+	public long getExpirations() {
+		return metrics.expirations.get();
+	}
+
+	@Override
+	public long getSyncCount() {
+		return metrics.syncs.getCount();
+	}
+
+	@Override
+	public double getSyncMeanMicros() {
+		return micros(metrics.syncs.getMean());
+	}
+
+	@Override
+	public long getLastSyncDeltaSize() {
+		return metrics.lastSyncDeltaSize.get();
+	}
+
+	@Override
+	public long getSyncDeltaTotal() {
+		return metrics.syncDeltaTotal.get();
+	}
+
+	@Override
+	public long getInvocationCount() {
+		return metrics.invocations.getCount();
+	}
+
+	@Override
+	public long getInvocationFailures() {
+		return metrics.invocationFailures.get();
+	}
+
+	@Override
+	public double getInvocationP99Micros() {
+		return micros(metrics.invocations.getPercentile(0.99));
+	}
+
+	@Override
+	public Map<String, Double> getEndpointP99Micros() {
+		Map<String, Double> result = new HashMap<>();
+		for (Map.Entry<Service, LatencyHistogram> en : metrics.endpoints
+				.entrySet()) {
+			result.put(en.getKey().toString(),
+					micros(en.getValue().getPercentile(0.99)));
+		}
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		metrics = new Metrics();
+	}
+
+	private static double micros(double nanos) {
+		return nanos / TimeUnit.MICROSECONDS.toNanos(1L);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		Metrics m = metrics;
+		return "DefaultCatalogMetrics [lookups=" + m.lookups
+				+ ", resolutions=" + m.resolutions + ", cacheHits="
+				+ m.cacheHits + ", cacheMisses=" + m.cacheMisses
+				+ ", registrations=" + m.registrations
+				+ ", unregistrations=" + m.unregistrations + ", expirations="
+				+ m.expirations + ", syncs=" + m.syncs + ", invocations="
+				+ m.invocations + ", endpoints=" + m.endpoints.size() + "]";
+	}
+
+	/**
+	 * The metrics recorded, replaced as a whole by {@link #reset()}.
+	 */
+	private static final class Metrics {
+		final LatencyHistogram lookups = new LatencyHistogram();
+		final LatencyHistogram resolutions = new LatencyHistogram();
+		final AtomicLong cacheHits = new AtomicLong();
+		final AtomicLong cacheMisses = new AtomicLong();
+		final AtomicLong registrations = new AtomicLong();
+		final AtomicLong unregistrations = new AtomicLong();
+		final AtomicLong expirations = new AtomicLong();
+		final LatencyHistogram syncs = new LatencyHistogram();
+		final AtomicLong lastSyncDeltaSize = new AtomicLong();
+		final AtomicLong syncDeltaTotal = new AtomicLong();
+		final LatencyHistogram invocations = new LatencyHistogram();
+		final AtomicLong invocationFailures = new AtomicLong();
+		final ConcurrentHashMap<Service, LatencyHistogram> endpoints = new ConcurrentHashMap<>();
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes {@link CatalogMetricsMXBean}s on the platform MBean server, as
+ * {@code org.jservice:type=CatalogMetrics,catalog=<catalogId>}.
+ * 
+ * @author Anatole Tresch
+ */
+public final class JmxMetricsExporter {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(JmxMetricsExporter.class);
+
+	/** The JMX domain used. */
+	public static final String DOMAIN = "org.jservice";
+
+	/**
+	 * Singleton constructor.
+	 */
+	private JmxMetricsExporter() {
+	}
+
+	/**
+	 * Creates the name, under which the metrics of a catalog are published.
+	 * 
+	 * @param catalogId
+	 *            the catalog id, not {@code null}.
+	 * @return the object name.
+	 */
+	public static ObjectName getObjectName(String catalogId) {
+		try {
+			return new ObjectName(DOMAIN + ":type=CatalogMetrics,catalog="
+					+ ObjectName.quote(catalogId));
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Invalid catalog id: "
+					+ catalogId, e);
+		}
+	}
+
+	/**
+	 * Publishes the metrics of a catalog. If metrics are already published for
+	 * the same catalog id, e.g. by another catalog instance, an
+	 * {@code instance} key is added to the name, so neither replaces the
+	 * other. Failures are logged, but not propagated, since metrics are not
+	 * essential.
+	 * 
+	 * @param catalogId
+	 *            the catalog id, not {@code null}.
+	 * @param metrics
+	 *            the metrics, not {@code null}.
+	 * @return the name, under which the metrics were published, or
+	 *         {@code null}, if publishing failed.
+	 */
+	public static ObjectName export(String catalogId,
+			CatalogMetricsMXBean metrics) {
+		ObjectName name = getObjectName(catalogId);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (int instance = 2;; instance++) {
+				try {
+					server.registerMBean(metrics, name);
+					return name;
+				} catch (InstanceAlreadyExistsException e) {
+					LOG.warn("Metrics already published as " + name + '.');
+					name = new ObjectName(getObjectName(catalogId)
+							+ ",instance=" + instance);
+				}
+			}
+		} catch (JMException | SecurityException e) {
+			LOG.warn("Failed to publish metrics as " + name + '.', e);
+			return null;
+		}
+	}
+
+	/**
+	 * Removes metrics published.
+	 * 
+	 * @param name
+	 *            the name returned by
+	 *            {@link #export(String, CatalogMetricsMXBean)}, may be
+	 *            {@code null}.
+	 */
+	public static void unexport(ObjectName name) {
+		if (name == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException | SecurityException e) {
+			LOG.debug("Failed to remove metrics " + name + '.', e);
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations. Values are counted in log-linear
+ * buckets, four per power of two, so percentiles are accurate to about 20%.
+ * Recording a value does not allocate.
+ * 
+ * @author Anatole Tresch
+ */
+public final class LatencyHistogram {
+
+	/** Number of sub buckets per power of two, as bits. */
+	private static final int SUB_BITS = 2;
+	private static final int BUCKETS = 64 << SUB_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value.
+	 * 
+	 * @param nanos
+	 *            the duration, negative values are counted as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0L, nanos);
+		buckets.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	private static int bucketOf(long value) {
+		if (value < (1L << SUB_BITS)) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return ((exponent - SUB_BITS + 1) << SUB_BITS) | sub;
+	}
+
+	/**
+	 * Returns the upper bound of the values counted in a bucket.
+	 */
+	private static long upperBoundOf(int bucket) {
+		if (bucket < (1 << SUB_BITS)) {
+			return bucket;
+		}
+		int exponent = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+		long sub = bucket & ((1 << SUB_BITS) - 1);
+		long lower = (1L << exponent) | (sub << (exponent - SUB_BITS));
+		return lower + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Access the number of values recorded.
+	 * 
+	 * @return the count.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Access the mean of the values recorded.
+	 * 
+	 * @return the mean, or 0, if nothing was recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0.0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Access the maximal value recorded.
+	 * 
+	 * @return the maximum.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Estimates a percentile of the values recorded.
+	 * 
+	 * @param quantile
+	 *            the quantile, between 0 and 1, e.g. 0.99.
+	 * @return the upper bound of the bucket containing the percentile, or 0,
+	 *         if nothing was recorded.
+	 */
+	public long getPercentile(double quantile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0L;
+		}
+		long rank = (long) Math.ceil(Math.min(1.0, Math.max(0.0, quantile))
+				* total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "LatencyHistogram [count=" + getCount() + ", mean="
+				+ getMean() + ", p99=" + getPercentile(0.99) + ", max="
+				+ getMax() + "]";
+	}
+
+}
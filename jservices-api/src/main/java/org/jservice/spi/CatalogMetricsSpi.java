@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.spi;
+
+import org.jservice.catalog.Service;
+
+/**
+ * SPI for recording the metrics of a {@link org.jservice.catalog.ServiceCatalog}.
+ * Catalogs and resolvers call these methods on their hot paths, so
+ * implementations must be thread safe, must not block and should not
+ * allocate. All durations are passed in nanoseconds, as measured by
+ * {@link System#nanoTime()}.
+ * 
+ * @author Anatole Tresch
+ */
+public interface CatalogMetricsSpi {
+
+	/**
+	 * Records a service lookup, e.g. {@code getServices} or
+	 * {@code findServices}.
+	 * 
+	 * @param nanos
+	 *            the lookup duration.
+	 */
+	void recordLookup(long nanos);
+
+	/**
+	 * Records the resolution of a service proxy.
+	 * 
+	 * @param nanos
+	 *            the resolution duration.
+	 * @param cached
+	 *            true, if the proxy was served from the proxy cache.
+	 */
+	void recordResolution(long nanos, boolean cached);
+
+	/**
+	 * Records services registered.
+	 * 
+	 * @param count
+	 *            the number of services.
+	 */
+	void recordRegistrations(int count);
+
+	/**
+	 * Records services unregistered.
+	 * 
+	 * @param count
+	 *            the number of services.
+	 */
+	void recordUnregistrations(int count);
+
+	/**
+	 * Records services removed, because their leases expired.
+	 * 
+	 * @param count
+	 *            the number of services.
+	 */
+	void recordExpirations(int count);
+
+	/**
+	 * Records a synchronization with a remote catalog.
+	 * 
+	 * @param nanos
+	 *            the synchronization duration.
+	 * @param deltaSize
+	 *            the number of services added and removed.
+	 */
+	void recordSync(long nanos, int deltaSize);
+
+	/**
+	 * Records a call of a service endpoint.
+	 * 
+	 * @param service
+	 *            the service called.
+	 * @param nanos
+	 *            the call duration.
+	 * @param failed
+	 *            true, if the call failed.
+	 */
+	void recordInvocation(Service service, long nanos, boolean failed);
+
+	/**
+	 * Drops the metrics kept for the endpoint of a service, called when the
+	 * service is removed from the catalog.
+	 * 
+	 * @param service
+	 *            the service removed.
+	 */
+	void removeEndpoint(Service service);
+
+}
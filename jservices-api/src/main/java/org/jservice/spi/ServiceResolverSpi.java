@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.spi;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceResolutionException;
+
+/**
+ * SPI for resolving a {@link Service} into an instance of one of its
+ * interfaces, e.g. a stub connected to the service's endpoint. Protocol
+ * modules register their implementation via {@code META-INF/services}, the
+ * catalogs select the implementation by calling
+ * {@link #isResolvable(Service)}, see
+ * {@link org.jservice.catalog.ServiceResolvers}. Implementations must be
+ * thread safe.
+ * 
+ * @author Anatole Tresch
+ */
+public interface ServiceResolverSpi {
+
+	/**
+	 * Evaluates if this resolver supports the given service, usually by its
+	 * protocol.
+	 * 
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return true, if this resolver can resolve the service.
+	 */
+	boolean isResolvable(Service service);
+
+	/**
+	 * Resolves the given service.
+	 * 
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @param type
+	 *            the interface type required, not {@code null}.
+	 * @return the resolved instance, never {@code null}.
+	 * @throws ServiceResolutionException
+	 *             if the service cannot be reached or does not implement the
+	 *             type.
+	 */
+	<T> T resolveService(Service service, Class<T> type)
+			throws ServiceResolutionException;
+
+}
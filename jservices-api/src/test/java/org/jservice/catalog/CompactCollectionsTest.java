@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link CompactMap}, {@link CompactSet} and {@link Interner}.
+ *
+ * @author Anatole Tresch
+ */
+public class CompactCollectionsTest {
+
+	private final Interner<String> strings = new Interner<>();
+
+	private static Object copy(Object value) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()))) {
+			return in.readObject();
+		}
+	}
+
+	@Test
+	public void testMapBehavesLikeHashMap() {
+		Map<String, String> expected = new LinkedHashMap<>();
+		expected.put("zone", "z1");
+		expected.put("env", "prod");
+		expected.put("a", null);
+		CompactMap map = CompactMap.of(expected, strings);
+		assertEquals(3, map.size());
+		assertEquals("prod", map.get("env"));
+		assertTrue(map.containsKey("a"));
+		assertNull(map.get("a"));
+		assertFalse(map.containsKey("b"));
+		assertFalse(map.containsKey(1));
+		assertEquals(new HashMap<>(expected), map);
+		assertEquals(map, new HashMap<>(expected));
+		assertEquals(new HashMap<>(expected).hashCode(), map.hashCode());
+		// entries are sorted by key
+		assertEquals(Arrays.asList("a", "env", "zone"), new ArrayList<>(
+				map.keySet()));
+		assertSame(CompactMap.EMPTY, CompactMap.of(
+				Collections.<String, String> emptyMap(), strings));
+	}
+
+	@Test
+	public void testEqualMapsAreShared() throws Exception {
+		Map<String, String> context = new HashMap<>();
+		context.put("env", "prod");
+		CompactMap map = CompactMap.of(context, strings);
+		assertSame(map, CompactMap.of(new HashMap<>(context), strings));
+		assertSame(map, copy(map));
+		assertSame(map.keySet().iterator().next(),
+				strings.intern(new String("env")));
+	}
+
+	@Test
+	public void testSetBehavesLikeHashSet() {
+		CompactSet set = CompactSet.of(Arrays.asList("b", "a", "c", "a"),
+				strings);
+		assertEquals(3, set.size());
+		assertTrue(set.contains("a"));
+		assertFalse(set.contains("d"));
+		assertFalse(set.contains(1));
+		Set<String> expected = new HashSet<>(Arrays.asList("a", "b", "c"));
+		assertEquals(expected, set);
+		assertEquals(set, expected);
+		assertEquals(expected.hashCode(), set.hashCode());
+		assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(set));
+		assertSame(CompactSet.EMPTY,
+				CompactSet.of(Collections.<String> emptySet(), strings));
+	}
+
+	@Test
+	public void testEqualSetsAreShared() throws Exception {
+		CompactSet set = CompactSet.of(Arrays.asList("a", "b"), strings);
+		assertSame(set, CompactSet.of(Arrays.asList("b", "a"), strings));
+		assertSame(set, copy(set));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testSetRejectsNull() {
+		CompactSet.of(Arrays.asList("a", null), strings);
+	}
+
+	@Test
+	public void testInterner() {
+		Interner<String> interner = new Interner<>();
+		String value = new String("value");
+		assertSame(value, interner.intern(value));
+		assertSame(value, interner.intern(new String("value")));
+		assertNull(interner.intern(null));
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ConsistentHashRing}.
+ *
+ * @author Anatole Tresch
+ */
+public class ConsistentHashRingTest {
+
+	private static final int KEYS = 20000;
+
+	private static ConsistentHashRing createRing(int nodes) {
+		ConsistentHashRing ring = ConsistentHashRing.EMPTY;
+		for (int i = 0; i < nodes; i++) {
+			ring = ring.withNode("node" + i);
+		}
+		return ring;
+	}
+
+	private static String key(int i) {
+		return "org.example.Service" + i;
+	}
+
+	@Test
+	public void testEmptyRingHasNoOwner() {
+		assertNull(ConsistentHashRing.EMPTY.getNode("a"));
+		assertEquals(0, ConsistentHashRing.EMPTY.size());
+	}
+
+	@Test
+	public void testKeysAreSpreadEvenly() {
+		ConsistentHashRing ring = createRing(5);
+		assertEquals(5 * ConsistentHashRing.DEFAULT_VIRTUAL_NODES, ring.size());
+		Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < KEYS; i++) {
+			String node = ring.getNode(key(i));
+			Integer count = counts.get(node);
+			counts.put(node, count == null ? 1 : count + 1);
+		}
+		assertEquals(ring.getNodes(), counts.keySet());
+		for (int count : counts.values()) {
+			assertTrue("unbalanced: " + counts, count > KEYS / 5 * 0.75
+					&& count < KEYS / 5 * 1.25);
+		}
+	}
+
+	@Test
+	public void testAddingNodeMovesKeysOnlyToIt() {
+		ConsistentHashRing ring = createRing(4);
+		ConsistentHashRing grown = ring.withNode("node4");
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			String before = ring.getNode(key(i));
+			String after = grown.getNode(key(i));
+			if (!before.equals(after)) {
+				assertEquals("node4", after);
+				moved++;
+			}
+		}
+		assertTrue("moved " + moved, moved > KEYS / 5 * 0.75
+				&& moved < KEYS / 5 * 1.25);
+	}
+
+	@Test
+	public void testRemovingNodeMovesOnlyItsKeys() {
+		ConsistentHashRing ring = createRing(5);
+		ConsistentHashRing shrunk = ring.withoutNode("node2");
+		for (int i = 0; i < KEYS; i++) {
+			String before = ring.getNode(key(i));
+			if (!"node2".equals(before)) {
+				assertEquals(before, shrunk.getNode(key(i)));
+			}
+		}
+	}
+
+	@Test
+	public void testRingIsDeterministic() {
+		ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("b",
+				"a", "c"), 16);
+		ConsistentHashRing other = new ConsistentHashRing(Arrays.asList("c",
+				"b", "a"), 16);
+		assertEquals(ring, other);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(ring.getNode(key(i)), other.getNode(key(i)));
+		}
+		assertSame(ring, ring.withNode("a"));
+		assertSame(ring, ring.withoutNode("d"));
+	}
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.jservice.metrics.DefaultCatalogMetrics;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FederatedServiceCatalog}, using providers simulated by
+ * dynamic proxies.
+ *
+ * @author Anatole Tresch
+ */
+public class FederatedServiceCatalogTest {
+
+	private FederatedServiceCatalog catalog;
+
+	@After
+	public void tearDown() {
+		if (catalog != null) {
+			catalog.close();
+		}
+	}
+
+	/**
+	 * Simulated provider, answering all calls after a delay.
+	 */
+	private static final class FakeProvider implements InvocationHandler {
+		final String id;
+		final boolean available;
+		final long delayMillis;
+		final Collection<Service> services;
+		Object service;
+		RuntimeException failure;
+		final List<String> calls = Collections
+				.synchronizedList(new ArrayList<String>());
+		volatile boolean watchClosed;
+
+		FakeProvider(String id, boolean available, long delayMillis,
+				Collection<Service> services) {
+			this.id = id;
+			this.available = available;
+			this.delayMillis = delayMillis;
+			this.services = services;
+		}
+
+		ServiceCatalog create() {
+			return (ServiceCatalog) Proxy.newProxyInstance(
+					ServiceCatalog.class.getClassLoader(),
+					new Class<?>[] { ServiceCatalog.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			if (method.getName().equals("getCatalogId")) {
+				return id;
+			}
+			if (method.getName().equals("isAvailable")) {
+				if (!available) {
+					// never answers
+					Thread.sleep(10000L);
+				}
+				return available;
+			}
+			Thread.sleep(delayMillis);
+			calls.add(method.getName());
+			switch (method.getName()) {
+			case "getService":
+			case "resolveService":
+			case "registerServices":
+				if (failure != null) {
+					throw failure;
+				}
+				return method.getName().equals("registerServices") ? null
+						: service;
+			case "watch":
+				return new ServiceWatch() {
+					@Override
+					public ServiceQuery getQuery() {
+						return ServiceQuery.ALL;
+					}
+
+					@Override
+					public void close() {
+						watchClosed = true;
+					}
+				};
+			default:
+				if (Collection.class.isAssignableFrom(method.getReturnType())) {
+					return services;
+				}
+				return null;
+			}
+		}
+	}
+
+	@Test
+	public void testResultsAreMergedAndDeduplicated() {
+		List<Service> services = ServiceCodecTest.createServices(30);
+		FakeProvider first = new FakeProvider("first", true, 0L,
+				services.subList(0, 20));
+		FakeProvider second = new FakeProvider("second", true, 10L,
+				services.subList(10, 30));
+		catalog = new FederatedServiceCatalog.Builder()
+				.addProvider(first.create()).addProvider(second.create())
+				.build();
+		Collection<Service> found = catalog.getServices(Runnable.class);
+		assertEquals(30, found.size());
+		assertEquals(new HashSet<>(services), new HashSet<>(found));
+	}
+
+	@Test
+	public void testSlowProviderIsSkippedAfterDeadline() {
+		List<Service> services = ServiceCodecTest.createServices(2);
+		FakeProvider fast = new FakeProvider("fast", true, 0L,
+				services.subList(0, 1));
+		FakeProvider slow = new FakeProvider("slow", true, 5000L,
+				services.subList(1, 2));
+		catalog = new FederatedServiceCatalog.Builder()
+				.addProvider(fast.create(), 2000L)
+				.addProvider(slow.create(), 100L).build();
+		long start = System.currentTimeMillis();
+		assertEquals(services.subList(0, 1),
+				new ArrayList<>(catalog.findServices(ServiceQuery.ALL)));
+		assertTrue(System.currentTimeMillis() - start < 2000L);
+	}
+
+	@Test
+	public void testUnavailableProviderDoesNotBlock() {
+		List<Service> services = ServiceCodecTest.createServices(1);
+		FakeProvider available = new FakeProvider("available", true, 0L,
+				services);
+		FakeProvider unavailable = new FakeProvider("unavailable", false, 0L,
+				ServiceCodecTest.createServices(5));
+		catalog = new FederatedServiceCatalog.Builder().setDefaultDeadline(200L)
+				.addProvider(unavailable.create())
+				.addProvider(available.create()).build();
+		long start = System.currentTimeMillis();
+		assertEquals(services, new ArrayList<>(catalog.getServices()));
+		catalog.registerServices(services);
+		assertTrue(System.currentTimeMillis() - start < 2000L);
+		assertEquals(Collections.singletonList("registerServices"),
+				available.calls.subList(1, 2));
+		assertTrue(unavailable.calls.isEmpty());
+		assertTrue(catalog.isAvailable());
+	}
+
+	@Test
+	public void testGetServiceReturnsFirstAnswer() {
+		FakeProvider fast = new FakeProvider("fast", true, 0L,
+				Collections.<Service> emptySet());
+		fast.service = "fast";
+		FakeProvider slow = new FakeProvider("slow", true, 3000L,
+				Collections.<Service> emptySet());
+		slow.service = "slow";
+		catalog = new FederatedServiceCatalog.Builder().setDefaultDeadline(
+				5000L).addProvider(slow.create()).addProvider(fast.create())
+				.build();
+		long start = System.currentTimeMillis();
+		assertEquals("fast", catalog.getService(String.class));
+		assertTrue(System.currentTimeMillis() - start < 2000L);
+	}
+
+	@Test
+	public void testGetServiceSkipsEmptyAndFailedAnswers() {
+		FakeProvider empty = new FakeProvider("empty", true, 0L,
+				Collections.<Service> emptySet());
+		FakeProvider failing = new FakeProvider("failing", true, 0L,
+				Collections.<Service> emptySet());
+		failing.failure = new IllegalStateException("failed");
+		FakeProvider answering = new FakeProvider("answering", true, 50L,
+				Collections.<Service> emptySet());
+		answering.service = "answer";
+		catalog = new FederatedServiceCatalog.Builder()
+				.addProvider(empty.create()).addProvider(failing.create())
+				.addProvider(answering.create()).build();
+		assertEquals("answer", catalog.getService(String.class));
+		catalog.close();
+
+		catalog = new FederatedServiceCatalog.Builder()
+				.addProvider(empty.create()).addProvider(failing.create())
+				.build();
+		try {
+			catalog.getService(String.class);
+			fail("failure expected");
+		} catch (IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		catalog.close();
+
+		catalog = new FederatedServiceCatalog.Builder().addProvider(
+				empty.create()).build();
+		assertNull(catalog.getService(String.class));
+	}
+
+	@Test
+	public void testWritesWaitForSlowProviders() {
+		List<Service> services = ServiceCodecTest.createServices(1);
+		FakeProvider fast = new FakeProvider("fast", true, 0L, services);
+		FakeProvider slow = new FakeProvider("slow", true, 300L, services);
+		catalog = new FederatedServiceCatalog.Builder().setDefaultDeadline(50L)
+				.addProvider(fast.create()).addProvider(slow.create()).build();
+		catalog.registerServices(services);
+		assertEquals(Collections.singletonList("registerServices"), slow.calls);
+	}
+
+	@Test
+	public void testWriteFailsIfNoProviderApplied() {
+		List<Service> services = ServiceCodecTest.createServices(1);
+		FakeProvider failing = new FakeProvider("failing", true, 0L, services);
+		failing.failure = new IllegalStateException("failed");
+		FakeProvider unavailable = new FakeProvider("unavailable", false, 0L,
+				services);
+		catalog = new FederatedServiceCatalog.Builder().setDefaultDeadline(100L)
+				.addProvider(failing.create())
+				.addProvider(unavailable.create()).build();
+		try {
+			catalog.registerServices(services);
+			fail("failure expected");
+		} catch (IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		catalog.close();
+
+		catalog = new FederatedServiceCatalog.Builder().setDefaultDeadline(100L)
+				.addProvider(unavailable.create()).build();
+		try {
+			catalog.registerServices(services);
+			fail("failure expected");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		catalog.close();
+
+		FakeProvider working = new FakeProvider("working", true, 0L, services);
+		catalog = new FederatedServiceCatalog.Builder()
+				.addProvider(failing.create()).addProvider(working.create())
+				.build();
+		catalog.registerServices(services);
+		assertEquals(Collections.singletonList("registerServices"),
+				working.calls);
+	}
+
+	@Test
+	public void testLateWatchIsClosed() throws InterruptedException {
+		FakeProvider fast = new FakeProvider("fast", true, 0L,
+				Collections.<Service> emptySet());
+		FakeProvider slow = new FakeProvider("slow", true, 300L,
+				Collections.<Service> emptySet());
+		catalog = new FederatedServiceCatalog.Builder().setDefaultDeadline(50L)
+				.addProvider(fast.create()).addProvider(slow.create()).build();
+		ServiceWatch watch = catalog.watch(Runnable.class, null,
+				new ServiceListener() {
+					@Override
+					public void servicesChanged(ServiceEvent event) {
+					}
+				});
+		assertTrue(slow.calls.isEmpty());
+		watch.close();
+		assertTrue(fast.watchClosed);
+		for (int i = 0; i < 100 && !slow.watchClosed; i++) {
+			Thread.sleep(20L);
+		}
+		assertTrue(slow.watchClosed);
+	}
+
+	@Test
+	public void testWatchIsRegisteredWithAllProviders() {
+		FakeProvider first = new FakeProvider("first", true, 0L,
+				Collections.<Service> emptySet());
+		FakeProvider second = new FakeProvider("second", true, 0L,
+				Collections.<Service> emptySet());
+		catalog = new FederatedServiceCatalog.Builder()
+				.addProvider(first.create()).addProvider(second.create())
+				.build();
+		ServiceWatch watch = catalog.watch(Runnable.class, null,
+				new ServiceListener() {
+					@Override
+					public void servicesChanged(ServiceEvent event) {
+					}
+				});
+		assertEquals("java.lang.Runnable", watch.getQuery()
+				.getInterfaceExpression().getLiteral());
+		watch.close();
+		assertTrue(first.watchClosed);
+		assertTrue(second.watchClosed);
+	}
+
+	@Test
+	public void testLookupsAreRecorded() {
+		FakeProvider provider = new FakeProvider("provider", true, 20L,
+				ServiceCodecTest.createServices(1));
+		provider.service = "answer";
+		catalog = new FederatedServiceCatalog.Builder().addProvider(
+				provider.create()).build();
+		DefaultCatalogMetrics metrics = (DefaultCatalogMetrics) catalog
+				.getMetrics();
+		catalog.getServices(Runnable.class);
+		catalog.findServices(ServiceQuery.ALL);
+		catalog.getService(String.class);
+		catalog.resolveService(ServiceCodecTest.createServices(1).get(0),
+				String.class);
+		assertEquals(3L, metrics.getLookupCount());
+		assertTrue(metrics.getLookups().getMax() >= 20000000L);
+		assertEquals(1L, metrics.getResolutionCount());
+		// isAvailable() and writes are not lookups
+		assertTrue(catalog.isAvailable());
+		catalog.registerServices(ServiceCodecTest.createServices(1));
+		assertEquals(3L, metrics.getLookupCount());
+	}
+
+}
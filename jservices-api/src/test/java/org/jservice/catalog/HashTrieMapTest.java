@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link HashTrieMap} and {@link HashTrieSet}.
+ *
+ * @author Anatole Tresch
+ */
+public class HashTrieMapTest {
+
+	/**
+	 * Key with a configurable hash code, for forcing collisions.
+	 */
+	private static final class Key {
+		final int hash;
+		final String name;
+
+		Key(int hash, String name) {
+			this.hash = hash;
+			this.name = name;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).name.equals(name);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	@Test
+	public void testAgreesWithHashMap() {
+		Random random = new Random(42);
+		Map<Integer, String> expected = new HashMap<>();
+		HashTrieMap<Integer, String> map = HashTrieMap.empty();
+		for (int i = 0; i < 20000; i++) {
+			Integer key = random.nextInt(5000);
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.minus(key);
+			} else {
+				String value = "v" + i;
+				expected.put(key, value);
+				map = map.plus(key, value);
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected, map);
+		assertEquals(expected.keySet(), map.keySet());
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(expected.get(i), map.get(i));
+		}
+	}
+
+	@Test
+	public void testChangesCreateNewInstances() {
+		HashTrieMap<String, String> map = HashTrieMap.<String, String> empty()
+				.plus("a", "1");
+		HashTrieMap<String, String> changed = map.plus("a", "2");
+		assertEquals("1", map.get("a"));
+		assertEquals("2", changed.get("a"));
+		assertEquals(1, changed.size());
+		assertSame(changed, changed.plus("a", "2"));
+		assertSame(map, map.minus("b"));
+		assertSame(HashTrieMap.empty(), map.minus("a"));
+		assertNull(map.get(null));
+	}
+
+	@Test
+	public void testCollisions() {
+		Key a = new Key(7, "a");
+		Key b = new Key(7, "b");
+		Key c = new Key(7, "c");
+		HashTrieMap<Key, String> map = HashTrieMap.<Key, String> empty()
+				.plus(a, "a").plus(b, "b").plus(c, "c");
+		assertEquals(3, map.size());
+		assertEquals("b", map.get(new Key(7, "b")));
+		assertNull(map.get(new Key(7, "d")));
+		map = map.minus(b);
+		assertEquals(2, map.size());
+		assertFalse(map.containsKey(b));
+		assertEquals("c", map.get(c));
+		map = map.minus(a).minus(c);
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void testSetKeepsEqualElement() {
+		String element = new String("element");
+		HashTrieSet<String> set = HashTrieSet.<String> empty().plus(element);
+		String equal = new String("element");
+		assertNotSame(element, equal);
+		assertSame(set, set.plus(equal));
+		assertSame(element, set.iterator().next());
+		Key a = new Key(1, "a");
+		HashTrieSet<Key> colliding = HashTrieSet.<Key> empty().plus(a)
+				.plus(new Key(1, "b"));
+		assertSame(colliding, colliding.plus(new Key(1, "a")));
+		assertEquals(2, colliding.size());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSetSerialization() throws Exception {
+		HashTrieSet<Integer> set = HashTrieSet.empty();
+		Set<Integer> expected = new HashSet<>();
+		for (int i = 0; i < 100; i++) {
+			set = set.plus(i * 31);
+			expected.add(i * 31);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(set);
+		}
+		Object read;
+		try (ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()))) {
+			read = in.readObject();
+		}
+		assertTrue(read instanceof HashTrieSet);
+		assertEquals(expected, (Set<Integer>) read);
+	}
+
+}
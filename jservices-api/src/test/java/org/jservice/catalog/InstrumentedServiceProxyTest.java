@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.jservice.metrics.DefaultCatalogMetrics;
+import org.junit.Test;
+
+/**
+ * Tests for {@link InstrumentedServiceProxy} and the
+ * {@link ServiceStatistics} it records into.
+ *
+ * @author Anatole Tresch
+ */
+public class InstrumentedServiceProxyTest {
+
+	public static interface Echo {
+		String echo(String s) throws IOException;
+	}
+
+	private final Service service = ServiceCodecTest.createServices(1).get(0);
+	private final ServiceStatistics statistics = new ServiceStatistics(0.5d);
+	private final DefaultCatalogMetrics metrics = new DefaultCatalogMetrics();
+
+	/**
+	 * Echoes after the given delay, failing for "fail", and records the
+	 * calls in flight seen while running.
+	 */
+	private final class SlowEcho implements Echo {
+		final long delayMillis;
+		int inFlight = -1;
+
+		SlowEcho(long delayMillis) {
+			this.delayMillis = delayMillis;
+		}
+
+		@Override
+		public String echo(String s) throws IOException {
+			inFlight = statistics.peek(service).getInFlight();
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if ("fail".equals(s)) {
+				throw new IOException("failed");
+			}
+			return s;
+		}
+	}
+
+	@Test
+	public void testSuccessIsRecorded() throws IOException {
+		SlowEcho target = new SlowEcho(20L);
+		Echo echo = InstrumentedServiceProxy.wrap(service, Echo.class, target,
+				statistics, metrics);
+		assertEquals("x", echo.echo("x"));
+		assertEquals(1, target.inFlight);
+		ServiceStatistics.Entry entry = statistics.peek(service);
+		assertEquals(0, entry.getInFlight());
+		assertEquals(1L, entry.getCalls());
+		assertEquals(0L, entry.getFailures());
+		double first = entry.getAverageNanos();
+		assertTrue("average " + first, first >= 20000000d);
+		assertEquals(1L, metrics.getInvocations(service).getCount());
+		assertEquals(0L, metrics.getInvocationFailures());
+
+		// the next sample moves the average by alpha
+		target = new SlowEcho(0L);
+		echo = InstrumentedServiceProxy.wrap(service, Echo.class, target,
+				statistics, metrics);
+		echo.echo("y");
+		double second = entry.getAverageNanos();
+		assertTrue("average " + second, second < first
+				&& second >= first / 2d);
+	}
+
+	@Test
+	public void testFailureIsRecordedAndRethrown() {
+		SlowEcho target = new SlowEcho(20L);
+		Echo echo = InstrumentedServiceProxy.wrap(service, Echo.class, target,
+				statistics, metrics);
+		try {
+			echo.echo("fail");
+			fail("no exception thrown");
+		} catch (IOException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		assertEquals(1, target.inFlight);
+		ServiceStatistics.Entry entry = statistics.peek(service);
+		assertEquals(0, entry.getInFlight());
+		assertEquals(1L, entry.getCalls());
+		assertEquals(1L, entry.getFailures());
+		assertTrue(entry.getAverageNanos() >= 20000000d);
+		assertEquals(1L, metrics.getInvocations(service).getCount());
+		assertEquals(1L, metrics.getInvocationFailures());
+	}
+
+	@Test
+	public void testObjectMethodsAreNotRecorded() {
+		SlowEcho target = new SlowEcho(0L);
+		Echo echo = InstrumentedServiceProxy.wrap(service, Echo.class, target,
+				statistics);
+		assertEquals(target.toString(), echo.toString());
+		assertEquals(0L, statistics.get(service).getCalls());
+		assertEquals(-1d, statistics.get(service).getAverageNanos(), 0d);
+	}
+
+	@Test
+	public void testClassesAreNotWrapped() {
+		StringBuilder target = new StringBuilder();
+		assertSame(target, InstrumentedServiceProxy.wrap(service,
+				StringBuilder.class, target, statistics));
+	}
+
+}
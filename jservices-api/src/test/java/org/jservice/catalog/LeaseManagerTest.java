@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link LeaseManager}. The wheel is driven by
+ * {@link LeaseManager#advanceTo(long)} instead of its thread. The tick is one
+ * second, so all timers scheduled by a test start at tick {@code 0}.
+ *
+ * @author Anatole Tresch
+ */
+public class LeaseManagerTest {
+
+	private static final long TICK_MILLIS = 1000L;
+
+	private final List<Collection<Service>> expired = new ArrayList<>();
+	private final List<Collection<Service>> renewals = new ArrayList<>();
+	private LeaseManager leases;
+	/** Not before the start of the manager's tick 0. */
+	private long base;
+
+	@Before
+	public void setUp() {
+		leases = new LeaseManager(TICK_MILLIS, new LeaseManager.Listener() {
+			@Override
+			public void leasesExpired(Collection<Service> services) {
+				expired.add(new ArrayList<>(services));
+			}
+
+			@Override
+			public void renewalsDue(Collection<Service> services) {
+				renewals.add(new ArrayList<>(services));
+			}
+		});
+		base = System.nanoTime();
+	}
+
+	private void advanceTo(long tick) {
+		leases.advanceTo(base
+				+ TimeUnit.MILLISECONDS.toNanos(tick * TICK_MILLIS));
+	}
+
+	private static Service createService(int i) {
+		return new Service.Builder().setProtocol("rmi").setHost("localhost")
+				.setPort(1099).setLocation("svc" + i)
+				.setInterfaces("org.test.Service").build();
+	}
+
+	@Test
+	public void testLeasesExpireInOneBatch() {
+		Service a = createService(1);
+		Service b = createService(2);
+		Service c = createService(3);
+		leases.lease(a, 5 * TICK_MILLIS);
+		leases.lease(b, 5 * TICK_MILLIS);
+		leases.lease(c, 6 * TICK_MILLIS);
+		assertEquals(3, leases.getLeaseCount());
+		advanceTo(4);
+		assertTrue(expired.isEmpty());
+		advanceTo(5);
+		assertEquals(1, expired.size());
+		assertEquals(new HashSet<>(Arrays.asList(a, b)), new HashSet<>(
+				expired.get(0)));
+		assertEquals(1, leases.getLeaseCount());
+		advanceTo(6);
+		assertEquals(Arrays.asList(c), expired.get(1));
+		assertEquals(0, leases.getLeaseCount());
+		assertTrue(renewals.isEmpty());
+	}
+
+	@Test
+	public void testRenewedLeaseExpiresLater() {
+		Service a = createService(1);
+		leases.lease(a, 5 * TICK_MILLIS);
+		advanceTo(3);
+		leases.lease(a, 10 * TICK_MILLIS);
+		assertEquals(1, leases.getLeaseCount());
+		advanceTo(9);
+		assertTrue(expired.isEmpty());
+		advanceTo(10);
+		assertEquals(Arrays.asList(a), expired.get(0));
+	}
+
+	@Test
+	public void testLongLeasesCascadeThroughLevels() {
+		// 100 ticks are on level 1, 5000 ticks on level 2 of the wheel
+		Service a = createService(1);
+		Service b = createService(2);
+		leases.lease(a, 100 * TICK_MILLIS);
+		leases.lease(b, 5000 * TICK_MILLIS);
+		advanceTo(99);
+		assertTrue(expired.isEmpty());
+		advanceTo(100);
+		assertEquals(Arrays.asList(a), expired.get(0));
+		advanceTo(4999);
+		assertEquals(1, expired.size());
+		advanceTo(5000);
+		assertEquals(Arrays.asList(b), expired.get(1));
+	}
+
+	@Test
+	public void testKeepAliveIsDuePeriodically() {
+		Service a = createService(1);
+		leases.keepAlive(a, 2 * TICK_MILLIS);
+		for (int tick = 1; tick <= 6; tick++) {
+			advanceTo(tick);
+		}
+		assertEquals(3, renewals.size());
+		for (Collection<Service> due : renewals) {
+			assertEquals(Arrays.asList(a), due);
+		}
+		assertEquals(1, leases.getKeepAliveCount());
+		assertTrue(expired.isEmpty());
+	}
+
+	@Test
+	public void testCancel() {
+		Service a = createService(1);
+		Service b = createService(2);
+		leases.lease(a, 2 * TICK_MILLIS);
+		leases.keepAlive(a, 2 * TICK_MILLIS);
+		leases.lease(b, 2 * TICK_MILLIS);
+		leases.keepAlive(b, 2 * TICK_MILLIS);
+		leases.cancel(a);
+		leases.cancelLease(b);
+		assertEquals(0, leases.getLeaseCount());
+		assertEquals(1, leases.getKeepAliveCount());
+		advanceTo(2);
+		assertTrue(expired.isEmpty());
+		assertEquals(Arrays.asList(Arrays.asList(b)), renewals);
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link LoadBalancer} implementations.
+ *
+ * @author Anatole Tresch
+ */
+public class LoadBalancerTest {
+
+	private static final int SELECTIONS = 20000;
+
+	private final List<Service> services = ServiceCodecTest.createServices(3);
+	private final Service a = services.get(0);
+	private final Service b = services.get(1);
+	private final Service c = services.get(2);
+	private final ServiceStatistics statistics = new ServiceStatistics();
+
+	private void recordCall(Service service, long durationNanos) {
+		ServiceStatistics.Entry entry = statistics.get(service);
+		entry.callStarted();
+		entry.callFinished(durationNanos, false);
+	}
+
+	private double share(LoadBalancer balancer, List<Service> candidates,
+			Service service) {
+		int selected = 0;
+		for (int i = 0; i < SELECTIONS; i++) {
+			if (balancer.select(Runnable.class, candidates) == service) {
+				selected++;
+			}
+		}
+		return (double) selected / SELECTIONS;
+	}
+
+	@Test
+	public void testRoundRobinCyclesThroughReplicas() {
+		LoadBalancer balancer = new RoundRobinLoadBalancer();
+		for (int i = 0; i < 6; i++) {
+			assertSame(services.get(i % 3),
+					balancer.select(Runnable.class, services));
+		}
+		// each interface type has its own counter
+		assertSame(a, balancer.select(Comparable.class, services));
+		assertSame(a, balancer.select(Runnable.class, services));
+	}
+
+	@Test
+	public void testPowerOfTwoChoicesPrefersLessCallsInFlight() {
+		LoadBalancer balancer = new PowerOfTwoChoicesLoadBalancer(statistics);
+		statistics.get(a).callStarted();
+		// with two candidates both are always compared
+		List<Service> candidates = Arrays.asList(a, b);
+		for (int i = 0; i < 100; i++) {
+			assertSame(b, balancer.select(Runnable.class, candidates));
+		}
+		statistics.get(b).callStarted();
+		statistics.get(b).callStarted();
+		for (int i = 0; i < 100; i++) {
+			assertSame(a, balancer.select(Runnable.class, candidates));
+		}
+		// equal calls in flight, the faster one wins
+		statistics.get(a).callStarted();
+		recordCall(a, 5000000L);
+		recordCall(b, 1000000L);
+		for (int i = 0; i < 100; i++) {
+			assertSame(b, balancer.select(Runnable.class, candidates));
+		}
+		// a is as busy as b and slower, so it loses to both others
+		assertEquals(0d, share(balancer, services, a), 0d);
+	}
+
+	@Test
+	public void testLatencyWeightedFavoursFastReplicas() {
+		LoadBalancer balancer = new LatencyWeightedLoadBalancer(statistics);
+		recordCall(a, 1000000L);
+		recordCall(b, 9000000L);
+		List<Service> candidates = Arrays.asList(a, b);
+		double shareA = share(balancer, candidates, a);
+		assertTrue("share " + shareA, shareA > 0.87d && shareA < 0.93d);
+	}
+
+	@Test
+	public void testLatencyWeightedGivesUnknownReplicasDefaultWeight() {
+		LoadBalancer balancer = new LatencyWeightedLoadBalancer(statistics);
+		// nothing known, all equally likely
+		double shareC = share(balancer, services, c);
+		assertTrue("share " + shareC, shareC > 0.3d && shareC < 0.37d);
+		recordCall(a, 1000000L);
+		recordCall(b, 1000000L);
+		shareC = share(balancer, services, c);
+		assertTrue("share " + shareC, shareC > 0.3d && shareC < 0.37d);
+		// the default weight is the average of the known weights
+		recordCall(b, 3000000L);
+		recordCall(b, 3000000L);
+		recordCall(b, 3000000L);
+		double weightA = 1d / statistics.peek(a).getAverageNanos();
+		double weightB = 1d / statistics.peek(b).getAverageNanos();
+		double weightC = (weightA + weightB) / 2d;
+		double expected = weightC / (weightA + weightB + weightC);
+		shareC = share(balancer, services, c);
+		assertEquals(expected, shareC, 0.03d);
+	}
+
+	@Test
+	public void testSingleCandidateIsSelected() {
+		List<Service> candidates = Arrays.asList(c);
+		assertSame(c, new RoundRobinLoadBalancer().select(Runnable.class,
+				candidates));
+		assertSame(c, new PowerOfTwoChoicesLoadBalancer(statistics).select(
+				Runnable.class, candidates));
+		assertSame(c, new LatencyWeightedLoadBalancer(statistics).select(
+				Runnable.class, candidates));
+	}
+
+}
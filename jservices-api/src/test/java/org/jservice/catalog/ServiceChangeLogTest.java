@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ServiceChangeLog}.
+ *
+ * @author Anatole Tresch
+ */
+public class ServiceChangeLogTest {
+
+	private static Service createService(int i) {
+		return new Service.Builder().setProtocol("rmi").setHost("localhost")
+				.setPort(1099).setLocation("svc" + i)
+				.setInterfaces("org.test.Service").build();
+	}
+
+	@Test
+	public void testDeltaAfterWrapAround() {
+		ServiceChangeLog log = new ServiceChangeLog(4);
+		for (int i = 1; i <= 5; i++) {
+			log.append(ServiceChange.Type.ADDED, createService(i));
+		}
+		assertEquals(6L, log.append(ServiceChange.Type.REMOVED,
+				createService(2)));
+		// the buffer holds the changes 3 to 6, overwriting 1 and 2
+		ServiceChangeLog.Delta delta = log.getChangesSince(2L);
+		assertFalse(delta.isFullSnapshot());
+		assertEquals(2L, delta.getFromVersion());
+		assertEquals(6L, delta.getToVersion());
+		List<ServiceChange> changes = delta.getChanges();
+		assertEquals(4, changes.size());
+		for (int i = 0; i < 4; i++) {
+			assertEquals(3L + i, changes.get(i).getSequence());
+		}
+		assertEquals(createService(3), changes.get(0).getService());
+		assertEquals(ServiceChange.Type.REMOVED, changes.get(3).getType());
+		assertEquals(createService(2), changes.get(3).getService());
+	}
+
+	@Test
+	public void testSnapshotWhenChangesAreOverwritten() {
+		ServiceChangeLog log = new ServiceChangeLog(4);
+		for (int i = 1; i <= 5; i++) {
+			log.append(ServiceChange.Type.ADDED, createService(i));
+		}
+		log.append(ServiceChange.Type.REMOVED, createService(2));
+		ServiceChangeLog.Delta delta = log.getChangesSince(1L);
+		assertTrue(delta.isFullSnapshot());
+		assertEquals(6L, delta.getToVersion());
+		assertEquals(new HashSet<>(Arrays.asList(createService(1),
+				createService(3), createService(4), createService(5))),
+				delta.getSnapshot());
+		assertEquals(Collections.emptyList(), delta.getChanges());
+		// a version this log never reached, e.g. after a restart
+		assertTrue(log.getChangesSince(7L).isFullSnapshot());
+	}
+
+	@Test
+	public void testEmptyDeltaWhenUpToDate() {
+		ServiceChangeLog log = new ServiceChangeLog(2);
+		assertEquals(0, log.getChangesSince(0L).getChanges().size());
+		log.appendAll(ServiceChange.Type.ADDED,
+				Arrays.asList(createService(1), createService(2),
+						createService(3)));
+		ServiceChangeLog.Delta delta = log.getChangesSince(3L);
+		assertFalse(delta.isFullSnapshot());
+		assertEquals(0, delta.getChanges().size());
+		assertEquals(1, log.getChangesSince(2L).getChanges().size());
+		assertTrue(log.getChangesSince(0L).isFullSnapshot());
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Round trip tests for {@link ServiceCodec}.
+ *
+ * @author Anatole Tresch
+ */
+public class ServiceCodecTest {
+
+	@Test
+	public void testSingleService() {
+		Map<String, String> context = new HashMap<>();
+		context.put("zone", "z1");
+		context.put("stage", "prod");
+		Service service = new Service.Builder().setProtocol("rmi")
+				.setHost("10.0.0.1").setPort(6000).setLocation("hello")
+				.setInterfaces("org.test.Hello", "org.test.Admin")
+				.setContext(context).build();
+		ByteBuffer buffer = ServiceCodec.encode(service);
+		Service decoded = ServiceCodec.decode(buffer);
+		assertEquals(service, decoded);
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void testBatch() {
+		List<Service> services = createServices(1000);
+		ByteBuffer buffer = ServiceCodec.encodeAll(services);
+		assertEquals(ServiceCodec.encodedSize(services), buffer.remaining());
+		List<Service> decoded = ServiceCodec.decodeAll(buffer);
+		assertEquals(services, decoded);
+		assertSame(decoded.get(0).getHost(), decoded.get(20).getHost());
+	}
+
+	@Test
+	public void testEmptyAndMissingFields() {
+		assertTrue(ServiceCodec.decodeAll(
+				ServiceCodec.encodeAll(Collections.<Service> emptyList()))
+				.isEmpty());
+		Service service = new Service.Builder().setLocation("\u00e4\u20ac/x")
+				.setPort(-1).build();
+		assertEquals(service,
+				ServiceCodec.decode(ServiceCodec.encode(service)));
+	}
+
+	@Test
+	public void testDirectBufferAndOffset() {
+		List<Service> services = createServices(50);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+		buffer.putInt(42);
+		int written = ServiceCodec.encodeAll(services, buffer);
+		assertEquals(ServiceCodec.encodedSize(services), written);
+		buffer.flip();
+		assertEquals(42, buffer.getInt());
+		assertEquals(services, ServiceCodec.decodeAll(buffer));
+	}
+
+	@Test
+	public void testOverflow() {
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		try {
+			ServiceCodec.encodeAll(createServices(5), buffer);
+			fail("Expected BufferOverflowException.");
+		} catch (BufferOverflowException e) {
+			assertEquals(0, buffer.position());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncatedData() {
+		ByteBuffer buffer = ServiceCodec.encodeAll(createServices(5));
+		buffer.limit(buffer.limit() - 3);
+		ServiceCodec.decodeAll(buffer);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedVersion() {
+		ServiceCodec.decodeAll(ByteBuffer.wrap(new byte[] { 99 }));
+	}
+
+	@Test
+	public void testInvalidCounts() {
+		// dictionary size of Integer.MAX_VALUE
+		assertInvalid(new byte[] { ServiceCodec.VERSION, (byte) 0xFF,
+				(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 });
+		// negative dictionary size
+		assertInvalid(new byte[] { ServiceCodec.VERSION, (byte) 0xFF,
+				(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F });
+		// empty dictionary, 100 services announced
+		assertInvalid(new byte[] { ServiceCodec.VERSION, 0, 100, 0, 0 });
+		// one service without fields, 100 interfaces announced
+		assertInvalid(new byte[] { ServiceCodec.VERSION, 0, 1, 0, 0, 0, 0,
+				100, 0 });
+	}
+
+	private static void assertInvalid(byte[] data) {
+		try {
+			ServiceCodec.decodeAll(ByteBuffer.wrap(data));
+			fail("Expected IllegalArgumentException.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	static List<Service> createServices(int count) {
+		List<Service> services = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Map<String, String> context = new HashMap<>();
+			context.put("zone", "z" + (i % 5));
+			context.put("stage", i % 2 == 0 ? "prod" : "test");
+			services.add(new Service.Builder().setProtocol("rmi")
+					.setHost("10.0.0." + (i % 20)).setPort(6000 + i)
+					.setLocation("svc-" + i)
+					.setInterfaces("org.test.Service" + (i % 50))
+					.setContext(context).build());
+		}
+		return services;
+	}
+}
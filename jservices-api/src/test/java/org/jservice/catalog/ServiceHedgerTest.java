@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ServiceHedger}, using replicas answering after a delay.
+ *
+ * @author Anatole Tresch
+ */
+public class ServiceHedgerTest {
+
+	private ServiceHedger hedger;
+
+	@After
+	public void tearDown() {
+		if (hedger != null) {
+			hedger.close();
+		}
+	}
+
+	/**
+	 * Test service interface.
+	 */
+	public interface Lookup {
+		@Idempotent
+		String find(String key) throws IOException;
+
+		String store(String key) throws IOException;
+	}
+
+	/**
+	 * Replica answering with its name after a delay, or failing.
+	 */
+	private static final class Replica implements Lookup {
+		final String name;
+		final long delayMillis;
+		IOException failure;
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch cancelled = new CountDownLatch(1);
+
+		Replica(String name, long delayMillis) {
+			this.name = name;
+			this.delayMillis = delayMillis;
+		}
+
+		@Override
+		public String find(String key) throws IOException {
+			calls.incrementAndGet();
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				cancelled.countDown();
+				throw new InterruptedIOException();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return name;
+		}
+
+		@Override
+		public String store(String key) throws IOException {
+			return find(key);
+		}
+	}
+
+	/**
+	 * Records enough fast calls for the percentile to be used, so hedging
+	 * happens after the policy's minimal delay.
+	 */
+	private void warmUp() throws IOException {
+		Lookup lookup = hedger.wrap(Lookup.class, new Replica("warm", 0L),
+				new Replica("warm", 0L));
+		for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+			lookup.find("key");
+		}
+	}
+
+	@Test
+	public void testSlowPrimaryIsHedgedAfterPercentileDelay()
+			throws Exception {
+		hedger = new ServiceHedger(new HedgingPolicy(0.9, 100L, 3000L));
+		Replica primary = new Replica("primary", 1000L);
+		Replica secondary = new Replica("secondary", 0L);
+		Lookup lookup = hedger.wrap(Lookup.class, primary, secondary);
+		// without samples, the maximal delay applies
+		assertEquals("primary", lookup.find("key"));
+		assertEquals(0, secondary.calls.get());
+		assertEquals(0L, hedger.getHedgeCount());
+
+		warmUp();
+		long start = System.nanoTime();
+		assertEquals("secondary", lookup.find("key"));
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("hedged after " + millis + " ms", millis >= 100L
+				&& millis < 900L);
+		assertEquals(1, secondary.calls.get());
+		assertEquals(1L, hedger.getHedgeCount());
+	}
+
+	@Test
+	public void testFirstSuccessWinsAndOtherCallIsCancelled()
+			throws Exception {
+		hedger = new ServiceHedger(new HedgingPolicy(0.9, 50L, 3000L));
+		warmUp();
+		Replica slow = new Replica("slow", 5000L);
+		Replica fast = new Replica("fast", 0L);
+		assertEquals("fast", hedger.wrap(Lookup.class, slow, fast).find("key"));
+		assertTrue(slow.cancelled.await(2, TimeUnit.SECONDS));
+
+		// the primary answers after hedging, but before the secondary
+		Replica primary = new Replica("primary", 300L);
+		Replica secondary = new Replica("secondary", 5000L);
+		assertEquals("primary",
+				hedger.wrap(Lookup.class, primary, secondary).find("key"));
+		assertEquals(1, secondary.calls.get());
+		assertTrue(secondary.cancelled.await(2, TimeUnit.SECONDS));
+		assertEquals(2L, hedger.getHedgeCount());
+	}
+
+	@Test
+	public void testNonIdempotentMethodsAreNeverDuplicated() throws Exception {
+		hedger = new ServiceHedger(new HedgingPolicy(0.9, 0L, 10L));
+		Replica primary = new Replica("primary", 200L);
+		Replica secondary = new Replica("secondary", 0L);
+		Lookup lookup = hedger.wrap(Lookup.class, primary, secondary);
+		assertEquals("primary", lookup.store("key"));
+
+		primary.failure = new IOException("failed");
+		try {
+			lookup.store("key");
+			fail("IOException expected.");
+		} catch (IOException e) {
+			assertSame(primary.failure, e);
+		}
+		assertEquals(2, primary.calls.get());
+		assertEquals(0, secondary.calls.get());
+		assertEquals(0L, hedger.getHedgeCount());
+	}
+
+	@Test
+	public void testFailedPrimaryFallsThroughToSecondary() throws Exception {
+		hedger = new ServiceHedger(new HedgingPolicy(0.9, 1000L, 1000L));
+		Replica primary = new Replica("primary", 0L);
+		primary.failure = new IOException("primary failed");
+		Replica secondary = new Replica("secondary", 0L);
+		long start = System.nanoTime();
+		assertEquals("secondary",
+				hedger.wrap(Lookup.class, primary, secondary).find("key"));
+		// not waiting for the hedging delay
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS
+				.toNanos(900L));
+		assertEquals(1L, hedger.getHedgeCount());
+
+		// if both fail, the primary's failure is reported
+		secondary.failure = new IOException("secondary failed");
+		try {
+			hedger.wrap(Lookup.class, primary, secondary).find("key");
+			fail("IOException expected.");
+		} catch (IOException e) {
+			assertSame(primary.failure, e);
+		}
+	}
+
+}
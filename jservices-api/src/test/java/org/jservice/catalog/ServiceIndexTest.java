@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ServiceIndex}.
+ *
+ * @author Anatole Tresch
+ */
+public class ServiceIndexTest {
+
+	private static Service createService(String protocol, String location,
+			String zone, String... interfaces) {
+		Map<String, String> context = new HashMap<>();
+		if (zone != null) {
+			context.put("zone", zone);
+		}
+		return new Service.Builder().setProtocol(protocol)
+				.setHost("localhost").setPort(1099).setLocation(location)
+				.setInterfaces(interfaces).setContext(context).build();
+	}
+
+	private final Service a = createService("rmi", "a", "z1", "org.test.A");
+	private final Service ab = createService("rmi", "ab", "z2", "org.test.A",
+			"org.test.B");
+	private final Service b = createService("nio", "b", "z1", "org.test.B");
+	private final Service other = createService("nio", "c", null,
+			"org.other.C");
+	private final ServiceIndex index = ServiceIndex.EMPTY.with(Arrays.asList(
+			a, ab, b, other));
+
+	private static Set<Service> set(Service... services) {
+		return new HashSet<>(Arrays.asList(services));
+	}
+
+	private static Set<Service> set(List<Service> services) {
+		return new HashSet<>(services);
+	}
+
+	@Test
+	public void testPostings() {
+		assertEquals(4, index.size());
+		assertEquals(set(a, ab), index.getByInterface("org.test.A"));
+		assertEquals(set(ab, b), index.getByInterface("org.test.B"));
+		assertEquals(set(b, other), index.getByProtocol("nio"));
+		assertEquals(set(a, ab, b), index.getByContextKey("zone"));
+		assertEquals(set(a, b), index.getByContext("zone", "z1"));
+		assertEquals(Collections.emptySet(), index.getByInterface("unknown"));
+		assertEquals(
+				new HashSet<>(Arrays.asList("org.test.A", "org.test.B",
+						"org.other.C")), index.getInterfaces());
+	}
+
+	@Test
+	public void testSelection() {
+		assertEquals(set(ab), set(index.select().withInterface("org.test.A")
+				.withInterface("org.test.B").list()));
+		assertEquals(set(b), set(index.select().withProtocol("nio")
+				.withContext("zone", "z1").list()));
+		assertEquals(Collections.emptyList(), index.select()
+				.withProtocol("unknown").withInterface("org.test.A").list());
+		assertEquals(index.getServices(), set(index.select().list()));
+	}
+
+	@Test
+	public void testFindByExpressionKind() {
+		assertEquals(set(a, ab), set(index.find(new ServiceQuery.Builder()
+				.setInterface("org.test.A").build())));
+		assertEquals(set(a, ab, b), set(index.find(new ServiceQuery.Builder()
+				.setInterfaceExpression("org\\.test\\..*").build())));
+		assertEquals(set(ab, b), set(index.find(new ServiceQuery.Builder()
+				.setInterfaceExpression(".*\\.B").build())));
+		assertEquals(set(ab), set(index.find(new ServiceQuery.Builder()
+				.setInterfaceExpression("org\\.test\\..*")
+				.addContext("zone", "z2").build())));
+		assertEquals(set(a, b), set(index.find(new ServiceQuery.Builder()
+				.addContext("zone", "z[1]").build())));
+		assertEquals(set(a, ab, other), set(index.find(new ServiceQuery.Builder()
+				.setInterfaceExpression(".*[AC]").setProtocols("rmi", "nio")
+				.build())));
+		assertEquals(index.getServices(), set(index.find(ServiceQuery.ALL)));
+	}
+
+	@Test
+	public void testFindAgreesWithMatches() {
+		ServiceQuery[] queries = {
+				ServiceQuery.ALL,
+				new ServiceQuery.Builder().setInterface("org.test.B").build(),
+				new ServiceQuery.Builder().setInterfaceExpression("org.*")
+						.setProtocols("rmi").build(),
+				new ServiceQuery.Builder().setProtocols("rmi", "nio")
+						.addContext("zone", "z.").build(),
+				new ServiceQuery.Builder().addContext("zone", "z2").build() };
+		for (ServiceQuery query : queries) {
+			Set<Service> expected = new HashSet<>();
+			for (Service service : index.getServices()) {
+				if (query.matches(service)) {
+					expected.add(service);
+				}
+			}
+			assertEquals(query.toString(), expected, set(index.find(query)));
+		}
+	}
+
+	@Test
+	public void testUnchangedIndexIsReturned() {
+		assertSame(index, index.with(a));
+		assertSame(index, index.with(Arrays.asList(a, b)));
+		assertSame(index, index.without(createService("rmi", "x", null,
+				"org.test.X")));
+		assertSame(index, index.update(Collections.<Service> emptySet(),
+				Collections.<Service> emptySet()));
+		// an equal, but not identical, instance is already contained
+		assertSame(index, index.with(createService("rmi", "a", "z1",
+				"org.test.A")));
+		assertSame(index, index.with(Collections.singleton(createService(
+				"rmi", "a", "z1", "org.test.A"))));
+	}
+
+	@Test
+	public void testUpdate() {
+		Service c = createService("rmi", "c", "z1", "org.test.A");
+		ServiceIndex updated = index.update(Collections.singleton(c),
+				Arrays.asList(a, b));
+		assertEquals(set(ab, other, c), updated.getServices());
+		assertEquals(set(ab, c), updated.getByInterface("org.test.A"));
+		assertEquals(set(ab), updated.getByInterface("org.test.B"));
+		assertEquals(set(c), updated.getByContext("zone", "z1"));
+		assertTrue(updated.contains(c));
+		assertTrue(!updated.contains(a));
+		// the original index is not affected
+		assertEquals(set(a, ab), index.getByInterface("org.test.A"));
+		ServiceIndex empty = updated.without(updated.getServices());
+		assertEquals(0, empty.size());
+		assertEquals(Collections.emptySet(), empty.getInterfaces());
+	}
+
+}
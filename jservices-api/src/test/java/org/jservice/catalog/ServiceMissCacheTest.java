@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ServiceMissCache}.
+ *
+ * @author Anatole Tresch
+ */
+public class ServiceMissCacheTest {
+
+	@Test
+	public void testInvalidationAndEviction() throws Exception {
+		ServiceMissCache misses = new ServiceMissCache(10000L, 2);
+		Service service = new Service.Builder().setProtocol("rmi")
+				.setHost("localhost").setPort(1000).setLocation("a")
+				.setInterfaces("a.A").build();
+		long generation = misses.getGeneration();
+		assertEquals(true, misses.put("a.A", generation));
+		assertEquals(true, misses.isMissing("a.A"));
+		misses.invalidate(service);
+		assertEquals(false, misses.isMissing("a.A"));
+		// a lookup started before the invalidation must not cache its miss
+		assertEquals(false, misses.put("a.A", generation));
+		assertEquals(false, misses.isMissing("a.A"));
+
+		generation = misses.getGeneration();
+		misses.put("b.B", generation);
+		Thread.sleep(2L);
+		misses.put("c.C", generation);
+		Thread.sleep(2L);
+		misses.put("d.D", generation);
+		assertEquals(2, misses.size());
+		assertEquals(false, misses.isMissing("b.B"));
+
+		ServiceMissCache expiring = new ServiceMissCache(1L, 10);
+		expiring.put("a.A", expiring.getGeneration());
+		Thread.sleep(5L);
+		assertEquals(false, expiring.isMissing("a.A"));
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ServiceProxyCache}.
+ *
+ * @author Anatole Tresch
+ */
+public class ServiceProxyCacheTest {
+
+	private static Service createService(String location) {
+		return new Service.Builder().setProtocol("rmi").setHost("localhost")
+				.setPort(1099).setLocation(location)
+				.setInterfaces(Runnable.class.getName()).build();
+	}
+
+	private static final Runnable PROXY = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+
+	@Test
+	public void testPutAndInvalidate() {
+		ServiceProxyCache cache = new ServiceProxyCache(10000L, 10);
+		Service a = createService("a");
+		Service b = createService("b");
+		assertTrue(cache.put(a, Runnable.class, PROXY, cache.getGeneration(a)));
+		assertTrue(cache.put(a, Object.class, new Object(),
+				cache.getGeneration(a)));
+		assertTrue(cache.put(b, Runnable.class, PROXY, cache.getGeneration(b)));
+		assertEquals(3, cache.size());
+		assertSame(PROXY, cache.get(createService("a"), Runnable.class));
+		cache.invalidate(a);
+		assertEquals(1, cache.size());
+		assertNull(cache.get(a, Runnable.class));
+		assertNull(cache.get(a, Object.class));
+		assertSame(PROXY, cache.get(b, Runnable.class));
+		cache.invalidateAll();
+		assertEquals(0, cache.size());
+		assertNull(cache.get(b, Runnable.class));
+	}
+
+	@Test
+	public void testResolutionRacingInvalidationIsNotCached() {
+		ServiceProxyCache cache = new ServiceProxyCache(10000L, 10);
+		Service service = createService("a");
+		long generation = cache.getGeneration(service);
+		// the service is removed while its proxy is being resolved
+		cache.invalidate(service);
+		assertFalse(cache.put(service, Runnable.class, PROXY, generation));
+		assertNull(cache.get(service, Runnable.class));
+		assertEquals(0, cache.size());
+		assertTrue(cache.put(service, Runnable.class, PROXY,
+				cache.getGeneration(service)));
+	}
+
+	@Test
+	public void testExpiryAndEviction() throws Exception {
+		ServiceProxyCache cache = new ServiceProxyCache(10000L, 2);
+		Service a = createService("a");
+		Service b = createService("b");
+		Service c = createService("c");
+		cache.put(a, Runnable.class, PROXY, cache.getGeneration(a));
+		Thread.sleep(2L);
+		cache.put(b, Runnable.class, PROXY, cache.getGeneration(b));
+		Thread.sleep(2L);
+		cache.put(c, Runnable.class, PROXY, cache.getGeneration(c));
+		assertEquals(2, cache.size());
+		assertNull(cache.get(a, Runnable.class));
+		assertSame(PROXY, cache.get(c, Runnable.class));
+
+		ServiceProxyCache expiring = new ServiceProxyCache(1L, 10);
+		expiring.put(a, Runnable.class, PROXY, expiring.getGeneration(a));
+		Thread.sleep(5L);
+		assertNull(expiring.get(a, Runnable.class));
+		assertEquals(0, expiring.size());
+
+		ServiceProxyCache disabled = new ServiceProxyCache(0L, 10);
+		assertFalse(disabled.put(a, Runnable.class, PROXY,
+				disabled.getGeneration(a)));
+	}
+
+	@Test
+	public void testEvictionKeepsNewestEntries() {
+		ServiceProxyCache cache = new ServiceProxyCache(10000L, 100);
+		for (int i = 0; i < 100000; i++) {
+			Service service = createService("s" + i);
+			assertTrue(cache.put(service, Runnable.class, PROXY,
+					cache.getGeneration(service)));
+		}
+		assertEquals(100, cache.size());
+		assertEquals(100, cache.getServiceCount());
+		assertNull(cache.get(createService("s99899"), Runnable.class));
+		assertSame(PROXY, cache.get(createService("s99900"), Runnable.class));
+		assertSame(PROXY, cache.get(createService("s99999"), Runnable.class));
+	}
+
+	@Test
+	public void testEmptiedGroupsAreRemoved() throws Exception {
+		ServiceProxyCache cache = new ServiceProxyCache(10000L, 2);
+		Service a = createService("a");
+		Service b = createService("b");
+		cache.put(a, Runnable.class, PROXY, cache.getGeneration(a));
+		cache.put(a, Object.class, new Object(), cache.getGeneration(a));
+		cache.put(b, Runnable.class, PROXY, cache.getGeneration(b));
+		assertEquals(2, cache.size());
+		assertEquals(2, cache.getServiceCount());
+		cache.put(b, Object.class, new Object(), cache.getGeneration(b));
+		assertEquals(1, cache.getServiceCount());
+		assertNull(cache.get(a, Object.class));
+
+		ServiceProxyCache expiring = new ServiceProxyCache(1L, 10);
+		expiring.put(a, Runnable.class, PROXY, expiring.getGeneration(a));
+		Thread.sleep(5L);
+		expiring.put(b, Runnable.class, PROXY, expiring.getGeneration(b));
+		assertEquals(1, expiring.size());
+		assertEquals(1, expiring.getServiceCount());
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jservice.catalog.ServiceQuery.Expression;
+import org.jservice.catalog.ServiceQuery.Expression.Kind;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ServiceQuery}.
+ *
+ * @author Anatole Tresch
+ */
+public class ServiceQueryTest {
+
+	private static Service createService(String protocol, String zone,
+			String... interfaces) {
+		Map<String, String> context = new HashMap<>();
+		if (zone != null) {
+			context.put("zone", zone);
+		}
+		return new Service.Builder().setProtocol(protocol)
+				.setHost("localhost").setPort(1099).setLocation("svc")
+				.setInterfaces(interfaces).setContext(context).build();
+	}
+
+	@Test
+	public void testExpressionKinds() {
+		assertEquals(Kind.ANY, Expression.compile(".*").getKind());
+		Expression exact = Expression.compile("org\\.test\\.A");
+		assertEquals(Kind.EXACT, exact.getKind());
+		assertEquals("org.test.A", exact.getLiteral());
+		Expression prefix = Expression.compile("org\\.test\\..*");
+		assertEquals(Kind.PREFIX, prefix.getKind());
+		assertEquals("org.test.", prefix.getLiteral());
+		// unescaped dots are meta characters
+		assertEquals(Kind.REGEX, Expression.compile("org.test.A").getKind());
+		// an escaped dot before the star is no prefix
+		assertEquals(Kind.REGEX, Expression.compile("a\\.*").getKind());
+		assertEquals(Kind.REGEX, Expression.compile("\\d+").getKind());
+		assertEquals(Kind.EXACT, Expression.exact("a.b[c]").getKind());
+	}
+
+	@Test
+	public void testExpressionsMatchLikeRegularExpressions() {
+		String[] expressions = { ".*", "org\\.test\\.A", "org\\.test\\..*",
+				"org.test.A", "a\\.*", ".*\\.A", "z[12]" };
+		String[] values = { "", "org.test.A", "org.test.", "org.test.B",
+				"orgXtestXA", "a...", "z1", "z3", "org.test.\nA", "a\n" };
+		for (String expression : expressions) {
+			Expression compiled = Expression.compile(expression);
+			for (String value : values) {
+				assertEquals(expression + " ~ " + value,
+						value.matches(expression), compiled.matches(value));
+			}
+		}
+		assertTrue(Expression.exact("a.b[c]").matches("a.b[c]"));
+		assertFalse(Expression.exact("a.b[c]").matches("a.bc"));
+	}
+
+	@Test
+	public void testMatches() {
+		Service service = createService("rmi", "z1", "org.test.A",
+				"org.test.B");
+		assertTrue(ServiceQuery.ALL.matches(service));
+		assertTrue(new ServiceQuery.Builder().setInterface("org.test.B")
+				.build().matches(service));
+		assertFalse(new ServiceQuery.Builder().setInterface("org.test")
+				.build().matches(service));
+		assertTrue(ServiceQuery.of("org\\.test\\..*",
+				Collections.singletonMap("zone", "z.")).matches(service));
+		assertFalse(ServiceQuery.of(null,
+				Collections.singletonMap("stage", ".*")).matches(service));
+		assertTrue(new ServiceQuery.Builder().setProtocols("nio", "rmi")
+				.build().matches(service));
+		assertFalse(new ServiceQuery.Builder().setProtocols("nio").build()
+				.matches(service));
+	}
+
+	@Test
+	public void testAnyRequiresAnInterface() {
+		Service none = createService("rmi", "z1");
+		Service some = createService("rmi", "z1", "org.test.A");
+		ServiceQuery any = ServiceQuery.of(".*", null);
+		assertTrue(any.matches(some));
+		assertFalse(any.matches(none));
+		assertTrue(ServiceQuery.ALL.matches(none));
+		// the index evaluates the same semantics
+		ServiceIndex index = ServiceIndex.EMPTY.with(none).with(some);
+		assertEquals(Collections.singletonList(some), index.find(any));
+		assertEquals(2, index.find(ServiceQuery.ALL).size());
+	}
+
+	@Test
+	public void testEquality() {
+		ServiceQuery query = new ServiceQuery.Builder()
+				.setInterfaceExpression("org\\.test\\..*")
+				.setProtocols("rmi").addContext("zone", "z1").build();
+		ServiceQuery other = new ServiceQuery.Builder()
+				.setInterfaceExpression("org\\.test\\..*")
+				.setProtocols("rmi").addContext("zone", "z1").build();
+		assertEquals(query, other);
+		assertEquals(query.hashCode(), other.hashCode());
+		assertFalse(query.equals(ServiceQuery.ALL));
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jservice.spi.ServiceResolverSpi;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ServiceResolvers}.
+ *
+ * @author Anatole Tresch
+ */
+public class ServiceResolversTest {
+
+	private static final Service RMI = new Service.Builder()
+			.setProtocol("rmi").setHost("localhost").setPort(1099)
+			.setLocation("a").setInterfaces(Runnable.class.getName()).build();
+
+	/**
+	 * Resolver for a protocol, failing or returning the given instance.
+	 */
+	private static final class Resolver implements ServiceResolverSpi {
+		private final String protocol;
+		private final Object instance;
+
+		Resolver(String protocol, Object instance) {
+			this.protocol = protocol;
+			this.instance = instance;
+		}
+
+		@Override
+		public boolean isResolvable(Service service) {
+			return protocol.equals(service.getProtocol());
+		}
+
+		@Override
+		public <T> T resolveService(Service service, Class<T> type) {
+			if (instance == null) {
+				throw new ServiceResolutionException(service);
+			}
+			return type.cast(instance);
+		}
+	}
+
+	@Test
+	public void testFirstAcceptingResolverIsUsed() {
+		Runnable runnable = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		ServiceResolvers resolvers = new ServiceResolvers(Arrays.asList(
+				new Resolver("nio", new Thread()), new Resolver("rmi", null),
+				new Resolver("rmi", runnable)));
+		assertSame(runnable, resolvers.resolve(RMI, Runnable.class));
+	}
+
+	@Test
+	public void testUnresolvableServiceFails() {
+		ServiceResolvers resolvers = new ServiceResolvers(
+				Collections.singleton(new Resolver("nio", new Thread())));
+		try {
+			resolvers.resolve(RMI, Runnable.class);
+			fail("resolved without resolver");
+		} catch (ServiceResolutionException e) {
+			assertSame(RMI, e.getService());
+		}
+		assertEquals(0, new ServiceResolvers(Collections
+				.<ServiceResolverSpi> emptySet()).getResolvers().size());
+	}
+
+}
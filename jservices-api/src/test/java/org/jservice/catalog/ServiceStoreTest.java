@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ServiceStore}.
+ *
+ * @author Anatole Tresch
+ */
+public class ServiceStoreTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("service-store").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testRestore() throws IOException {
+		List<Service> services = ServiceCodecTest.createServices(100);
+		try (ServiceStore store = new ServiceStore(directory)) {
+			assertEquals(0, store.getLoadedCount());
+			for (Service service : services) {
+				store.append(ServiceChange.Type.ADDED,
+						Collections.singleton(service));
+			}
+			store.append(ServiceChange.Type.REMOVED, services.subList(0, 10));
+		}
+		try (ServiceStore store = new ServiceStore(directory)) {
+			assertEquals(90, store.getLoadedCount());
+			assertEquals(new HashSet<>(services.subList(10, 100)),
+					store.getServices());
+		}
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		List<Service> services = ServiceCodecTest.createServices(500);
+		try (ServiceStore store = new ServiceStore(directory, 4096)) {
+			for (Service service : services) {
+				store.append(ServiceChange.Type.ADDED,
+						Collections.singleton(service));
+			}
+		}
+		assertTrue(new File(directory, ServiceStore.SNAPSHOT_FILE).isFile());
+		try (ServiceStore store = new ServiceStore(directory, 4096)) {
+			assertEquals(new HashSet<>(services), store.getServices());
+		}
+	}
+
+	@Test
+	public void testTornRecord() throws IOException {
+		List<Service> services = ServiceCodecTest.createServices(3);
+		try (ServiceStore store = new ServiceStore(directory)) {
+			store.append(ServiceChange.Type.ADDED, services.subList(0, 2));
+			store.append(ServiceChange.Type.ADDED, services.subList(2, 3));
+		}
+		try (RandomAccessFile file = new RandomAccessFile(new File(directory,
+				ServiceStore.LOG_FILE), "rw")) {
+			int second = 8 + file.readInt();
+			file.seek(second + 12);
+			int b = file.read();
+			file.seek(second + 12);
+			file.write(b ^ 0xFF);
+		}
+		try (ServiceStore store = new ServiceStore(directory)) {
+			assertEquals(2, store.getLoadedCount());
+			assertFalse(store.getServices().contains(services.get(2)));
+		}
+	}
+
+	@Test
+	public void testCorruptSnapshotIsIgnored() throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(new File(directory,
+				ServiceStore.SNAPSHOT_FILE), "rw")) {
+			// a dictionary of Integer.MAX_VALUE entries
+			file.write(new byte[] { ServiceCodec.VERSION, (byte) 0xFF,
+					(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 });
+		}
+		try (ServiceStore store = new ServiceStore(directory)) {
+			assertEquals(0, store.getLoadedCount());
+		}
+	}
+
+}
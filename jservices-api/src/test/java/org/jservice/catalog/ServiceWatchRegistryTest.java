@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ServiceWatchRegistry}.
+ *
+ * @author Anatole Tresch
+ */
+public class ServiceWatchRegistryTest {
+
+	/** Long enough for all changes of a test to fall into one window. */
+	private static final long WINDOW_MILLIS = 200L;
+
+	private final ServiceWatchRegistry registry = new ServiceWatchRegistry(
+			WINDOW_MILLIS);
+	private final BlockingQueue<ServiceEvent> events = new LinkedBlockingQueue<>();
+	private final ServiceListener listener = new ServiceListener() {
+		@Override
+		public void servicesChanged(ServiceEvent event) {
+			events.add(event);
+		}
+	};
+
+	@After
+	public void tearDown() {
+		registry.close();
+	}
+
+	private static Service createService(int i, String... interfaces) {
+		return new Service.Builder().setProtocol("rmi").setHost("localhost")
+				.setPort(1099).setLocation("svc" + i)
+				.setInterfaces(interfaces).build();
+	}
+
+	private ServiceEvent nextEvent() throws InterruptedException {
+		return events.poll(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testChangesAreCoalescedIntoOneEvent() throws Exception {
+		registry.watch(Runnable.class, null, listener);
+		String type = Runnable.class.getName();
+		Service added = createService(1, type);
+		Service addedAndRemoved = createService(2, type);
+		Service addedAndRenewed = createService(3, type);
+		Service removed = createService(4, type);
+		Service renewed = createService(5, type);
+		Service removedAndAdded = createService(6, type);
+		registry.publish(ServiceChange.Type.ADDED, Arrays.asList(added,
+				addedAndRemoved, addedAndRenewed));
+		registry.publish(ServiceChange.Type.REMOVED, Arrays.asList(
+				addedAndRemoved, removed, removedAndAdded));
+		registry.publish(ServiceChange.Type.RENEWED,
+				Arrays.asList(addedAndRenewed, renewed, renewed));
+		registry.publish(ServiceChange.Type.ADDED, removedAndAdded);
+
+		ServiceEvent event = nextEvent();
+		assertNotNull(event);
+		assertEquals(new HashSet<>(Arrays.asList(added, addedAndRenewed,
+				removedAndAdded)), new HashSet<>(event.getAdded()));
+		assertEquals(Collections.singletonList(removed), new ArrayList<>(
+				event.getRemoved()));
+		assertEquals(Collections.singletonList(renewed), new ArrayList<>(
+				event.getRenewed()));
+		assertNull(events.poll(2 * WINDOW_MILLIS, TimeUnit.MILLISECONDS));
+
+		// the next change opens a new window
+		registry.publish(ServiceChange.Type.REMOVED, added);
+		event = nextEvent();
+		assertEquals(Collections.singletonList(added), new ArrayList<>(
+				event.getRemoved()));
+	}
+
+	@Test
+	public void testOnlyMatchingWatchesAreNotified() throws Exception {
+		registry.watch(Runnable.class, Collections.singletonMap("env", "prod"),
+				listener);
+		final BlockingQueue<ServiceEvent> all = new LinkedBlockingQueue<>();
+		registry.watch(null, null, new ServiceListener() {
+			@Override
+			public void servicesChanged(ServiceEvent event) {
+				all.add(event);
+			}
+		});
+		Service prod = new Service.Builder().setProtocol("rmi")
+				.setHost("localhost").setPort(1099).setLocation("prod")
+				.setInterfaces(Runnable.class.getName())
+				.setContext(Collections.singletonMap("env", "prod")).build();
+		Service other = createService(1, Comparable.class.getName());
+		registry.publish(ServiceChange.Type.ADDED, Arrays.asList(prod, other));
+		assertEquals(Collections.singletonList(prod), new ArrayList<>(
+				nextEvent().getAdded()));
+		assertEquals(Arrays.asList(prod, other),
+				new ArrayList<>(all.poll(5, TimeUnit.SECONDS).getAdded()));
+	}
+
+	@Test
+	public void testClosedWatchIsNotNotified() throws Exception {
+		ServiceWatch watch = registry.watch(Runnable.class, null, listener);
+		assertTrue(registry.hasWatches());
+		registry.publish(ServiceChange.Type.ADDED,
+				createService(1, Runnable.class.getName()));
+		watch.close();
+		assertFalse(registry.hasWatches());
+		assertNull(events.poll(2 * WINDOW_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testChangesAfterCloseAreDropped() throws Exception {
+		registry.watch(Runnable.class, null, listener);
+		registry.close();
+		registry.publish(ServiceChange.Type.ADDED,
+				createService(1, Runnable.class.getName()));
+		assertNull(events.poll(2 * WINDOW_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+}
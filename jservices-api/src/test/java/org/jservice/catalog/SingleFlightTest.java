@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link SingleFlight}.
+ *
+ * @author Anatole Tresch
+ */
+public class SingleFlightTest {
+
+	@Test
+	public void testConcurrentCallsAreCollapsed() throws Exception {
+		final SingleFlight<String, Object> flight = new SingleFlight<>();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Object result = new Object();
+		final Callable<Object> call = new Callable<Object>() {
+			@Override
+			public Object call() throws InterruptedException {
+				calls.incrementAndGet();
+				release.await();
+				return result;
+			}
+		};
+		final List<Object> results = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					Object value = flight.execute("key", call);
+					synchronized (results) {
+						results.add(value);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		while (flight.getSharedCount() < 9) {
+			Thread.sleep(5L);
+		}
+		release.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, calls.get());
+		assertEquals(10, results.size());
+		for (Object value : results) {
+			assertSame(result, value);
+		}
+		assertEquals(0, flight.getInFlightCount());
+		// completed calls are not cached
+		flight.execute("key", call);
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void testFailureIsPropagated() {
+		SingleFlight<String, Object> flight = new SingleFlight<>();
+		try {
+			flight.execute("key", new Callable<Object>() {
+				@Override
+				public Object call() {
+					throw new IllegalArgumentException("failed");
+				}
+			});
+			fail("failure expected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		assertEquals(0, flight.getInFlightCount());
+	}
+
+}
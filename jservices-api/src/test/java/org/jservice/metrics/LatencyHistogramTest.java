@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ *
+ * @author Anatole Tresch
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Returns the upper bound of the bucket counting the given value.
+	 */
+	private static long upperBoundOf(long value) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(value);
+		histogram.record(Long.MAX_VALUE);
+		return histogram.getPercentile(0.5);
+	}
+
+	@Test
+	public void testSmallValuesAreExact() {
+		for (long value = 0; value < 8; value++) {
+			assertEquals(value, upperBoundOf(value));
+		}
+	}
+
+	@Test
+	public void testBucketBoundaries() {
+		assertEquals(9L, upperBoundOf(8L));
+		assertEquals(9L, upperBoundOf(9L));
+		assertEquals(11L, upperBoundOf(10L));
+		assertEquals(1279L, upperBoundOf(1024L));
+		assertEquals(1279L, upperBoundOf(1279L));
+		assertEquals(1535L, upperBoundOf(1280L));
+		for (int exponent = 3; exponent < 63; exponent++) {
+			long power = 1L << exponent;
+			// four buckets per power of two
+			assertEquals(power - 1, upperBoundOf(power - 1));
+			assertEquals(power + (power >> 2) - 1, upperBoundOf(power));
+		}
+	}
+
+	@Test
+	public void testOverflow() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(0.5));
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(1.0));
+		assertEquals(Long.MAX_VALUE, histogram.getMax());
+
+		histogram = new LatencyHistogram();
+		histogram.record(-100L);
+		assertEquals(1L, histogram.getCount());
+		assertEquals(0L, histogram.getMax());
+		assertEquals(0L, histogram.getPercentile(0.99));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0L, histogram.getPercentile(0.99));
+		assertEquals(0.0, histogram.getMean(), 0.0);
+		for (long value = 1; value <= 100; value++) {
+			histogram.record(value);
+		}
+		assertEquals(100L, histogram.getCount());
+		assertEquals(50.5, histogram.getMean(), 0.0);
+		assertEquals(100L, histogram.getMax());
+		assertEquals(1L, histogram.getPercentile(0.0));
+		// 50 lies in [48, 55]
+		assertEquals(55L, histogram.getPercentile(0.5));
+		// 90 lies in [80, 95]
+		assertEquals(95L, histogram.getPercentile(0.9));
+		// the bucket of 99 is capped by the maximum
+		assertEquals(100L, histogram.getPercentile(0.99));
+		assertEquals(100L, histogram.getPercentile(1.0));
+		// quantiles out of range are clamped
+		assertEquals(1L, histogram.getPercentile(-1.0));
+		assertEquals(100L, histogram.getPercentile(2.0));
+	}
+
+}
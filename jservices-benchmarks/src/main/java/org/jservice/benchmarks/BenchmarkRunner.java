@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.benchmarks;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count, so contention between
+ * concurrent callers becomes visible. The thread counts are read from the
+ * system property {@code jservices.threads}, a comma separated list
+ * defaulting to {@value #DEFAULT_THREADS}. All arguments are passed to JMH,
+ * e.g. {@code java -Djservices.threads=1,8 -jar benchmarks.jar Lookup -f 1}.
+ * Use {@code -l} to list the benchmarks matching instead.
+ *
+ * @author Anatole Tresch
+ */
+public final class BenchmarkRunner {
+
+	/** The default thread counts. */
+	public static final String DEFAULT_THREADS = "1,2,4,8";
+
+	/**
+	 * Singleton constructor.
+	 */
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions options = new CommandLineOptions(args);
+		if (options.shouldHelp()) {
+			options.showHelp();
+			return;
+		}
+		if (options.shouldList()) {
+			new Runner(options).list();
+			return;
+		}
+		for (String threads : System.getProperty("jservices.threads",
+				DEFAULT_THREADS).split(",")) {
+			new Runner(new OptionsBuilder().parent(options)
+					.threads(Integer.parseInt(threads.trim())).build()).run();
+		}
+	}
+
+}
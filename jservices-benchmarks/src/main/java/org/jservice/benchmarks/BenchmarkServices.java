@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.benchmarks;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceChangeLog;
+import org.jservice.catalog.ServiceChangeSource;
+import org.jservice.catalog.ServiceProxyCache;
+import org.jservices.catalogs.elasticsearch.ElasticSearchServiceCatalog;
+
+/**
+ * Creates the services and catalogs used by the benchmarks. Services are
+ * spread evenly over {@link #TYPES} and {@link #ZONES} zones.
+ *
+ * @author Anatole Tresch
+ */
+final class BenchmarkServices {
+
+	/** The interfaces exposed by the services. */
+	static final Class<?>[] TYPES = { Runnable.class, Comparable.class,
+			CharSequence.class, Iterable.class, Closeable.class,
+			Callable.class, Cloneable.class, Serializable.class,
+			Appendable.class, AutoCloseable.class };
+	/** The number of distinct zones in the service context. */
+	static final int ZONES = 100;
+
+	/**
+	 * Singleton constructor.
+	 */
+	private BenchmarkServices() {
+	}
+
+	/**
+	 * Creates the i-th service.
+	 *
+	 * @param i
+	 *            the service number.
+	 * @return the service, implementing {@code TYPES[i % TYPES.length]}.
+	 */
+	static Service create(int i) {
+		Map<String, String> context = new HashMap<>();
+		context.put("zone", "z" + (i % ZONES));
+		context.put("stage", i % 2 == 0 ? "prod" : "test");
+		return new Service.Builder().setProtocol("rmi")
+				.setHost("10.0." + (i / 250 % 256) + '.' + (i % 250))
+				.setPort(6000 + i % 1000).setLocation("service-" + i)
+				.setInterfaces(TYPES[i % TYPES.length].getName())
+				.setContext(context).build();
+	}
+
+	/**
+	 * Creates a list of services.
+	 *
+	 * @param from
+	 *            the number of the first service.
+	 * @param count
+	 *            the number of services.
+	 * @return the services.
+	 */
+	static List<Service> create(int from, int count) {
+		List<Service> services = new ArrayList<>(count);
+		for (int i = from; i < from + count; i++) {
+			services.add(create(i));
+		}
+		return services;
+	}
+
+	/**
+	 * Creates a catalog containing the given services, loaded with a single
+	 * synchronization instead of one update per service.
+	 *
+	 * @param services
+	 *            the services.
+	 * @param proxyCache
+	 *            the proxy cache used by the catalog.
+	 * @return the catalog.
+	 */
+	static ElasticSearchServiceCatalog createCatalog(
+			Collection<Service> services, ServiceProxyCache proxyCache) {
+		ElasticSearchServiceCatalog catalog = new ElasticSearchServiceCatalog(
+				"benchmark", proxyCache);
+		final Set<Service> snapshot = new HashSet<>(services);
+		catalog.setChangeSource(new ServiceChangeSource() {
+			@Override
+			public ServiceChangeLog.Delta getChangesSince(long version) {
+				return new ServiceChangeLog.Delta(version, 1L, snapshot, null);
+			}
+		});
+		catalog.synch();
+		catalog.setChangeSource(null);
+		return catalog;
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.benchmarks;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceProxyCache;
+import org.jservice.catalog.ServiceQuery;
+import org.jservices.catalogs.elasticsearch.ElasticSearchServiceCatalog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the lookup throughput of a catalog, by interface and filtered by
+ * context, depending on the number of services held.
+ *
+ * @author Anatole Tresch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CatalogLookupBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	public int size;
+
+	private ElasticSearchServiceCatalog catalog;
+	private Map<String, String> zone;
+	private Map<String, String> zoneExpression;
+	private ServiceQuery query;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		catalog = BenchmarkServices.createCatalog(
+				BenchmarkServices.create(0, size), new ServiceProxyCache());
+		zone = Collections.singletonMap("zone", "z10");
+		zoneExpression = Collections.singletonMap("zone", "z1[0-9]");
+		query = new ServiceQuery.Builder().setInterface(Runnable.class)
+				.setContext(zone).build();
+	}
+
+	@Benchmark
+	public Collection<Service> getServicesByInterface() {
+		return catalog.getServices(Runnable.class);
+	}
+
+	@Benchmark
+	public Collection<Service> getServicesByContext() {
+		return catalog.getServices(zone);
+	}
+
+	@Benchmark
+	public Collection<Service> findServicesByQuery() {
+		return catalog.findServices(query);
+	}
+
+	@Benchmark
+	public Collection<Service> findServicesByContextExpression() {
+		return catalog.findServices(Runnable.class.getName(), zoneExpression);
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceProxyCache;
+import org.jservices.catalogs.elasticsearch.ElasticSearchServiceCatalog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the registration throughput of a catalog already holding a given
+ * number of services. To keep the catalog size stable, each operation adds a
+ * service and removes it again.
+ *
+ * @author Anatole Tresch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogRegistrationBenchmark {
+
+	/** The number of services per thread, cycled through. */
+	private static final int POOL_SIZE = 1024;
+
+	@Param({ "1000", "100000" })
+	public int size;
+
+	private ElasticSearchServiceCatalog catalog;
+	private final AtomicInteger threads = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		catalog = BenchmarkServices.createCatalog(
+				BenchmarkServices.create(0, size), new ServiceProxyCache());
+	}
+
+	/**
+	 * The services used by a single thread, not contained in the initial
+	 * catalog.
+	 */
+	@State(Scope.Thread)
+	public static class ThreadServices {
+		private Service[] services;
+		private int next;
+
+		@Setup(Level.Trial)
+		public void setup(CatalogRegistrationBenchmark benchmark) {
+			int thread = benchmark.threads.getAndIncrement();
+			List<Service> list = BenchmarkServices.create(benchmark.size
+					+ thread * POOL_SIZE, POOL_SIZE);
+			services = list.toArray(new Service[POOL_SIZE]);
+		}
+
+		Service next() {
+			return services[next++ & (POOL_SIZE - 1)];
+		}
+	}
+
+	@Benchmark
+	public void registerService(ThreadServices services) {
+		Service service = services.next();
+		catalog.registerService(service);
+		catalog.unregisterService(service);
+	}
+
+	@Benchmark
+	public void addLocally(ThreadServices services) {
+		Service service = services.next();
+		catalog.addLocally(service);
+		catalog.removeLocally(service);
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.benchmarks;
+
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudplate.sample.Hello;
+import org.cloudplate.sample.impl.HelloImpl;
+import org.jservice.catalog.Service;
+import org.jservice.nio.NioClient;
+import org.jservice.nio.NioServer;
+import org.jservice.runtime.servers.RMIServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares remote calls of the {@link Hello} example over RMI and the
+ * {@code nio} protocol, both served in the benchmark JVM over loopback. Run
+ * with several threads, e.g. {@code -Djservices.threads=8}, for measuring
+ * concurrent calls, which the {@code nio} protocol pipelines over a single
+ * connection. The sample time mode reports the p99 latency. The
+ * {@code nio-inline} variant invokes the calls directly on the server's event
+ * loop.
+ *
+ * @author Anatole Tresch
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+	@Param({ "rmi", "nio", "nio-inline" })
+	public String protocol;
+
+	private RMIServer rmiServer;
+	private NioServer nioServer;
+	private NioClient nioClient;
+	private Hello hello;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		switch (protocol) {
+		case "nio":
+		case "nio-inline":
+			nioServer = "nio".equals(protocol) ? new NioServer()
+					: new NioServer("127.0.0.1", 0, null, 1, null);
+			Service service = nioServer.export("hello", new HelloImpl());
+			nioClient = new NioClient();
+			hello = nioClient.resolve(service, Hello.class);
+			break;
+		default:
+			rmiServer = new RMIServer();
+			rmiServer.export("hello", new HelloImpl());
+			hello = (Hello) LocateRegistry.getRegistry("127.0.0.1",
+					rmiServer.getPort()).lookup("hello");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (nioClient != null) {
+			nioClient.close();
+		}
+		if (nioServer != null) {
+			nioServer.close();
+		}
+		if (rmiServer != null) {
+			rmiServer.close();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public String callsPerSecond() throws RemoteException {
+		return hello.getUUID();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String callLatency() throws RemoteException {
+		return hello.getUUID();
+	}
+
+}
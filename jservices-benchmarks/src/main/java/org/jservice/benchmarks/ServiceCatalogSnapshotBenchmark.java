@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceCatalogSnapshot;
+import org.jservice.catalog.ServiceQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the lookup latency on a {@link ServiceCatalogSnapshot} held in an
+ * {@link AtomicReference}, as the catalogs do, first without any writers,
+ * then while writer threads continuously register and remove services. The
+ * sampled latencies give the percentiles of both groups.
+ *
+ * @author Anatole Tresch
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceCatalogSnapshotBenchmark {
+
+	private static final int TYPES = 50;
+	/** The numbers of the services written, distinct per writer thread. */
+	private static final AtomicInteger WRITERS = new AtomicInteger();
+
+	@Param({ "20000" })
+	public int size;
+
+	private final AtomicReference<ServiceCatalogSnapshot> state = new AtomicReference<>(
+			ServiceCatalogSnapshot.EMPTY);
+
+	/**
+	 * The query of a reader thread, each thread looking up another interface.
+	 */
+	@State(Scope.Thread)
+	public static class Reader {
+		private static final AtomicInteger READERS = new AtomicInteger();
+
+		ServiceQuery query;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			int type = READERS.getAndIncrement() % TYPES;
+			// the zone of the services implementing the type
+			query = new ServiceQuery.Builder()
+					.setInterface("org.jservice.Type" + type)
+					.setContext(Collections.singletonMap("zone", "z" + type % 10))
+					.build();
+		}
+	}
+
+	/**
+	 * The services written by a writer thread.
+	 */
+	@State(Scope.Thread)
+	public static class Writer {
+		int next;
+
+		@Setup(Level.Trial)
+		public void setup(ServiceCatalogSnapshotBenchmark benchmark) {
+			next = benchmark.size + WRITERS.getAndIncrement() * 1000000;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		List<Service> initial = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			initial.add(createService(i));
+		}
+		state.set(ServiceCatalogSnapshot.EMPTY.withServices(initial,
+				new ArrayList<Service>()));
+	}
+
+	@Benchmark
+	@Group("readsOnly")
+	@GroupThreads(4)
+	public List<Service> find(Reader reader) {
+		return state.get().getIndex().find(reader.query);
+	}
+
+	@Benchmark
+	@Group("readsDuringWrites")
+	@GroupThreads(4)
+	public List<Service> findDuringWrites(Reader reader) {
+		return state.get().getIndex().find(reader.query);
+	}
+
+	@Benchmark
+	@Group("readsDuringWrites")
+	@GroupThreads(2)
+	public void registerAndRemove(Writer writer) {
+		final Service service = createService(writer.next++);
+		ServiceCatalogSnapshot.update(state,
+				new ServiceCatalogSnapshot.Update() {
+					@Override
+					public ServiceCatalogSnapshot apply(
+							ServiceCatalogSnapshot snapshot) {
+						return snapshot.withService(service);
+					}
+				});
+		ServiceCatalogSnapshot.update(state,
+				new ServiceCatalogSnapshot.Update() {
+					@Override
+					public ServiceCatalogSnapshot apply(
+							ServiceCatalogSnapshot snapshot) {
+						return snapshot.withoutService(service);
+					}
+				});
+	}
+
+	private static Service createService(int i) {
+		Map<String, String> context = new HashMap<>();
+		context.put("zone", "z" + (i % 10));
+		context.put("instance", String.valueOf(i));
+		return new Service.Builder().setProtocol("rmi")
+				.setHost("host" + (i % 100)).setPort(1000 + i)
+				.setLocation("service" + i)
+				.setInterfaces("org.jservice.Type" + (i % TYPES))
+				.setContext(context).build();
+	}
+
+}
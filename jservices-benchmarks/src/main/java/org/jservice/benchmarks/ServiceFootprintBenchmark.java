@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jservice.catalog.Service;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the memory taken by a {@link Service} instance. Services are
+ * created from freshly allocated strings, as they are when received from a
+ * remote catalog, using 50 interfaces, 20 hosts and a small context. Run
+ * with the GC profiler, e.g. {@code -prof gc}, the normalized allocation
+ * rate {@code gc.alloc.rate.norm} is the number of bytes allocated per
+ * service, including the builder and the context copied by it.
+ *
+ * @author Anatole Tresch
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceFootprintBenchmark {
+
+	private int next;
+
+	@Benchmark
+	public Service createService() {
+		int i = next++;
+		Map<String, String> context = new HashMap<>();
+		context.put(new String("zone"), "z" + (i % 5));
+		context.put(new String("stage"), i % 2 == 0 ? new String("prod")
+				: new String("test"));
+		return new Service.Builder().setProtocol(new String("rmi"))
+				.setHost("10.0.0." + (i % 20)).setPort(6000 + (i % 100))
+				.setLocation("svc-" + i)
+				.setInterfaces("org.test.Service" + (i % 50),
+						"org.test.Admin" + (i % 3)).setContext(context).build();
+	}
+
+}
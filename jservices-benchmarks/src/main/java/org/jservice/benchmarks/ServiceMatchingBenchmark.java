@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jservice.catalog.Service;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Service#isMatchingContext(Map)} and
+ * {@link Service#isImplementationMatching(String)}, which compile their
+ * expressions on each call.
+ *
+ * @author Anatole Tresch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceMatchingBenchmark {
+
+	private Service service;
+	private Map<String, String> exact;
+	private Map<String, String> regex;
+	private Map<String, String> mismatch;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		service = BenchmarkServices.create(17);
+		exact = new HashMap<>();
+		exact.put("zone", "z17");
+		exact.put("stage", "test");
+		regex = new HashMap<>();
+		regex.put("zone", "z1[0-9]");
+		regex.put("stage", "prod|test");
+		mismatch = new HashMap<>();
+		mismatch.put("zone", "z[2-9][0-9]");
+	}
+
+	@Benchmark
+	public boolean matchContextExact() {
+		return service.isMatchingContext(exact);
+	}
+
+	@Benchmark
+	public boolean matchContextRegex() {
+		return service.isMatchingContext(regex);
+	}
+
+	@Benchmark
+	public boolean matchContextMismatch() {
+		return service.isMatchingContext(mismatch);
+	}
+
+	@Benchmark
+	public boolean matchImplementationPrefix() {
+		return service.isImplementationMatching("java\\.io\\..*");
+	}
+
+}
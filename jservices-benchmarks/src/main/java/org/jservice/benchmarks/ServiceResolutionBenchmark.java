@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jservice.catalog.LatencyWeightedLoadBalancer;
+import org.jservice.catalog.PowerOfTwoChoicesLoadBalancer;
+import org.jservice.catalog.RoundRobinLoadBalancer;
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceProxyCache;
+import org.jservices.catalogs.elasticsearch.ElasticSearchServiceCatalog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code getService} on its hot path: selecting a service with the
+ * configured load balancer and returning its cached proxy.
+ *
+ * @author Anatole Tresch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceResolutionBenchmark {
+
+	@Param({ "10", "1000" })
+	public int size;
+
+	@Param({ "roundRobin", "powerOfTwo", "latencyWeighted" })
+	public String loadBalancer;
+
+	private ElasticSearchServiceCatalog catalog;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		List<Service> services = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			services.add(BenchmarkServices.create(i
+					* BenchmarkServices.TYPES.length));
+		}
+		ServiceProxyCache cache = new ServiceProxyCache(
+				TimeUnit.HOURS.toMillis(1L), size);
+		for (Service service : services) {
+			cache.put(service, Runnable.class, new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, cache.getGeneration(service));
+		}
+		catalog = BenchmarkServices.createCatalog(services, cache);
+		switch (loadBalancer) {
+		case "powerOfTwo":
+			catalog.setLoadBalancer(new PowerOfTwoChoicesLoadBalancer(catalog
+					.getStatistics()));
+			break;
+		case "latencyWeighted":
+			catalog.setLoadBalancer(new LatencyWeightedLoadBalancer(catalog
+					.getStatistics()));
+			break;
+		default:
+			catalog.setLoadBalancer(new RoundRobinLoadBalancer());
+		}
+	}
+
+	@Benchmark
+	public Runnable getService() {
+		return catalog.getService(Runnable.class);
+	}
+
+}
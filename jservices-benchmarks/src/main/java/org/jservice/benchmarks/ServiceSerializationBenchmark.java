@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares Java serialization of {@link Service} batches with
+ * {@link ServiceCodec}, which is also measured encoding into a reused
+ * buffer, as done when writing batches to a connection.
+ *
+ * @author Anatole Tresch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceSerializationBenchmark {
+
+	@Param({ "1", "1000" })
+	public int batch;
+
+	private ArrayList<Service> services;
+	private byte[] serialized;
+	private byte[] encoded;
+	private ByteBuffer buffer;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		services = new ArrayList<>(BenchmarkServices.create(0, batch));
+		serialized = javaSerialize();
+		encoded = codecEncode().array();
+		buffer = ByteBuffer.allocate(ServiceCodec.encodedSize(services));
+	}
+
+	@Benchmark
+	public byte[] javaSerialize() throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+			out.writeObject(services);
+		}
+		return bos.toByteArray();
+	}
+
+	@Benchmark
+	public Object javaDeserialize() throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(serialized))) {
+			return in.readObject();
+		}
+	}
+
+	@Benchmark
+	public ByteBuffer codecEncode() {
+		return ServiceCodec.encodeAll(services);
+	}
+
+	@Benchmark
+	public int codecEncodeReused() {
+		buffer.clear();
+		return ServiceCodec.encodeAll(services, buffer);
+	}
+
+	@Benchmark
+	public List<Service> codecDecode() {
+		return ServiceCodec.decodeAll(ByteBuffer.wrap(encoded));
+	}
+
+}
@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class CatalogLookupBenchmark_jmhType extends CatalogLookupBenchmark_jmhType_B3 {
+}
+
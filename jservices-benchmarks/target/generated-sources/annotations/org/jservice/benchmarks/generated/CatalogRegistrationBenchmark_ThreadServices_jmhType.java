@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class CatalogRegistrationBenchmark_ThreadServices_jmhType extends CatalogRegistrationBenchmark_ThreadServices_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class CatalogRegistrationBenchmark_jmhType extends CatalogRegistrationBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class ProtocolBenchmark_jmhType extends ProtocolBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class ServiceCatalogSnapshotBenchmark_Reader_jmhType extends ServiceCatalogSnapshotBenchmark_Reader_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class ServiceCatalogSnapshotBenchmark_Writer_jmhType extends ServiceCatalogSnapshotBenchmark_Writer_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class ServiceCatalogSnapshotBenchmark_jmhType extends ServiceCatalogSnapshotBenchmark_jmhType_B3 {
+}
+
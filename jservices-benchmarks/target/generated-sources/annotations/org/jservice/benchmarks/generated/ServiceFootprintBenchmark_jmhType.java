@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class ServiceFootprintBenchmark_jmhType extends ServiceFootprintBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class ServiceMatchingBenchmark_jmhType extends ServiceMatchingBenchmark_jmhType_B3 {
+}
+
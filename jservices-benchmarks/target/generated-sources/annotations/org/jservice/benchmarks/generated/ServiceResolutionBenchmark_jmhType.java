@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class ServiceResolutionBenchmark_jmhType extends ServiceResolutionBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.jservice.benchmarks.generated;
+public class ServiceSerializationBenchmark_jmhType extends ServiceSerializationBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,579 @@
+package org.jservices.catalogs.elasticsearch;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceChangeLog;
+import org.jservice.catalog.ServiceChangeSource;
+import org.jservice.catalog.ServiceQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client storing services as documents of an Elasticsearch index, using the
+ * REST API. Each service is one document, with its interfaces, protocol and
+ * context indexed as keywords, so queries are evaluated by Elasticsearch:
+ * <ul>
+ * <li>exact names become {@code term} queries, names ending with {@code .*}
+ * {@code prefix} queries, and other expressions {@code regexp} queries,</li>
+ * <li>all writes of a call are sent as a single {@code _bulk} request,</li>
+ * <li>results are fetched in pages of {@link #getPageSize()} documents,
+ * sorted by document key and continued with {@code search_after}.</li>
+ * </ul>
+ * Since Lucene's regular expressions differ from Java's, the results are
+ * checked with {@link ServiceQuery#matches(Service)} again, and a query
+ * rejected by Elasticsearch is repeated without its regular expressions.
+ * <p>
+ * Each document carries the expiry of its lease, documents expired are
+ * ignored by all queries. As {@link ServiceChangeSource}, the client
+ * provides all services of the index as full snapshot.
+ */
+public class ElasticSearchClient implements ServiceChangeSource {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ElasticSearchClient.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The default number of documents fetched per search request. */
+	public static final int DEFAULT_PAGE_SIZE = 500;
+	/** The maximal number of actions sent per bulk request. */
+	public static final int MAX_BULK_ACTIONS = 1000;
+	private static final int TIMEOUT = 5000;
+
+	private final String url;
+	private final String index;
+	private final int pageSize;
+	/** The version returned by the last snapshot. */
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Creates a client using {@link #DEFAULT_PAGE_SIZE}.
+	 *
+	 * @param url
+	 *            the base URL of the cluster, e.g.
+	 *            {@code http://localhost:9200}.
+	 * @param index
+	 *            the name of the index.
+	 */
+	public ElasticSearchClient(String url, String index) {
+		this(url, index, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Creates a client.
+	 *
+	 * @param url
+	 *            the base URL of the cluster, e.g.
+	 *            {@code http://localhost:9200}.
+	 * @param index
+	 *            the name of the index.
+	 * @param pageSize
+	 *            the number of documents fetched per search request.
+	 */
+	public ElasticSearchClient(String url, String index, int pageSize) {
+		Objects.requireNonNull(url);
+		this.url = url.endsWith("/") ? url.substring(0, url.length() - 1)
+				: url;
+		this.index = Objects.requireNonNull(index);
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("pageSize must be positive: "
+					+ pageSize);
+		}
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Creates the index with the mapping used by this client, if it does not
+	 * exist yet.
+	 *
+	 * @throws IllegalStateException
+	 *             if the index cannot be created.
+	 */
+	public void createIndex() {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		for (String field : new String[] { "key", "protocol", "host",
+				"location", "interfaces" }) {
+			properties.put(field, Collections.singletonMap("type", "keyword"));
+		}
+		properties.put("port", Collections.singletonMap("type", "integer"));
+		properties.put("expiry", Collections.singletonMap("type", "long"));
+		Map<String, Object> contextTemplate = new LinkedHashMap<>();
+		contextTemplate.put("path_match", "context.*");
+		contextTemplate.put("mapping",
+				Collections.singletonMap("type", "keyword"));
+		Map<String, Object> mappings = new LinkedHashMap<>();
+		mappings.put("dynamic_templates", Collections.singletonList(Collections
+				.singletonMap("context", contextTemplate)));
+		mappings.put("properties", properties);
+		Response response = send("PUT", "/" + index, "application/json",
+				Json.write(Collections.singletonMap("mappings", mappings)));
+		if (response.status == 400
+				&& response.body.contains("resource_already_exists_exception")) {
+			return;
+		}
+		response.check("create index " + index);
+	}
+
+	/**
+	 * Writes the given services with a single bulk request, replacing any
+	 * existing documents.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 * @param expiry
+	 *            the time their leases expire, in ms since the epoch.
+	 * @throws BulkRejectedException
+	 *             if Elasticsearch rejects some of the actions.
+	 * @throws IllegalStateException
+	 *             if Elasticsearch cannot be accessed.
+	 */
+	public void index(Collection<Service> services, long expiry) {
+		StringBuilder b = new StringBuilder();
+		int actions = 0;
+		for (Service service : services) {
+			appendAction(b, "index", service);
+			Json.write(toDocument(service, expiry), b);
+			b.append('\n');
+			if (++actions == MAX_BULK_ACTIONS) {
+				bulk(b, true);
+				b.setLength(0);
+				actions = 0;
+			}
+		}
+		if (actions > 0) {
+			bulk(b, true);
+		}
+	}
+
+	/**
+	 * Extends the leases of the given services with a single bulk request.
+	 * Services whose documents are missing, e.g. after an index was recreated,
+	 * are written anew.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 * @param expiry
+	 *            the time their leases expire, in ms since the epoch.
+	 * @throws BulkRejectedException
+	 *             if Elasticsearch rejects some of the actions.
+	 * @throws IllegalStateException
+	 *             if Elasticsearch cannot be accessed.
+	 */
+	public void renew(Collection<Service> services, long expiry) {
+		StringBuilder b = new StringBuilder();
+		int actions = 0;
+		Map<String, Object> doc = Collections.<String, Object> singletonMap(
+				"expiry", expiry);
+		for (Service service : services) {
+			appendAction(b, "update", service);
+			Map<String, Object> update = new LinkedHashMap<>();
+			update.put("doc", doc);
+			update.put("upsert", toDocument(service, expiry));
+			Json.write(update, b);
+			b.append('\n');
+			if (++actions == MAX_BULK_ACTIONS) {
+				bulk(b, false);
+				b.setLength(0);
+				actions = 0;
+			}
+		}
+		if (actions > 0) {
+			bulk(b, false);
+		}
+	}
+
+	/**
+	 * Deletes the documents of the given services with a single bulk request.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 * @throws BulkRejectedException
+	 *             if Elasticsearch rejects some of the actions.
+	 * @throws IllegalStateException
+	 *             if Elasticsearch cannot be accessed.
+	 */
+	public void delete(Collection<Service> services) {
+		StringBuilder b = new StringBuilder();
+		int actions = 0;
+		for (Service service : services) {
+			appendAction(b, "delete", service);
+			if (++actions == MAX_BULK_ACTIONS) {
+				bulk(b, true);
+				b.setLength(0);
+				actions = 0;
+			}
+		}
+		if (actions > 0) {
+			bulk(b, true);
+		}
+	}
+
+	private void appendAction(StringBuilder b, String action, Service service) {
+		Map<String, Object> meta = new LinkedHashMap<>();
+		meta.put("_index", index);
+		meta.put("_id", keyOf(service));
+		Json.write(Collections.singletonMap(action, meta), b);
+		b.append('\n');
+	}
+
+	/**
+	 * Sends a bulk request. Writes changing the set of services are made
+	 * visible to searches before returning, renewals are not.
+	 */
+	private void bulk(StringBuilder actions, boolean refresh) {
+		Response response = send("POST", "/_bulk"
+				+ (refresh ? "?refresh=wait_for" : ""), "application/x-ndjson",
+				actions.toString());
+		response.check("bulk write to " + index);
+		Map<?, ?> result = (Map<?, ?>) Json.parse(response.body);
+		if (!Boolean.TRUE.equals(result.get("errors"))) {
+			return;
+		}
+		Set<String> failed = new LinkedHashSet<>();
+		Object firstError = null;
+		for (Object item : (List<?>) result.get("items")) {
+			for (Map.Entry<?, ?> action : ((Map<?, ?>) item).entrySet()) {
+				Map<?, ?> outcome = (Map<?, ?>) action.getValue();
+				Object error = outcome.get("error");
+				Number status = (Number) outcome.get("status");
+				if (error == null
+						&& (status == null || status.intValue() < 300)) {
+					continue;
+				}
+				// deleting a missing document is not an error
+				if ("delete".equals(action.getKey())
+						&& "not_found".equals(outcome.get("result"))) {
+					continue;
+				}
+				failed.add(String.valueOf(outcome.get("_id")));
+				if (firstError == null) {
+					firstError = error != null ? error : status;
+				}
+			}
+		}
+		if (!failed.isEmpty()) {
+			throw new BulkRejectedException(failed.size()
+					+ " bulk actions failed on " + index + ", first error: "
+					+ Json.write(firstError), failed);
+		}
+	}
+
+	/**
+	 * Finds all services matching the given query, which is evaluated by
+	 * Elasticsearch. Expired services are not returned.
+	 *
+	 * @param query
+	 *            the query, not {@code null}.
+	 * @return the services found, in key order.
+	 * @throws IllegalStateException
+	 *             if Elasticsearch cannot be queried.
+	 */
+	public List<Service> search(ServiceQuery query) {
+		List<Object> filters = toFilters(query, true);
+		try {
+			return search(query, filters);
+		} catch (QueryRejectedException e) {
+			List<Object> withoutRegex = toFilters(query, false);
+			if (withoutRegex.size() == filters.size()) {
+				throw new IllegalStateException(e.getMessage());
+			}
+			LOG.debug("Regular expression rejected by Elasticsearch, "
+					+ "filtering locally: " + query);
+			return search(query, withoutRegex);
+		}
+	}
+
+	private List<Service> search(ServiceQuery query, List<Object> filters) {
+		List<Service> result = new ArrayList<>();
+		List<?> searchAfter = null;
+		while (true) {
+			Map<String, Object> request = new LinkedHashMap<>();
+			request.put("size", pageSize);
+			request.put("query", Collections.singletonMap("bool",
+					Collections.singletonMap("filter", filters)));
+			request.put("sort", Collections.singletonList(Collections
+					.singletonMap("key", "asc")));
+			if (searchAfter != null) {
+				request.put("search_after", searchAfter);
+			}
+			Response response = send("POST", "/" + index + "/_search",
+					"application/json", Json.write(request));
+			if (response.status == 400) {
+				throw new QueryRejectedException("Search rejected by "
+						+ index + ": " + response.body);
+			}
+			if (response.status == 404) {
+				return result;
+			}
+			response.check("search " + index);
+			List<?> hits = (List<?>) ((Map<?, ?>) ((Map<?, ?>) Json
+					.parse(response.body)).get("hits")).get("hits");
+			for (Object hit : hits) {
+				Service service = toService((Map<?, ?>) ((Map<?, ?>) hit)
+						.get("_source"));
+				if (service != null && query.matches(service)) {
+					result.add(service);
+				}
+			}
+			if (hits.size() < pageSize) {
+				return result;
+			}
+			searchAfter = (List<?>) ((Map<?, ?>) hits.get(hits.size() - 1))
+					.get("sort");
+		}
+	}
+
+	/**
+	 * Translates the given query into the filter clauses of a bool query.
+	 */
+	private static List<Object> toFilters(ServiceQuery query, boolean regex) {
+		List<Object> filters = new ArrayList<>();
+		filters.add(Collections.singletonMap("range", Collections
+				.singletonMap("expiry", Collections.singletonMap("gte",
+						System.currentTimeMillis()))));
+		if (!query.getProtocols().isEmpty()) {
+			filters.add(Collections.singletonMap("terms", Collections
+					.singletonMap("protocol",
+							new ArrayList<>(query.getProtocols()))));
+		}
+		addFilter(filters, "interfaces", query.getInterfaceExpression(), regex);
+		for (Map.Entry<String, ServiceQuery.Expression> en : query
+				.getContext().entrySet()) {
+			String field = "context." + en.getKey();
+			addFilter(filters, field, en.getValue(), regex);
+			if (en.getValue().getKind() == ServiceQuery.Expression.Kind.REGEX) {
+				// the key must exist in any case
+				filters.add(Collections.singletonMap("exists",
+						Collections.singletonMap("field", field)));
+			}
+		}
+		return filters;
+	}
+
+	private static void addFilter(List<Object> filters, String field,
+			ServiceQuery.Expression expression, boolean regex) {
+		if (expression == null) {
+			return;
+		}
+		switch (expression.getKind()) {
+		case ANY:
+			// a value must be present, as for ServiceQuery.matches
+			filters.add(Collections.singletonMap("exists",
+					Collections.singletonMap("field", field)));
+			break;
+		case EXACT:
+			filters.add(Collections.singletonMap("term",
+					Collections.singletonMap(field, expression.getLiteral())));
+			break;
+		case PREFIX:
+			filters.add(Collections.singletonMap("prefix",
+					Collections.singletonMap(field, expression.getLiteral())));
+			break;
+		default:
+			if (regex) {
+				filters.add(Collections.singletonMap("regexp", Collections
+						.singletonMap(field, expression.getExpression())));
+			}
+		}
+	}
+
+	/**
+	 * Provides all services of the index as full snapshot, regardless of the
+	 * version given.
+	 */
+	@Override
+	public ServiceChangeLog.Delta getChangesSince(long since) {
+		Set<Service> services = new LinkedHashSet<>(search(ServiceQuery.ALL));
+		return new ServiceChangeLog.Delta(since, version.incrementAndGet(),
+				services, null);
+	}
+
+	private static Map<String, Object> toDocument(Service service, long expiry) {
+		Map<String, Object> doc = new LinkedHashMap<>();
+		doc.put("key", keyOf(service));
+		doc.put("protocol", service.getProtocol());
+		doc.put("host", service.getHost());
+		doc.put("port", service.getPort());
+		doc.put("location", service.getLocation());
+		doc.put("interfaces", new ArrayList<>(service.getInterfaces()));
+		doc.put("context", service.getContext());
+		doc.put("expiry", expiry);
+		return doc;
+	}
+
+	private static Service toService(Map<?, ?> doc) {
+		if (doc == null) {
+			return null;
+		}
+		try {
+			List<?> interfaces = (List<?>) doc.get("interfaces");
+			Map<String, String> context = new LinkedHashMap<>();
+			Map<?, ?> source = (Map<?, ?>) doc.get("context");
+			if (source != null) {
+				for (Map.Entry<?, ?> en : source.entrySet()) {
+					context.put(String.valueOf(en.getKey()),
+							String.valueOf(en.getValue()));
+				}
+			}
+			return new Service.Builder()
+					.setProtocol((String) doc.get("protocol"))
+					.setHost((String) doc.get("host"))
+					.setPort(((Number) doc.get("port")).intValue())
+					.setLocation((String) doc.get("location"))
+					.setInterfaces(interfaces.toArray(new String[interfaces
+							.size()])).setContext(context).build();
+		} catch (ClassCastException | NullPointerException e) {
+			LOG.warn("Ignoring malformed service document: " + doc, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Access the id of the document of the given service. The id is derived
+	 * from all properties used by {@link Service#equals(Object)}, in a
+	 * canonical order.
+	 */
+	static String keyOf(Service service) {
+		StringBuilder b = new StringBuilder();
+		b.append(service.getProtocol()).append("://").append(service.getHost())
+				.append(':').append(service.getPort()).append('/')
+				.append(service.getLocation()).append('|')
+				.append(new TreeSet<>(service.getInterfaces()));
+		if (!service.getContext().isEmpty()) {
+			b.append('|').append(new TreeMap<>(service.getContext()));
+		}
+		return b.toString();
+	}
+
+	private Response send(String method, String path, String contentType,
+			String body) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL(url + path)
+					.openConnection();
+			connection.setConnectTimeout(TIMEOUT);
+			connection.setReadTimeout(TIMEOUT);
+			connection.setRequestMethod(method);
+			connection.setRequestProperty("Accept", "application/json");
+			if (body != null) {
+				byte[] bytes = body.getBytes(UTF8);
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", contentType
+						+ "; charset=UTF-8");
+				connection.setFixedLengthStreamingMode(bytes.length);
+				try (OutputStream out = connection.getOutputStream()) {
+					out.write(bytes);
+				}
+			}
+			int status = connection.getResponseCode();
+			InputStream in = status >= 400 ? connection.getErrorStream()
+					: connection.getInputStream();
+			return new Response(status, read(in));
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to access Elasticsearch: "
+					+ method + ' ' + url + path, e);
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		if (in == null) {
+			return "";
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), UTF8);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Access the number of documents fetched per search request.
+	 *
+	 * @return the page size.
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ElasticSearchClient [url=" + url + ", index=" + index + "]";
+	}
+
+	/**
+	 * The status and body of a response.
+	 */
+	private static final class Response {
+		final int status;
+		final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		void check(String action) {
+			if (status < 200 || status >= 300) {
+				throw new IllegalStateException("Failed to " + action
+						+ ", status " + status + ": " + body);
+			}
+		}
+	}
+
+	/**
+	 * Thrown if Elasticsearch rejects some of the actions of a bulk request.
+	 * The other actions of the request have been applied.
+	 */
+	public static final class BulkRejectedException extends
+			IllegalStateException {
+		private static final long serialVersionUID = 1L;
+
+		private final Set<String> keys;
+
+		BulkRejectedException(String message, Set<String> keys) {
+			super(message);
+			this.keys = Collections.unmodifiableSet(keys);
+		}
+
+		/**
+		 * Access the keys of the services whose actions were rejected.
+		 *
+		 * @return the keys, as returned by {@link ElasticSearchClient#keyOf}.
+		 */
+		public Set<String> getKeys() {
+			return keys;
+		}
+	}
+
+	/**
+	 * Thrown if Elasticsearch rejects a search as malformed.
+	 */
+	private static final class QueryRejectedException extends
+			RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		QueryRejectedException(String message) {
+			super(message);
+		}
+	}
+
+}
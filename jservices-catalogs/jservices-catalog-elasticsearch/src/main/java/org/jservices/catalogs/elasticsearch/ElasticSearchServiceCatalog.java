@@ -1,134 +1,921 @@
 package org.jservices.catalogs.elasticsearch;
 
-import org.jservice.catalog.AbstractServiceCatalog;
+import org.jservice.catalog.AsyncServiceCatalog;
+import org.jservice.catalog.InstrumentedServiceProxy;
+import org.jservice.catalog.HedgingPolicy;
+import org.jservice.catalog.LeaseManager;
+import org.jservice.catalog.LoadBalancer;
+import org.jservice.catalog.RoundRobinLoadBalancer;
 import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceCatalog;
+import org.jservice.catalog.ServiceCatalogSnapshot;
+import org.jservice.catalog.ServiceChange;
+import org.jservice.catalog.ServiceChangeLog;
+import org.jservice.catalog.ServiceChangeSource;
+import org.jservice.catalog.ServiceFuture;
+import org.jservice.catalog.ServiceHedger;
+import org.jservice.catalog.ServiceProxyCache;
+import org.jservice.catalog.ServiceQuery;
+import org.jservice.catalog.ServiceResolutionException;
+import org.jservice.catalog.ServiceResolvers;
+import org.jservice.catalog.ServiceListener;
+import org.jservice.catalog.ServiceMissCache;
+import org.jservice.catalog.ServiceStatistics;
+import org.jservice.catalog.ServiceStore;
+import org.jservice.catalog.ServiceWatch;
+import org.jservice.catalog.ServiceWatchRegistry;
+import org.jservice.catalog.SingleFlight;
+import org.jservice.metrics.DefaultCatalogMetrics;
+import org.jservice.metrics.JmxMetricsExporter;
+import org.jservice.spi.CatalogMetricsSpi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.management.ObjectName;
 
-public class ElasticSearchServiceCatalog extends AbstractServiceCatalog{
+
+public class ElasticSearchServiceCatalog implements ServiceCatalog,
+		AsyncServiceCatalog, AutoCloseable {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ElasticSearchServiceCatalog.class);
 	private String catalogId;
 
-	private List<Service> allServices = Collections
-			.synchronizedList(new ArrayList<Service>());
-	private List<Service> locallyRegisteredServices = Collections
-			.synchronizedList(new ArrayList<Service>());
-	private Map<String, List<Service>> typedServices = new ConcurrentHashMap<String, List<Service>>();
-	private Timer timer = new Timer("Service Updater", true);
+	private final AtomicReference<ServiceCatalogSnapshot> state = new AtomicReference<>(
+			ServiceCatalogSnapshot.EMPTY);
+	private final ServiceProxyCache proxyCache;
+	private final ServiceStatistics statistics = new ServiceStatistics();
+	private volatile LoadBalancer loadBalancer = new RoundRobinLoadBalancer();
+	private volatile ServiceHedger hedger;
+	/** The hedged proxies created, by primary service and type. */
+	private final ConcurrentHashMap<Service, ConcurrentHashMap<Class<?>, HedgedProxy>> hedgedProxies = new ConcurrentHashMap<>();
+	private final LeaseManager leaseManager;
+	private final ServiceChangeLog changeLog = new ServiceChangeLog();
+	private final ServiceWatchRegistry watches = new ServiceWatchRegistry();
+	private volatile CatalogMetricsSpi metrics;
+	/** The name the default metrics are published as, or {@code null}. */
+	private final ObjectName metricsName;
+	private volatile ServiceStore store;
+	/** Resolves the services not implemented locally. */
+	private volatile ServiceResolvers resolvers = ServiceResolvers.load();
+	/** The Elasticsearch index queries are sent to, if any. */
+	private final ElasticSearchClient client;
+	/** Collapses concurrent lookups of the same interface in Elasticsearch. */
+	private final SingleFlight<String, Collection<Service>> lookups = new SingleFlight<>();
+	/** The interfaces recently not found in Elasticsearch. */
+	private final ServiceMissCache misses = new ServiceMissCache();
+	/** The implementations of the services registered by this JVM. */
+	private final ConcurrentHashMap<Service, Object> localImplementations = new ConcurrentHashMap<>();
+	/** The services restored, not yet confirmed by a {@link #synch()}. */
+	private Set<Service> restored = Collections.emptySet();
+	/** Runs the resolutions of asynchronous calls, not served from the cache. */
+	private final ExecutorService resolver = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ElasticSearchServiceCatalog-resolver");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	private ServiceChangeSource changeSource;
+	private long syncedVersion;
 	private static final String DEFAULT_CATALOG_ID = "default";
+	/** The lease duration of a service, in ms. */
+	private static final long LEASE_DURATION = 100000L;
+	/** The renewal interval of the local services, in ms. */
+	private static final long RENEWAL_INTERVAL = 10000L;
 
 	public ElasticSearchServiceCatalog() {
 		this(DEFAULT_CATALOG_ID);
 	}
 
 	public ElasticSearchServiceCatalog(String catalogId) {
+		this(catalogId, new ServiceProxyCache());
+	}
+
+	public ElasticSearchServiceCatalog(String catalogId,
+			ServiceProxyCache proxyCache) {
+		this(catalogId, proxyCache, null);
+	}
+
+	/**
+	 * Creates a catalog backed by the given Elasticsearch index. Local
+	 * registrations, renewals and removals are written to the index in bulk,
+	 * lookups are evaluated by Elasticsearch, and {@link #synch()} loads all
+	 * services of the index. If the index cannot be reached, lookups are
+	 * served from the services known locally.
+	 * 
+	 * @param catalogId
+	 *            the catalog id, not {@code null}.
+	 * @param client
+	 *            the client, not {@code null}.
+	 */
+	public ElasticSearchServiceCatalog(String catalogId,
+			ElasticSearchClient client) {
+		this(catalogId, new ServiceProxyCache(), Objects.requireNonNull(client));
+	}
+
+	private ElasticSearchServiceCatalog(String catalogId,
+			ServiceProxyCache proxyCache, ElasticSearchClient client) {
 		Objects.requireNonNull(catalogId);
 		this.catalogId = catalogId;
-		log.info("Initializing ElasticSearch service catalog...");
-
-		// Registering local services...
-//		timer.schedule(new TimerTask() {
-//			@Override
-//			public void run() {
-//				Set<Service> distributedServices = data
-//						.getSet("<allInterfaces>");
-//				for (Service service : locallyRegisteredServices) {
-//					if (service.IsExpiredWithin(100L)) {
-//						service.setExpiry(100000L);
-//						distributedServices.add(service);
-//					}
-//				}
-//			}
-//		}, 0L, 10000L);
-//		try {
-//			Thread.sleep(100L);
-//		} catch (InterruptedException e) {
-//			log.info("interrupt ignored.");
-//		}
-	}
-
-	public void synch() {
-//		log.info("Synching service catalog...");
-//		ISet<Service> services = data.getSet("<allInterfaces>");
-//		synchronized (allServices) {
-//			allServices.clear();
-//			allServices.addAll(services);
-//			this.typedServices.clear();
-//			for (Service service : this.allServices) {
-//				for (String type : service.getInterfaces()) {
-//					List<Service> typedList = typedServices.get(type);
-//					if (typedList == null) {
-//						typedList = new ArrayList<>();
-//						this.typedServices.put(type, typedList);
-//					}
-//					synchronized (typedList) {
-//						typedList.add(service);
-//					}
-//				}
-//			}
-//		}
-	}
-
-	@Override
-	protected void removeService(Service service) {
-//		removeLocally(service);
-//		ISet<Service> services = data.getSet("<allInterfaces>");
-//		services.remove(service);
-	}
-
-	@Override
-	public void removeLocally(Service service) {
-//		log.error("Disabling removed service: " + service + "...");
-//		synchronized (this.allServices) {
-//			this.allServices.remove(service);
-//		}
-//		for (String type : service.getInterfaces()) {
-//			List<Service> typedList = typedServices.get(type);
-//			if (typedList != null) {
-//				typedList.remove(service);
-//			}
-//		}
+		this.proxyCache = Objects.requireNonNull(proxyCache);
+		this.client = client;
+		LOG.info("Initializing ElasticSearch service catalog...");
+		DefaultCatalogMetrics defaultMetrics = new DefaultCatalogMetrics();
+		this.metricsName = JmxMetricsExporter.export(catalogId, defaultMetrics);
+		this.metrics = defaultMetrics;
+
+		this.leaseManager = new LeaseManager(new LeaseManager.Listener() {
+			@Override
+			public void leasesExpired(Collection<Service> services) {
+				removeExpired(services);
+			}
+
+			@Override
+			public void renewalsDue(Collection<Service> services) {
+				renewServices(services);
+			}
+		});
+		this.leaseManager.start();
+
+		if (client != null) {
+			try {
+				client.createIndex();
+			} catch (IllegalStateException e) {
+				LOG.error("Failed to create index, using local services only.",
+						e);
+			}
+			this.changeSource = client;
+		}
+	}
+
+	/**
+	 * Renews the leases of the given local services. This is called by the
+	 * {@link LeaseManager} once per tick with all renewals due.
+	 */
+	@Override
+	public void renewServices(Collection<Service> services) {
+		LOG.debug("Renewing " + services.size() + " local services...");
+		for (Service service : services) {
+			service.setExpiry(LEASE_DURATION);
+			leaseManager.lease(service, LEASE_DURATION);
+		}
+		changeLog.appendAll(ServiceChange.Type.RENEWED, services);
+		publish(ServiceChange.Type.RENEWED, services);
+		if (client != null) {
+			try {
+				client.renew(services, System.currentTimeMillis()
+						+ LEASE_DURATION);
+			} catch (IllegalStateException e) {
+				LOG.warn("Failed to renew " + services.size()
+						+ " services in Elasticsearch.", e);
+			}
+		}
+	}
+
+	/**
+	 * Removes the given services, whose leases have expired, with a single
+	 * snapshot update.
+	 */
+	private void removeExpired(final Collection<Service> services) {
+		LOG.info("Removing " + services.size() + " expired services...");
+		metrics.recordExpirations(services.size());
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withServices(Collections.<Service> emptySet(),
+						services);
+			}
+		})) {
+			publish(ServiceChange.Type.REMOVED, services);
+		}
+		for (Service service : services) {
+			proxyCache.invalidate(service);
+			hedgedProxies.remove(service);
+			statistics.remove(service);
+			metrics.removeEndpoint(service);
+		}
+	}
+
+	/**
+	 * Synchronizes this catalog with the configured
+	 * {@link ServiceChangeSource}, applying only the changes since the last
+	 * version synchronized. If the source can no longer provide these changes,
+	 * it returns a full snapshot, which is applied as a diff. Either way the
+	 * new state is published with a single snapshot update, so lookups never
+	 * see a partially synchronized catalog.
+	 */
+	public synchronized void synch() {
+		ServiceChangeSource source = this.changeSource;
+		if (source == null) {
+			return;
+		}
+		LOG.debug("Synching service catalog from version " + syncedVersion
+				+ "...");
+		long start = System.nanoTime();
+		ServiceChangeLog.Delta delta = source.getChangesSince(syncedVersion);
+		ServiceCatalogSnapshot current = state.get();
+		final Collection<Service> added = new ArrayList<>();
+		final Collection<Service> removed = new LinkedHashSet<>();
+		// services already known, whose leases are extended
+		Collection<Service> renewed = new ArrayList<>();
+		Set<Service> confirmed;
+		if (delta.isFullSnapshot()) {
+			confirmed = delta.getSnapshot();
+			for (Service service : confirmed) {
+				if (current.getServices().contains(service)) {
+					renewed.add(service);
+				} else {
+					added.add(service);
+				}
+			}
+			for (Service service : current.getServices()) {
+				if (!confirmed.contains(service)
+						&& !current.getLocalServices().contains(service)) {
+					removed.add(service);
+				}
+			}
+		} else {
+			Map<Service, ServiceChange.Type> changes = new LinkedHashMap<>();
+			for (ServiceChange change : delta.getChanges()) {
+				changes.put(change.getService(), change.getType());
+			}
+			confirmed = new HashSet<>();
+			for (Map.Entry<Service, ServiceChange.Type> en : changes.entrySet()) {
+				Service service = en.getKey();
+				if (en.getValue() == ServiceChange.Type.REMOVED) {
+					removed.add(service);
+					continue;
+				}
+				confirmed.add(service);
+				if (current.getServices().contains(service)) {
+					renewed.add(service);
+				} else {
+					added.add(service);
+				}
+			}
+		}
+		if (!restored.isEmpty()) {
+			Set<Service> local = current.getLocalServices();
+			for (Service service : restored) {
+				if (!confirmed.contains(service) && !local.contains(service)) {
+					removed.add(service);
+				}
+			}
+			LOG.info("Reconciled " + restored.size() + " restored services, "
+					+ removed.size() + " removed.");
+			restored = Collections.emptySet();
+		}
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withServices(added, removed);
+			}
+		})) {
+			publish(ServiceChange.Type.REMOVED, removed);
+			publish(ServiceChange.Type.ADDED, added);
+		}
+		// a full snapshot does not tell which services were renewed
+		if (!delta.isFullSnapshot() && !renewed.isEmpty()) {
+			publish(ServiceChange.Type.RENEWED, renewed);
+		}
+		for (Service service : added) {
+			leaseManager.lease(service, LEASE_DURATION);
+		}
+		for (Service service : renewed) {
+			leaseManager.lease(service, LEASE_DURATION);
+		}
+		for (Service service : removed) {
+			leaseManager.cancelLease(service);
+			proxyCache.invalidate(service);
+			hedgedProxies.remove(service);
+			statistics.remove(service);
+			metrics.removeEndpoint(service);
+		}
+		syncedVersion = delta.getToVersion();
+		metrics.recordSync(System.nanoTime() - start,
+				added.size() + removed.size());
+	}
+
+	/**
+	 * Restores the services persisted in the given store and persists all
+	 * further changes into it. The restored services are served immediately,
+	 * but may be stale: the next {@link #synch()} fetches the full state from
+	 * the change source and removes all restored services not confirmed.
+	 * Without a change source, they are removed when their leases expire. The
+	 * store is not closed by this catalog.
+	 * 
+	 * @param store
+	 *            the store, not {@code null}.
+	 */
+	public synchronized void restore(ServiceStore store) {
+		long start = System.nanoTime();
+		final Set<Service> services = store.getServices();
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withServices(services,
+						Collections.<Service> emptySet());
+			}
+		})) {
+			// published before the store is set, not persisting them again
+			publish(ServiceChange.Type.ADDED, services);
+		}
+		for (Service service : services) {
+			leaseManager.lease(service, LEASE_DURATION);
+		}
+		List<Service> missing = new ArrayList<>();
+		for (Service service : state.get().getServices()) {
+			if (!services.contains(service)) {
+				missing.add(service);
+			}
+		}
+		store.append(ServiceChange.Type.ADDED, missing);
+		this.store = store;
+		this.restored = services;
+		this.syncedVersion = 0L;
+		LOG.info("Restored " + services.size() + " services in "
+				+ (System.nanoTime() - start) / 1000000 + " ms.");
+	}
+
+	/**
+	 * Publishes a change to the watches and persists it, if a store has been
+	 * set by {@link #restore(ServiceStore)}.
+	 */
+	private void publish(ServiceChange.Type type, Collection<Service> services) {
+		if (type == ServiceChange.Type.ADDED) {
+			invalidateLookups(services);
+		}
+		watches.publish(type, services);
+		ServiceStore store = this.store;
+		if (store != null) {
+			store.append(type, services);
+		}
+	}
+
+	/**
+	 * Sets the source this catalog synchronizes with, see {@link #synch()}.
+	 * 
+	 * @param changeSource
+	 *            the source, or {@code null}.
+	 */
+	public synchronized void setChangeSource(ServiceChangeSource changeSource) {
+		this.changeSource = changeSource;
+		this.syncedVersion = 0L;
+	}
+
+	/**
+	 * Access the log of the changes done by this instance, which other
+	 * catalogs can synchronize with.
+	 * 
+	 * @return the change log, never {@code null}.
+	 */
+	public ServiceChangeLog getChangeLog() {
+		return changeLog;
+	}
+
+	@Override
+	public void removeLocally(final Service service) {
+		LOG.info("Disabling removed service: " + service + "...");
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withoutService(service);
+			}
+		})) {
+			publish(ServiceChange.Type.REMOVED, Collections.singleton(service));
+			metrics.recordUnregistrations(1);
+		}
+		leaseManager.cancelLease(service);
+		proxyCache.invalidate(service);
+		hedgedProxies.remove(service);
+		statistics.remove(service);
+		metrics.removeEndpoint(service);
 	}
 
 	@Override
 	public Collection<Service> getServices() {
-		return allServices;
+		return state.get().getServices();
 	}
 
 	@Override
 	public Collection<Service> getServices(Class interfaceType) {
-		Collection<Service> services = typedServices.get(interfaceType
-				.getName());
-		if (services == null) {
-			return Collections.emptySet();
+		if (client != null) {
+			return lookup(interfaceType.getName());
 		}
+		long start = System.nanoTime();
+		Collection<Service> services = state.get().getIndex()
+				.getByInterface(interfaceType.getName());
+		metrics.recordLookup(System.nanoTime() - start);
 		return services;
 	}
 	
 	@Override
-	public Collection<Service> getServices(Map<String,String> context) {
+	public Collection<Service> getServices(Class interfaceType,
+			String... protocols) {
+		return findServices(new ServiceQuery.Builder()
+				.setInterface(interfaceType).setProtocols(protocols).build());
+	}
+
+	@Override
+	public Collection<Service> getServices(Class interfaceType,
+			String pathExpression, String... protocols) {
+		ServiceQuery.Expression path = ServiceQuery.Expression
+				.compile(pathExpression);
 		List<Service> services = new ArrayList<>();
-		for (Service service : this.allServices) {
+		for (Service service : getServices(interfaceType, protocols)) {
+			if (path.matches(service.getLocation())) {
+				services.add(service);
+			}
+		}
+		return services;
+	}
+
+	@Override
+	public Set<String> getProtocols(String type) {
+		return getProtocols(type, null);
+	}
+
+	@Override
+	public Set<String> getProtocols(String type, String name) {
+		ServiceQuery.Expression path = name == null ? null
+				: ServiceQuery.Expression.compile(name);
+		Set<String> protocols = new TreeSet<>();
+		for (Service service : findServices(new ServiceQuery.Builder()
+				.setInterface(type).build())) {
+			if (path == null || path.matches(service.getLocation())) {
+				protocols.add(service.getProtocol());
+			}
+		}
+		return protocols;
+	}
+
+	@Override
+	public Collection<Service> getServices(Map<String,String> context) {
+		return findServices(null, context);
+	}
+
+	@Override
+	public Collection<Service> findServices(Map<String, String> context) {
+		return findServices(null, context);
+	}
+
+	@Override
+	public Collection<Service> findServices(String nameExpression) {
+		return findServices(ServiceQuery.of(nameExpression, null));
+	}
+
+	@Override
+	public Collection<Service> findServices(String type,
+			Map<String, String> context) {
+		ServiceQuery.Builder builder = new ServiceQuery.Builder();
+		if (type != null) {
+			builder.setInterface(type);
+		}
+		if (context != null) {
+			builder.setContext(context);
+		}
+		return findServices(builder.build());
+	}
+
+	@Override
+	public Collection<Service> findServices(ServiceQuery query) {
+		long start = System.nanoTime();
+		Collection<Service> services = client != null ? search(query) : state
+				.get().getIndex().find(query);
+		metrics.recordLookup(System.nanoTime() - start);
+		return services;
+	}
+
+	/**
+	 * Looks up the services of the given interface in Elasticsearch. Concurrent
+	 * lookups of the same interface share one request, and an interface not
+	 * found is not looked up again for {@link ServiceMissCache#DEFAULT_TTL},
+	 * unless a service implementing it is added meanwhile. The services are
+	 * returned unmodifiable, since they are shared by all callers.
+	 */
+	private Collection<Service> lookup(final String interfaceName) {
+		if (misses.isMissing(interfaceName)) {
+			metrics.recordLookup(0L);
+			return Collections.emptySet();
+		}
+		final long generation = misses.getGeneration();
+		return lookups.execute(interfaceName,
+				new Callable<Collection<Service>>() {
+					@Override
+					public Collection<Service> call() {
+						Collection<Service> services = findServices(
+								new ServiceQuery.Builder().setInterface(
+										interfaceName).build());
+						if (services.isEmpty()) {
+							misses.put(interfaceName, generation);
+						}
+						return Collections.unmodifiableList(
+								new ArrayList<>(services));
+					}
+				});
+	}
+
+	/**
+	 * Discards the misses and lookups in flight of the interfaces of the given
+	 * services, so they are found by the next lookup.
+	 */
+	private void invalidateLookups(Collection<Service> services) {
+		for (Service service : services) {
+			misses.invalidate(service);
 			for (String type : service.getInterfaces()) {
-				List<Service> typedList = typedServices.get(type);
-				if (typedList == null) {
-					typedList = new ArrayList<>();
-					this.typedServices.put(type, typedList);
-				}
-				synchronized (typedList) {
-					typedList.add(service);
+				lookups.forget(type);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the given query by Elasticsearch, falling back to the
+	 * services known locally, if it cannot be reached.
+	 */
+	private Collection<Service> search(ServiceQuery query) {
+		try {
+			return client.search(query);
+		} catch (IllegalStateException e) {
+			LOG.warn("Failed to query Elasticsearch, using local services: "
+					+ query, e);
+			return state.get().getIndex().find(query);
+		}
+	}
+
+	@Override
+	public ServiceWatch watch(Class interfaceType, Map<String, String> context,
+			ServiceListener listener) {
+		return watches.watch(interfaceType, context, listener);
+	}
+
+	/**
+	 * Resolves a service implementing the given interface, preferring an
+	 * implementation registered by this JVM. Otherwise the services are tried
+	 * in the order selected by the load balancer.
+	 * 
+	 * @return the proxy, or {@code null}, if no service implements the
+	 *         interface.
+	 * @throws ServiceResolutionException
+	 *             if none of the services could be resolved.
+	 */
+	@Override
+	public <T> T getService(Class<T> interfaceType) {
+		T local = getLocalImplementation(interfaceType);
+		if (local != null) {
+			return local;
+		}
+		List<Service> candidates = new ArrayList<>(getServices(interfaceType));
+		ServiceResolutionException error = null;
+		while (!candidates.isEmpty()) {
+			Service service = loadBalancer.select(interfaceType, candidates);
+			try {
+				return hedge(interfaceType, service,
+						resolveService(service, interfaceType), candidates);
+			} catch (ServiceResolutionException e) {
+				LOG.debug("Failed to resolve " + service + ", trying next...", e);
+				candidates.remove(service);
+				error = e;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+		return null;
+	}
+
+	/**
+	 * Access an implementation of the given interface registered by this JVM,
+	 * bypassing load balancing and any remote call.
+	 */
+	private <T> T getLocalImplementation(Class<T> interfaceType) {
+		if (localImplementations.isEmpty()) {
+			return null;
+		}
+		for (Map.Entry<Service, Object> en : localImplementations.entrySet()) {
+			if (interfaceType.isInstance(en.getValue())
+					&& en.getKey().isImplementing(interfaceType.getName())) {
+				return interfaceType.cast(en.getValue());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Wraps the given proxy into a hedged proxy, if hedging is enabled and a
+	 * second candidate can be resolved. The secondary is the candidate
+	 * following the primary, so the load balancer only sees the selection of
+	 * primaries. Hedged proxies are cached per primary and type, as long as
+	 * the secondary and both proxies are unchanged.
+	 */
+	private <T> T hedge(Class<T> type, Service primary, T proxy,
+			List<Service> candidates) {
+		ServiceHedger hedger = this.hedger;
+		if (hedger == null || proxy == null || candidates.size() < 2) {
+			return proxy;
+		}
+		int index = candidates.indexOf(primary);
+		Service secondary = candidates.get((index + 1) % candidates.size());
+		try {
+			T secondaryProxy = resolveService(secondary, type);
+			if (secondaryProxy == null) {
+				return proxy;
+			}
+			ConcurrentHashMap<Class<?>, HedgedProxy> byType = hedgedProxies
+					.get(primary);
+			if (byType == null) {
+				byType = new ConcurrentHashMap<>();
+				ConcurrentHashMap<Class<?>, HedgedProxy> existing = hedgedProxies
+						.putIfAbsent(primary, byType);
+				if (existing != null) {
+					byType = existing;
 				}
 			}
+			HedgedProxy hedged = byType.get(type);
+			if (hedged == null
+					|| !hedged.isWrapping(secondary, proxy, secondaryProxy)) {
+				hedged = new HedgedProxy(secondary, proxy, secondaryProxy,
+						hedger.wrap(type, proxy, secondaryProxy));
+				byType.put(type, hedged);
+			}
+			return type.cast(hedged.proxy);
+		} catch (ServiceResolutionException e) {
+			LOG.debug("Failed to resolve hedging replica " + secondary + ".", e);
+			return proxy;
 		}
-		return services;
+	}
+
+	@Override
+	public <T> T resolveService(Service service, Class<T> type)
+			throws ServiceResolutionException {
+		Object local = localImplementations.get(service);
+		if (type.isInstance(local)) {
+			return type.cast(local);
+		}
+		long start = System.nanoTime();
+		T proxy = proxyCache.get(service, type);
+		if (proxy != null) {
+			metrics.recordResolution(System.nanoTime() - start, true);
+			return proxy;
+		}
+		long generation = proxyCache.getGeneration(service);
+		try {
+			proxy = InstrumentedServiceProxy.wrap(service, type,
+					resolvers.resolve(service, type), statistics, metrics);
+			proxyCache.put(service, type, proxy, generation);
+			return proxy;
+		} finally {
+			metrics.recordResolution(System.nanoTime() - start, false);
+		}
+	}
+
+	@Override
+	public <T> ServiceFuture<T> getServiceAsync(final Class<T> interfaceType) {
+		T local = getLocalImplementation(interfaceType);
+		if (local != null) {
+			return ServiceFuture.completed(local);
+		}
+		final ServiceFuture<T> future = new ServiceFuture<>();
+		if (client == null) {
+			getServiceAsync(interfaceType, new ArrayList<>(
+					getServices(interfaceType)), null, future);
+			return future;
+		}
+		getServicesAsync(interfaceType).addCallback(
+				new ServiceFuture.Callback<Collection<Service>>() {
+					@Override
+					public void onSuccess(Collection<Service> result) {
+						getServiceAsync(interfaceType, new ArrayList<>(result),
+								null, future);
+					}
+
+					@Override
+					public void onFailure(Throwable failure) {
+						future.fail(failure);
+					}
+				});
+		return future;
+	}
+
+	/**
+	 * Resolves one of the candidates selected by the load balancer, trying the
+	 * next one on failure, like {@link #getService(Class)}.
+	 */
+	private <T> void getServiceAsync(final Class<T> interfaceType,
+			final List<Service> candidates, RuntimeException error,
+			final ServiceFuture<T> future) {
+		if (candidates.isEmpty()) {
+			if (error != null) {
+				future.fail(error);
+			} else {
+				future.complete(null);
+			}
+			return;
+		}
+		final Service service = loadBalancer.select(interfaceType, candidates);
+		resolveServiceAsync(service, interfaceType).addCallback(
+				new ServiceFuture.Callback<T>() {
+					@Override
+					public void onSuccess(T result) {
+						future.complete(result);
+					}
+
+					@Override
+					public void onFailure(Throwable failure) {
+						if (!(failure instanceof ServiceResolutionException)) {
+							future.fail(failure);
+							return;
+						}
+						LOG.debug("Failed to resolve " + service
+								+ ", trying next...", failure);
+						candidates.remove(service);
+						getServiceAsync(interfaceType, candidates,
+								(ServiceResolutionException) failure, future);
+					}
+				});
+	}
+
+	@Override
+	public <T> ServiceFuture<T> resolveServiceAsync(final Service service,
+			final Class<T> type) {
+		Object local = localImplementations.get(service);
+		if (type.isInstance(local)) {
+			return ServiceFuture.completed(type.cast(local));
+		}
+		long start = System.nanoTime();
+		T proxy = proxyCache.get(service, type);
+		if (proxy != null) {
+			metrics.recordResolution(System.nanoTime() - start, true);
+			return ServiceFuture.completed(proxy);
+		}
+		return submit(new Callable<T>() {
+			@Override
+			public T call() {
+				return resolveService(service, type);
+			}
+		});
+	}
+
+	@Override
+	public ServiceFuture<Collection<Service>> getServicesAsync(
+			final Class interfaceType) {
+		if (client == null) {
+			return ServiceFuture.completed(getServices(interfaceType));
+		}
+		return submit(new Callable<Collection<Service>>() {
+			@Override
+			public Collection<Service> call() {
+				return getServices(interfaceType);
+			}
+		});
+	}
+
+	@Override
+	public ServiceFuture<Collection<Service>> findServicesAsync(
+			final ServiceQuery query) {
+		if (client == null) {
+			return ServiceFuture.completed(findServices(query));
+		}
+		return submit(new Callable<Collection<Service>>() {
+			@Override
+			public Collection<Service> call() {
+				return findServices(query);
+			}
+		});
+	}
+
+	@Override
+	public ServiceFuture<Void> registerServicesAsync(
+			final Collection<Service> services) {
+		if (client == null) {
+			registerServices(services);
+			return ServiceFuture.completed(null);
+		}
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				registerServices(services);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public ServiceFuture<Void> unregisterServicesAsync(
+			final Collection<Service> services) {
+		if (client == null) {
+			unregisterServices(services);
+			return ServiceFuture.completed(null);
+		}
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				unregisterServices(services);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Runs the given call on the resolver threads, so the caller is not
+	 * blocked by remote calls.
+	 */
+	private <T> ServiceFuture<T> submit(final Callable<T> call) {
+		final ServiceFuture<T> future = new ServiceFuture<>();
+		try {
+			resolver.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.complete(call.call());
+					} catch (Exception e) {
+						future.fail(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.fail(e);
+		}
+		return future;
 	}
 
 	@Override
 	public void registerService(Service service) {
-		log.info("Registering new local service: " + service + "...");
-		locallyRegisteredServices.add(service);
-		addLocally(service);
+		registerServices(Collections.singleton(service));
+	}
+
+	@Override
+	public void registerService(Service service, Object implementation) {
+		localImplementations.put(service, Objects.requireNonNull(implementation));
+		registerServices(Collections.singleton(service));
+	}
+
+	@Override
+	public void registerServices(final Collection<Service> services) {
+		LOG.info("Registering " + services.size() + " new local services...");
+		LOG.debug("Registering new local services: " + services);
+		if (client != null) {
+			index(services);
+		}
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withLocalServices(services);
+			}
+		})) {
+			publish(ServiceChange.Type.ADDED, services);
+			metrics.recordRegistrations(services.size());
+		}
+		for (Service service : services) {
+			service.setExpiry(LEASE_DURATION);
+			leaseManager.lease(service, LEASE_DURATION);
+			leaseManager.keepAlive(service, RENEWAL_INTERVAL);
+		}
+		changeLog.appendAll(ServiceChange.Type.ADDED, services);
+		if (client != null) {
+			// lookups started before the write completed may have missed them
+			invalidateLookups(services);
+		}
+	}
+
+	/**
+	 * Writes the given services to Elasticsearch. If it cannot be reached, they
+	 * are written by the next renewal. If it rejects some of them, the others
+	 * are deleted again and the registration fails.
+	 */
+	private void index(Collection<Service> services) {
+		try {
+			client.index(services, System.currentTimeMillis()
+					+ LEASE_DURATION);
+		} catch (ElasticSearchClient.BulkRejectedException e) {
+			List<Service> written = new ArrayList<>();
+			for (Service service : services) {
+				if (!e.getKeys().contains(ElasticSearchClient.keyOf(service))) {
+					written.add(service);
+				}
+			}
+			try {
+				client.delete(written);
+			} catch (IllegalStateException e2) {
+				LOG.warn("Failed to delete " + written.size()
+						+ " services from Elasticsearch, expiring with their "
+						+ "leases.", e2);
+			}
+			throw e;
+		} catch (IllegalStateException e) {
+			LOG.warn("Failed to write " + services.size()
+					+ " services to Elasticsearch, retrying on renewal.", e);
+		}
 	}
 
 	private void handeServiceAddedEvent(Service service) {
@@ -147,52 +934,187 @@ public class ElasticSearchServiceCatalog extends AbstractServiceCatalog{
 
 	@Override
 	public void unregisterService(Service service) {
-		removeService(service);
+		unregisterServices(Collections.singleton(service));
 	}
 
 	@Override
 	public void unregisterServices(Map<String, String> context) {
-		Collection<Service> services = getServices(context);
-		for (Service s : services) {
-			removeService(s);
-		}
+		unregisterServices(new ArrayList<>(getServices(context)));
 	}
 
 	@Override
 	public void unregisterServices(Class type) {
-		Collection<Service> services = getServices(type);
-		for (Service s : services) {
-			removeService(s);
-		}
+		unregisterServices(new ArrayList<>(getServices(type)));
 	}
 
-	public void addLocally(Service service) {
-		log.debug("Adding service locally: " + service + "...");
-		synchronized (this.allServices) {
-			if (!this.allServices.contains(service)) {
-				this.allServices.add(service);
+	@Override
+	public void unregisterServices(final Collection<Service> services) {
+		LOG.info("Removing " + services.size() + " services...");
+		LOG.debug("Removing services: " + services);
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withoutLocalServices(services);
 			}
+		})) {
+			publish(ServiceChange.Type.REMOVED, services);
+			metrics.recordUnregistrations(services.size());
 		}
-		for (String type : service.getInterfaces()) {
-			List<Service> concreteServices = this.typedServices.get(type);
-			if (concreteServices == null) {
-				synchronized (allServices) {
-					concreteServices = this.typedServices.get(type);
-					if (concreteServices == null) {
-						concreteServices = Collections
-								.synchronizedList(new ArrayList<Service>());
-						this.typedServices.put(type, concreteServices);
-					}
-				}
+		for (Service service : services) {
+			localImplementations.remove(service);
+			leaseManager.cancel(service);
+			proxyCache.invalidate(service);
+			hedgedProxies.remove(service);
+			statistics.remove(service);
+			metrics.removeEndpoint(service);
+		}
+		changeLog.appendAll(ServiceChange.Type.REMOVED, services);
+		if (client != null) {
+			try {
+				client.delete(services);
+			} catch (IllegalStateException e) {
+				LOG.warn("Failed to delete " + services.size()
+						+ " services from Elasticsearch.", e);
 			}
-			synchronized (concreteServices) {
-				if (!concreteServices.contains(service)) {
-					concreteServices.add(service);
-				}
+		}
+	}
+
+	public void addLocally(final Service service) {
+		LOG.debug("Adding service locally: " + service + "...");
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withService(service);
 			}
+		})) {
+			publish(ServiceChange.Type.ADDED, Collections.singleton(service));
+			metrics.recordRegistrations(1);
 		}
+		leaseManager.lease(service, LEASE_DURATION);
 	}
 
+	/**
+	 * Access the response time statistics recorded by the proxies returned
+	 * from this catalog, e.g. for creating a
+	 * {@link org.jservice.catalog.LatencyWeightedLoadBalancer}.
+	 * 
+	 * @return the statistics, never {@code null}.
+	 */
+	public ServiceStatistics getStatistics() {
+		return statistics;
+	}
 
+	/**
+	 * Sets the resolvers used for the services not implemented by this JVM,
+	 * by default all {@link org.jservice.spi.ServiceResolverSpi}
+	 * implementations registered with the {@link java.util.ServiceLoader}.
+	 * 
+	 * @param resolvers
+	 *            the resolvers, not {@code null}.
+	 */
+	public void setResolvers(ServiceResolvers resolvers) {
+		this.resolvers = Objects.requireNonNull(resolvers);
+	}
+
+	/**
+	 * Sets the strategy used by {@link #getService(Class)} for selecting
+	 * between several services implementing the same interface.
+	 * 
+	 * @param loadBalancer
+	 *            the load balancer, not {@code null}.
+	 */
+	public void setLoadBalancer(LoadBalancer loadBalancer) {
+		this.loadBalancer = Objects.requireNonNull(loadBalancer);
+	}
+
+	/**
+	 * Access the metrics this catalog records into. By default these are
+	 * published via JMX, see {@link JmxMetricsExporter}.
+	 * 
+	 * @return the metrics, never {@code null}.
+	 */
+	public CatalogMetricsSpi getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics this catalog records into, replacing the default
+	 * metrics.
+	 * 
+	 * @param metrics
+	 *            the metrics, not {@code null}.
+	 */
+	public void setMetrics(CatalogMetricsSpi metrics) {
+		this.metrics = Objects.requireNonNull(metrics);
+	}
+
+	/**
+	 * Enables hedging for the proxies returned by {@link #getService(Class)}.
+	 * Calls of {@link org.jservice.catalog.Idempotent} methods are then also
+	 * sent to a second replica, if the first one does not answer in time.
+	 * 
+	 * @param policy
+	 *            the hedging policy, or {@code null} for disabling hedging.
+	 */
+	public synchronized void setHedgingPolicy(HedgingPolicy policy) {
+		ServiceHedger old = this.hedger;
+		this.hedger = policy == null ? null : new ServiceHedger(policy);
+		hedgedProxies.clear();
+		if (old != null) {
+			old.close();
+		}
+	}
+
+	/**
+	 * Access the current catalog state. The snapshot returned is immutable and
+	 * remains consistent, regardless of any concurrent changes.
+	 * 
+	 * @return the current snapshot, never {@code null}.
+	 */
+	public ServiceCatalogSnapshot getSnapshot() {
+		return state.get();
+	}
+
+	/**
+	 * Closes this catalog: removes its metrics from JMX and stops the lease
+	 * manager, the watches, the hedger and the resolver threads. The services
+	 * registered are left in Elasticsearch, where they expire with their
+	 * leases, and the store set by {@link #restore(ServiceStore)} is not
+	 * closed.
+	 */
+	@Override
+	public synchronized void close() {
+		LOG.info("Closing ElasticSearch service catalog...");
+		JmxMetricsExporter.unexport(metricsName);
+		leaseManager.close();
+		watches.close();
+		resolver.shutdownNow();
+		setHedgingPolicy(null);
+	}
+
+	/**
+	 * A hedged proxy, together with the secondary and the proxies it wraps.
+	 */
+	private static final class HedgedProxy {
+		final Service secondary;
+		final Object primaryProxy;
+		final Object secondaryProxy;
+		final Object proxy;
+
+		HedgedProxy(Service secondary, Object primaryProxy,
+				Object secondaryProxy, Object proxy) {
+			this.secondary = secondary;
+			this.primaryProxy = primaryProxy;
+			this.secondaryProxy = secondaryProxy;
+			this.proxy = proxy;
+		}
+
+		boolean isWrapping(Service secondary, Object primaryProxy,
+				Object secondaryProxy) {
+			return this.secondary.equals(secondary)
+					&& this.primaryProxy == primaryProxy
+					&& this.secondaryProxy == secondaryProxy;
+		}
+	}
 
 }
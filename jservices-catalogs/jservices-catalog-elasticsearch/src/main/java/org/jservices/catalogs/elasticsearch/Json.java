@@ -0,0 +1,302 @@
+package org.jservices.catalogs.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the Elasticsearch REST API. Objects are mapped to
+ * {@link Map}s, arrays to {@link List}s, numbers to {@link Long} or
+ * {@link Double}, and the remaining literals to {@link String},
+ * {@link Boolean} and {@code null}.
+ */
+final class Json {
+
+	private final String text;
+	private int pos;
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Writes the given value as JSON.
+	 *
+	 * @param value
+	 *            a map, collection, string, number, boolean or {@code null}.
+	 * @return the JSON text.
+	 */
+	static String write(Object value) {
+		StringBuilder b = new StringBuilder();
+		write(value, b);
+		return b.toString();
+	}
+
+	static void write(Object value, StringBuilder b) {
+		if (value == null) {
+			b.append("null");
+		} else if (value instanceof String) {
+			writeString((String) value, b);
+		} else if (value instanceof Number || value instanceof Boolean) {
+			b.append(value);
+		} else if (value instanceof Map) {
+			b.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> en : ((Map<?, ?>) value).entrySet()) {
+				if (!first) {
+					b.append(',');
+				}
+				first = false;
+				writeString(String.valueOf(en.getKey()), b);
+				b.append(':');
+				write(en.getValue(), b);
+			}
+			b.append('}');
+		} else if (value instanceof Collection) {
+			b.append('[');
+			boolean first = true;
+			for (Object element : (Collection<?>) value) {
+				if (!first) {
+					b.append(',');
+				}
+				first = false;
+				write(element, b);
+			}
+			b.append(']');
+		} else {
+			throw new IllegalArgumentException("Not a JSON value: "
+					+ value.getClass().getName());
+		}
+	}
+
+	private static void writeString(String value, StringBuilder b) {
+		b.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				b.append("\\\"");
+				break;
+			case '\\':
+				b.append("\\\\");
+				break;
+			case '\n':
+				b.append("\\n");
+				break;
+			case '\r':
+				b.append("\\r");
+				break;
+			case '\t':
+				b.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					b.append(String.format("\\u%04x", (int) c));
+				} else {
+					b.append(c);
+				}
+			}
+		}
+		b.append('"');
+	}
+
+	/**
+	 * Parses the given JSON text.
+	 *
+	 * @param text
+	 *            the text, not {@code null}.
+	 * @return the value parsed.
+	 * @throws IllegalArgumentException
+	 *             if the text is not valid JSON.
+	 */
+	static Object parse(String text) {
+		Json parser = new Json(text);
+		Object value = parser.readValue();
+		parser.skipWhitespace();
+		if (parser.pos != text.length()) {
+			throw parser.error("Trailing characters");
+		}
+		return value;
+	}
+
+	private Object readValue() {
+		skipWhitespace();
+		if (pos >= text.length()) {
+			throw error("Unexpected end");
+		}
+		char c = text.charAt(pos);
+		switch (c) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			return readLiteral("true", Boolean.TRUE);
+		case 'f':
+			return readLiteral("false", Boolean.FALSE);
+		case 'n':
+			return readLiteral("null", null);
+		default:
+			return readNumber();
+		}
+	}
+
+	private Map<String, Object> readObject() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			return map;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') {
+				throw error("Expected key");
+			}
+			String key = readString();
+			skipWhitespace();
+			expect(':');
+			map.put(key, readValue());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect('}');
+				return map;
+			}
+		}
+	}
+
+	private List<Object> readArray() {
+		List<Object> list = new ArrayList<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			return list;
+		}
+		while (true) {
+			list.add(readValue());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect(']');
+				return list;
+			}
+		}
+	}
+
+	private String readString() {
+		pos++;
+		StringBuilder b = new StringBuilder();
+		while (true) {
+			if (pos >= text.length()) {
+				throw error("Unterminated string");
+			}
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				return b.toString();
+			}
+			if (c != '\\') {
+				b.append(c);
+				continue;
+			}
+			if (pos >= text.length()) {
+				throw error("Unterminated escape");
+			}
+			char e = text.charAt(pos++);
+			switch (e) {
+			case 'b':
+				b.append('\b');
+				break;
+			case 'f':
+				b.append('\f');
+				break;
+			case 'n':
+				b.append('\n');
+				break;
+			case 'r':
+				b.append('\r');
+				break;
+			case 't':
+				b.append('\t');
+				break;
+			case 'u':
+				if (pos + 4 > text.length()) {
+					throw error("Invalid unicode escape");
+				}
+				try {
+					b.append((char) Integer.parseInt(
+							text.substring(pos, pos + 4), 16));
+				} catch (NumberFormatException ex) {
+					throw error("Invalid unicode escape");
+				}
+				pos += 4;
+				break;
+			default:
+				b.append(e);
+			}
+		}
+	}
+
+	private Object readLiteral(String literal, Object value) {
+		if (!text.startsWith(literal, pos)) {
+			throw error("Unexpected token");
+		}
+		pos += literal.length();
+		return value;
+	}
+
+	private Number readNumber() {
+		int start = pos;
+		boolean decimal = false;
+		while (pos < text.length()) {
+			char c = text.charAt(pos);
+			if (c == '.' || c == 'e' || c == 'E') {
+				decimal = true;
+			} else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+				break;
+			}
+			pos++;
+		}
+		String number = text.substring(start, pos);
+		try {
+			return decimal ? (Number) Double.valueOf(number) : (Number) Long
+					.valueOf(number);
+		} catch (NumberFormatException e) {
+			throw error("Invalid number '" + number + "'");
+		}
+	}
+
+	private char peek() {
+		if (pos >= text.length()) {
+			throw error("Unexpected end");
+		}
+		return text.charAt(pos);
+	}
+
+	private void expect(char c) {
+		if (peek() != c) {
+			throw error("Expected '" + c + "'");
+		}
+		pos++;
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length()
+				&& Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at " + pos + '.');
+	}
+
+}
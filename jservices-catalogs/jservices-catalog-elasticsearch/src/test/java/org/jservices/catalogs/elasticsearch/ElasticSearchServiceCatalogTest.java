@@ -0,0 +1,570 @@
+package org.jservices.catalogs.elasticsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jservice.catalog.HedgingPolicy;
+import org.jservice.catalog.LoadBalancer;
+import org.jservice.catalog.RoundRobinLoadBalancer;
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceChange;
+import org.jservice.catalog.ServiceChangeLog;
+import org.jservice.catalog.ServiceEvent;
+import org.jservice.catalog.ServiceFuture;
+import org.jservice.catalog.ServiceListener;
+import org.jservice.catalog.ServiceQuery;
+import org.jservice.catalog.ServiceResolutionException;
+import org.jservice.catalog.ServiceResolvers;
+import org.jservice.catalog.ServiceStore;
+import org.jservice.metrics.DefaultCatalogMetrics;
+import org.jservice.metrics.JmxMetricsExporter;
+import org.jservice.spi.ServiceResolverSpi;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ElasticSearchServiceCatalog} backed by an
+ * {@link ElasticSearchClient}, against a local {@link ElasticSearchStandIn}.
+ */
+public class ElasticSearchServiceCatalogTest {
+
+	private static final String INDEX = "services";
+
+	private ElasticSearchStandIn elasticSearch;
+	private ElasticSearchServiceCatalog catalog;
+
+	@Before
+	public void setUp() throws Exception {
+		elasticSearch = new ElasticSearchStandIn();
+		catalog = new ElasticSearchServiceCatalog("test",
+				new ElasticSearchClient(elasticSearch.getUrl(), INDEX, 2));
+		elasticSearch.takeRequests();
+	}
+
+	@After
+	public void tearDown() {
+		catalog.close();
+		elasticSearch.close();
+	}
+
+	private static Service service(int port, String env, String... interfaces) {
+		Map<String, String> context = new HashMap<>();
+		context.put("env", env);
+		return new Service.Builder().setProtocol("rmi").setHost("localhost")
+				.setPort(port).setLocation("service" + port)
+				.setInterfaces(interfaces).setContext(context).build();
+	}
+
+	private List<String> takeRequests(String prefix) {
+		List<String> result = new ArrayList<>();
+		for (String request : elasticSearch.takeRequests()) {
+			if (request.startsWith(prefix)) {
+				result.add(request);
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testRegistrationIsOneBulkRequest() {
+		List<Service> services = Arrays.asList(
+				service(1000, "prod", Runnable.class.getName()),
+				service(1001, "prod", Runnable.class.getName()),
+				service(1002, "test", Comparable.class.getName()));
+		catalog.registerServices(services);
+		List<String> requests = elasticSearch.takeRequests();
+		assertEquals(1, requests.size());
+		assertTrue(requests.get(0).startsWith("POST /_bulk?refresh=wait_for"));
+		for (Service service : services) {
+			assertNotNull(elasticSearch.getDocument(INDEX,
+					ElasticSearchClient.keyOf(service)));
+		}
+	}
+
+	@Test
+	public void testInterfaceLookupIsTermQuery() {
+		Service runnable = service(1000, "prod", Runnable.class.getName());
+		catalog.registerServices(Arrays.asList(runnable,
+				service(1001, "prod", Comparable.class.getName())));
+		elasticSearch.takeRequests();
+		assertEquals(Collections.singletonList(runnable),
+				catalog.getServices(Runnable.class));
+		List<String> searches = takeRequests("POST /" + INDEX + "/_search");
+		assertEquals(1, searches.size());
+		assertTrue(searches.get(0).contains(
+				"{\"term\":{\"interfaces\":\"java.lang.Runnable\"}}"));
+	}
+
+	@Test
+	public void testContextLookupIsPrefixAndRegexpQuery() {
+		Service prod = service(1000, "prod-eu", Runnable.class.getName());
+		catalog.registerServices(Arrays.asList(prod,
+				service(1001, "test-eu", Runnable.class.getName()),
+				service(1002, "prod-us", Comparable.class.getName())));
+		elasticSearch.takeRequests();
+
+		Map<String, String> context = new HashMap<>();
+		context.put("env", "prod.*");
+		assertEquals(Collections.singletonList(prod), catalog.findServices(
+				"java.lang.Runnable", context));
+		String search = takeRequests("POST /" + INDEX + "/_search").get(0);
+		assertTrue(search.contains("{\"prefix\":{\"context.env\":\"prod\"}}"));
+
+		context.put("env", "(prod|test)-e.");
+		assertEquals(2,
+				catalog.findServices("java.lang.Runnable", context).size());
+		search = takeRequests("POST /" + INDEX + "/_search").get(0);
+		assertTrue(search.contains("{\"regexp\":{\"context.env\":"));
+	}
+
+	@Test
+	public void testRejectedRegexpIsFilteredLocally() {
+		catalog.registerServices(Arrays.asList(
+				service(1000, "prod1", Runnable.class.getName()),
+				service(1001, "prodX", Runnable.class.getName())));
+		elasticSearch.takeRequests();
+		Map<String, String> context = new HashMap<>();
+		context.put("env", "prod\\d");
+		Collection<Service> found = catalog.findServices(
+				"java.lang.Runnable", context);
+		assertEquals(1, found.size());
+		assertEquals("prod1", found.iterator().next().getContext().get("env"));
+		List<String> searches = takeRequests("POST /" + INDEX + "/_search");
+		assertTrue(searches.get(0).contains("\"regexp\""));
+		assertFalse(searches.get(1).contains("\"regexp\""));
+	}
+
+	@Test
+	public void testLargeResultsArePagedWithSearchAfter() {
+		List<Service> services = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			services.add(service(1000 + i, "prod", Runnable.class.getName()));
+		}
+		catalog.registerServices(services);
+		elasticSearch.takeRequests();
+		assertEquals(new HashSet<>(services), new HashSet<>(
+				catalog.getServices(Runnable.class)));
+		List<String> searches = takeRequests("POST /" + INDEX + "/_search");
+		assertEquals(3, searches.size());
+		assertFalse(searches.get(0).contains("search_after"));
+		assertTrue(searches.get(1).contains("search_after"));
+		assertTrue(searches.get(2).contains("search_after"));
+	}
+
+	@Test
+	public void testRenewalIsOneBulkUpdate() {
+		Service first = service(1000, "prod", Runnable.class.getName());
+		Service second = service(1001, "prod", Runnable.class.getName());
+		catalog.registerServices(Arrays.asList(first, second));
+		long expiry = ((Number) elasticSearch.getDocument(INDEX,
+				ElasticSearchClient.keyOf(first)).get("expiry")).longValue();
+		elasticSearch.takeRequests();
+		catalog.renewServices(Arrays.asList(first, second));
+		List<String> requests = elasticSearch.takeRequests();
+		assertEquals(1, requests.size());
+		assertTrue(requests.get(0).startsWith("POST /_bulk\n"));
+		assertTrue(requests.get(0).contains("{\"update\":"));
+		assertTrue(((Number) elasticSearch.getDocument(INDEX,
+				ElasticSearchClient.keyOf(first)).get("expiry")).longValue() >= expiry);
+	}
+
+	@Test
+	public void testUnregistrationDeletesDocuments() {
+		Service first = service(1000, "prod", Runnable.class.getName());
+		Service second = service(1001, "prod", Runnable.class.getName());
+		catalog.registerServices(Arrays.asList(first, second));
+		catalog.unregisterService(first);
+		assertEquals(Collections.singletonList(second),
+				catalog.getServices(Runnable.class));
+		assertEquals(null, elasticSearch.getDocument(INDEX,
+				ElasticSearchClient.keyOf(first)));
+	}
+
+	@Test
+	public void testRejectedRegistrationFails() {
+		Service accepted = service(1000, "prod", Runnable.class.getName());
+		Service rejected = service(1001, "prod", Runnable.class.getName());
+		elasticSearch.reject(ElasticSearchClient.keyOf(rejected));
+		try {
+			catalog.registerServices(Arrays.asList(accepted, rejected));
+			fail("registration not rejected");
+		} catch (ElasticSearchClient.BulkRejectedException e) {
+			assertEquals(Collections.singleton(ElasticSearchClient
+					.keyOf(rejected)), e.getKeys());
+		}
+		assertTrue(catalog.getServices(Runnable.class).isEmpty());
+		assertNull(elasticSearch.getDocument(INDEX,
+				ElasticSearchClient.keyOf(accepted)));
+		assertNull(elasticSearch.getDocument(INDEX,
+				ElasticSearchClient.keyOf(rejected)));
+	}
+
+	@Test
+	public void testDeletingMissingDocumentSucceeds() {
+		new ElasticSearchClient(elasticSearch.getUrl(), INDEX)
+				.delete(Collections.singleton(service(1000, "prod",
+						Runnable.class.getName())));
+	}
+
+	@Test
+	public void testSynchLoadsServicesOfOtherCatalogs() {
+		ElasticSearchServiceCatalog other = new ElasticSearchServiceCatalog(
+				"other", new ElasticSearchClient(elasticSearch.getUrl(), INDEX));
+		Service remote = service(1000, "prod", Runnable.class.getName());
+		other.registerService(remote);
+		assertFalse(catalog.getServices().contains(remote));
+		catalog.synch();
+		assertTrue(catalog.getServices().contains(remote));
+		other.unregisterService(remote);
+		catalog.synch();
+		assertFalse(catalog.getServices().contains(remote));
+	}
+
+	@Test
+	public void testSynchPublishesOnlyTheChanges() throws Exception {
+		ElasticSearchServiceCatalog local = new ElasticSearchServiceCatalog(
+				"local");
+		final BlockingQueue<ServiceEvent> events = new LinkedBlockingQueue<>();
+		local.watch(Runnable.class, null, new ServiceListener() {
+			@Override
+			public void servicesChanged(ServiceEvent event) {
+				events.add(event);
+			}
+		});
+		Service a = service(1000, "prod", Runnable.class.getName());
+		Service b = service(1001, "prod", Runnable.class.getName());
+		Service c = service(1002, "prod", Runnable.class.getName());
+		ServiceChangeLog source = new ServiceChangeLog(2);
+		local.setChangeSource(source);
+		source.appendAll(ServiceChange.Type.ADDED, Arrays.asList(a, b));
+		local.synch();
+		assertEquals(new HashSet<>(Arrays.asList(a, b)), new HashSet<>(events
+				.poll(5, TimeUnit.SECONDS).getAdded()));
+
+		// delta: renewals are published as such
+		source.append(ServiceChange.Type.RENEWED, a);
+		local.synch();
+		ServiceEvent event = events.poll(5, TimeUnit.SECONDS);
+		assertTrue(event.getAdded().isEmpty());
+		assertEquals(Collections.singletonList(a), new ArrayList<>(event
+				.getRenewed()));
+
+		// full snapshot: only the services not known are added
+		source.appendAll(ServiceChange.Type.ADDED, Arrays.asList(c, a, b));
+		local.synch();
+		event = events.poll(5, TimeUnit.SECONDS);
+		assertEquals(Collections.singletonList(c), new ArrayList<>(event
+				.getAdded()));
+		assertTrue(event.getRenewed().isEmpty());
+		assertTrue(event.getRemoved().isEmpty());
+		assertEquals(3, local.getServices().size());
+	}
+
+	@Test
+	public void testRestoreInvalidatesMisses() throws Exception {
+		assertTrue(catalog.getServices(Runnable.class).isEmpty());
+		elasticSearch.close();
+		Service service = service(1000, "prod", Runnable.class.getName());
+		File directory = Files.createTempDirectory("service-store").toFile();
+		try (ServiceStore store = new ServiceStore(directory)) {
+			store.append(ServiceChange.Type.ADDED,
+					Collections.singleton(service));
+			catalog.restore(store);
+			assertEquals(Collections.singletonList(service), new ArrayList<>(
+					catalog.getServices(Runnable.class)));
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testUnreachableIndexFallsBackToLocalServices() {
+		Service service = service(1000, "prod", Runnable.class.getName());
+		catalog.registerService(service);
+		elasticSearch.close();
+		assertEquals(Collections.singletonList(service), new ArrayList<>(
+				catalog.findServices(ServiceQuery.of("java.lang.Runnable",
+						null))));
+	}
+
+	@Test
+	public void testConcurrentLookupsShareOneSearch() throws Exception {
+		catalog.registerService(service(1000, "prod", Runnable.class.getName()));
+		elasticSearch.takeRequests();
+		elasticSearch.setSearchDelay(500L);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Collection<Service>> results = Collections
+				.synchronizedList(new ArrayList<Collection<Service>>());
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						results.add(catalog.getServices(Runnable.class));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(20, results.size());
+		for (Collection<Service> result : results) {
+			assertEquals(1, result.size());
+		}
+		assertEquals(1, takeRequests("POST /" + INDEX + "/_search").size());
+		try {
+			results.get(0).clear();
+			fail("shared result modified");
+		} catch (UnsupportedOperationException e) {
+			assertEquals(1, results.get(1).size());
+		}
+	}
+
+	@Test
+	public void testMissIsCachedUntilRegistration() {
+		assertTrue(catalog.getServices(Runnable.class).isEmpty());
+		assertTrue(catalog.getServices(Runnable.class).isEmpty());
+		assertEquals(1, takeRequests("POST /" + INDEX + "/_search").size());
+
+		Service service = service(1000, "prod", Runnable.class.getName());
+		catalog.registerService(service);
+		assertEquals(Collections.singletonList(service),
+				catalog.getServices(Runnable.class));
+		assertEquals(1, takeRequests("POST /" + INDEX + "/_search").size());
+	}
+
+	@Test
+	public void testServicesAreResolvedByResolvers() {
+		final AtomicInteger resolutions = new AtomicInteger();
+		final AtomicInteger calls = new AtomicInteger();
+		ElasticSearchServiceCatalog local = new ElasticSearchServiceCatalog(
+				"local");
+		local.setResolvers(new ServiceResolvers(Collections
+				.singleton(new ServiceResolverSpi() {
+					@Override
+					public boolean isResolvable(Service service) {
+						return "rmi".equals(service.getProtocol());
+					}
+
+					@Override
+					public <T> T resolveService(Service service, Class<T> type) {
+						resolutions.incrementAndGet();
+						return type.cast(new Runnable() {
+							@Override
+							public void run() {
+								calls.incrementAndGet();
+							}
+						});
+					}
+				})));
+		assertNull(local.getService(Runnable.class));
+		Service service = service(1000, "prod", Runnable.class.getName());
+		local.registerService(service);
+		local.getService(Runnable.class).run();
+		local.getService(Runnable.class).run();
+		assertEquals(2, calls.get());
+		assertEquals(1, resolutions.get());
+
+		Service nio = new Service.Builder().setProtocol("nio")
+				.setHost("localhost").setPort(1001).setLocation("nio")
+				.setInterfaces(Runnable.class.getName()).build();
+		try {
+			local.resolveService(nio, Runnable.class);
+			fail("unsupported protocol resolved");
+		} catch (ServiceResolutionException e) {
+			assertEquals(nio, e.getService());
+		}
+	}
+
+	@Test
+	public void testAsyncCallsPreferLocalImplementations() throws Exception {
+		final AtomicInteger resolutions = new AtomicInteger();
+		catalog.setResolvers(new ServiceResolvers(Collections
+				.singleton(new ServiceResolverSpi() {
+					@Override
+					public boolean isResolvable(Service service) {
+						return true;
+					}
+
+					@Override
+					public <T> T resolveService(Service service, Class<T> type) {
+						resolutions.incrementAndGet();
+						throw new ServiceResolutionException(service);
+					}
+				})));
+		Runnable impl = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		Service service = service(1000, "prod", Runnable.class.getName());
+		catalog.registerService(service, impl);
+		assertSame(impl, catalog.getServiceAsync(Runnable.class).get(5,
+				TimeUnit.SECONDS));
+		assertSame(impl, catalog.resolveServiceAsync(service, Runnable.class)
+				.get(5, TimeUnit.SECONDS));
+		assertEquals(0, resolutions.get());
+	}
+
+	@Test
+	public void testAsyncLookupsDoNotBlockTheCaller() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		final Runnable impl = new Runnable() {
+			@Override
+			public void run() {
+				calls.incrementAndGet();
+			}
+		};
+		catalog.setResolvers(new ServiceResolvers(Collections
+				.singleton(new ServiceResolverSpi() {
+					@Override
+					public boolean isResolvable(Service service) {
+						return true;
+					}
+
+					@Override
+					public <T> T resolveService(Service service, Class<T> type) {
+						return type.cast(impl);
+					}
+				})));
+		Service service = service(1000, "prod", Runnable.class.getName());
+		catalog.registerService(service);
+		elasticSearch.setSearchDelay(500L);
+		ServiceFuture<Collection<Service>> found = catalog
+				.findServicesAsync(ServiceQuery.of("java.lang.Runnable", null));
+		ServiceFuture<Runnable> resolved = catalog
+				.getServiceAsync(Runnable.class);
+		assertFalse(found.isDone());
+		assertFalse(resolved.isDone());
+		assertEquals(Collections.singletonList(service), new ArrayList<>(
+				found.get(5, TimeUnit.SECONDS)));
+		resolved.get(5, TimeUnit.SECONDS).run();
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testHedgedProxiesAreCachedPerPair() {
+		final AtomicInteger selections = new AtomicInteger();
+		final List<Integer> calls = Collections
+				.synchronizedList(new ArrayList<Integer>());
+		ElasticSearchServiceCatalog local = new ElasticSearchServiceCatalog(
+				"hedged");
+		local.setResolvers(new ServiceResolvers(Collections
+				.singleton(new ServiceResolverSpi() {
+					@Override
+					public boolean isResolvable(Service service) {
+						return true;
+					}
+
+					@Override
+					public <T> T resolveService(final Service service,
+							Class<T> type) {
+						return type.cast(new Runnable() {
+							@Override
+							public void run() {
+								calls.add(service.getPort());
+							}
+						});
+					}
+				})));
+		final LoadBalancer roundRobin = new RoundRobinLoadBalancer();
+		local.setLoadBalancer(new LoadBalancer() {
+			@Override
+			public Service select(Class<?> interfaceType,
+					List<Service> candidates) {
+				selections.incrementAndGet();
+				return roundRobin.select(interfaceType, candidates);
+			}
+		});
+		local.setHedgingPolicy(HedgingPolicy.DEFAULT);
+		local.registerServices(Arrays.asList(
+				service(1000, "prod", Runnable.class.getName()),
+				service(1001, "prod", Runnable.class.getName())));
+		Runnable first = local.getService(Runnable.class);
+		Runnable second = local.getService(Runnable.class);
+		assertNotSame(first, second);
+		assertSame(first, local.getService(Runnable.class));
+		assertSame(second, local.getService(Runnable.class));
+		// the secondaries are not selected by the load balancer
+		assertEquals(4, selections.get());
+		first.run();
+		second.run();
+		assertEquals(2, new HashSet<>(calls).size());
+		local.close();
+	}
+
+	@Test
+	public void testUnregistrationDropsEndpointMetrics() {
+		Service service = service(1000, "prod", Runnable.class.getName());
+		catalog.registerService(service);
+		DefaultCatalogMetrics metrics = (DefaultCatalogMetrics) catalog
+				.getMetrics();
+		metrics.recordInvocation(service, 1000L, false);
+		assertNotNull(metrics.getInvocations(service));
+		catalog.unregisterService(service);
+		assertNull(metrics.getInvocations(service));
+	}
+
+	@Test
+	public void testCatalogsWithSameIdKeepTheirMetrics() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = JmxMetricsExporter.getObjectName("test");
+		ObjectName other = new ObjectName(name + ",instance=2");
+		ElasticSearchServiceCatalog second = new ElasticSearchServiceCatalog(
+				"test");
+		assertTrue(server.isRegistered(name));
+		assertTrue(server.isRegistered(other));
+		second.close();
+		assertFalse(server.isRegistered(other));
+		assertTrue(server.isRegistered(name));
+		catalog.close();
+		assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void testJsonRoundTrip() {
+		Map<String, Object> value = new HashMap<>();
+		value.put("text", "a \"quoted\"\n\\ \u00e9");
+		value.put("list", Arrays.asList(1L, -2.5, true, null));
+		assertEquals(value, Json.parse(Json.write(value)));
+	}
+
+}
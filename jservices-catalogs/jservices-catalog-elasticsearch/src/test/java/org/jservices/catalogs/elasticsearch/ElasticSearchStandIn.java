@@ -0,0 +1,306 @@
+package org.jservices.catalogs.elasticsearch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server standing in for Elasticsearch, supporting the subset of
+ * the REST API used by {@link ElasticSearchClient}: index creation,
+ * {@code _bulk} and {@code _search} with bool filters, sorting by
+ * {@code key} and {@code search_after}. Regular expressions containing
+ * {@code \d} are rejected, like Lucene does. All requests are recorded.
+ */
+final class ElasticSearchStandIn implements AutoCloseable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final HttpServer server;
+	/** The documents, by index and id. */
+	private final Map<String, TreeMap<String, Map<String, Object>>> indices = new LinkedHashMap<>();
+	private final List<String> requests = Collections
+			.synchronizedList(new ArrayList<String>());
+	private volatile long searchDelay;
+	/** The ids of the documents whose writes are rejected. */
+	private final Set<String> rejected = Collections
+			.synchronizedSet(new HashSet<String>());
+
+	ElasticSearchStandIn() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String body = read(exchange.getRequestBody());
+				String request = exchange.getRequestMethod() + ' '
+						+ exchange.getRequestURI() + '\n' + body;
+				requests.add(request);
+				if (searchDelay > 0L
+						&& exchange.getRequestURI().getPath().endsWith("/_search")) {
+					try {
+						Thread.sleep(searchDelay);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				String[] response;
+				synchronized (indices) {
+					response = dispatch(exchange.getRequestMethod(), exchange
+							.getRequestURI().getPath(), body);
+				}
+				byte[] bytes = response[1].getBytes(UTF8);
+				exchange.getResponseHeaders().set("Content-Type",
+						"application/json");
+				exchange.sendResponseHeaders(Integer.parseInt(response[0]),
+						bytes.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(bytes);
+				}
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * Delays all search responses by the given time.
+	 */
+	void setSearchDelay(long millis) {
+		this.searchDelay = millis;
+	}
+
+	/**
+	 * Rejects all index and update actions on the document with the given id,
+	 * as Elasticsearch does for documents not matching the mapping.
+	 */
+	void reject(String id) {
+		rejected.add(id);
+	}
+
+	String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Access the requests received, as method, URI and body, and clears
+	 * them.
+	 */
+	List<String> takeRequests() {
+		synchronized (requests) {
+			List<String> result = new ArrayList<>(requests);
+			requests.clear();
+			return result;
+		}
+	}
+
+	Map<String, Object> getDocument(String index, String id) {
+		synchronized (indices) {
+			TreeMap<String, Map<String, Object>> docs = indices.get(index);
+			return docs == null ? null : docs.get(id);
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+	private String[] dispatch(String method, String path, String body) {
+		if ("PUT".equals(method)) {
+			String index = path.substring(1);
+			if (indices.containsKey(index)) {
+				return new String[] { "400",
+						"{\"error\":{\"type\":\"resource_already_exists_exception\"}}" };
+			}
+			indices.put(index, new TreeMap<String, Map<String, Object>>());
+			return new String[] { "200", "{\"acknowledged\":true}" };
+		}
+		if (path.equals("/_bulk")) {
+			return new String[] { "200", bulk(body) };
+		}
+		if (path.endsWith("/_search")) {
+			String index = path.substring(1, path.length() - 8);
+			if (!indices.containsKey(index)) {
+				return new String[] { "404", "{}" };
+			}
+			try {
+				return new String[] { "200", search(indices.get(index), body) };
+			} catch (IllegalArgumentException e) {
+				return new String[] { "400",
+						"{\"error\":{\"type\":\"query_shard_exception\"}}" };
+			}
+		}
+		return new String[] { "404", "{}" };
+	}
+
+	@SuppressWarnings("unchecked")
+	private String bulk(String body) {
+		String[] lines = body.split("\n");
+		List<Object> items = new ArrayList<>();
+		boolean errors = false;
+		for (int i = 0; i < lines.length; i++) {
+			Map<String, Object> action = (Map<String, Object>) Json
+					.parse(lines[i]);
+			String type = action.keySet().iterator().next();
+			Map<String, Object> meta = (Map<String, Object>) action.get(type);
+			TreeMap<String, Map<String, Object>> docs = indices.get(meta
+					.get("_index"));
+			String id = (String) meta.get("_id");
+			Map<String, Object> outcome = new LinkedHashMap<>();
+			outcome.put("_id", id);
+			outcome.put("status", 200);
+			switch (type) {
+			case "index":
+			case "update":
+				Map<String, Object> source = (Map<String, Object>) Json
+						.parse(lines[++i]);
+				if (rejected.contains(id)) {
+					outcome.put("status", 400);
+					outcome.put("error", Collections.singletonMap("type",
+							"mapper_parsing_exception"));
+				} else if (type.equals("index")) {
+					docs.put(id, source);
+				} else if (docs.containsKey(id)) {
+					docs.get(id).putAll(
+							(Map<String, Object>) source.get("doc"));
+				} else {
+					docs.put(id, (Map<String, Object>) source.get("upsert"));
+				}
+				break;
+			default:
+				if (docs.remove(id) == null) {
+					outcome.put("status", 404);
+					outcome.put("result", "not_found");
+				}
+			}
+			// deleting a missing document is not counted as an error
+			errors |= outcome.containsKey("error");
+			items.add(Collections.singletonMap(type, outcome));
+		}
+		Map<String, Object> response = new LinkedHashMap<>();
+		response.put("errors", errors);
+		response.put("items", items);
+		return Json.write(response);
+	}
+
+	@SuppressWarnings("unchecked")
+	private String search(TreeMap<String, Map<String, Object>> docs,
+			String body) {
+		Map<String, Object> request = (Map<String, Object>) Json.parse(body);
+		int size = ((Number) request.get("size")).intValue();
+		List<Object> filters = (List<Object>) ((Map<String, Object>) ((Map<String, Object>) request
+				.get("query")).get("bool")).get("filter");
+		List<?> searchAfter = (List<?>) request.get("search_after");
+		Map<String, Map<String, Object>> candidates = searchAfter == null ? docs
+				: docs.tailMap((String) searchAfter.get(0), false);
+		List<Object> hits = new ArrayList<>();
+		for (Map.Entry<String, Map<String, Object>> en : candidates.entrySet()) {
+			if (hits.size() == size) {
+				break;
+			}
+			if (matches(en.getValue(), filters)) {
+				Map<String, Object> hit = new LinkedHashMap<>();
+				hit.put("_id", en.getKey());
+				hit.put("_source", en.getValue());
+				hit.put("sort", Collections.singletonList(en.getValue().get(
+						"key")));
+				hits.add(hit);
+			}
+		}
+		return Json.write(Collections.singletonMap("hits",
+				Collections.singletonMap("hits", hits)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static boolean matches(Map<String, Object> doc,
+			List<Object> filters) {
+		for (Object filter : filters) {
+			Map<String, Object> clause = (Map<String, Object>) filter;
+			String type = clause.keySet().iterator().next();
+			Map<String, Object> args = (Map<String, Object>) clause.get(type);
+			if ("exists".equals(type)) {
+				if (values(doc, (String) args.get("field")).isEmpty()) {
+					return false;
+				}
+				continue;
+			}
+			Map.Entry<String, Object> arg = args.entrySet().iterator().next();
+			List<Object> values = values(doc, arg.getKey());
+			boolean match = false;
+			for (Object value : values) {
+				switch (type) {
+				case "range":
+					match |= ((Number) value).longValue() >= ((Number) ((Map<String, Object>) arg
+							.getValue()).get("gte")).longValue();
+					break;
+				case "terms":
+					match |= ((List<Object>) arg.getValue()).contains(value);
+					break;
+				case "term":
+					match |= arg.getValue().equals(value);
+					break;
+				case "prefix":
+					match |= ((String) value).startsWith((String) arg
+							.getValue());
+					break;
+				case "regexp":
+					String regex = (String) arg.getValue();
+					if (regex.contains("\\d")) {
+						throw new IllegalArgumentException(regex);
+					}
+					match |= Pattern.matches(regex, (String) value);
+					break;
+				default:
+					throw new IllegalArgumentException(type);
+				}
+			}
+			if (!match) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object> values(Map<String, Object> doc, String field) {
+		Object value;
+		if (field.startsWith("context.")) {
+			value = ((Map<String, Object>) doc.get("context")).get(field
+					.substring(8));
+		} else {
+			value = doc.get(field);
+		}
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		if (value instanceof List) {
+			return (List<Object>) value;
+		}
+		return Collections.singletonList(value);
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), UTF8);
+	}
+
+}
@@ -0,0 +1,706 @@
+package org.jservices.catalogs.hazelcast;
+
+import org.jservice.catalog.InstrumentedServiceProxy;
+import org.jservice.catalog.LeaseManager;
+import org.jservice.catalog.LoadBalancer;
+import org.jservice.catalog.RoundRobinLoadBalancer;
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceCatalog;
+import org.jservice.catalog.ServiceCatalogSnapshot;
+import org.jservice.catalog.ServiceChange;
+import org.jservice.catalog.ServiceCodec;
+import org.jservice.catalog.ServiceListener;
+import org.jservice.catalog.ServiceProxyCache;
+import org.jservice.catalog.ServiceQuery;
+import org.jservice.catalog.ServiceResolutionException;
+import org.jservice.catalog.ServiceResolvers;
+import org.jservice.catalog.ServiceStatistics;
+import org.jservice.catalog.ServiceWatch;
+import org.jservice.catalog.ServiceWatchRegistry;
+import org.jservice.metrics.DefaultCatalogMetrics;
+import org.jservice.metrics.JmxMetricsExporter;
+import org.jservice.spi.CatalogMetricsSpi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.ObjectName;
+
+/**
+ * Service catalog backed by a Hazelcast {@link IMap}, shared by all members
+ * of a cluster. Each service is stored under a key derived from its identity,
+ * with the value encoded by {@link ServiceCodec}, so the map holds compact
+ * byte arrays instead of serialized {@link Service} objects. Entries are
+ * written with a time to live of the lease duration and rewritten by the
+ * registering member while the lease is kept alive, so the services of a
+ * crashed member are evicted by the cluster.
+ * <p>
+ * Lookups never access the cluster: every catalog keeps a near-cache of all
+ * services, indexed by interface in a {@link ServiceCatalogSnapshot}. The
+ * near-cache is loaded once on startup and then updated incrementally by an
+ * entry listener, i.e. each added, removed or evicted entry results in a
+ * single snapshot update, and renewals of services already known only renew
+ * their local lease, without decoding the value.
+ */
+public class HazelcastServiceCatalog implements ServiceCatalog, AutoCloseable {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(HazelcastServiceCatalog.class);
+	private final String catalogId;
+
+	private final HazelcastInstance hazelcast;
+	/** True, if the instance has been started by this catalog. */
+	private final boolean ownsInstance;
+	/** The distributed services, by {@link #keyOf(Service)}. */
+	private final IMap<String, byte[]> map;
+	private final String listenerId;
+	/** The services of the near-cache, by {@link #keyOf(Service)}. */
+	private final ConcurrentHashMap<String, Service> entries = new ConcurrentHashMap<>();
+	private final AtomicReference<ServiceCatalogSnapshot> state = new AtomicReference<>(
+			ServiceCatalogSnapshot.EMPTY);
+	private final ServiceProxyCache proxyCache;
+	private final ServiceStatistics statistics = new ServiceStatistics();
+	private volatile LoadBalancer loadBalancer = new RoundRobinLoadBalancer();
+	private final LeaseManager leaseManager;
+	private final ServiceWatchRegistry watches = new ServiceWatchRegistry();
+	private volatile CatalogMetricsSpi metrics;
+	/** Resolves the services not implemented locally. */
+	private volatile ServiceResolvers resolvers = ServiceResolvers.load();
+	/** The name the default metrics are published as, or {@code null}. */
+	private final ObjectName metricsName;
+	/** The implementations of the services registered by this JVM. */
+	private final ConcurrentHashMap<Service, Object> localImplementations = new ConcurrentHashMap<>();
+	private static final String DEFAULT_CATALOG_ID = "default";
+	/** The prefix of the name of the distributed map. */
+	public static final String MAP_PREFIX = "jservices.catalog.";
+	/** The lease duration of a service, in ms. */
+	private static final long LEASE_DURATION = 100000L;
+	/** The renewal interval of the local services, in ms. */
+	private static final long RENEWAL_INTERVAL = 10000L;
+
+	/**
+	 * Creates a catalog, starting a new Hazelcast member with the default
+	 * configuration, which is shut down by {@link #close()}.
+	 */
+	public HazelcastServiceCatalog() {
+		this(Hazelcast.newHazelcastInstance(), DEFAULT_CATALOG_ID, true);
+	}
+
+	/**
+	 * Creates a catalog using the given member or client.
+	 *
+	 * @param hazelcast
+	 *            the Hazelcast instance, not {@code null}.
+	 * @param catalogId
+	 *            the catalog id, also used as name of the distributed map.
+	 */
+	public HazelcastServiceCatalog(HazelcastInstance hazelcast, String catalogId) {
+		this(hazelcast, catalogId, false);
+	}
+
+	private HazelcastServiceCatalog(HazelcastInstance hazelcast,
+			String catalogId, boolean ownsInstance) {
+		this.catalogId = Objects.requireNonNull(catalogId);
+		this.hazelcast = Objects.requireNonNull(hazelcast);
+		this.ownsInstance = ownsInstance;
+		this.proxyCache = new ServiceProxyCache();
+		LOG.info("Initializing Hazelcast service catalog...");
+		DefaultCatalogMetrics defaultMetrics = new DefaultCatalogMetrics();
+		this.metricsName = JmxMetricsExporter.export(catalogId, defaultMetrics);
+		this.metrics = defaultMetrics;
+
+		this.leaseManager = new LeaseManager(new LeaseManager.Listener() {
+			@Override
+			public void leasesExpired(Collection<Service> services) {
+				removeExpired(services);
+			}
+
+			@Override
+			public void renewalsDue(Collection<Service> services) {
+				renewServices(services);
+			}
+		});
+		this.leaseManager.start();
+
+		this.map = hazelcast.getMap(MAP_PREFIX + catalogId);
+		// listen first, so no change is lost while loading
+		this.listenerId = map.addEntryListener(new EntryListener(), true);
+		load();
+	}
+
+	/**
+	 * Loads all services of the distributed map into the near-cache, with a
+	 * single snapshot update.
+	 */
+	private void load() {
+		long start = System.nanoTime();
+		final List<Service> added = new ArrayList<>();
+		for (Map.Entry<String, byte[]> en : map.entrySet()) {
+			Service service = decode(en.getKey(), en.getValue());
+			if (service != null && entries.putIfAbsent(en.getKey(), service) == null) {
+				added.add(service);
+			}
+		}
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withServices(added,
+						Collections.<Service> emptySet());
+			}
+		})) {
+			watches.publish(ServiceChange.Type.ADDED, added);
+		}
+		for (Service service : added) {
+			leaseManager.lease(service, LEASE_DURATION);
+		}
+		metrics.recordSync(System.nanoTime() - start, added.size());
+		LOG.info("Loaded " + added.size() + " services from " + map.getName()
+				+ '.');
+	}
+
+	private Service decode(String key, byte[] value) {
+		if (value == null) {
+			return null;
+		}
+		try {
+			return ServiceCodec.decode(ByteBuffer.wrap(value));
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Ignoring malformed service entry: " + key, e);
+			return null;
+		}
+	}
+
+	private static byte[] encode(Service service) {
+		ByteBuffer buffer = ServiceCodec.encode(service);
+		if (buffer.arrayOffset() == 0 && buffer.position() == 0
+				&& buffer.remaining() == buffer.array().length) {
+			return buffer.array();
+		}
+		return Arrays.copyOfRange(buffer.array(), buffer.arrayOffset()
+				+ buffer.position(), buffer.arrayOffset() + buffer.limit());
+	}
+
+	/**
+	 * Access the key of the given service in the distributed map. The key is
+	 * derived from all properties used by {@link Service#equals(Object)}, in
+	 * a canonical order, so equal services written by different members end
+	 * up in the same entry.
+	 */
+	static String keyOf(Service service) {
+		StringBuilder b = new StringBuilder();
+		b.append(service.getProtocol()).append("://").append(service.getHost())
+				.append(':').append(service.getPort()).append('/')
+				.append(service.getLocation()).append('|')
+				.append(new TreeSet<>(service.getInterfaces()));
+		if (!service.getContext().isEmpty()) {
+			b.append('|').append(new TreeMap<>(service.getContext()));
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Applies an entry added or updated on any member to the near-cache. An
+	 * update of a service already known is a renewal, which only extends its
+	 * local lease.
+	 */
+	private void entryChanged(String key, byte[] value) {
+		Service known = entries.get(key);
+		if (known != null) {
+			leaseManager.lease(known, LEASE_DURATION);
+			return;
+		}
+		Service service = decode(key, value);
+		if (service == null) {
+			return;
+		}
+		Service existing = entries.putIfAbsent(key, service);
+		if (existing != null) {
+			leaseManager.lease(existing, LEASE_DURATION);
+			return;
+		}
+		addLocally(service);
+	}
+
+	/**
+	 * Applies an entry removed or evicted on any member to the near-cache.
+	 */
+	private void entryRemoved(String key) {
+		Service service = entries.remove(key);
+		if (service == null
+				|| state.get().getLocalServices().contains(service)) {
+			return;
+		}
+		removeLocally(service);
+	}
+
+	/**
+	 * Renews the leases of the given local services by rewriting their
+	 * entries. This is called by the {@link LeaseManager} once per tick with
+	 * all renewals due.
+	 */
+	@Override
+	public void renewServices(Collection<Service> services) {
+		LOG.debug("Renewing " + services.size() + " local services...");
+		for (Service service : services) {
+			service.setExpiry(LEASE_DURATION);
+			leaseManager.lease(service, LEASE_DURATION);
+			map.set(keyOf(service), encode(service), LEASE_DURATION,
+					TimeUnit.MILLISECONDS);
+		}
+		watches.publish(ServiceChange.Type.RENEWED, services);
+	}
+
+	/**
+	 * Removes the given services, whose leases have expired, with a single
+	 * snapshot update.
+	 */
+	private void removeExpired(final Collection<Service> services) {
+		LOG.info("Removing " + services.size() + " expired services...");
+		metrics.recordExpirations(services.size());
+		for (Service service : services) {
+			entries.remove(keyOf(service), service);
+		}
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withServices(Collections.<Service> emptySet(),
+						services);
+			}
+		})) {
+			watches.publish(ServiceChange.Type.REMOVED, services);
+		}
+		for (Service service : services) {
+			proxyCache.invalidate(service);
+			statistics.remove(service);
+			metrics.removeEndpoint(service);
+		}
+	}
+
+	@Override
+	public void removeLocally(final Service service) {
+		LOG.info("Disabling removed service: " + service + "...");
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withoutService(service);
+			}
+		})) {
+			watches.publish(ServiceChange.Type.REMOVED,
+					Collections.singleton(service));
+			metrics.recordUnregistrations(1);
+		}
+		leaseManager.cancelLease(service);
+		proxyCache.invalidate(service);
+		statistics.remove(service);
+		metrics.removeEndpoint(service);
+	}
+
+	/**
+	 * Adds a service registered by another member to the near-cache.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 */
+	public void addLocally(final Service service) {
+		LOG.debug("Adding service locally: " + service + "...");
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withService(service);
+			}
+		})) {
+			watches.publish(ServiceChange.Type.ADDED,
+					Collections.singleton(service));
+			metrics.recordRegistrations(1);
+		}
+		leaseManager.lease(service, LEASE_DURATION);
+	}
+
+	@Override
+	public Collection<Service> getServices() {
+		return state.get().getServices();
+	}
+
+	@Override
+	public Collection<Service> getServices(Class interfaceType) {
+		long start = System.nanoTime();
+		Collection<Service> services = state.get().getIndex()
+				.getByInterface(interfaceType.getName());
+		metrics.recordLookup(System.nanoTime() - start);
+		return services;
+	}
+
+	@Override
+	public Collection<Service> getServices(Class interfaceType,
+			String... protocols) {
+		return findServices(new ServiceQuery.Builder()
+				.setInterface(interfaceType).setProtocols(protocols).build());
+	}
+
+	@Override
+	public Collection<Service> getServices(Class interfaceType,
+			String pathExpression, String... protocols) {
+		ServiceQuery.Expression path = ServiceQuery.Expression
+				.compile(pathExpression);
+		List<Service> services = new ArrayList<>();
+		for (Service service : getServices(interfaceType, protocols)) {
+			if (path.matches(service.getLocation())) {
+				services.add(service);
+			}
+		}
+		return services;
+	}
+
+	@Override
+	public Set<String> getProtocols(String type) {
+		return getProtocols(type, null);
+	}
+
+	@Override
+	public Set<String> getProtocols(String type, String name) {
+		ServiceQuery.Expression path = name == null ? null
+				: ServiceQuery.Expression.compile(name);
+		Set<String> protocols = new TreeSet<>();
+		for (Service service : findServices(new ServiceQuery.Builder()
+				.setInterface(type).build())) {
+			if (path == null || path.matches(service.getLocation())) {
+				protocols.add(service.getProtocol());
+			}
+		}
+		return protocols;
+	}
+
+	@Override
+	public Collection<Service> getServices(Map<String, String> context) {
+		return findServices(null, context);
+	}
+
+	@Override
+	public Collection<Service> findServices(Map<String, String> context) {
+		return findServices(null, context);
+	}
+
+	@Override
+	public Collection<Service> findServices(String nameExpression) {
+		return findServices(ServiceQuery.of(nameExpression, null));
+	}
+
+	@Override
+	public Collection<Service> findServices(String type,
+			Map<String, String> context) {
+		ServiceQuery.Builder builder = new ServiceQuery.Builder();
+		if (type != null) {
+			builder.setInterface(type);
+		}
+		if (context != null) {
+			builder.setContext(context);
+		}
+		return findServices(builder.build());
+	}
+
+	@Override
+	public Collection<Service> findServices(ServiceQuery query) {
+		long start = System.nanoTime();
+		Collection<Service> services = state.get().getIndex().find(query);
+		metrics.recordLookup(System.nanoTime() - start);
+		return services;
+	}
+
+	@Override
+	public ServiceWatch watch(Class interfaceType, Map<String, String> context,
+			ServiceListener listener) {
+		return watches.watch(interfaceType, context, listener);
+	}
+
+	/**
+	 * Resolves a service implementing the given interface, preferring an
+	 * implementation registered by this JVM. Otherwise the services are tried
+	 * in the order selected by the load balancer.
+	 *
+	 * @return the proxy, or {@code null}, if no service implements the
+	 *         interface.
+	 * @throws ServiceResolutionException
+	 *             if none of the services could be resolved.
+	 */
+	@Override
+	public <T> T getService(Class<T> interfaceType) {
+		T local = getLocalImplementation(interfaceType);
+		if (local != null) {
+			return local;
+		}
+		List<Service> candidates = new ArrayList<>(getServices(interfaceType));
+		ServiceResolutionException error = null;
+		while (!candidates.isEmpty()) {
+			Service service = loadBalancer.select(interfaceType, candidates);
+			try {
+				return resolveService(service, interfaceType);
+			} catch (ServiceResolutionException e) {
+				LOG.debug("Failed to resolve " + service + ", trying next...", e);
+				candidates.remove(service);
+				error = e;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+		return null;
+	}
+
+	/**
+	 * Access an implementation of the given interface registered by this JVM,
+	 * bypassing load balancing and any remote call.
+	 */
+	private <T> T getLocalImplementation(Class<T> interfaceType) {
+		if (localImplementations.isEmpty()) {
+			return null;
+		}
+		for (Map.Entry<Service, Object> en : localImplementations.entrySet()) {
+			if (interfaceType.isInstance(en.getValue())
+					&& en.getKey().isImplementing(interfaceType.getName())) {
+				return interfaceType.cast(en.getValue());
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public <T> T resolveService(Service service, Class<T> type)
+			throws ServiceResolutionException {
+		Object local = localImplementations.get(service);
+		if (type.isInstance(local)) {
+			return type.cast(local);
+		}
+		long start = System.nanoTime();
+		T proxy = proxyCache.get(service, type);
+		if (proxy != null) {
+			metrics.recordResolution(System.nanoTime() - start, true);
+			return proxy;
+		}
+		long generation = proxyCache.getGeneration(service);
+		try {
+			proxy = InstrumentedServiceProxy.wrap(service, type,
+					resolvers.resolve(service, type), statistics, metrics);
+			proxyCache.put(service, type, proxy, generation);
+			return proxy;
+		} finally {
+			metrics.recordResolution(System.nanoTime() - start, false);
+		}
+	}
+
+	@Override
+	public void registerService(Service service) {
+		registerServices(Collections.singleton(service));
+	}
+
+	@Override
+	public void registerService(Service service, Object implementation) {
+		localImplementations.put(service, Objects.requireNonNull(implementation));
+		registerServices(Collections.singleton(service));
+	}
+
+	@Override
+	public void registerServices(final Collection<Service> services) {
+		LOG.info("Registering " + services.size() + " new local services...");
+		LOG.debug("Registering new local services: " + services);
+		for (Service service : services) {
+			entries.put(keyOf(service), service);
+		}
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withLocalServices(services);
+			}
+		})) {
+			watches.publish(ServiceChange.Type.ADDED, services);
+			metrics.recordRegistrations(services.size());
+		}
+		for (Service service : services) {
+			service.setExpiry(LEASE_DURATION);
+			map.set(keyOf(service), encode(service), LEASE_DURATION,
+					TimeUnit.MILLISECONDS);
+			leaseManager.lease(service, LEASE_DURATION);
+			leaseManager.keepAlive(service, RENEWAL_INTERVAL);
+		}
+	}
+
+	@Override
+	public String getCatalogId() {
+		return catalogId;
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return hazelcast.getLifecycleService().isRunning();
+	}
+
+	@Override
+	public void unregisterService(Service service) {
+		unregisterServices(Collections.singleton(service));
+	}
+
+	@Override
+	public void unregisterServices(Map<String, String> context) {
+		unregisterServices(new ArrayList<>(getServices(context)));
+	}
+
+	@Override
+	public void unregisterServices(Class type) {
+		unregisterServices(new ArrayList<>(getServices(type)));
+	}
+
+	@Override
+	public void unregisterServices(final Collection<Service> services) {
+		LOG.info("Removing " + services.size() + " services...");
+		LOG.debug("Removing services: " + services);
+		for (Service service : services) {
+			entries.remove(keyOf(service), service);
+		}
+		if (ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withoutLocalServices(services);
+			}
+		})) {
+			watches.publish(ServiceChange.Type.REMOVED, services);
+			metrics.recordUnregistrations(services.size());
+		}
+		for (Service service : services) {
+			localImplementations.remove(service);
+			leaseManager.cancel(service);
+			proxyCache.invalidate(service);
+			statistics.remove(service);
+			metrics.removeEndpoint(service);
+			if (isAvailable()) {
+				map.delete(keyOf(service));
+			}
+		}
+	}
+
+	/**
+	 * Access the response time statistics recorded by the proxies returned
+	 * from this catalog.
+	 *
+	 * @return the statistics, never {@code null}.
+	 */
+	public ServiceStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Sets the resolvers used for the services not implemented by this JVM,
+	 * by default all {@link org.jservice.spi.ServiceResolverSpi}
+	 * implementations registered with the {@link java.util.ServiceLoader}.
+	 *
+	 * @param resolvers
+	 *            the resolvers, not {@code null}.
+	 */
+	public void setResolvers(ServiceResolvers resolvers) {
+		this.resolvers = Objects.requireNonNull(resolvers);
+	}
+
+	/**
+	 * Sets the strategy used by {@link #getService(Class)} for selecting
+	 * between several services implementing the same interface.
+	 *
+	 * @param loadBalancer
+	 *            the load balancer, not {@code null}.
+	 */
+	public void setLoadBalancer(LoadBalancer loadBalancer) {
+		this.loadBalancer = Objects.requireNonNull(loadBalancer);
+	}
+
+	/**
+	 * Access the metrics this catalog records into. By default these are
+	 * published via JMX, see {@link JmxMetricsExporter}.
+	 *
+	 * @return the metrics, never {@code null}.
+	 */
+	public CatalogMetricsSpi getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics this catalog records into, replacing the default
+	 * metrics.
+	 *
+	 * @param metrics
+	 *            the metrics, not {@code null}.
+	 */
+	public void setMetrics(CatalogMetricsSpi metrics) {
+		this.metrics = Objects.requireNonNull(metrics);
+	}
+
+	/**
+	 * Access the current state of the near-cache. The snapshot returned is
+	 * immutable and remains consistent, regardless of any concurrent changes.
+	 *
+	 * @return the current snapshot, never {@code null}.
+	 */
+	public ServiceCatalogSnapshot getSnapshot() {
+		return state.get();
+	}
+
+	/**
+	 * Unregisters all local services, stops listening to the distributed map,
+	 * removes the metrics from JMX, stops the lease manager and the watches,
+	 * and shuts down the Hazelcast instance, if started by this catalog.
+	 */
+	@Override
+	public void close() {
+		if (isAvailable()) {
+			unregisterServices(new ArrayList<>(state.get().getLocalServices()));
+			map.removeEntryListener(listenerId);
+		}
+		JmxMetricsExporter.unexport(metricsName);
+		leaseManager.close();
+		watches.close();
+		if (ownsInstance) {
+			hazelcast.shutdown();
+		}
+	}
+
+	/**
+	 * Listener applying the changes of the distributed map to the near-cache.
+	 * Hazelcast delivers the events of a key in order.
+	 */
+	private final class EntryListener implements
+			EntryAddedListener<String, byte[]>,
+			EntryUpdatedListener<String, byte[]>,
+			EntryRemovedListener<String, byte[]>,
+			EntryEvictedListener<String, byte[]> {
+
+		@Override
+		public void entryAdded(EntryEvent<String, byte[]> event) {
+			entryChanged(event.getKey(), event.getValue());
+		}
+
+		@Override
+		public void entryUpdated(EntryEvent<String, byte[]> event) {
+			entryChanged(event.getKey(), event.getValue());
+		}
+
+		@Override
+		public void entryRemoved(EntryEvent<String, byte[]> event) {
+			HazelcastServiceCatalog.this.entryRemoved(event.getKey());
+		}
+
+		@Override
+		public void entryEvicted(EntryEvent<String, byte[]> event) {
+			HazelcastServiceCatalog.this.entryRemoved(event.getKey());
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+package org.jservices.catalogs.hazelcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceResolvers;
+import org.jservice.spi.ServiceResolverSpi;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+
+/**
+ * Tests the {@link HazelcastServiceCatalog} on an embedded cluster of three
+ * members, each with its own catalog.
+ */
+public class HazelcastServiceCatalogTest {
+
+	private static final int MEMBERS = 3;
+	private static final long TIMEOUT = 20000L;
+
+	private final List<HazelcastInstance> members = new ArrayList<>();
+	private final List<HazelcastServiceCatalog> catalogs = new ArrayList<>();
+	private Config config;
+
+	@Before
+	public void setUp() {
+		config = new Config();
+		config.getGroupConfig().setName(UUID.randomUUID().toString());
+		config.setProperty("hazelcast.logging.type", "slf4j");
+		config.setProperty("hazelcast.phone.home.enabled", "false");
+		JoinConfig join = config.getNetworkConfig().getJoin();
+		join.getMulticastConfig().setEnabled(false);
+		join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+		for (int i = 0; i < MEMBERS; i++) {
+			startCatalog();
+		}
+	}
+
+	private HazelcastServiceCatalog startCatalog() {
+		HazelcastInstance member = Hazelcast.newHazelcastInstance(config);
+		members.add(member);
+		HazelcastServiceCatalog catalog = new HazelcastServiceCatalog(member,
+				"test");
+		catalogs.add(catalog);
+		return catalog;
+	}
+
+	@After
+	public void tearDown() {
+		for (HazelcastServiceCatalog catalog : catalogs) {
+			catalog.close();
+		}
+		for (HazelcastInstance member : members) {
+			member.getLifecycleService().terminate();
+		}
+	}
+
+	private static Service service(int port, String... interfaces) {
+		return new Service.Builder().setProtocol("rmi").setHost("localhost")
+				.setPort(port).setLocation("service" + port)
+				.setInterfaces(interfaces).build();
+	}
+
+	private void awaitServices(HazelcastServiceCatalog catalog, Class<?> type,
+			int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (catalog.getServices(type).size() != count
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10L);
+		}
+		assertEquals(count, catalog.getServices(type).size());
+	}
+
+	@Test
+	public void testRegistrationVisibleOnAllMembers() throws Exception {
+		Service service = service(1000, Runnable.class.getName());
+		catalogs.get(0).registerService(service);
+		for (HazelcastServiceCatalog catalog : catalogs) {
+			awaitServices(catalog, Runnable.class, 1);
+			assertTrue(catalog.getServices(Runnable.class).contains(service));
+			assertTrue(catalog.getServices(Comparable.class).isEmpty());
+		}
+		assertTrue(catalogs.get(0).getSnapshot().getLocalServices()
+				.contains(service));
+		assertFalse(catalogs.get(1).getSnapshot().getLocalServices()
+				.contains(service));
+	}
+
+	@Test
+	public void testUnregistrationRemovesOnAllMembers() throws Exception {
+		Service first = service(1000, Runnable.class.getName());
+		Service second = service(1001, Runnable.class.getName(),
+				Comparable.class.getName());
+		catalogs.get(0).registerService(first);
+		catalogs.get(1).registerService(second);
+		for (HazelcastServiceCatalog catalog : catalogs) {
+			awaitServices(catalog, Runnable.class, 2);
+			awaitServices(catalog, Comparable.class, 1);
+		}
+		catalogs.get(1).unregisterService(second);
+		for (HazelcastServiceCatalog catalog : catalogs) {
+			awaitServices(catalog, Runnable.class, 1);
+			awaitServices(catalog, Comparable.class, 0);
+		}
+	}
+
+	@Test
+	public void testNewMemberLoadsExistingServices() throws Exception {
+		catalogs.get(0).registerServices(
+				Arrays.asList(service(1000, Runnable.class.getName()),
+						service(1001, Runnable.class.getName())));
+		HazelcastServiceCatalog late = startCatalog();
+		awaitServices(late, Runnable.class, 2);
+		catalogs.get(2).registerService(service(1002, Runnable.class.getName()));
+		awaitServices(late, Runnable.class, 3);
+	}
+
+	@Test
+	public void testRenewalDoesNotChangeNearCache() throws Exception {
+		Service service = service(1000, Runnable.class.getName());
+		catalogs.get(0).registerService(service);
+		HazelcastServiceCatalog remote = catalogs.get(1);
+		awaitServices(remote, Runnable.class, 1);
+		long version = remote.getSnapshot().getVersion();
+		catalogs.get(0).renewServices(Collections.singleton(service));
+		catalogs.get(0).renewServices(Collections.singleton(service));
+		// renewals of known services never publish a snapshot, so only the
+		// service added changes the version
+		Service other = service(1001, Runnable.class.getName());
+		catalogs.get(0).registerService(other);
+		awaitServices(remote, Runnable.class, 2);
+		assertEquals(version + 1, remote.getSnapshot().getVersion());
+	}
+
+	@Test
+	public void testLocalImplementationIsReturned() throws Exception {
+		Runnable impl = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		catalogs.get(0).registerService(
+				service(1000, Runnable.class.getName()), impl);
+		assertSame(impl, catalogs.get(0).getService(Runnable.class));
+	}
+
+	@Test
+	public void testRemoteServiceIsResolvedByResolvers() throws Exception {
+		final AtomicInteger resolutions = new AtomicInteger();
+		final Runnable remote = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		HazelcastServiceCatalog catalog = catalogs.get(1);
+		catalog.setResolvers(new ServiceResolvers(Collections
+				.singleton(new ServiceResolverSpi() {
+					@Override
+					public boolean isResolvable(Service service) {
+						return "rmi".equals(service.getProtocol());
+					}
+
+					@Override
+					public <T> T resolveService(Service service, Class<T> type) {
+						resolutions.incrementAndGet();
+						return type.cast(remote);
+					}
+				})));
+		assertNull(catalog.getService(Runnable.class));
+		catalogs.get(0).registerService(service(1000, Runnable.class.getName()));
+		awaitServices(catalog, Runnable.class, 1);
+		assertNotNull(catalog.getService(Runnable.class));
+		assertNotNull(catalog.getService(Runnable.class));
+		assertEquals(1, resolutions.get());
+		assertEquals(Collections.singleton("rmi"),
+				catalog.getProtocols(Runnable.class.getName()));
+	}
+
+	@Test
+	public void testKeyIsIndependentOfInterfaceOrder() {
+		assertEquals(
+				HazelcastServiceCatalog.keyOf(service(1000, "a.A", "b.B")),
+				HazelcastServiceCatalog.keyOf(service(1000, "b.B", "a.A")));
+		assertFalse(HazelcastServiceCatalog.keyOf(service(1000, "a.A")).equals(
+				HazelcastServiceCatalog.keyOf(service(1000, "b.B"))));
+	}
+
+}
@@ -0,0 +1,69 @@
+package org.jservices.catalogs.sharded;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceListener;
+import org.jservice.catalog.ServiceQuery;
+import org.jservice.catalog.ServiceWatch;
+
+/**
+ * Transport used by a {@link ShardedServiceCatalog} to reach the other nodes
+ * of the ring. Each call is delivered to the corresponding method of the
+ * target node, e.g. {@link #store(String, Collection)} to
+ * {@link ShardedServiceCatalog#storeShardEntries(Collection)}. Failures are
+ * reported as {@link RuntimeException}.
+ */
+public interface ShardTransport {
+
+	/**
+	 * Stores or renews the given services on the given node.
+	 *
+	 * @param nodeId
+	 *            the target node, not {@code null}.
+	 * @param services
+	 *            the services, not {@code null}.
+	 */
+	public void store(String nodeId, Collection<Service> services);
+
+	/**
+	 * Removes the given services from the given node.
+	 *
+	 * @param nodeId
+	 *            the target node, not {@code null}.
+	 * @param services
+	 *            the services, not {@code null}.
+	 */
+	public void remove(String nodeId, Collection<Service> services);
+
+	/**
+	 * Evaluates a query on the shards of the given node.
+	 *
+	 * @param nodeId
+	 *            the target node, not {@code null}.
+	 * @param query
+	 *            the query, not {@code null}.
+	 * @return the services found, never {@code null}.
+	 */
+	public List<Service> find(String nodeId, ServiceQuery query);
+
+	/**
+	 * Registers a watch with the given node.
+	 *
+	 * @param nodeId
+	 *            the target node, not {@code null}.
+	 * @param interfaceType
+	 *            the interface type watched, or {@code null} for all
+	 *            services.
+	 * @param context
+	 *            the context expressions to be matched, or {@code null}.
+	 * @param listener
+	 *            the listener, not {@code null}.
+	 * @return the watch registered, never {@code null}.
+	 */
+	public ServiceWatch watch(String nodeId, Class<?> interfaceType,
+			Map<String, String> context, ServiceListener listener);
+
+}
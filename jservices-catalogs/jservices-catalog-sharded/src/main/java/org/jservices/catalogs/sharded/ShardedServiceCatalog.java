@@ -0,0 +1,858 @@
+package org.jservices.catalogs.sharded;
+
+import org.jservice.catalog.ConsistentHashRing;
+import org.jservice.catalog.InstrumentedServiceProxy;
+import org.jservice.catalog.LeaseManager;
+import org.jservice.catalog.LoadBalancer;
+import org.jservice.catalog.RoundRobinLoadBalancer;
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceCatalog;
+import org.jservice.catalog.ServiceCatalogSnapshot;
+import org.jservice.catalog.ServiceChange;
+import org.jservice.catalog.ServiceListener;
+import org.jservice.catalog.ServiceProxyCache;
+import org.jservice.catalog.ServiceQuery;
+import org.jservice.catalog.ServiceResolutionException;
+import org.jservice.catalog.ServiceResolvers;
+import org.jservice.catalog.ServiceStatistics;
+import org.jservice.catalog.ServiceWatch;
+import org.jservice.catalog.ServiceWatchRegistry;
+import org.jservice.metrics.DefaultCatalogMetrics;
+import org.jservice.metrics.JmxMetricsExporter;
+import org.jservice.spi.CatalogMetricsSpi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Node of a sharded service catalog. Instead of replicating all services to
+ * every node, registrations are partitioned by interface name: each interface
+ * is owned by one node of a {@link ConsistentHashRing}, and a service is stored
+ * only by the owners of its interfaces. A node therefore keeps its own shards
+ * and the ring as routing table, so memory and sync cost per node grow with
+ * {@code 1/n} of the fleet.
+ * <p>
+ * Registrations and lookups of an interface are routed to its owner, all
+ * other lookups, e.g. by context, are sent to every node in parallel and
+ * merged. Nodes are reached by a {@link ShardTransport}. Services are leased by their owners and
+ * kept alive by the registering node, which routes each renewal anew, so
+ * registrations missed by an owner during a ring change are repaired within
+ * one renewal interval.
+ * <p>
+ * Membership is managed externally: when a node joins or leaves, the new ring
+ * must be passed to every node by {@link #setRing(ConsistentHashRing)}, which
+ * hands off the entries this node no longer owns. Lookups routed to a new
+ * owner before the hand-off has completed may miss services. Watches are
+ * registered with the owners at the time of the call and are not moved.
+ */
+public class ShardedServiceCatalog implements ServiceCatalog, AutoCloseable {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ShardedServiceCatalog.class);
+	private final String catalogId;
+	private final String nodeId;
+	private final ShardTransport transport;
+	private volatile ConsistentHashRing ring;
+	/** The services of the shards owned by this node. */
+	private final AtomicReference<ServiceCatalogSnapshot> state = new AtomicReference<>(
+			ServiceCatalogSnapshot.EMPTY);
+	/** The services registered by this node, kept alive. */
+	private final Set<Service> localServices = Collections
+			.newSetFromMap(new ConcurrentHashMap<Service, Boolean>());
+	/** The implementations of the services registered by this JVM. */
+	private final ConcurrentHashMap<Service, Object> localImplementations = new ConcurrentHashMap<>();
+	private final ServiceProxyCache proxyCache = new ServiceProxyCache();
+	private final ServiceStatistics statistics = new ServiceStatistics();
+	private volatile LoadBalancer loadBalancer = new RoundRobinLoadBalancer();
+	private volatile CatalogMetricsSpi metrics;
+	/** The name the default metrics are published as, or {@code null}. */
+	private final ObjectName metricsName;
+	/** Queries the other nodes in parallel. */
+	private final ExecutorService executor;
+	/** Resolves the services not implemented locally. */
+	private volatile ServiceResolvers resolvers = ServiceResolvers.load();
+	private final LeaseManager leaseManager;
+	private final ServiceWatchRegistry watches = new ServiceWatchRegistry();
+	private volatile boolean closed;
+	/** The lease duration of a service, in ms. */
+	private static final long LEASE_DURATION = 100000L;
+	/** The renewal interval of the local services, in ms. */
+	private static final long RENEWAL_INTERVAL = 10000L;
+
+	/**
+	 * Creates a node.
+	 *
+	 * @param catalogId
+	 *            the catalog id, not {@code null}.
+	 * @param nodeId
+	 *            the id of this node on the ring, not {@code null}.
+	 * @param ring
+	 *            the current ring, not {@code null}.
+	 * @param transport
+	 *            the transport to the other nodes, not {@code null}.
+	 */
+	public ShardedServiceCatalog(String catalogId, String nodeId,
+			ConsistentHashRing ring, ShardTransport transport) {
+		this.catalogId = Objects.requireNonNull(catalogId);
+		this.nodeId = Objects.requireNonNull(nodeId);
+		this.ring = Objects.requireNonNull(ring);
+		this.transport = Objects.requireNonNull(transport);
+		LOG.info("Initializing sharded service catalog node " + nodeId + "...");
+		DefaultCatalogMetrics defaultMetrics = new DefaultCatalogMetrics();
+		this.metricsName = JmxMetricsExporter.export(catalogId, defaultMetrics);
+		this.metrics = defaultMetrics;
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ShardedServiceCatalog-"
+						+ ShardedServiceCatalog.this.nodeId);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.leaseManager = new LeaseManager(new LeaseManager.Listener() {
+			@Override
+			public void leasesExpired(Collection<Service> services) {
+				LOG.info("Removing " + services.size() + " expired services...");
+				metrics.recordExpirations(services.size());
+				removeEntries(services);
+			}
+
+			@Override
+			public void renewalsDue(Collection<Service> services) {
+				renewServices(services);
+			}
+		});
+		this.leaseManager.start();
+	}
+
+	/**
+	 * Access the id of this node.
+	 *
+	 * @return the node id, never {@code null}.
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Access the ring used for routing.
+	 *
+	 * @return the current ring, never {@code null}.
+	 */
+	public ConsistentHashRing getRing() {
+		return ring;
+	}
+
+	/**
+	 * Sets a new ring, e.g. after a node joined or left, and hands off the
+	 * entries of all interfaces this node owned, but no longer owns, to their
+	 * new owners. Entries whose hand-off failed are kept, until their leases
+	 * expire.
+	 *
+	 * @param newRing
+	 *            the new ring, not {@code null}.
+	 * @return the number of entries handed off.
+	 */
+	public synchronized int setRing(ConsistentHashRing newRing) {
+		ConsistentHashRing oldRing = this.ring;
+		if (oldRing.equals(Objects.requireNonNull(newRing))) {
+			return 0;
+		}
+		this.ring = newRing;
+		Set<Service> stored = state.get().getServices();
+		Map<String, Set<Service>> handoff = new LinkedHashMap<>();
+		Set<Service> dropped = new HashSet<>();
+		for (Service service : stored) {
+			for (String key : keysOf(service)) {
+				String target = newRing.getNode(key);
+				if (nodeId.equals(oldRing.getNode(key)) && target != null
+						&& !nodeId.equals(target)) {
+					Set<Service> entries = handoff.get(target);
+					if (entries == null) {
+						entries = new LinkedHashSet<>();
+						handoff.put(target, entries);
+					}
+					entries.add(service);
+				}
+			}
+			if (!ownersOf(service, newRing).contains(nodeId)) {
+				dropped.add(service);
+			}
+		}
+		int moved = 0;
+		for (Map.Entry<String, Set<Service>> en : handoff.entrySet()) {
+			try {
+				transport.store(en.getKey(), en.getValue());
+				moved += en.getValue().size();
+			} catch (RuntimeException e) {
+				LOG.warn("Failed to hand off " + en.getValue().size()
+						+ " services to " + en.getKey() + ".", e);
+				dropped.removeAll(en.getValue());
+			}
+		}
+		final Collection<Service> removed = dropped;
+		ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+			@Override
+			public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+				return snapshot.withServices(Collections.<Service> emptySet(),
+						removed);
+			}
+		});
+		for (Service service : removed) {
+			leaseManager.cancelLease(service);
+		}
+		LOG.info("Node " + nodeId + " switched to ring " + newRing.getNodes()
+				+ ", handed off " + moved + " entries, dropped "
+				+ removed.size() + " of " + stored.size() + " services.");
+		return moved;
+	}
+
+	/**
+	 * Access the services stored by this node, i.e. its shards.
+	 *
+	 * @return the current snapshot, never {@code null}.
+	 */
+	public ServiceCatalogSnapshot getShards() {
+		return state.get();
+	}
+
+	/**
+	 * Stores or renews services routed to this node. This is the receiving
+	 * end of {@link ShardTransport#store(String, Collection)}.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 */
+	public void storeShardEntries(final Collection<Service> services) {
+		ServiceCatalogSnapshot current = state.get();
+		List<Service> added = new ArrayList<>();
+		List<Service> renewed = new ArrayList<>();
+		for (Service service : services) {
+			leaseManager.lease(service, LEASE_DURATION);
+			if (current.getIndex().contains(service)) {
+				renewed.add(service);
+			} else {
+				added.add(service);
+			}
+		}
+		if (!added.isEmpty()) {
+			ServiceCatalogSnapshot.update(state, new ServiceCatalogSnapshot.Update() {
+				@Override
+				public ServiceCatalogSnapshot apply(ServiceCatalogSnapshot snapshot) {
+					return snapshot.withServices(services,
+							Collections.<Service> emptySet());
+				}
+			});
+			watches.publish(ServiceChange.Type.ADDED, added);
+			metrics.recordRegistrations(added.size());
+		}
+		if (!renewed.isEmpty()) {
+			watches.publish(ServiceChange.Type.RENEWED, renewed);
+		}
+	}
+
+	/**
+	 * Removes services routed to this node. This is the receiving end of
+	 * {@link ShardTransport#remove(String, Collection)}.
+	 *
+	 * @param services
+	 *            the services, not {@code null}.
+	 */
+	public void removeShardEntries(Collection<Service> services) {
+		if (removeEntries(services)) {
+			metrics.recordUnregistrations(services.size());
+		}
+	}
+
+	/**
+	 * Removes services from the shards of this node.
+	 *
+	 * @return true, if any of the services was stored.
+	 */
+	private boolean removeEntries(final Collection<Service> services) {
+		boolean changed = ServiceCatalogSnapshot.update(state,
+				new ServiceCatalogSnapshot.Update() {
+					@Override
+					public ServiceCatalogSnapshot apply(
+							ServiceCatalogSnapshot snapshot) {
+						return snapshot.withServices(
+								Collections.<Service> emptySet(), services);
+					}
+				});
+		if (changed) {
+			watches.publish(ServiceChange.Type.REMOVED, services);
+		}
+		for (Service service : services) {
+			leaseManager.cancelLease(service);
+			proxyCache.invalidate(service);
+			statistics.remove(service);
+			metrics.removeEndpoint(service);
+		}
+		return changed;
+	}
+
+	/**
+	 * Evaluates a query on the shards of this node. This is the receiving end
+	 * of {@link ShardTransport#find(String, ServiceQuery)}.
+	 *
+	 * @param query
+	 *            the query, not {@code null}.
+	 * @return the services found, never {@code null}.
+	 */
+	public List<Service> findShardEntries(ServiceQuery query) {
+		return state.get().getIndex().find(query);
+	}
+
+	/**
+	 * Registers a watch on the shards of this node. This is the receiving end
+	 * of {@link ShardTransport#watch(String, Class, Map, ServiceListener)}.
+	 *
+	 * @return the watch registered, never {@code null}.
+	 */
+	public ServiceWatch watchShards(Class<?> interfaceType,
+			Map<String, String> context, ServiceListener listener) {
+		return watches.watch(interfaceType, context, listener);
+	}
+
+	@Override
+	public void renewServices(Collection<Service> services) {
+		LOG.debug("Renewing " + services.size() + " local services...");
+		for (Service service : services) {
+			service.setExpiry(LEASE_DURATION);
+		}
+		for (Map.Entry<String, List<Service>> en : route(services).entrySet()) {
+			store(en.getKey(), en.getValue());
+		}
+	}
+
+	@Override
+	public void removeLocally(Service service) {
+		LOG.info("Disabling removed service: " + service + "...");
+		removeShardEntries(Collections.singleton(service));
+	}
+
+	@Override
+	public Collection<Service> getServices() {
+		return findServices(ServiceQuery.ALL);
+	}
+
+	@Override
+	public Collection<Service> getServices(Class interfaceType) {
+		long start = System.nanoTime();
+		try {
+			return find(ring.getNode(interfaceType.getName()),
+					new ServiceQuery.Builder().setInterface(
+							interfaceType.getName()).build());
+		} finally {
+			metrics.recordLookup(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public Collection<Service> getServices(Class interfaceType,
+			String... protocols) {
+		return findServices(new ServiceQuery.Builder()
+				.setInterface(interfaceType).setProtocols(protocols).build());
+	}
+
+	@Override
+	public Collection<Service> getServices(Class interfaceType,
+			String pathExpression, String... protocols) {
+		ServiceQuery.Expression path = ServiceQuery.Expression
+				.compile(pathExpression);
+		List<Service> services = new ArrayList<>();
+		for (Service service : getServices(interfaceType, protocols)) {
+			if (path.matches(service.getLocation())) {
+				services.add(service);
+			}
+		}
+		return services;
+	}
+
+	@Override
+	public Set<String> getProtocols(String type) {
+		return getProtocols(type, null);
+	}
+
+	@Override
+	public Set<String> getProtocols(String type, String name) {
+		ServiceQuery.Expression path = name == null ? null
+				: ServiceQuery.Expression.compile(name);
+		Set<String> protocols = new TreeSet<>();
+		for (Service service : findServices(new ServiceQuery.Builder()
+				.setInterface(type).build())) {
+			if (path == null || path.matches(service.getLocation())) {
+				protocols.add(service.getProtocol());
+			}
+		}
+		return protocols;
+	}
+
+	@Override
+	public Collection<Service> getServices(Map<String, String> context) {
+		return findServices(null, context);
+	}
+
+	@Override
+	public Collection<Service> findServices(Map<String, String> context) {
+		return findServices(null, context);
+	}
+
+	@Override
+	public Collection<Service> findServices(String nameExpression) {
+		return findServices(ServiceQuery.of(nameExpression, null));
+	}
+
+	@Override
+	public Collection<Service> findServices(String type,
+			Map<String, String> context) {
+		ServiceQuery.Builder builder = new ServiceQuery.Builder();
+		if (type != null) {
+			builder.setInterface(type);
+		}
+		if (context != null) {
+			builder.setContext(context);
+		}
+		return findServices(builder.build());
+	}
+
+	/**
+	 * Evaluates the query on the owner of the interface, if the query names a
+	 * single interface, or on all nodes otherwise.
+	 */
+	@Override
+	public Collection<Service> findServices(ServiceQuery query) {
+		long start = System.nanoTime();
+		try {
+			ServiceQuery.Expression expression = query.getInterfaceExpression();
+			if (expression != null
+					&& expression.getKind() == ServiceQuery.Expression.Kind.EXACT) {
+				return find(ring.getNode(expression.getLiteral()), query);
+			}
+			return findAll(query);
+		} finally {
+			metrics.recordLookup(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Sends the query to all other nodes in parallel, evaluates it on the
+	 * shards of this node meanwhile, and merges the results in ring order.
+	 */
+	private Collection<Service> findAll(final ServiceQuery query) {
+		List<String> nodes = new ArrayList<>(ring.getNodes());
+		List<FutureTask<List<Service>>> tasks = new ArrayList<>(nodes.size());
+		for (final String node : nodes) {
+			if (nodeId.equals(node)) {
+				tasks.add(null);
+				continue;
+			}
+			FutureTask<List<Service>> task = new FutureTask<>(
+					new Callable<List<Service>>() {
+						@Override
+						public List<Service> call() {
+							return find(node, query);
+						}
+					});
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				// closed, query on the calling thread
+				task.run();
+			}
+			tasks.add(task);
+		}
+		Set<Service> result = new LinkedHashSet<>();
+		for (int i = 0; i < nodes.size(); i++) {
+			FutureTask<List<Service>> task = tasks.get(i);
+			if (task == null) {
+				result.addAll(findShardEntries(query));
+				continue;
+			}
+			try {
+				result.addAll(task.get());
+			} catch (ExecutionException e) {
+				LOG.warn("Failed to query " + nodes.get(i)
+						+ ", skipping its shards.", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (FutureTask<List<Service>> pending : tasks) {
+					if (pending != null) {
+						pending.cancel(true);
+					}
+				}
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Registers the watch with the owner of the interface, or with all nodes,
+	 * if no interface is given.
+	 */
+	@Override
+	public ServiceWatch watch(Class interfaceType, Map<String, String> context,
+			ServiceListener listener) {
+		Objects.requireNonNull(listener);
+		Collection<String> nodes = interfaceType == null ? ring.getNodes()
+				: Collections.singleton(ring.getNode(interfaceType.getName()));
+		final List<ServiceWatch> registered = new ArrayList<>();
+		for (String node : nodes) {
+			if (node == null) {
+				continue;
+			}
+			if (nodeId.equals(node)) {
+				registered.add(watchShards(interfaceType, context, listener));
+			} else {
+				registered.add(transport.watch(node, interfaceType, context,
+						listener));
+			}
+		}
+		ServiceQuery.Builder builder = new ServiceQuery.Builder();
+		if (interfaceType != null) {
+			builder.setInterface(interfaceType.getName());
+		}
+		if (context != null) {
+			builder.setContext(context);
+		}
+		final ServiceQuery query = builder.build();
+		return new ServiceWatch() {
+			@Override
+			public ServiceQuery getQuery() {
+				return query;
+			}
+
+			@Override
+			public void close() {
+				for (ServiceWatch watch : registered) {
+					watch.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Resolves a service implementing the given interface, preferring an
+	 * implementation registered by this JVM. Otherwise the services are tried
+	 * in the order selected by the load balancer.
+	 *
+	 * @return the proxy, or {@code null}, if no service implements the
+	 *         interface.
+	 * @throws ServiceResolutionException
+	 *             if none of the services could be resolved.
+	 */
+	@Override
+	public <T> T getService(Class<T> interfaceType) {
+		T local = getLocalImplementation(interfaceType);
+		if (local != null) {
+			return local;
+		}
+		List<Service> candidates = new ArrayList<>(getServices(interfaceType));
+		ServiceResolutionException error = null;
+		while (!candidates.isEmpty()) {
+			Service service = loadBalancer.select(interfaceType, candidates);
+			try {
+				return resolveService(service, interfaceType);
+			} catch (ServiceResolutionException e) {
+				LOG.debug("Failed to resolve " + service + ", trying next...", e);
+				candidates.remove(service);
+				error = e;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+		return null;
+	}
+
+	/**
+	 * Access an implementation of the given interface registered by this JVM,
+	 * bypassing load balancing and any remote call.
+	 */
+	private <T> T getLocalImplementation(Class<T> interfaceType) {
+		if (localImplementations.isEmpty()) {
+			return null;
+		}
+		for (Map.Entry<Service, Object> en : localImplementations.entrySet()) {
+			if (interfaceType.isInstance(en.getValue())
+					&& en.getKey().isImplementing(interfaceType.getName())) {
+				return interfaceType.cast(en.getValue());
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public <T> T resolveService(Service service, Class<T> type)
+			throws ServiceResolutionException {
+		Object local = localImplementations.get(service);
+		if (type.isInstance(local)) {
+			return type.cast(local);
+		}
+		long start = System.nanoTime();
+		T proxy = proxyCache.get(service, type);
+		if (proxy != null) {
+			metrics.recordResolution(System.nanoTime() - start, true);
+			return proxy;
+		}
+		long generation = proxyCache.getGeneration(service);
+		try {
+			proxy = InstrumentedServiceProxy.wrap(service, type,
+					resolvers.resolve(service, type), statistics, metrics);
+			proxyCache.put(service, type, proxy, generation);
+			return proxy;
+		} finally {
+			metrics.recordResolution(System.nanoTime() - start, false);
+		}
+	}
+
+	@Override
+	public void registerService(Service service) {
+		registerServices(Collections.singleton(service));
+	}
+
+	@Override
+	public void registerService(Service service, Object implementation) {
+		localImplementations.put(service, Objects.requireNonNull(implementation));
+		registerServices(Collections.singleton(service));
+	}
+
+	@Override
+	public void registerServices(Collection<Service> services) {
+		LOG.info("Registering " + services.size() + " new local services...");
+		LOG.debug("Registering new local services: " + services);
+		for (Service service : services) {
+			service.setExpiry(LEASE_DURATION);
+			localServices.add(service);
+			leaseManager.keepAlive(service, RENEWAL_INTERVAL);
+		}
+		for (Map.Entry<String, List<Service>> en : route(services).entrySet()) {
+			store(en.getKey(), en.getValue());
+		}
+	}
+
+	@Override
+	public String getCatalogId() {
+		return catalogId;
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return !closed;
+	}
+
+	@Override
+	public void unregisterService(Service service) {
+		unregisterServices(Collections.singleton(service));
+	}
+
+	@Override
+	public void unregisterServices(Map<String, String> context) {
+		unregisterServices(new ArrayList<>(getServices(context)));
+	}
+
+	@Override
+	public void unregisterServices(Class type) {
+		unregisterServices(new ArrayList<>(getServices(type)));
+	}
+
+	@Override
+	public void unregisterServices(Collection<Service> services) {
+		LOG.info("Removing " + services.size() + " services...");
+		LOG.debug("Removing services: " + services);
+		for (Service service : services) {
+			localServices.remove(service);
+			localImplementations.remove(service);
+			leaseManager.cancel(service);
+			proxyCache.invalidate(service);
+			statistics.remove(service);
+			metrics.removeEndpoint(service);
+		}
+		for (Map.Entry<String, List<Service>> en : route(services).entrySet()) {
+			if (nodeId.equals(en.getKey())) {
+				removeShardEntries(en.getValue());
+				continue;
+			}
+			try {
+				transport.remove(en.getKey(), en.getValue());
+			} catch (RuntimeException e) {
+				LOG.warn("Failed to remove " + en.getValue().size()
+						+ " services from " + en.getKey()
+						+ ", leaving them to expire.", e);
+			}
+		}
+	}
+
+	/**
+	 * Sets the resolvers used for the services not implemented by this JVM,
+	 * by default all {@link org.jservice.spi.ServiceResolverSpi}
+	 * implementations registered with the {@link java.util.ServiceLoader}.
+	 *
+	 * @param resolvers
+	 *            the resolvers, not {@code null}.
+	 */
+	public void setResolvers(ServiceResolvers resolvers) {
+		this.resolvers = Objects.requireNonNull(resolvers);
+	}
+
+	/**
+	 * Sets the strategy used by {@link #getService(Class)} for selecting
+	 * between several services implementing the same interface.
+	 *
+	 * @param loadBalancer
+	 *            the load balancer, not {@code null}.
+	 */
+	public void setLoadBalancer(LoadBalancer loadBalancer) {
+		this.loadBalancer = Objects.requireNonNull(loadBalancer);
+	}
+
+	/**
+	 * Access the response time statistics recorded by the proxies returned
+	 * from this catalog.
+	 *
+	 * @return the statistics, never {@code null}.
+	 */
+	public ServiceStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Access the metrics this catalog records into. By default these are
+	 * published via JMX, see {@link JmxMetricsExporter}.
+	 *
+	 * @return the metrics, never {@code null}.
+	 */
+	public CatalogMetricsSpi getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics this catalog records into, replacing the default
+	 * metrics.
+	 *
+	 * @param metrics
+	 *            the metrics, not {@code null}.
+	 */
+	public void setMetrics(CatalogMetricsSpi metrics) {
+		this.metrics = Objects.requireNonNull(metrics);
+	}
+
+	/**
+	 * Unregisters the services registered by this node, hands off its shards
+	 * to the remaining nodes of the ring, stops leasing and removes the
+	 * metrics from JMX. The other nodes must be passed the ring without this
+	 * node afterwards.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		unregisterServices(new ArrayList<>(localServices));
+		setRing(ring.withoutNode(nodeId));
+		closed = true;
+		leaseManager.close();
+		watches.close();
+		executor.shutdownNow();
+		JmxMetricsExporter.unexport(metricsName);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ShardedServiceCatalog [catalogId=" + catalogId + ", nodeId="
+				+ nodeId + ", ring=" + ring + ", shards="
+				+ state.get().getServices().size() + "]";
+	}
+
+	/**
+	 * Groups the given services by the nodes storing them, i.e. the owners of
+	 * their interfaces.
+	 */
+	private Map<String, List<Service>> route(Collection<Service> services) {
+		ConsistentHashRing current = ring;
+		Map<String, List<Service>> routes = new LinkedHashMap<>();
+		for (Service service : services) {
+			for (String node : ownersOf(service, current)) {
+				List<Service> entries = routes.get(node);
+				if (entries == null) {
+					entries = new ArrayList<>();
+					routes.put(node, entries);
+				}
+				entries.add(service);
+			}
+		}
+		return routes;
+	}
+
+	private void store(String node, List<Service> services) {
+		if (nodeId.equals(node)) {
+			storeShardEntries(services);
+			return;
+		}
+		try {
+			transport.store(node, services);
+		} catch (RuntimeException e) {
+			LOG.warn("Failed to store " + services.size() + " services on "
+					+ node + ", retrying on renewal.", e);
+		}
+	}
+
+	private List<Service> find(String node, ServiceQuery query) {
+		if (node == null) {
+			return Collections.emptyList();
+		}
+		if (nodeId.equals(node)) {
+			return findShardEntries(query);
+		}
+		try {
+			return transport.find(node, query);
+		} catch (RuntimeException e) {
+			LOG.warn("Failed to query " + node + ", skipping its shards.", e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Access the keys a service is partitioned by: its interface names, or the
+	 * empty name, if it declares no interfaces.
+	 */
+	private static Collection<String> keysOf(Service service) {
+		Set<String> interfaces = service.getInterfaces();
+		if (interfaces.isEmpty()) {
+			return Collections.singleton("");
+		}
+		return interfaces;
+	}
+
+	/**
+	 * Access the nodes storing the given service on the given ring.
+	 */
+	static Set<String> ownersOf(Service service, ConsistentHashRing ring) {
+		Set<String> owners = new LinkedHashSet<>();
+		for (String key : keysOf(service)) {
+			String node = ring.getNode(key);
+			if (node != null) {
+				owners.add(node);
+			}
+		}
+		return owners;
+	}
+
+}
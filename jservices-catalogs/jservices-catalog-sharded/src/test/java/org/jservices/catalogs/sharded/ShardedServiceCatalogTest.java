@@ -0,0 +1,367 @@
+package org.jservices.catalogs.sharded;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jservice.catalog.ConsistentHashRing;
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceEvent;
+import org.jservice.catalog.ServiceListener;
+import org.jservice.catalog.ServiceQuery;
+import org.jservice.catalog.ServiceResolvers;
+import org.jservice.catalog.ServiceWatch;
+import org.jservice.metrics.DefaultCatalogMetrics;
+import org.jservice.spi.ServiceResolverSpi;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ShardedServiceCatalog} on several nodes in the same JVM,
+ * connected by an in-process {@link ShardTransport} counting the entries
+ * transferred, so the data moved by joining and leaving nodes can be measured.
+ */
+public class ShardedServiceCatalogTest {
+
+	private static final int NODES = 4;
+	private static final int SERVICES = 2000;
+
+	private final Cluster cluster = new Cluster();
+
+	/**
+	 * In-process transport, delivering calls directly to the target node.
+	 */
+	private static final class Cluster implements ShardTransport {
+		final Map<String, ShardedServiceCatalog> nodes = new LinkedHashMap<>();
+		final AtomicInteger stored = new AtomicInteger();
+		final Map<String, AtomicInteger> storedByNode = new LinkedHashMap<>();
+		ConsistentHashRing ring = ConsistentHashRing.EMPTY;
+		/** The time a query sent to another node takes, in ms. */
+		volatile long findDelayMillis;
+
+		ShardedServiceCatalog start(String nodeId) {
+			ring = ring.withNode(nodeId);
+			ShardedServiceCatalog node = new ShardedServiceCatalog("test",
+					nodeId, ring, this);
+			synchronized (this) {
+				nodes.put(nodeId, node);
+				storedByNode.put(nodeId, new AtomicInteger());
+			}
+			return node;
+		}
+
+		/**
+		 * Passes the current ring to all nodes.
+		 *
+		 * @return the number of entries handed off.
+		 */
+		int rebalance() {
+			int moved = 0;
+			for (ShardedServiceCatalog node : nodes.values()) {
+				moved += node.setRing(ring);
+			}
+			return moved;
+		}
+
+		/**
+		 * Closes the given node, handing off its shards, and passes the ring
+		 * without it to the remaining nodes.
+		 *
+		 * @return the number of entries handed off.
+		 */
+		int stop(String nodeId) {
+			ShardedServiceCatalog node = nodes.remove(nodeId);
+			int before = stored.get();
+			node.close();
+			ring = ring.withoutNode(nodeId);
+			return stored.get() - before + rebalance();
+		}
+
+		/** The number of entries stored by all nodes. */
+		int entries() {
+			int entries = 0;
+			for (ShardedServiceCatalog node : nodes.values()) {
+				entries += node.getShards().getServices().size();
+			}
+			return entries;
+		}
+
+		void resetCounts() {
+			stored.set(0);
+			for (AtomicInteger count : storedByNode.values()) {
+				count.set(0);
+			}
+		}
+
+		synchronized ShardedServiceCatalog node(String nodeId) {
+			ShardedServiceCatalog node = nodes.get(nodeId);
+			if (node == null) {
+				throw new IllegalStateException("Unknown node: " + nodeId);
+			}
+			return node;
+		}
+
+		@Override
+		public void store(String nodeId, Collection<Service> services) {
+			ShardedServiceCatalog node = node(nodeId);
+			stored.addAndGet(services.size());
+			storedByNode.get(nodeId).addAndGet(services.size());
+			node.storeShardEntries(services);
+		}
+
+		@Override
+		public void remove(String nodeId, Collection<Service> services) {
+			node(nodeId).removeShardEntries(services);
+		}
+
+		@Override
+		public List<Service> find(String nodeId, ServiceQuery query) {
+			if (findDelayMillis > 0) {
+				try {
+					Thread.sleep(findDelayMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return node(nodeId).findShardEntries(query);
+		}
+
+		@Override
+		public ServiceWatch watch(String nodeId, Class<?> interfaceType,
+				Map<String, String> context, ServiceListener listener) {
+			return node(nodeId).watchShards(interfaceType, context, listener);
+		}
+	}
+
+	private static Service createService(int i) {
+		return new Service.Builder().setProtocol("rmi").setHost("localhost")
+				.setPort(1099).setLocation("/service" + i)
+				.setInterfaces("org.example.Service" + i).build();
+	}
+
+	private static List<Service> createServices() {
+		List<Service> services = new ArrayList<>();
+		for (int i = 0; i < SERVICES; i++) {
+			services.add(createService(i));
+		}
+		return services;
+	}
+
+	private void assertAllFound(List<Service> services) {
+		for (ShardedServiceCatalog node : cluster.nodes.values()) {
+			assertEquals(new HashSet<>(services), new HashSet<>(
+					node.getServices()));
+		}
+		ShardedServiceCatalog node = cluster.nodes.values().iterator().next();
+		for (Service service : services) {
+			String type = service.getInterfaces().iterator().next();
+			assertEquals(Collections.singletonList(service), new ArrayList<>(
+					node.findServices(type, null)));
+		}
+	}
+
+	@Before
+	public void setUp() {
+		for (int i = 0; i < NODES; i++) {
+			cluster.start("node" + i);
+		}
+		cluster.rebalance();
+	}
+
+	@After
+	public void tearDown() {
+		for (ShardedServiceCatalog node : cluster.nodes.values()) {
+			node.close();
+		}
+	}
+
+	@Test
+	public void testNodesKeepOnlyTheirShards() {
+		List<Service> services = createServices();
+		cluster.node("node0").registerServices(services);
+		assertEquals(SERVICES, cluster.entries());
+		for (ShardedServiceCatalog node : cluster.nodes.values()) {
+			int size = node.getShards().getServices().size();
+			assertTrue(node.getNodeId() + ": " + size, size < SERVICES / NODES
+					* 1.25);
+			assertEquals(NODES * ConsistentHashRing.DEFAULT_VIRTUAL_NODES,
+					node.getRing().size());
+		}
+		assertAllFound(services);
+	}
+
+	@Test
+	public void testServiceIsStoredByOwnerOfEachInterface() {
+		Service service = new Service.Builder().setProtocol("rmi")
+				.setHost("localhost").setPort(1099).setLocation("/multi")
+				.setInterfaces("org.example.A", "org.example.B",
+						"org.example.C", "org.example.D").build();
+		cluster.node("node1").registerService(service);
+		int owners = ShardedServiceCatalog.ownersOf(service, cluster.ring)
+				.size();
+		assertEquals(owners, cluster.entries());
+		assertEquals(Collections.singleton(service), new HashSet<>(cluster
+				.node("node2").getServices()));
+		assertEquals(Collections.singletonList(service), new ArrayList<>(
+				cluster.node("node3").findServices("org.example.C", null)));
+		cluster.node("node1").unregisterService(service);
+		assertEquals(0, cluster.entries());
+	}
+
+	@Test
+	public void testAddingNodeMovesAboutOneNth() {
+		List<Service> services = createServices();
+		cluster.node("node0").registerServices(services);
+		cluster.resetCounts();
+		cluster.start("node" + NODES);
+		int moved = cluster.rebalance();
+		double fraction = (double) moved / SERVICES;
+		double expected = 1.0 / (NODES + 1);
+		assertTrue("moved " + fraction, fraction > expected * 0.75
+				&& fraction < expected * 1.25);
+		// only the new node received entries
+		assertEquals(moved, cluster.storedByNode.get("node" + NODES).get());
+		assertEquals(moved, cluster.stored.get());
+		assertEquals(moved, cluster.node("node" + NODES).getShards()
+				.getServices().size());
+		assertEquals(SERVICES, cluster.entries());
+		assertAllFound(services);
+	}
+
+	@Test
+	public void testRemovingNodeMovesOnlyItsShards() {
+		List<Service> services = createServices();
+		cluster.node("node0").registerServices(services);
+		int held = cluster.node("node2").getShards().getServices().size();
+		cluster.resetCounts();
+		int moved = cluster.stop("node2");
+		assertEquals(held, moved);
+		double fraction = (double) moved / SERVICES;
+		double expected = 1.0 / NODES;
+		assertTrue("moved " + fraction, fraction > expected * 0.75
+				&& fraction < expected * 1.25);
+		assertEquals(SERVICES, cluster.entries());
+		assertAllFound(services);
+	}
+
+	@Test
+	public void testServiceOfOtherNodeIsResolvedByResolvers() {
+		final AtomicInteger resolutions = new AtomicInteger();
+		final AtomicInteger calls = new AtomicInteger();
+		final Runnable remote = new Runnable() {
+			@Override
+			public void run() {
+				calls.incrementAndGet();
+			}
+		};
+		ShardedServiceCatalog node = cluster.node("node1");
+		node.setResolvers(new ServiceResolvers(Collections
+				.singleton(new ServiceResolverSpi() {
+					@Override
+					public boolean isResolvable(Service service) {
+						return "rmi".equals(service.getProtocol());
+					}
+
+					@Override
+					public <T> T resolveService(Service service, Class<T> type) {
+						resolutions.incrementAndGet();
+						return type.cast(remote);
+					}
+				})));
+		assertNull(node.getService(Runnable.class));
+		Service service = new Service.Builder().setProtocol("rmi")
+				.setHost("localhost").setPort(1099).setLocation("/runnable")
+				.setInterfaces(Runnable.class.getName()).build();
+		cluster.node("node0").registerService(service);
+		Runnable proxy = node.getService(Runnable.class);
+		assertNotSame(remote, proxy);
+		assertSame(proxy, node.getService(Runnable.class));
+		assertEquals(1, resolutions.get());
+		proxy.run();
+		assertEquals(1, calls.get());
+		assertEquals(1L, node.getStatistics().get(service).getCalls());
+		DefaultCatalogMetrics metrics = (DefaultCatalogMetrics) node
+				.getMetrics();
+		assertEquals(1L, metrics.getInvocationCount());
+		assertEquals(2L, metrics.getResolutionCount());
+		assertEquals(1L, metrics.getCacheHits());
+		assertEquals(Collections.singleton("rmi"),
+				node.getProtocols(Runnable.class.getName()));
+		assertEquals(Collections.singletonList(service), new ArrayList<>(
+				node.getServices(Runnable.class, "/run.*",
+						new String[] { "rmi" })));
+		assertTrue(node.getServices(Runnable.class, new String[] { "nio" })
+				.isEmpty());
+	}
+
+	@Test
+	public void testMetricsAreRecorded() {
+		ShardedServiceCatalog node = cluster.node("node0");
+		DefaultCatalogMetrics metrics = (DefaultCatalogMetrics) node
+				.getMetrics();
+		Service service = createService(1);
+		node.registerService(service);
+		node.getServices(Runnable.class);
+		node.findServices(service.getInterfaces().iterator().next(), null);
+		node.getServices();
+		assertEquals(3L, metrics.getLookupCount());
+		String owner = cluster.ring.getNode(service.getInterfaces().iterator()
+				.next());
+		DefaultCatalogMetrics ownerMetrics = (DefaultCatalogMetrics) cluster
+				.node(owner).getMetrics();
+		assertEquals(1L, ownerMetrics.getRegistrations());
+		node.unregisterService(service);
+		assertEquals(1L, ownerMetrics.getUnregistrations());
+	}
+
+	@Test
+	public void testNodesAreQueriedInParallel() {
+		List<Service> services = createServices();
+		cluster.node("node0").registerServices(services);
+		cluster.findDelayMillis = 300L;
+		long start = System.nanoTime();
+		assertEquals(new HashSet<>(services), new HashSet<>(cluster.node(
+				"node0").getServices()));
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		// sequential queries of the other three nodes take 900 ms
+		assertTrue("queried in " + millis + " ms", millis < 600L);
+	}
+
+	@Test
+	public void testWatchIsRegisteredWithOwner() throws InterruptedException {
+		final CountDownLatch added = new CountDownLatch(1);
+		Class<?> type = Runnable.class;
+		ServiceWatch watch = cluster.node("node0").watch(type, null,
+				new ServiceListener() {
+					@Override
+					public void servicesChanged(ServiceEvent event) {
+						if (!event.getAdded().isEmpty()) {
+							added.countDown();
+						}
+					}
+				});
+		assertEquals(type.getName(), watch.getQuery().getInterfaceExpression()
+				.getLiteral());
+		Service service = new Service.Builder().setProtocol("rmi")
+				.setHost("localhost").setPort(1099).setLocation("/runnable")
+				.setInterfaces(type.getName()).build();
+		cluster.node("node3").registerService(service);
+		assertTrue(added.await(5, TimeUnit.SECONDS));
+		watch.close();
+	}
+
+}
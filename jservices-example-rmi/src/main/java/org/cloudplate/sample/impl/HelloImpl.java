@@ -1,18 +1,12 @@
 package org.cloudplate.sample.impl;
 
-import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.UUID;
 
 import org.cloudplate.sample.Hello;
 
 // @ProvidedService(types = { Hello.class }, protocol = "openslp", name = "/Hello",
 // type = "service")
-public class HelloImpl extends UnicastRemoteObject implements Hello {
-
-	public HelloImpl() throws RemoteException {
-		super();
-	}
+public class HelloImpl implements Hello {
 
 	private static UUID uuid = UUID.randomUUID();
 
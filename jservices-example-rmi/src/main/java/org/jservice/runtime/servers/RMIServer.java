@@ -1,31 +1,201 @@
 package org.jservice.runtime.servers;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceCatalog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class RMIServer {
+/**
+ * RMI server exporting any number of services over a single port. The port is
+ * bound once, either the port configured or an ephemeral port chosen by the
+ * operating system, and shared by the registry and all exported objects, so
+ * only one listening socket is used per server.
+ * <p>
+ * Services exported by {@link #export(String, Remote, Class...)} are bound in
+ * the registry and, if a catalog is set, registered with the actual port and
+ * their implementation, so callers within the same JVM get the object itself
+ * instead of an RMI stub.
+ */
+public class RMIServer implements AutoCloseable {
+
+	/** The protocol of the services registered. */
+	public static final String PROTOCOL = "rmi";
 
-	private Registry registry;
-	private int port;
 	private static final Logger LOG = LoggerFactory.getLogger(RMIServer.class);
 
-	public RMIServer(int startPort, int range) {
-		for (int i = startPort; i < (startPort + range); i++) {
-			try {
-				registry = LocateRegistry.createRegistry(i);
-				this.port = i;
-				LOG.info("RMI Server succesfully started at port: " + this.port);
-				return;
-			} catch (RemoteException e) {
-				LOG.debug("RMI Server could not be started on port: "
-						+ this.port + ", trying next port...");
+	private final String host;
+	private final int port;
+	private final ServiceCatalog catalog;
+	private final SharedServerSocketFactory socketFactory;
+	private final Registry registry;
+	/** The exported objects and their catalog entries, by name. */
+	private final Map<String, Export> exports = new ConcurrentHashMap<>();
+
+	/**
+	 * Starts a server on an ephemeral port, not registering any services.
+	 */
+	public RMIServer() {
+		this(0, null);
+	}
+
+	/**
+	 * Starts a server on the given port, using the host configured by
+	 * {@code java.rmi.server.hostname}, or {@code 127.0.0.1}.
+	 *
+	 * @param port
+	 *            the port, or {@code 0} for an ephemeral port.
+	 * @param catalog
+	 *            the catalog exports are registered with, or {@code null}.
+	 */
+	public RMIServer(int port, ServiceCatalog catalog) {
+		this(System.getProperty("java.rmi.server.hostname", "127.0.0.1"),
+				port, catalog);
+	}
+
+	/**
+	 * Starts a server on the given port.
+	 *
+	 * @param host
+	 *            the host registered with the catalog, not {@code null}.
+	 * @param port
+	 *            the port, or {@code 0} for an ephemeral port.
+	 * @param catalog
+	 *            the catalog exports are registered with, or {@code null}.
+	 */
+	public RMIServer(String host, int port, ServiceCatalog catalog) {
+		this.host = Objects.requireNonNull(host);
+		this.catalog = catalog;
+		try {
+			this.socketFactory = new SharedServerSocketFactory(port);
+			this.port = socketFactory.getPort();
+			this.registry = LocateRegistry.createRegistry(this.port, null,
+					socketFactory);
+		} catch (IOException e) {
+			throw new IllegalStateException(
+					"Failed to start local RMI server on port: " + port, e);
+		}
+		LOG.info("RMI Server succesfully started at port: " + this.port);
+	}
+
+	/**
+	 * Exports the given object, binds it in the registry and registers it with
+	 * the catalog, if set. An object already exported with the same name is
+	 * replaced.
+	 *
+	 * @param name
+	 *            the name, used as registry name and service location.
+	 * @param impl
+	 *            the object, not yet exported.
+	 * @param interfaces
+	 *            the interfaces registered, by default all remote interfaces
+	 *            of the object.
+	 * @return the service registered.
+	 * @throws RemoteException
+	 *             if the object cannot be exported.
+	 */
+	public Service export(String name, Remote impl, Class<?>... interfaces)
+			throws RemoteException {
+		Objects.requireNonNull(name);
+		Remote stub = UnicastRemoteObject.exportObject(impl, port, null,
+				socketFactory);
+		registry.rebind(name, stub);
+		Service service = new Service.Builder().setProtocol(PROTOCOL)
+				.setHost(host).setPort(port).setLocation(name)
+				.setInterfaces(interfaceNames(impl, interfaces)).build();
+		Export previous = exports.put(name, new Export(impl, service));
+		if (previous != null) {
+			release(previous);
+		}
+		if (catalog != null) {
+			catalog.registerService(service, impl);
+		}
+		LOG.debug("Exported " + service + ".");
+		return service;
+	}
+
+	private static String[] interfaceNames(Remote impl, Class<?>... interfaces) {
+		ArrayList<String> names = new ArrayList<>();
+		if (interfaces.length == 0) {
+			for (Class<?> type = impl.getClass(); type != null; type = type
+					.getSuperclass()) {
+				for (Class<?> iface : type.getInterfaces()) {
+					if (Remote.class.isAssignableFrom(iface)
+							&& iface != Remote.class) {
+						names.add(iface.getName());
+					}
+				}
+			}
+		} else {
+			for (Class<?> iface : interfaces) {
+				names.add(iface.getName());
 			}
 		}
-		throw new IllegalStateException("Failed to start local RMI server.");
+		return names.toArray(new String[names.size()]);
+	}
+
+	/**
+	 * Unbinds and unexports the object with the given name and unregisters it
+	 * from the catalog.
+	 *
+	 * @param name
+	 *            the name.
+	 * @return true, if an object was exported with this name.
+	 */
+	public boolean unexport(String name) {
+		Export export = exports.remove(name);
+		if (export == null) {
+			return false;
+		}
+		try {
+			registry.unbind(name);
+		} catch (NotBoundException | RemoteException e) {
+			LOG.debug("Failed to unbind " + name + ".", e);
+		}
+		release(export);
+		return true;
+	}
+
+	private void release(Export export) {
+		if (catalog != null) {
+			catalog.unregisterService(export.service);
+		}
+		try {
+			UnicastRemoteObject.unexportObject(export.impl, true);
+		} catch (NoSuchObjectException e) {
+			LOG.debug("Already unexported: " + export.service, e);
+		}
+	}
+
+	/**
+	 * Unexports all objects and stops the registry.
+	 */
+	@Override
+	public void close() {
+		for (String name : new ArrayList<>(exports.keySet())) {
+			unexport(name);
+		}
+		try {
+			UnicastRemoteObject.unexportObject(registry, true);
+		} catch (NoSuchObjectException e) {
+			LOG.debug("Registry already unexported.", e);
+		}
+		socketFactory.close();
 	}
 
 	public Registry getRegistry() {
@@ -35,4 +205,68 @@ public class RMIServer {
 	public int getPort() {
 		return port;
 	}
+
+	/**
+	 * An exported object and its catalog entry.
+	 */
+	private static final class Export {
+		final Remote impl;
+		final Service service;
+
+		Export(Remote impl, Service service) {
+			this.impl = impl;
+			this.service = service;
+		}
+	}
+
+	/**
+	 * Server socket factory handing out a socket bound in advance, so the
+	 * actual port is known before exporting. Since RMI shares the listener of
+	 * all objects exported with the same port and factory, the registry and
+	 * all exports use this single socket.
+	 */
+	private static final class SharedServerSocketFactory implements
+			RMIServerSocketFactory {
+		private ServerSocket bound;
+		private final int port;
+
+		SharedServerSocketFactory(int port) throws IOException {
+			ServerSocket socket = new ServerSocket();
+			try {
+				socket.setReuseAddress(true);
+				socket.bind(new InetSocketAddress(port));
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			this.bound = socket;
+			this.port = socket.getLocalPort();
+		}
+
+		int getPort() {
+			return port;
+		}
+
+		@Override
+		public synchronized ServerSocket createServerSocket(int port)
+				throws IOException {
+			if (bound != null && port == this.port) {
+				ServerSocket socket = bound;
+				bound = null;
+				return socket;
+			}
+			return new ServerSocket(port);
+		}
+
+		synchronized void close() {
+			if (bound != null) {
+				try {
+					bound.close();
+				} catch (IOException e) {
+					LOG.debug("Failed to close server socket.", e);
+				}
+				bound = null;
+			}
+		}
+	}
 }
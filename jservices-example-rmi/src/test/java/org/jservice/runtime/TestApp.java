@@ -1,38 +1,35 @@
 package org.jservice.runtime;
 
 import java.rmi.RemoteException;
-import java.util.HashSet;
-import java.util.Set;
 
 import org.cloudplate.sample.Hello;
 import org.cloudplate.sample.impl.HelloImpl;
-import org.jservice.JService;
-import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceCatalog;
+import org.jservice.catalog.ServiceEvent;
+import org.jservice.catalog.ServiceListener;
 import org.jservice.runtime.servers.RMIServer;
+import org.jservices.catalogs.hazelcast.HazelcastServiceCatalog;
 
 public class TestApp {
 
 	public static void main(String[] args) {
-		RMIServer rmiServer = new RMIServer(6000, 1000);
-		JService.getCatalog().registerService(
-				new Service.Builder().setHost("127.0.0.1")
-						.setPort(rmiServer.getPort()).setLocation("hello")
-						.setProtocol("openslp")
-						.setInterfaces(Hello.class.getName())
-						.build());
+		ServiceCatalog catalog = new HazelcastServiceCatalog();
+		RMIServer rmiServer = new RMIServer(0, catalog);
 		try {
-			rmiServer.getRegistry().rebind("hello",
-					new HelloImpl());
+			rmiServer.export("hello", new HelloImpl(), Hello.class);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		Set<String> currentServices = new HashSet<String>();
+		catalog.watch(Hello.class, null, new ServiceListener() {
+			@Override
+			public void servicesChanged(ServiceEvent event) {
+				System.out.println("Services changed: " + event);
+			}
+		});
 		while (true) {
-			Hello hello = JService.getCatalog().getService(Hello.class);
+			Hello hello = catalog.getService(Hello.class);
 			try {
 				System.out.println(hello.getUUID());
-				System.out.println("Current Services: "
-						+ JService.getCatalog().getServices(Hello.class));
 				Thread.sleep(1000L);
 			} catch (RemoteException e) {
 				e.printStackTrace();
@@ -0,0 +1,175 @@
+package org.jservice.runtime.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.cloudplate.sample.Hello;
+import org.cloudplate.sample.impl.HelloImpl;
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceCatalog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RMIServer} exporting two objects, using a catalog
+ * simulated by a dynamic proxy recording the registrations.
+ */
+public class RMIServerTest {
+
+	/** The port within the endpoint of a stub's string representation. */
+	private static final Pattern ENDPOINT_PORT = Pattern
+			.compile("endpoint:\\[[^\\]]*?:(\\d+)");
+
+	/** The services registered, with their implementation. */
+	private final Map<Service, Object> registered = new ConcurrentHashMap<>();
+	private RMIServer server;
+
+	@Before
+	public void setUp() {
+		ServiceCatalog catalog = (ServiceCatalog) Proxy.newProxyInstance(
+				ServiceCatalog.class.getClassLoader(),
+				new Class<?>[] { ServiceCatalog.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						switch (method.getName()) {
+						case "registerService":
+							registered.put((Service) args[0], args[1]);
+							return null;
+						case "unregisterService":
+							registered.remove(args[0]);
+							return null;
+						default:
+							throw new UnsupportedOperationException(
+									method.getName());
+						}
+					}
+				});
+		server = new RMIServer("127.0.0.1", 0, catalog);
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	private static int portOf(Remote stub) {
+		Matcher matcher = ENDPOINT_PORT.matcher(stub.toString());
+		assertTrue(stub.toString(), matcher.find());
+		return Integer.parseInt(matcher.group(1));
+	}
+
+	@Test
+	public void testExportsShareTheRegistryPort() throws Exception {
+		int port = server.getPort();
+		assertTrue(port > 0);
+		HelloImpl first = new HelloImpl();
+		HelloImpl second = new HelloImpl();
+		Service firstService = server.export("first", first, Hello.class);
+		Service secondService = server.export("second", second);
+
+		assertEquals(port, portOf(UnicastRemoteObject.toStub(first)));
+		assertEquals(port, portOf(UnicastRemoteObject.toStub(second)));
+		assertEquals(port, portOf(server.getRegistry()));
+		Registry registry = LocateRegistry.getRegistry("127.0.0.1", port);
+		assertEquals(new HashSet<>(Arrays.asList("first", "second")),
+				new HashSet<>(Arrays.asList(registry.list())));
+		Hello stub = (Hello) registry.lookup("second");
+		assertEquals(port, portOf(stub));
+		assertEquals(second.getUUID(), stub.getUUID());
+
+		assertEquals(2, registered.size());
+		assertSame(first, registered.get(firstService));
+		assertSame(second, registered.get(secondService));
+		for (Service service : registered.keySet()) {
+			assertEquals(RMIServer.PROTOCOL, service.getProtocol());
+			assertEquals("127.0.0.1", service.getHost());
+			assertEquals(port, service.getPort());
+			assertEquals(Collections.singleton(Hello.class.getName()),
+					service.getInterfaces());
+		}
+		assertNotNull(registered.get(new Service.Builder()
+				.setProtocol(RMIServer.PROTOCOL).setHost("127.0.0.1")
+				.setPort(port).setLocation("first")
+				.setInterfaces(Hello.class.getName()).build()));
+	}
+
+	@Test
+	public void testUnexportAndCloseReleaseEverything() throws Exception {
+		int port = server.getPort();
+		HelloImpl first = new HelloImpl();
+		HelloImpl second = new HelloImpl();
+		server.export("first", first);
+		Service secondService = server.export("second", second);
+		Registry registry = LocateRegistry.getRegistry("127.0.0.1", port);
+		Hello firstStub = (Hello) registry.lookup("first");
+
+		assertTrue(server.unexport("first"));
+		assertFalse(server.unexport("first"));
+		assertEquals(Arrays.asList("second"), Arrays.asList(registry.list()));
+		assertEquals(Arrays.asList(secondService),
+				Arrays.asList(registered.keySet().toArray()));
+		try {
+			firstStub.getUUID();
+			fail("NoSuchObjectException expected.");
+		} catch (NoSuchObjectException e) {
+			// expected
+		}
+
+		server.close();
+		assertTrue(registered.isEmpty());
+		try {
+			UnicastRemoteObject.unexportObject(second, true);
+			fail("NoSuchObjectException expected.");
+		} catch (NoSuchObjectException e) {
+			// already unexported by close
+		}
+		// the listening socket is closed, so the port can be bound again
+		try (ServerSocket socket = new ServerSocket()) {
+			socket.setReuseAddress(true);
+			bind(socket, port);
+		}
+	}
+
+	private static void bind(ServerSocket socket, int port)
+			throws IOException, InterruptedException {
+		// RMI closes its listener once the last object is unexported
+		for (int i = 0;; i++) {
+			try {
+				socket.bind(new InetSocketAddress(port));
+				return;
+			} catch (IOException e) {
+				if (i == 50) {
+					throw e;
+				}
+				Thread.sleep(20L);
+			}
+		}
+	}
+
+}
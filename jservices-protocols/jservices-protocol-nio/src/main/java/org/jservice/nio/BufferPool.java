@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers of a fixed size. Direct buffers are expensive to
+ * allocate and are released only by the garbage collector, so connections
+ * borrow their read buffers and frames from the pool and return them when
+ * done. Buffers of other sizes, e.g. allocated for large frames, are not
+ * pooled.
+ *
+ * @author Anatole Tresch
+ */
+public final class BufferPool {
+
+	/** The default buffer size, in bytes. */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	/** The default maximal number of buffers pooled. */
+	public static final int DEFAULT_MAX_POOLED = 256;
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * Creates a new pool, using {@link #DEFAULT_BUFFER_SIZE} and
+	 * {@link #DEFAULT_MAX_POOLED}.
+	 */
+	public BufferPool() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+	}
+
+	/**
+	 * Creates a new pool.
+	 *
+	 * @param bufferSize
+	 *            the size of the buffers, in bytes.
+	 * @param maxPooled
+	 *            the maximal number of idle buffers kept.
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		if (bufferSize < 64) {
+			throw new IllegalArgumentException("bufferSize too small: "
+					+ bufferSize);
+		}
+		if (maxPooled < 0) {
+			throw new IllegalArgumentException(
+					"maxPooled must not be negative.");
+		}
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * Access the size of the buffers pooled.
+	 *
+	 * @return the buffer size, in bytes.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Borrows a cleared buffer, allocating a new one if none is idle.
+	 *
+	 * @return the buffer, never {@code null}.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. The buffer must not be used afterwards.
+	 *
+	 * @param buffer
+	 *            the buffer, buffers not allocated by this pool are ignored.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()
+				|| buffer.capacity() != bufferSize) {
+			return;
+		}
+		if (pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			return;
+		}
+		buffers.add(buffer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "BufferPool [bufferSize=" + bufferSize + ", pooled="
+				+ pooled.get() + "]";
+	}
+
+}
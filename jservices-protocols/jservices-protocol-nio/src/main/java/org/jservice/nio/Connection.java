@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking connection exchanging length-prefixed frames. Frames may be
+ * sent from any thread and are written in order, so any number of requests
+ * can be pipelined. If nothing is queued, a frame is written directly by the
+ * sending thread, saving a hand-off to the loop. Otherwise, or if the socket
+ * buffer is full, it is queued and written by the connection's
+ * {@link EventLoop}. Received frames are passed to the {@link Listener} on the
+ * loop's thread.
+ *
+ * @author Anatole Tresch
+ */
+final class Connection implements EventLoop.Handler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(Connection.class);
+
+	/**
+	 * Listener notified by a {@link Connection}.
+	 */
+	static interface Listener {
+		/**
+		 * Called with each frame received, on the loop's thread. The frame is
+		 * only valid during the call.
+		 */
+		void frameReceived(Connection connection, ByteBuffer frame)
+				throws IOException;
+
+		/**
+		 * Called once, when the connection is closed.
+		 */
+		void closed(Connection connection, IOException cause);
+	}
+
+	private final SocketChannel channel;
+	private final EventLoop loop;
+	private final BufferPool pool;
+	private final Listener listener;
+	private final ConcurrentLinkedQueue<ByteBuffer> writes = new ConcurrentLinkedQueue<>();
+	/** Guards the writes, keeping the frames in order. */
+	private final Object writeLock = new Object();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+	private SelectionKey key;
+	private ByteBuffer readBuffer;
+	/**
+	 * A frame larger than the read buffer, being received. It grows with the
+	 * data received, so a frame header alone does not allocate its length.
+	 */
+	private ByteBuffer largeFrame;
+	/** The length of {@link #largeFrame}, once complete. */
+	private int largeFrameLength;
+	private volatile boolean closed;
+
+	Connection(SocketChannel channel, EventLoop loop, BufferPool pool,
+			Listener listener) throws IOException {
+		this.channel = channel;
+		this.loop = loop;
+		this.pool = pool;
+		this.listener = listener;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+	}
+
+	/**
+	 * Registers the connection with its loop.
+	 */
+	void start() {
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					readBuffer = pool.acquire();
+					key = channel.register(loop.selector(),
+							SelectionKey.OP_READ, Connection.this);
+				} catch (IOException e) {
+					close(e);
+				}
+			}
+		});
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Queues a frame for sending. The buffer is returned to the pool once
+	 * written.
+	 *
+	 * @throws IOException
+	 *             if the connection is closed.
+	 */
+	void send(ByteBuffer frame) throws IOException {
+		if (closed) {
+			pool.release(frame);
+			throw new IOException("Connection closed: " + this);
+		}
+		synchronized (writeLock) {
+			if (writes.isEmpty()) {
+				try {
+					channel.write(frame);
+				} catch (IOException e) {
+					pool.release(frame);
+					close(e);
+					throw e;
+				}
+				if (!frame.hasRemaining()) {
+					pool.release(frame);
+					return;
+				}
+			}
+			writes.add(frame);
+		}
+		if (flushScheduled.compareAndSet(false, true)) {
+			loop.execute(flushTask);
+		}
+	}
+
+	@Override
+	public void ready(SelectionKey key) {
+		try {
+			if (key.isReadable()) {
+				read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				flush();
+			}
+		} catch (IOException e) {
+			close(e);
+		} catch (RuntimeException e) {
+			// e.g. a malformed frame, which must not reach the event loop
+			close(new IOException("Failed to process " + this + '.', e));
+		}
+	}
+
+	private void flush() {
+		flushScheduled.set(false);
+		if (closed || key == null) {
+			return;
+		}
+		try {
+			synchronized (writeLock) {
+				for (ByteBuffer frame; (frame = writes.peek()) != null;) {
+					channel.write(frame);
+					if (frame.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_READ
+								| SelectionKey.OP_WRITE);
+						return;
+					}
+					writes.poll();
+					pool.release(frame);
+				}
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	private void read() throws IOException {
+		if (channel.read(readBuffer) < 0) {
+			close(new EOFException("Connection closed by peer."));
+			return;
+		}
+		readBuffer.flip();
+		while (!closed) {
+			if (largeFrame != null) {
+				if (!readBuffer.hasRemaining()) {
+					break;
+				}
+				if (!largeFrame.hasRemaining()) {
+					largeFrame = grow(largeFrame);
+				}
+				int n = Math.min(largeFrame.remaining(), readBuffer.remaining());
+				ByteBuffer chunk = readBuffer.duplicate();
+				chunk.limit(chunk.position() + n);
+				largeFrame.put(chunk);
+				readBuffer.position(readBuffer.position() + n);
+				if (largeFrame.position() < largeFrameLength) {
+					continue;
+				}
+				largeFrame.flip();
+				ByteBuffer frame = largeFrame;
+				largeFrame = null;
+				listener.frameReceived(this, frame);
+				continue;
+			}
+			if (readBuffer.remaining() < 4) {
+				break;
+			}
+			int start = readBuffer.position();
+			int length = readBuffer.getInt(start);
+			if (length < 0 || length > NioCodec.MAX_FRAME_LENGTH) {
+				throw new IOException("Invalid frame length: " + length);
+			}
+			if (4 + length > readBuffer.capacity()) {
+				largeFrameLength = length;
+				largeFrame = ByteBuffer.allocate(Math.min(length,
+						2 * readBuffer.capacity()));
+				readBuffer.position(start + 4);
+				continue;
+			}
+			if (readBuffer.remaining() < 4 + length) {
+				break;
+			}
+			ByteBuffer frame = readBuffer.duplicate();
+			frame.position(start + 4);
+			frame.limit(start + 4 + length);
+			readBuffer.position(start + 4 + length);
+			listener.frameReceived(this, frame);
+		}
+		readBuffer.compact();
+	}
+
+	/**
+	 * Doubles the capacity of a large frame being received, up to its length.
+	 */
+	private ByteBuffer grow(ByteBuffer frame) {
+		ByteBuffer grown = ByteBuffer.allocate((int) Math.min(
+				largeFrameLength, 2L * frame.capacity()));
+		frame.flip();
+		grown.put(frame);
+		return grown;
+	}
+
+	/**
+	 * Closes the connection, releasing its buffers.
+	 */
+	@Override
+	public void close() {
+		close(null);
+	}
+
+	void close(final IOException cause) {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.debug("Failed to close channel.", e);
+		}
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				pool.release(readBuffer);
+				readBuffer = null;
+				for (ByteBuffer frame; (frame = writes.poll()) != null;) {
+					pool.release(frame);
+				}
+			}
+		});
+		listener.closed(this, cause);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Connection [" + channel.socket().getRemoteSocketAddress()
+				+ "]";
+	}
+
+}
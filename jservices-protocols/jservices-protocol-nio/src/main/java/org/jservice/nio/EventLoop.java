@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single thread multiplexing any number of non-blocking channels with a
+ * {@link Selector}. Channels are registered and modified only by tasks run on
+ * the loop's thread, see {@link #execute(Runnable)}.
+ *
+ * @author Anatole Tresch
+ */
+final class EventLoop implements Runnable, AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EventLoop.class);
+
+	/**
+	 * Handler attached to the keys of the loop's selector.
+	 */
+	static interface Handler {
+		/**
+		 * Called on the loop's thread, if the key is ready.
+		 */
+		void ready(SelectionKey key);
+
+		/**
+		 * Called on the loop's thread, when the loop is closed.
+		 */
+		void close();
+	}
+
+	private final Selector selector;
+	private final Thread thread;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private volatile boolean closed;
+
+	EventLoop(String name) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(this, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	Selector selector() {
+		return selector;
+	}
+
+	/**
+	 * Runs the given task on the loop's thread.
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		if (Thread.currentThread() != thread) {
+			selector.wakeup();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (!closed) {
+			try {
+				for (Runnable task; (task = tasks.poll()) != null;) {
+					task.run();
+				}
+				// tasks added by the loop itself do not wake up the selector
+				if (tasks.isEmpty()) {
+					selector.select();
+				} else {
+					selector.selectNow();
+				}
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (key.isValid()) {
+						((Handler) key.attachment()).ready(key);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				if (closed) {
+					break;
+				}
+				LOG.error("Event loop failed: " + thread.getName(), e);
+			}
+		}
+		try {
+			for (SelectionKey key : selector.keys()) {
+				((Handler) key.attachment()).close();
+			}
+			selector.close();
+		} catch (IOException | ClosedSelectorException e) {
+			LOG.debug("Failed to close selector.", e);
+		}
+	}
+
+	/**
+	 * Stops the loop, closing all channels registered.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.nio;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceFuture;
+import org.jservice.catalog.ServiceResolutionException;
+
+/**
+ * Client of the {@code nio} protocol, see {@link NioServer}. All calls to an
+ * endpoint are pipelined over a small, fixed number of connections, which are
+ * served by a single {@link EventLoop}. Connections are opened lazily and
+ * reopened after a failure.
+ * <p>
+ * Failures of the transport are reported as {@link RemoteException}, if the
+ * method called declares it, otherwise as {@link ServiceResolutionException}.
+ *
+ * @author Anatole Tresch
+ */
+public class NioClient implements AutoCloseable {
+
+	/** The default call timeout, in ms. */
+	public static final long DEFAULT_TIMEOUT = 30000L;
+
+	private final int connectionsPerEndpoint;
+	private final long timeoutMillis;
+	private final EventLoop loop;
+	private final BufferPool pool = new BufferPool();
+	private final AtomicLong ids = new AtomicLong();
+	/** The calls awaiting a response, by request id. */
+	private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+	/** The endpoints, by host:port. */
+	private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+	private volatile boolean closed;
+
+	/**
+	 * Creates a client with one connection per endpoint, using
+	 * {@link #DEFAULT_TIMEOUT}.
+	 *
+	 * @throws IOException
+	 *             if the event loop cannot be started.
+	 */
+	public NioClient() throws IOException {
+		this(1, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Creates a client.
+	 *
+	 * @param connectionsPerEndpoint
+	 *            the number of connections calls to an endpoint are spread
+	 *            over.
+	 * @param timeoutMillis
+	 *            the timeout of the calls of resolved proxies, in ms.
+	 * @throws IOException
+	 *             if the event loop cannot be started.
+	 */
+	public NioClient(int connectionsPerEndpoint, long timeoutMillis)
+			throws IOException {
+		if (connectionsPerEndpoint <= 0) {
+			throw new IllegalArgumentException(
+					"connectionsPerEndpoint must be positive.");
+		}
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("timeoutMillis must be positive.");
+		}
+		this.connectionsPerEndpoint = connectionsPerEndpoint;
+		this.timeoutMillis = timeoutMillis;
+		this.loop = new EventLoop("NioClient-io");
+	}
+
+	/**
+	 * Checks if the given service can be resolved by this client.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return true, if the service uses the {@code nio} protocol.
+	 */
+	public boolean isSupported(Service service) {
+		return NioServer.PROTOCOL.equals(service.getProtocol());
+	}
+
+	/**
+	 * Creates a proxy calling the given service. No connection is opened
+	 * until the first call.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @param type
+	 *            the interface, not {@code null}.
+	 * @return the proxy.
+	 */
+	public <T> T resolve(final Service service, final Class<T> type) {
+		Objects.requireNonNull(service);
+		if (!type.isInterface()) {
+			throw new IllegalArgumentException("Not an interface: "
+					+ type.getName());
+		}
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getDeclaringClass() == Object.class) {
+							return invokeObjectMethod(proxy, service, method,
+									args);
+						}
+						return NioClient.this.invoke(service, type, method,
+								args);
+					}
+				}));
+	}
+
+	private static Object invokeObjectMethod(Object proxy, Service service,
+			Method method, Object[] args) {
+		switch (method.getName()) {
+		case "equals":
+			return proxy == args[0];
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		default:
+			return "NioProxy [" + service.toURI() + "]";
+		}
+	}
+
+	private Object invoke(Service service, Class<?> type, Method method,
+			Object[] args) throws Throwable {
+		ServiceFuture<Object> future = call(service, type, method, args);
+		try {
+			return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RemoteException
+					&& !declares(method, RemoteException.class)) {
+				throw new ServiceResolutionException(service, cause);
+			}
+			throw cause;
+		} catch (TimeoutException e) {
+			future.cancel(false);
+			RemoteException failure = new RemoteException("Call timed out: "
+					+ method.getName() + " on " + service);
+			if (declares(method, RemoteException.class)) {
+				throw failure;
+			}
+			throw new ServiceResolutionException(service, failure);
+		}
+	}
+
+	private static boolean declares(Method method, Class<?> exceptionType) {
+		for (Class<?> declared : method.getExceptionTypes()) {
+			if (declared.isAssignableFrom(exceptionType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Calls the given method asynchronously. Requests are written in calling
+	 * order, so any number of calls can be outstanding on a connection.
+	 *
+	 * @param service
+	 *            the service called, not {@code null}.
+	 * @param type
+	 *            the interface declaring the method.
+	 * @param method
+	 *            the method.
+	 * @param args
+	 *            the arguments, or {@code null}.
+	 * @return the future result, failed with a {@link RemoteException}, if
+	 *         the call could not be transmitted.
+	 */
+	public ServiceFuture<Object> call(Service service, Class<?> type,
+			Method method, Object[] args) {
+		final long id = ids.incrementAndGet();
+		final ServiceFuture<Object> future = new ServiceFuture<>();
+		final String location = service.getLocation() == null ? "" : service
+				.getLocation();
+		final String interfaceName = type.getName();
+		final int methodIndex = NioCodec.methodIndex(type, method);
+		final Object[] values = args == null ? new Object[0] : args;
+		Channel channel = null;
+		try {
+			if (closed) {
+				throw new IOException("Client closed.");
+			}
+			channel = endpoint(service).channel();
+			pending.put(id, new Pending(future, channel, type.getClassLoader()));
+			channel.connection.send(NioCodec.encodeFrame(pool,
+					new NioCodec.FrameWriter() {
+						@Override
+						public void write(ByteBuffer buffer) throws IOException {
+							buffer.putLong(id);
+							NioCodec.writeString(buffer, location);
+							NioCodec.writeString(buffer, interfaceName);
+							NioCodec.writeVarint(buffer, methodIndex);
+							NioCodec.writeVarint(buffer, values.length);
+							for (Object value : values) {
+								NioCodec.writeValue(buffer, value);
+							}
+						}
+					}));
+		} catch (IOException e) {
+			pending.remove(id);
+			future.fail(new RemoteException("Call failed: " + service, e));
+		}
+		// drops the entry, if the caller gives up
+		future.addCallback(new ServiceFuture.Callback<Object>() {
+			@Override
+			public void onSuccess(Object result) {
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				pending.remove(id);
+			}
+		});
+		return future;
+	}
+
+	private Endpoint endpoint(Service service) {
+		String address = service.getHost() + ':' + service.getPort();
+		Endpoint endpoint = endpoints.get(address);
+		if (endpoint == null) {
+			endpoint = new Endpoint(service.getHost(), service.getPort());
+			Endpoint existing = endpoints.putIfAbsent(address, endpoint);
+			if (existing != null) {
+				endpoint = existing;
+			}
+		}
+		return endpoint;
+	}
+
+	/**
+	 * Closes all connections, failing the calls outstanding.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Endpoint endpoint : endpoints.values()) {
+			endpoint.close();
+		}
+		endpoints.clear();
+		loop.close();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "NioClient [endpoints=" + endpoints.keySet() + ", pending="
+				+ pending.size() + "]";
+	}
+
+	/**
+	 * A call awaiting its response.
+	 */
+	private static final class Pending {
+		final ServiceFuture<Object> future;
+		final Channel channel;
+		final ClassLoader classLoader;
+
+		Pending(ServiceFuture<Object> future, Channel channel,
+				ClassLoader classLoader) {
+			this.future = future;
+			this.channel = channel;
+			this.classLoader = classLoader;
+		}
+	}
+
+	/**
+	 * The connections to a host:port.
+	 */
+	private final class Endpoint {
+		private final String host;
+		private final int port;
+		private final Channel[] channels = new Channel[connectionsPerEndpoint];
+		private final AtomicInteger next = new AtomicInteger();
+
+		Endpoint(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+
+		Channel channel() throws IOException {
+			int index = (next.getAndIncrement() & Integer.MAX_VALUE)
+					% channels.length;
+			synchronized (this) {
+				Channel channel = channels[index];
+				if (channel == null || channel.connection.isClosed()) {
+					channel = new Channel(SocketChannel
+							.open(new InetSocketAddress(host, port)));
+					channels[index] = channel;
+				}
+				return channel;
+			}
+		}
+
+		synchronized void close() {
+			for (Channel channel : channels) {
+				if (channel != null) {
+					channel.connection.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A connection, completing the calls sent over it.
+	 */
+	private final class Channel implements Connection.Listener {
+		final Connection connection;
+
+		Channel(SocketChannel socketChannel) throws IOException {
+			this.connection = new Connection(socketChannel, loop, pool, this);
+			connection.start();
+		}
+
+		@Override
+		public void frameReceived(Connection connection, ByteBuffer frame) {
+			long id = frame.getLong();
+			byte status = frame.get();
+			Pending call = pending.remove(id);
+			if (call == null) {
+				return;
+			}
+			Object value;
+			try {
+				value = NioCodec.readValue(frame, call.classLoader);
+			} catch (IOException e) {
+				call.future.fail(new RemoteException("Invalid response.", e));
+				return;
+			}
+			if (status == NioCodec.STATUS_OK) {
+				call.future.complete(value);
+			} else if (value instanceof Throwable) {
+				call.future.fail((Throwable) value);
+			} else {
+				call.future.fail(new RemoteException("Call failed: " + value));
+			}
+		}
+
+		@Override
+		public void closed(Connection connection, IOException cause) {
+			RemoteException failure = new RemoteException(
+					"Connection closed: " + connection, cause);
+			for (Iterator<Map.Entry<Long, Pending>> it = pending.entrySet()
+					.iterator(); it.hasNext();) {
+				Pending call = it.next().getValue();
+				if (call.channel == this) {
+					it.remove();
+					call.future.fail(failure);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary encoding of the frames exchanged by {@link NioServer} and
+ * {@link NioClient}. Every frame is prefixed by its length:
+ *
+ * <pre>
+ * frame    := length:int (request | response)
+ * request  := id:long location:string interface:string method:varint
+ *             count:varint value*
+ * response := id:long status:byte value
+ * value    := tag:byte data
+ * string   := length:varint utf8:byte[length]
+ * </pre>
+ *
+ * Methods are identified by their index within the interface's methods,
+ * sorted by name and parameter types, so both sides must use the same
+ * interface version. Primitives, strings and byte arrays are encoded
+ * directly, all other values fall back to Java serialization.
+ *
+ * @author Anatole Tresch
+ */
+final class NioCodec {
+
+	/** Response status of a successful call. */
+	static final byte STATUS_OK = 0;
+	/** Response status of a call that threw an exception. */
+	static final byte STATUS_FAILED = 1;
+
+	/** The maximal frame length accepted. */
+	static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte NULL = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+	private static final byte BYTE = 3;
+	private static final byte SHORT = 4;
+	private static final byte CHAR = 5;
+	private static final byte INT = 6;
+	private static final byte LONG = 7;
+	private static final byte FLOAT = 8;
+	private static final byte DOUBLE = 9;
+	private static final byte STRING = 10;
+	private static final byte BYTES = 11;
+	private static final byte SERIALIZED = 12;
+
+	private static final ConcurrentHashMap<Class<?>, Method[]> METHODS = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Class<?>, Map<Method, Integer>> INDEXES = new ConcurrentHashMap<>();
+
+	private NioCodec() {
+	}
+
+	/**
+	 * Writes the body of a frame.
+	 */
+	static interface FrameWriter {
+		void write(ByteBuffer buffer) throws IOException;
+	}
+
+	/**
+	 * Encodes a frame into a pooled buffer, or into a larger heap buffer, if
+	 * the frame does not fit.
+	 *
+	 * @return the frame, ready for writing.
+	 */
+	static ByteBuffer encodeFrame(BufferPool pool, FrameWriter writer)
+			throws IOException {
+		ByteBuffer buffer = pool.acquire();
+		while (true) {
+			try {
+				buffer.position(4);
+				writer.write(buffer);
+				buffer.putInt(0, buffer.position() - 4);
+				buffer.flip();
+				return buffer;
+			} catch (BufferOverflowException e) {
+				int size = buffer.capacity() * 2;
+				pool.release(buffer);
+				if (size - 4 > MAX_FRAME_LENGTH) {
+					throw new IOException("Frame too large.");
+				}
+				buffer = ByteBuffer.allocate(size);
+			}
+		}
+	}
+
+	static void writeVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static int readVarint(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint.");
+	}
+
+	static void writeString(ByteBuffer buffer, String s) {
+		byte[] bytes = s.getBytes(UTF8);
+		writeVarint(buffer, bytes.length);
+		buffer.put(bytes);
+	}
+
+	static String readString(ByteBuffer buffer) throws IOException {
+		byte[] bytes = new byte[readLength(buffer)];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static int readLength(ByteBuffer buffer) throws IOException {
+		int length = readVarint(buffer);
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("Invalid length: " + length);
+		}
+		return length;
+	}
+
+	static void writeValue(ByteBuffer buffer, Object value) throws IOException {
+		if (value == null) {
+			buffer.put(NULL);
+		} else if (value instanceof String) {
+			buffer.put(STRING);
+			writeString(buffer, (String) value);
+		} else if (value instanceof Integer) {
+			buffer.put(INT);
+			buffer.putInt((Integer) value);
+		} else if (value instanceof Long) {
+			buffer.put(LONG);
+			buffer.putLong((Long) value);
+		} else if (value instanceof Boolean) {
+			buffer.put((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Double) {
+			buffer.put(DOUBLE);
+			buffer.putDouble((Double) value);
+		} else if (value instanceof Float) {
+			buffer.put(FLOAT);
+			buffer.putFloat((Float) value);
+		} else if (value instanceof Byte) {
+			buffer.put(BYTE);
+			buffer.put((Byte) value);
+		} else if (value instanceof Short) {
+			buffer.put(SHORT);
+			buffer.putShort((Short) value);
+		} else if (value instanceof Character) {
+			buffer.put(CHAR);
+			buffer.putChar((Character) value);
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			buffer.put(BYTES);
+			writeVarint(buffer, bytes.length);
+			buffer.put(bytes);
+		} else {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+				out.writeObject(value);
+			}
+			buffer.put(SERIALIZED);
+			writeVarint(buffer, bos.size());
+			buffer.put(bos.toByteArray());
+		}
+	}
+
+	static Object readValue(ByteBuffer buffer, ClassLoader classLoader)
+			throws IOException {
+		try {
+			byte tag = buffer.get();
+			switch (tag) {
+			case NULL:
+				return null;
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case BYTE:
+				return buffer.get();
+			case SHORT:
+				return buffer.getShort();
+			case CHAR:
+				return buffer.getChar();
+			case INT:
+				return buffer.getInt();
+			case LONG:
+				return buffer.getLong();
+			case FLOAT:
+				return buffer.getFloat();
+			case DOUBLE:
+				return buffer.getDouble();
+			case STRING:
+				return readString(buffer);
+			case BYTES:
+				byte[] bytes = new byte[readLength(buffer)];
+				buffer.get(bytes);
+				return bytes;
+			case SERIALIZED:
+				byte[] data = new byte[readLength(buffer)];
+				buffer.get(data);
+				try (ObjectInputStream in = new LoaderObjectInputStream(
+						new ByteArrayInputStream(data), classLoader)) {
+					return in.readObject();
+				}
+			default:
+				throw new IOException("Unknown value tag: " + tag);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated frame.", e);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Cannot deserialize value.", e);
+		}
+	}
+
+	/**
+	 * Access the methods of the given interface, in protocol order.
+	 */
+	static Method[] methods(Class<?> type) {
+		Method[] methods = METHODS.get(type);
+		if (methods == null) {
+			methods = type.getMethods();
+			Arrays.sort(methods, new Comparator<Method>() {
+				@Override
+				public int compare(Method m1, Method m2) {
+					return signature(m1).compareTo(signature(m2));
+				}
+			});
+			Map<Method, Integer> indexes = new HashMap<>();
+			for (int i = 0; i < methods.length; i++) {
+				indexes.put(methods[i], i);
+			}
+			INDEXES.put(type, indexes);
+			METHODS.put(type, methods);
+		}
+		return methods;
+	}
+
+	/**
+	 * Access the protocol index of the given method within the given
+	 * interface.
+	 */
+	static int methodIndex(Class<?> type, Method method) {
+		Map<Method, Integer> indexes = INDEXES.get(type);
+		if (indexes == null) {
+			methods(type);
+			indexes = INDEXES.get(type);
+		}
+		Integer index = indexes.get(method);
+		if (index == null) {
+			throw new IllegalArgumentException(method + " is not a method of "
+					+ type.getName());
+		}
+		return index;
+	}
+
+	private static String signature(Method method) {
+		StringBuilder b = new StringBuilder(method.getName()).append('(');
+		for (Class<?> param : method.getParameterTypes()) {
+			b.append(param.getName()).append(',');
+		}
+		return b.append(')').toString();
+	}
+
+	/**
+	 * Object input stream resolving classes with a given class loader.
+	 */
+	private static final class LoaderObjectInputStream extends
+			ObjectInputStream {
+		private final ClassLoader classLoader;
+
+		LoaderObjectInputStream(ByteArrayInputStream in,
+				ClassLoader classLoader) throws IOException {
+			super(in);
+			this.classLoader = classLoader;
+		}
+
+		@Override
+		protected Class<?> resolveClass(java.io.ObjectStreamClass desc)
+				throws IOException, ClassNotFoundException {
+			try {
+				return Class.forName(desc.getName(), false, classLoader);
+			} catch (ClassNotFoundException e) {
+				return super.resolveClass(desc);
+			}
+		}
+	}
+
+}
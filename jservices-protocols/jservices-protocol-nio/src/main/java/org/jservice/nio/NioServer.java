@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.nio;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceCatalog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server exporting plain objects over the {@code nio} protocol, see
+ * {@link NioCodec}. A few {@link EventLoop}s multiplex all connections,
+ * requests are decoded on the loops and invoked on a worker pool, so slow
+ * calls do not block other requests pipelined on the same connection.
+ * Responses are sent in completion order and matched by request id. Services
+ * that never block may be invoked directly on the loops instead, saving a
+ * thread hand-off per call.
+ * <p>
+ * Services exported by {@link #export(String, Object, Class...)} are
+ * registered with the catalog, if set, using the actual port bound, together
+ * with their implementation for callers within the same JVM.
+ *
+ * @author Anatole Tresch
+ */
+public class NioServer implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NioServer.class);
+
+	/** The protocol of the services registered. */
+	public static final String PROTOCOL = "nio";
+
+	private final String host;
+	private final ServiceCatalog catalog;
+	private final ServerSocketChannel serverChannel;
+	private final int port;
+	private final EventLoop[] loops;
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	private final BufferPool pool = new BufferPool();
+	/** The executor invoking the calls, {@code null} for the loops. */
+	private final Executor workers;
+	/** The default worker pool, if created by this server. */
+	private final ExecutorService ownedWorkers;
+	/** The exported objects, by name. */
+	private final Map<String, Export> exports = new ConcurrentHashMap<>();
+	private final Map<Connection, Boolean> connections = new ConcurrentHashMap<>();
+	private final Connection.Listener requestHandler = new Connection.Listener() {
+		@Override
+		public void frameReceived(Connection connection, ByteBuffer frame)
+				throws IOException {
+			handleRequest(connection, frame);
+		}
+
+		@Override
+		public void closed(Connection connection, IOException cause) {
+			connections.remove(connection);
+			if (cause != null) {
+				LOG.debug("Connection closed: " + connection, cause);
+			}
+		}
+	};
+
+	/**
+	 * Starts a server on an ephemeral port, not registering any services.
+	 *
+	 * @throws IOException
+	 *             if the port cannot be bound.
+	 */
+	public NioServer() throws IOException {
+		this(0, null);
+	}
+
+	/**
+	 * Starts a server with a single event loop, using {@code 127.0.0.1} as
+	 * host registered.
+	 *
+	 * @param port
+	 *            the port, or {@code 0} for an ephemeral port.
+	 * @param catalog
+	 *            the catalog exports are registered with, or {@code null}.
+	 * @throws IOException
+	 *             if the port cannot be bound.
+	 */
+	public NioServer(int port, ServiceCatalog catalog) throws IOException {
+		this("127.0.0.1", port, catalog, 1);
+	}
+
+	/**
+	 * Starts a server, invoking the calls on a cached daemon thread pool.
+	 *
+	 * @param host
+	 *            the host registered with the catalog, not {@code null}.
+	 * @param port
+	 *            the port, or {@code 0} for an ephemeral port.
+	 * @param catalog
+	 *            the catalog exports are registered with, or {@code null}.
+	 * @param ioThreads
+	 *            the number of event loops.
+	 * @throws IOException
+	 *             if the port cannot be bound.
+	 */
+	public NioServer(String host, int port, ServiceCatalog catalog,
+			int ioThreads) throws IOException {
+		this(host, port, catalog, ioThreads, null, true);
+	}
+
+	/**
+	 * Starts a server.
+	 *
+	 * @param host
+	 *            the host registered with the catalog, not {@code null}.
+	 * @param port
+	 *            the port, or {@code 0} for an ephemeral port.
+	 * @param catalog
+	 *            the catalog exports are registered with, or {@code null}.
+	 * @param ioThreads
+	 *            the number of event loops.
+	 * @param workers
+	 *            the executor invoking the calls, or {@code null} for invoking
+	 *            them directly on the event loops, which requires all
+	 *            services exported to never block.
+	 * @throws IOException
+	 *             if the port cannot be bound.
+	 */
+	public NioServer(String host, int port, ServiceCatalog catalog,
+			int ioThreads, Executor workers) throws IOException {
+		this(host, port, catalog, ioThreads, workers, false);
+	}
+
+	private NioServer(String host, int port, ServiceCatalog catalog,
+			int ioThreads, Executor workers, boolean defaultWorkers)
+			throws IOException {
+		if (ioThreads <= 0) {
+			throw new IllegalArgumentException("ioThreads must be positive.");
+		}
+		this.host = Objects.requireNonNull(host);
+		this.catalog = catalog;
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		this.port = serverChannel.socket().getLocalPort();
+		this.ownedWorkers = !defaultWorkers ? null : Executors
+				.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "NioServer-" + NioServer.this.port
+							+ "-worker-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		this.workers = defaultWorkers ? ownedWorkers : workers;
+		this.loops = new EventLoop[ioThreads];
+		for (int i = 0; i < ioThreads; i++) {
+			loops[i] = new EventLoop("NioServer-" + this.port + "-io-" + i);
+		}
+		loops[0].execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					serverChannel.register(loops[0].selector(),
+							SelectionKey.OP_ACCEPT, new Acceptor());
+				} catch (IOException e) {
+					LOG.error("Failed to accept connections on port: "
+							+ NioServer.this.port, e);
+				}
+			}
+		});
+		LOG.info("NIO Server succesfully started at port: " + this.port);
+	}
+
+	/**
+	 * Exports the given object and registers it with the catalog, if set. An
+	 * object already exported with the same name is replaced.
+	 *
+	 * @param name
+	 *            the name, used as service location.
+	 * @param impl
+	 *            the object, not {@code null}.
+	 * @param interfaces
+	 *            the interfaces exported, by default all interfaces of the
+	 *            object.
+	 * @return the service registered.
+	 */
+	public Service export(String name, Object impl, Class<?>... interfaces) {
+		Objects.requireNonNull(name);
+		Map<String, Class<?>> types = new LinkedHashMap<>();
+		if (interfaces.length == 0) {
+			for (Class<?> type = impl.getClass(); type != null; type = type
+					.getSuperclass()) {
+				for (Class<?> iface : type.getInterfaces()) {
+					types.put(iface.getName(), iface);
+				}
+			}
+		} else {
+			for (Class<?> iface : interfaces) {
+				if (!iface.isInstance(impl)) {
+					throw new IllegalArgumentException(impl
+							+ " does not implement " + iface.getName());
+				}
+				types.put(iface.getName(), iface);
+			}
+		}
+		Service service = new Service.Builder().setProtocol(PROTOCOL)
+				.setHost(host).setPort(port).setLocation(name)
+				.setInterfaces(types.keySet().toArray(new String[types.size()]))
+				.build();
+		Export previous = exports.put(name, new Export(impl, types, service));
+		if (previous != null && catalog != null) {
+			catalog.unregisterService(previous.service);
+		}
+		if (catalog != null) {
+			catalog.registerService(service, impl);
+		}
+		LOG.debug("Exported " + service + ".");
+		return service;
+	}
+
+	/**
+	 * Unexports the object with the given name and unregisters it from the
+	 * catalog.
+	 *
+	 * @param name
+	 *            the name.
+	 * @return true, if an object was exported with this name.
+	 */
+	public boolean unexport(String name) {
+		Export export = exports.remove(name);
+		if (export == null) {
+			return false;
+		}
+		if (catalog != null) {
+			catalog.unregisterService(export.service);
+		}
+		return true;
+	}
+
+	private void handleRequest(final Connection connection, ByteBuffer frame)
+			throws IOException {
+		final long id = frame.getLong();
+		String location = NioCodec.readString(frame);
+		String interfaceName = NioCodec.readString(frame);
+		int methodIndex = NioCodec.readVarint(frame);
+		final Export export = exports.get(location);
+		Class<?> type = export == null ? null : export.types.get(interfaceName);
+		if (type == null) {
+			respond(connection, id, NioCodec.STATUS_FAILED,
+					new IllegalStateException("No such service: " + location
+							+ '/' + interfaceName));
+			return;
+		}
+		Method[] methods = NioCodec.methods(type);
+		if (methodIndex < 0 || methodIndex >= methods.length) {
+			respond(connection, id, NioCodec.STATUS_FAILED,
+					new IllegalStateException("No such method: "
+							+ interfaceName + '#' + methodIndex));
+			return;
+		}
+		final Method method = methods[methodIndex];
+		int argCount = NioCodec.readVarint(frame);
+		if (argCount != method.getParameterTypes().length) {
+			respond(connection, id, NioCodec.STATUS_FAILED,
+					new IllegalStateException("Invalid argument count: "
+							+ interfaceName + '#' + methodIndex + ", "
+							+ argCount));
+			return;
+		}
+		ClassLoader classLoader = type.getClassLoader();
+		final Object[] args = new Object[argCount];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = NioCodec.readValue(frame, classLoader);
+		}
+		if (workers == null) {
+			invoke(connection, id, export.impl, method, args);
+			return;
+		}
+		try {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					invoke(connection, id, export.impl, method, args);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			respond(connection, id, NioCodec.STATUS_FAILED,
+					new IllegalStateException("Server closed."));
+		}
+	}
+
+	private void invoke(Connection connection, long id, Object impl,
+			Method method, Object[] args) {
+		Object result;
+		byte status = NioCodec.STATUS_OK;
+		try {
+			result = method.invoke(impl, args);
+		} catch (InvocationTargetException e) {
+			result = e.getCause();
+			status = NioCodec.STATUS_FAILED;
+		} catch (IllegalAccessException | IllegalArgumentException e) {
+			result = e;
+			status = NioCodec.STATUS_FAILED;
+		}
+		respond(connection, id, status, result);
+	}
+
+	private void respond(Connection connection, final long id,
+			final byte status, final Object result) {
+		try {
+			ByteBuffer response;
+			try {
+				response = NioCodec.encodeFrame(pool, new NioCodec.FrameWriter() {
+					@Override
+					public void write(ByteBuffer buffer) throws IOException {
+						buffer.putLong(id);
+						buffer.put(status);
+						NioCodec.writeValue(buffer, result);
+					}
+				});
+			} catch (IOException e) {
+				LOG.debug("Failed to encode result of request " + id + '.', e);
+				final String message = "Result not serializable: " + e;
+				response = NioCodec.encodeFrame(pool, new NioCodec.FrameWriter() {
+					@Override
+					public void write(ByteBuffer buffer) throws IOException {
+						buffer.putLong(id);
+						buffer.put(NioCodec.STATUS_FAILED);
+						NioCodec.writeValue(buffer, new IllegalStateException(
+								message));
+					}
+				});
+			}
+			connection.send(response);
+		} catch (IOException e) {
+			LOG.debug("Failed to send response " + id + '.', e);
+		}
+	}
+
+	/**
+	 * Unregisters all exports, closes all connections and stops the server.
+	 */
+	@Override
+	public void close() {
+		for (String name : new ArrayList<>(exports.keySet())) {
+			unexport(name);
+		}
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			LOG.debug("Failed to close server channel.", e);
+		}
+		List<Connection> open = new ArrayList<>(connections.keySet());
+		for (Connection connection : open) {
+			connection.close();
+		}
+		for (EventLoop loop : loops) {
+			loop.close();
+		}
+		if (ownedWorkers != null) {
+			ownedWorkers.shutdown();
+		}
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "NioServer [port=" + port + ", exports=" + exports.keySet()
+				+ ", connections=" + connections.size() + "]";
+	}
+
+	/**
+	 * Accepts new connections, distributing them over the loops.
+	 */
+	private final class Acceptor implements EventLoop.Handler {
+		@Override
+		public void ready(SelectionKey key) {
+			try {
+				for (SocketChannel channel; (channel = serverChannel.accept()) != null;) {
+					EventLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE)
+							% loops.length];
+					Connection connection = new Connection(channel, loop, pool,
+							requestHandler);
+					connections.put(connection, Boolean.TRUE);
+					connection.start();
+				}
+			} catch (IOException e) {
+				LOG.error("Failed to accept connection.", e);
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				LOG.debug("Failed to close server channel.", e);
+			}
+		}
+	}
+
+	/**
+	 * An exported object.
+	 */
+	private static final class Export {
+		final Object impl;
+		final Map<String, Class<?>> types;
+		final Service service;
+
+		Export(Object impl, Map<String, Class<?>> types, Service service) {
+			this.impl = impl;
+			this.types = types;
+			this.service = service;
+		}
+	}
+
+}
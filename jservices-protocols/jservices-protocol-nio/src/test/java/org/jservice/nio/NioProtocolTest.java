@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2013, Anatole Tresch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Contributors: Anatole Tresch - initial implementation.
+ */
+package org.jservice.nio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceFuture;
+import org.jservice.catalog.ServiceResolutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Round trip tests for {@link NioServer} and {@link NioClient}.
+ *
+ * @author Anatole Tresch
+ */
+public class NioProtocolTest {
+
+	public static interface Calculator {
+		int add(int a, int b);
+
+		String echo(String s);
+
+		byte[] bytes(int length);
+
+		List<String> copy(List<String> values);
+
+		void fail() throws IOException;
+	}
+
+	private static final class CalculatorImpl implements Calculator {
+		@Override
+		public int add(int a, int b) {
+			return a + b;
+		}
+
+		@Override
+		public String echo(String s) {
+			return s;
+		}
+
+		@Override
+		public byte[] bytes(int length) {
+			byte[] bytes = new byte[length];
+			Arrays.fill(bytes, (byte) 7);
+			return bytes;
+		}
+
+		@Override
+		public List<String> copy(List<String> values) {
+			return new ArrayList<>(values);
+		}
+
+		@Override
+		public void fail() throws IOException {
+			throw new IOException("failed");
+		}
+	}
+
+	private NioServer server;
+	private NioClient client;
+	private Service service;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new NioServer();
+		service = server.export("calculator", new CalculatorImpl());
+		client = new NioClient(2, 10000L);
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		server.close();
+	}
+
+	@Test
+	public void testCalls() throws IOException {
+		assertEquals(NioServer.PROTOCOL, service.getProtocol());
+		assertEquals(server.getPort(), service.getPort());
+		Calculator calculator = client.resolve(service, Calculator.class);
+		assertEquals(5, calculator.add(2, 3));
+		assertEquals("h\u00e9llo", calculator.echo("h\u00e9llo"));
+		assertNull(calculator.echo(null));
+		assertEquals(Arrays.asList("a", "b"),
+				calculator.copy(Arrays.asList("a", "b")));
+		byte[] expected = new byte[200000];
+		Arrays.fill(expected, (byte) 7);
+		assertArrayEquals(expected, calculator.bytes(expected.length));
+		try {
+			calculator.fail();
+			fail("IOException expected.");
+		} catch (IOException e) {
+			assertEquals("failed", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testPipelinedCalls() throws Exception {
+		Method add = Calculator.class.getMethod("add", int.class, int.class);
+		List<ServiceFuture<Object>> futures = new ArrayList<>();
+		for (int i = 0; i < 10000; i++) {
+			futures.add(client.call(service, Calculator.class, add,
+					new Object[] { i, 1 }));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			assertEquals(i + 1, futures.get(i).get(10, TimeUnit.SECONDS));
+		}
+	}
+
+	private static ByteBuffer request(long id, int methodIndex, int argCount) {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		buffer.putInt(0);
+		buffer.putLong(id);
+		NioCodec.writeString(buffer, "calculator");
+		NioCodec.writeString(buffer, Calculator.class.getName());
+		NioCodec.writeVarint(buffer, methodIndex);
+		NioCodec.writeVarint(buffer, argCount);
+		buffer.putInt(0, buffer.position() - 4);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void write(Socket socket, ByteBuffer frame)
+			throws IOException {
+		socket.getOutputStream().write(frame.array(), 0, frame.limit());
+	}
+
+	private static void assertFailed(Socket socket, long id)
+			throws IOException {
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		byte[] response = new byte[in.readInt()];
+		in.readFully(response);
+		ByteBuffer frame = ByteBuffer.wrap(response);
+		assertEquals(id, frame.getLong());
+		assertEquals(NioCodec.STATUS_FAILED, frame.get());
+	}
+
+	@Test
+	public void testMalformedRequestsAreRejected() throws IOException {
+		try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+			socket.setSoTimeout(5000);
+			write(socket, request(1L, -1, 2));
+			assertFailed(socket, 1L);
+			write(socket, request(2L, Integer.MAX_VALUE, 2));
+			assertFailed(socket, 2L);
+			write(socket, request(3L, 0, 1000000));
+			assertFailed(socket, 3L);
+			// a frame truncated before the location closes the connection
+			ByteBuffer truncated = ByteBuffer.allocate(12);
+			truncated.putInt(8).putLong(4L).flip();
+			write(socket, truncated);
+			assertEquals(-1, socket.getInputStream().read());
+		}
+		Calculator calculator = client.resolve(service, Calculator.class);
+		assertEquals(5, calculator.add(2, 3));
+	}
+
+	@Test
+	public void testLargeFrames() throws IOException {
+		Calculator calculator = client.resolve(service, Calculator.class);
+		// frames of several times the buffer size, in both directions
+		char[] chars = new char[20 * BufferPool.DEFAULT_BUFFER_SIZE + 3];
+		Arrays.fill(chars, 'x');
+		String large = new String(chars);
+		assertEquals(large, calculator.echo(large));
+		byte[] expected = new byte[5000000];
+		Arrays.fill(expected, (byte) 7);
+		assertArrayEquals(expected, calculator.bytes(expected.length));
+	}
+
+	@Test
+	public void testAnnouncedFramesAreNotAllocatedInAdvance()
+			throws IOException {
+		List<Socket> sockets = new ArrayList<>();
+		try {
+			// would claim several GB, if allocated when the header arrives
+			for (int i = 0; i < 64; i++) {
+				Socket socket = new Socket("127.0.0.1", server.getPort());
+				sockets.add(socket);
+				ByteBuffer header = ByteBuffer.allocate(16);
+				header.putInt(NioCodec.MAX_FRAME_LENGTH).putLong(i).flip();
+				write(socket, header);
+			}
+			Calculator calculator = client.resolve(service, Calculator.class);
+			assertEquals(5, calculator.add(2, 3));
+		} finally {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+		}
+	}
+
+	@Test
+	public void testServerClosed() {
+		Calculator calculator = client.resolve(service, Calculator.class);
+		assertEquals(2, calculator.add(1, 1));
+		server.close();
+		try {
+			calculator.add(1, 1);
+			fail("ServiceResolutionException expected.");
+		} catch (ServiceResolutionException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+package org.jservice.runtime;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceResolutionException;
+import org.jservice.spi.ServiceResolverSpi;
+
+/**
+ * Resolves services of the {@code rmi} protocol into proxies calling their
+ * stubs, see {@link RmiStubCache}. The service's host and port are those of
+ * the RMI registry, its location is the name bound.
+ */
+public class RmiResolverSpi implements ServiceResolverSpi {
+
+	/** The protocol of the services resolved. */
+	public static final String PROTOCOL = "rmi";
+
+	private final RmiStubCache stubs = new RmiStubCache();
+
+	@Override
+	public boolean isResolvable(Service service) {
+		return PROTOCOL.equals(service.getProtocol());
+	}
+
+	@Override
+	public <T> T resolveService(Service service, Class<T> type)
+			throws ServiceResolutionException {
+		try {
+			if (!type.isInterface() || !type.isInstance(stubs.lookup(service))) {
+				throw new ServiceResolutionException(service);
+			}
+			return stubs.resolve(service, type);
+		} catch (RemoteException | NotBoundException e) {
+			throw new ServiceResolutionException(service, e);
+		}
+	}
+
+	/**
+	 * Access the stub cache, e.g. for registering it as watch with the
+	 * catalog, so the stubs of removed services are evicted.
+	 *
+	 * @return the stub cache, never {@code null}.
+	 */
+	public RmiStubCache getStubCache() {
+		return stubs;
+	}
+
+}
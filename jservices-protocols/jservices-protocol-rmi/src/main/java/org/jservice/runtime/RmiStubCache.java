@@ -0,0 +1,194 @@
+package org.jservice.runtime;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceEvent;
+import org.jservice.catalog.ServiceListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache used by {@code RmiResolverSpi}, holding the registry handles per
+ * {@code host:port} and the stubs per service location, so resolving a service
+ * does not perform a registry lookup each time.
+ * <p>
+ * The proxies returned by {@link #resolve(Service, Class)} always call the
+ * cached stub. If a call fails with a {@link RemoteException}, the stub is
+ * evicted. If the call has not reached the server, i.e. on a
+ * {@link ConnectException} or a {@link NoSuchObjectException} after a server
+ * restart, it is retried once with a stub looked up anew. Register the cache
+ * as {@link ServiceListener} with the catalog, so the stubs of removed
+ * services are evicted as well.
+ */
+public class RmiStubCache implements ServiceListener {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(RmiStubCache.class);
+
+	/** The registry handles, by host:port. */
+	private final ConcurrentHashMap<String, Registry> registries = new ConcurrentHashMap<>();
+	/** The stubs, by host:port/location. */
+	private final ConcurrentHashMap<String, Remote> stubs = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a proxy for the given service, calling the cached stub.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @param type
+	 *            the remote interface.
+	 * @return the proxy.
+	 * @throws RemoteException
+	 *             if the registry cannot be reached.
+	 * @throws NotBoundException
+	 *             if the service's location is not bound.
+	 */
+	public <T> T resolve(final Service service, Class<T> type)
+			throws RemoteException, NotBoundException {
+		lookup(service);
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getDeclaringClass() == Object.class) {
+							return invokeObjectMethod(proxy, service, method,
+									args);
+						}
+						try {
+							return call(service, method, args);
+						} catch (ConnectException | NoSuchObjectException e) {
+							LOG.debug("Retrying " + method.getName() + " on "
+									+ service + " with a new stub.", e);
+							return call(service, method, args);
+						}
+					}
+				}));
+	}
+
+	private Object call(Service service, Method method, Object[] args)
+			throws Throwable {
+		Remote stub;
+		try {
+			stub = lookup(service);
+		} catch (NotBoundException e) {
+			throw new RemoteException("Not bound: " + keyOf(service), e);
+		}
+		try {
+			return method.invoke(stub, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof RemoteException) {
+				stubs.remove(keyOf(service), stub);
+			}
+			throw e.getCause();
+		}
+	}
+
+	private static Object invokeObjectMethod(Object proxy, Service service,
+			Method method, Object[] args) {
+		switch (method.getName()) {
+		case "equals":
+			return proxy == args[0];
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		default:
+			return "RmiStub [" + keyOf(service) + "]";
+		}
+	}
+
+	/**
+	 * Access the stub of the given service, looking it up, if not cached.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 * @return the stub.
+	 * @throws RemoteException
+	 *             if the registry cannot be reached.
+	 * @throws NotBoundException
+	 *             if the service's location is not bound.
+	 */
+	public Remote lookup(Service service) throws RemoteException,
+			NotBoundException {
+		String key = keyOf(service);
+		Remote stub = stubs.get(key);
+		if (stub != null) {
+			return stub;
+		}
+		String address = service.getHost() + ':' + service.getPort();
+		Registry registry = registries.get(address);
+		if (registry == null) {
+			registry = LocateRegistry.getRegistry(service.getHost(),
+					service.getPort());
+			Registry existing = registries.putIfAbsent(address, registry);
+			if (existing != null) {
+				registry = existing;
+			}
+		}
+		try {
+			stub = registry.lookup(service.getLocation());
+		} catch (RemoteException e) {
+			registries.remove(address, registry);
+			throw e;
+		}
+		Remote existing = stubs.putIfAbsent(key, stub);
+		return existing != null ? existing : stub;
+	}
+
+	/**
+	 * Evicts the stub of the given service.
+	 *
+	 * @param service
+	 *            the service, not {@code null}.
+	 */
+	public void invalidate(Service service) {
+		stubs.remove(keyOf(service));
+	}
+
+	/**
+	 * Evicts the stubs of the services removed from the catalog.
+	 */
+	@Override
+	public void servicesChanged(ServiceEvent event) {
+		for (Service service : event.getRemoved()) {
+			invalidate(service);
+		}
+	}
+
+	/**
+	 * Access the number of stubs cached.
+	 *
+	 * @return the number of stubs.
+	 */
+	public int size() {
+		return stubs.size();
+	}
+
+	private static String keyOf(Service service) {
+		return service.getHost() + ':' + service.getPort() + '/'
+				+ service.getLocation();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RmiStubCache [registries=" + registries.size() + ", stubs="
+				+ stubs.size() + "]";
+	}
+
+}
@@ -0,0 +1,148 @@
+package org.jservice.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jservice.catalog.Service;
+import org.jservice.catalog.ServiceResolutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RmiStubCache} against a registry in the same JVM.
+ */
+public class RmiStubCacheTest {
+
+	private static final String NAME = "echo";
+
+	public static interface Echo extends Remote {
+		String echo(String s) throws RemoteException;
+	}
+
+	private static final class EchoImpl implements Echo {
+		private final String prefix;
+
+		EchoImpl(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public String echo(String s) throws RemoteException {
+			if ("fail".equals(s)) {
+				throw new RemoteException("failed");
+			}
+			return prefix + s;
+		}
+	}
+
+	private Registry registry;
+	private Service service;
+	private final RmiStubCache cache = new RmiStubCache();
+	private final List<Remote> exported = new ArrayList<>();
+
+	@Before
+	public void setUp() throws IOException {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		registry = LocateRegistry.createRegistry(port);
+		service = new Service.Builder().setProtocol(RmiResolverSpi.PROTOCOL)
+				.setHost("localhost").setPort(port).setLocation(NAME)
+				.setInterfaces(Echo.class.getName()).build();
+	}
+
+	@After
+	public void tearDown() throws NoSuchObjectException {
+		for (Remote impl : exported) {
+			try {
+				UnicastRemoteObject.unexportObject(impl, true);
+			} catch (NoSuchObjectException e) {
+				// unexported by the test
+			}
+		}
+		UnicastRemoteObject.unexportObject(registry, true);
+	}
+
+	private EchoImpl bind(String prefix) throws RemoteException {
+		EchoImpl impl = new EchoImpl(prefix);
+		exported.add(impl);
+		registry.rebind(NAME, UnicastRemoteObject.exportObject(impl, 0));
+		return impl;
+	}
+
+	@Test
+	public void testStubIsReused() throws Exception {
+		bind("a:");
+		Echo echo = cache.resolve(service, Echo.class);
+		Remote stub = cache.lookup(service);
+		registry.unbind(NAME);
+		// served without a registry lookup
+		assertEquals("a:x", echo.echo("x"));
+		assertEquals("a:y", cache.resolve(service, Echo.class).echo("y"));
+		assertSame(stub, cache.lookup(service));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testRemoteExceptionEvictsStub() throws Exception {
+		bind("a:");
+		Echo echo = cache.resolve(service, Echo.class);
+		assertEquals(1, cache.size());
+		try {
+			echo.echo("fail");
+			fail("no exception thrown");
+		} catch (RemoteException e) {
+			assertEquals(0, cache.size());
+		}
+		assertEquals("a:x", echo.echo("x"));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testCallIsRetriedOnceAfterUnexport() throws Exception {
+		EchoImpl first = bind("a:");
+		Echo echo = cache.resolve(service, Echo.class);
+		assertEquals("a:x", echo.echo("x"));
+		UnicastRemoteObject.unexportObject(first, true);
+		EchoImpl second = bind("b:");
+		assertEquals("b:x", echo.echo("x"));
+
+		// the stub bound is dead as well, so the retry fails too
+		UnicastRemoteObject.unexportObject(second, true);
+		try {
+			echo.echo("x");
+			fail("no exception thrown");
+		} catch (NoSuchObjectException e) {
+			assertEquals(0, cache.size());
+		}
+	}
+
+	@Test
+	public void testResolverRejectsOtherInterfaces() throws Exception {
+		bind("a:");
+		RmiResolverSpi resolver = new RmiResolverSpi();
+		assertEquals("a:x", resolver.resolveService(service, Echo.class)
+				.echo("x"));
+		try {
+			resolver.resolveService(service, Runnable.class);
+			fail("stub resolved as Runnable");
+		} catch (ServiceResolutionException e) {
+			assertSame(service, e.getService());
+		}
+	}
+
+}